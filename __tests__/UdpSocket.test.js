@@ -0,0 +1,99 @@
+import { Buffer } from 'buffer'
+import { DeviceEventEmitter, NativeModules } from 'react-native'
+import UdpSocket from '../src/UdpSocket'
+
+jest.mock('react-native', () => {
+  const { EventEmitter } = require('events')
+  const emitter = new EventEmitter()
+  return {
+    DeviceEventEmitter: {
+      /**
+       * @param {string} event
+       * @param {(...args: any[]) => void} listener
+       */
+      addListener(event, listener) {
+        emitter.addListener(event, listener)
+        return { remove: () => emitter.removeListener(event, listener) }
+      },
+      /**
+       * @param {string} event
+       * @param {any[]} args
+       */
+      emit(event, ...args) {
+        emitter.emit(event, ...args)
+      },
+    },
+    NativeModules: {
+      UdpSockets: {
+        // as under remote debugging, where synchronous native calls throw
+        installBinaryTransport: jest.fn(() => {
+          throw new Error('Calling synchronous methods on native modules is not supported in Chrome.')
+        }),
+        createSocket: jest.fn(),
+        bind: jest.fn((id, port, address, options, callback) => callback(null, { address, port })),
+        ackReceive: jest.fn(),
+      },
+    },
+    Platform: { OS: 'android' },
+  }
+})
+
+// defined by React Native, which these tests run without
+// @ts-ignore
+global.__DEV__ = false
+
+describe('UdpSocket', function () {
+  const Sockets = NativeModules.UdpSockets
+
+  beforeEach(function () {
+    jest.clearAllMocks()
+  })
+
+  it('should fall back to Base64 message events without the sync hook', function () {
+    // @ts-ignore
+    expect(global.nativeCallSyncHook).toBeUndefined()
+    const socket = new UdpSocket({ type: 'udp4' })
+    const onMessage = jest.fn()
+    socket.on('message', onMessage)
+    socket.bind(12345)
+
+    expect(Sockets.installBinaryTransport).not.toHaveBeenCalled()
+    const [id, , , options] = Sockets.bind.mock.calls[0]
+    expect(options.binary).toBe(false)
+
+    DeviceEventEmitter.emit(`udp-${id}-data`, [
+      { data: Buffer.from('hello').toString('base64'), address: '127.0.0.1', port: 5000, ts: 1 },
+    ])
+    expect(onMessage).toHaveBeenCalledTimes(1)
+    expect(onMessage.mock.calls[0][0].toString()).toBe('hello')
+    expect(onMessage.mock.calls[0][1]).toMatchObject({ address: '127.0.0.1', port: 5000, size: 5 })
+  })
+
+  it('should fall back to Base64 message events if installing the binding throws', function () {
+    const warn = jest.spyOn(console, 'warn').mockImplementation(() => {})
+    // @ts-ignore
+    global.nativeCallSyncHook = () => {}
+    try {
+      jest.isolateModules(() => {
+        // a registry of its own, so that the binding is not installed yet
+        const IsolatedSockets = require('react-native').NativeModules.UdpSockets
+        const IsolatedUdpSocket = require('../src/UdpSocket').default
+        expect(IsolatedSockets.installBinaryTransport).not.toHaveBeenCalled()
+
+        const socket = new IsolatedUdpSocket({ type: 'udp4' })
+        socket.bind(12345)
+        new IsolatedUdpSocket({ type: 'udp4' }).bind(12346)
+
+        // installed once, on the first bind
+        expect(IsolatedSockets.installBinaryTransport).toHaveBeenCalledTimes(1)
+        expect(IsolatedSockets.bind.mock.calls[0][3].binary).toBe(false)
+        expect(IsolatedSockets.bind.mock.calls[1][3].binary).toBe(false)
+        expect(warn).toHaveBeenCalledTimes(1)
+      })
+    } finally {
+      // @ts-ignore
+      delete global.nativeCallSyncHook
+      warn.mockRestore()
+    }
+  })
+})
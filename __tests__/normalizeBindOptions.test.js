@@ -28,6 +28,11 @@ describe('normalizeBindOptions', function () {
       [[{ port: 123 }, callback], { port: 123, callback }],
       [[{ port: 123 }], { port: 123 }],
       [[callback], { callback }],
+      [
+        [{ port: 123, recvBufferSize: 262144, sendBufferSize: 65536 }, callback],
+        { port: 123, recvBufferSize: 262144, sendBufferSize: 65536, callback },
+      ],
+      [[{ port: 123, receiveWorkers: 4 }], { port: 123, receiveWorkers: 4 }],
     ]
 
     for (const [args, expected] of inOut) {
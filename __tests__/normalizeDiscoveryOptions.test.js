@@ -0,0 +1,40 @@
+import normalizeDiscoveryOptions from '../src/normalizeDiscoveryOptions'
+
+describe('normalizeDiscoveryOptions', function () {
+  it('should default to the group of the protocol for the socket type', function () {
+    expect(normalizeDiscoveryOptions({ protocol: 'ssdp', browse: ['ssdp:all'] }, 'udp4')).toStrictEqual({
+      protocol: 'ssdp',
+      address: '239.255.255.250',
+      port: 1900,
+      services: [],
+      browse: ['ssdp:all'],
+    })
+    const mdns = normalizeDiscoveryOptions({ protocol: 'mdns' }, 'udp6')
+    expect(mdns.address).toBe('ff02::fb')
+    expect(mdns.port).toBe(5353)
+    expect(mdns.hostName).toMatch(/^android-[0-9a-f]+$/)
+  })
+
+  it('should turn TXT values into strings', function () {
+    const result = normalizeDiscoveryOptions(
+      {
+        protocol: 'mdns',
+        hostName: 'phone',
+        services: [
+          { name: 'Living Room', type: '_http._tcp', port: 8080, txt: { path: '/', v: 2, tls: true, debug: false } },
+        ],
+      },
+      'udp4'
+    )
+
+    expect(result.hostName).toBe('phone')
+    expect(result.services).toStrictEqual([
+      { name: 'Living Room', type: '_http._tcp', port: 8080, txt: { path: '/', v: '2', tls: null } },
+    ])
+  })
+
+  it('should reject unknown protocols', function () {
+    // @ts-ignore
+    expect(() => normalizeDiscoveryOptions({ protocol: 'llmnr' }, 'udp4')).toThrow()
+  })
+})
@@ -0,0 +1,34 @@
+import normalizeFilter from '../src/normalizeFilter'
+
+describe('normalizeFilter', function () {
+  it('should turn ports into ranges and encode matched bytes', function () {
+    const result = normalizeFilter({
+      rules: [
+        { action: 'drop', address: '10.0.0.0/8' },
+        { action: 'route', channel: 'discovery', port: 5353, bytes: [0xca, 0xfe], offset: 2 },
+        { action: 'accept', port: [1024, 2048], bytes: 'M-SEARCH', maxLength: 512 },
+      ],
+      defaultAction: 'drop',
+    })
+
+    expect(result).toStrictEqual({
+      rules: [
+        { action: 'drop', address: '10.0.0.0/8' },
+        { action: 'route', channel: 'discovery', minPort: 5353, maxPort: 5353, bytes: 'yv4=', offset: 2 },
+        { action: 'accept', minPort: 1024, maxPort: 2048, bytes: 'TS1TRUFSQ0g=', offset: 0, maxLength: 512 },
+      ],
+      defaultAction: 'drop',
+    })
+  })
+
+  it('should accept by default', function () {
+    expect(normalizeFilter({})).toStrictEqual({ rules: [], defaultAction: 'accept' })
+  })
+
+  it('should reject routes without a channel, or to a socket or listener event', function () {
+    expect(() => normalizeFilter({ rules: [{ action: 'route' }] })).toThrow()
+    expect(() => normalizeFilter({ rules: [{ action: 'route', channel: 'error' }] })).toThrow()
+    expect(() => normalizeFilter({ rules: [{ action: 'route', channel: 'newListener' }] })).toThrow()
+    expect(() => normalizeFilter({ rules: [{ action: 'route', channel: 'removeListener' }] })).toThrow()
+  })
+})
@@ -0,0 +1,43 @@
+package com.tradle.react.benchmark;
+
+import com.tradle.react.UdpBufferPool;
+import com.tradle.react.UdpCodec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * The Base64 encoding of the module, implemented with {@link Base64 java.util.Base64} so that it
+ * runs off-device.
+ */
+public final class JvmBase64Codec implements UdpCodec {
+    private static final ThreadLocal<byte[]> sEncodeBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[UdpBufferPool.MAX_DATAGRAM_SIZE];
+        }
+    };
+
+    @Override
+    public byte[] decode(String data) {
+        return Base64.getDecoder().decode(data);
+    }
+
+    @Override
+    public String encode(ByteBuffer data) {
+        if (data.hasArray()) {
+            return encode(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+
+        final byte[] scratch = sEncodeBuffer.get();
+        final int length = data.remaining();
+        data.get(scratch, 0, length);
+        return encode(scratch, 0, length);
+    }
+
+    public String encode(byte[] data, int offset, int length) {
+        final ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(data, offset, length));
+        return new String(encoded.array(), 0, encoded.limit(), StandardCharsets.US_ASCII);
+    }
+}
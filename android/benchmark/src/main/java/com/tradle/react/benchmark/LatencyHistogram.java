@@ -0,0 +1,65 @@
+package com.tradle.react.benchmark;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A log-linear histogram of latencies in nanoseconds, recorded without locking or allocating.
+ * Each power of two range is split into {@link #SUB_BUCKETS} buckets, so percentiles are accurate
+ * to about 6%.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+    void record(long nanos) {
+        mCounts.incrementAndGet(index(Math.max(nanos, 0)));
+    }
+
+    private static int index(long value) {
+        final int exponent = 63 - Long.numberOfLeadingZeros(value | SUB_BUCKETS);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the smallest value of the bucket at {@code index}.
+     */
+    private static long lowerBound(int index) {
+        final int shift = index / SUB_BUCKETS - 1;
+        final long subBucket = index % SUB_BUCKETS;
+        return shift < 0 ? subBucket : (SUB_BUCKETS | subBucket) << shift;
+    }
+
+    long count() {
+        long count = 0;
+        for (int i = 0; i < mCounts.length(); i++) {
+            count += mCounts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency in nanoseconds below which {@code percentile} percent of the recorded
+     * latencies fall, or 0 if none was recorded.
+     */
+    long percentile(double percentile) {
+        final long count = count();
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length(); i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return lowerBound(i);
+            }
+        }
+        return lowerBound(mCounts.length() - 1);
+    }
+}
@@ -0,0 +1,314 @@
+package com.tradle.react.benchmark;
+
+import com.tradle.react.UdpAddressCache;
+import com.tradle.react.UdpBufferPool;
+import com.tradle.react.UdpCompletionSink;
+import com.tradle.react.UdpEventSink;
+import com.tradle.react.UdpSelectorTask;
+import com.tradle.react.UdpSocketClient;
+import com.tradle.react.UdpWorkerPool;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the socket layer over loopback, without a device: {@link UdpSocketClient}s send to
+ * each other on 127.0.0.1, through the same calls the React Native module makes, with Base64
+ * data. For every engine, socket count and payload size, reports the received
+ * packets/s, the loss, the p50/p99 latency from send call to receipt, and the allocation rate of
+ * the socket layer. Sockets share a worker pool like in the module, or with {@code --workers own}
+ * start their own threads; {@code --workers virtual} runs the pool on virtual threads, on Java 21.
+ *
+ * Each sending socket keeps at most {@link #WINDOW} datagrams in flight, so that the measure is
+ * of the sustained throughput, rather than of the kernel dropping a flood. Like JMH, every run
+ * starts with a warmup period whose results are discarded.
+ *
+ * <pre>
+ * gradle -p android/benchmark run --args="--engines thread,nio --sockets 1,8 --sizes 64,1400"
+ * </pre>
+ */
+public final class UdpBenchmark {
+    private static final int WINDOW = 256;
+    private static final long STALL_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final String HOST = "127.0.0.1";
+
+    private final String mEngine;
+    private final int mSockets;
+    private final int mSize;
+    private final boolean mEncode;
+    private final String mWorkers;
+    private final JvmBase64Codec mCodec = new JvmBase64Codec();
+
+    private final AtomicLongArray mReceived;
+    private final AtomicLong mSent = new AtomicLong();
+    private final AtomicLong mSendErrors = new AtomicLong();
+    private volatile LatencyHistogram mLatencies = new LatencyHistogram();
+    private volatile boolean mIsRunning = true;
+
+    private UdpBenchmark(String engine, int sockets, int size, boolean encode, String workers) {
+        this.mEngine = engine;
+        this.mSockets = sockets;
+        this.mSize = size;
+        this.mEncode = encode;
+        this.mWorkers = workers;
+        this.mReceived = new AtomicLongArray(sockets);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = parseOptions(args);
+        final String[] engines = options.get("engines").split(",");
+        final int[] sockets = parseInts(options.get("sockets"));
+        final int[] sizes = parseInts(options.get("sizes"));
+        final long warmupMs = TimeUnit.SECONDS.toMillis(Long.parseLong(options.get("warmup")));
+        final long durationMs = TimeUnit.SECONDS.toMillis(Long.parseLong(options.get("duration")));
+        final boolean encode = Boolean.parseBoolean(options.get("encode"));
+        final String workers = options.get("workers");
+
+        System.out.println(String.format(Locale.US, "%-7s %7s %7s %12s %9s %7s %9s %9s %11s %10s",
+                "engine", "sockets", "payload", "packets/s", "MB/s", "loss%", "p50(us)", "p99(us)",
+                "alloc(MB/s)", "alloc(B/p)"));
+        for (String engine : engines) {
+            for (int count : sockets) {
+                for (int size : sizes) {
+                    new UdpBenchmark(engine, count, size, encode, workers).run(warmupMs, durationMs);
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        options.put("engines", "thread,nio");
+        options.put("sockets", "1,4,16");
+        options.put("sizes", "64,512,1400,8192");
+        options.put("warmup", "2");
+        options.put("duration", "5");
+        // like the module, which Base64 encodes every received datagram for the bridge
+        options.put("encode", "true");
+        // shared, own or virtual
+        options.put("workers", "shared");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--") || !options.containsKey(args[i].substring(2))) {
+                throw new IllegalArgumentException("Unknown option " + args[i] + ", expected one of " + options.keySet());
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static int[] parseInts(String list) {
+        final String[] values = list.split(",");
+        final int[] ints = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ints[i] = Integer.parseInt(values[i].trim());
+        }
+        return ints;
+    }
+
+    private void run(long warmupMs, long durationMs) throws Exception {
+        final UdpBufferPool bufferPool = new UdpBufferPool();
+        final UdpAddressCache addressCache = new UdpAddressCache();
+        final UdpSelectorTask selectorTask = "nio".equals(mEngine) ? new UdpSelectorTask(bufferPool) : null;
+        final UdpWorkerPool workerPool = "own".equals(mWorkers) ? null : new UdpWorkerPool("virtual".equals(mWorkers));
+        final List<UdpSocketClient> receivers = new ArrayList<>();
+        final List<UdpSocketClient> senders = new ArrayList<>();
+        final List<Thread> drivers = new ArrayList<>();
+
+        final UdpEventSink eventSink = new UdpEventSink() {
+            @Override
+            public void didReceiveData(UdpSocketClient client, ByteBuffer data, String host, int port, String channel) {
+                final long sentNanos = data.getLong(data.position());
+                if (mEncode) {
+                    mCodec.encode(data);
+                }
+                bufferPool.release(data);
+                mLatencies.record(System.nanoTime() - sentNanos);
+                mReceived.incrementAndGet(client.getId());
+            }
+
+            @Override
+            public void didReceiveError(UdpSocketClient client, String message) {
+                if (mIsRunning) {
+                    System.err.println("receive error: " + message);
+                }
+            }
+
+            @Override
+            public void didReceiveException(RuntimeException exception) {
+                exception.printStackTrace();
+            }
+        };
+
+        try {
+            for (int i = 0; i < mSockets; i++) {
+                final UdpSocketClient receiver = new UdpSocketClient(i, mCodec, eventSink, bufferPool, addressCache, selectorTask,
+                        workerPool);
+                receiver.setReceiveBufferSize(1 << 20);
+                receiver.bind(0, HOST);
+                receivers.add(receiver);
+
+                final UdpSocketClient sender = new UdpSocketClient(i, mCodec, eventSink, bufferPool, addressCache, selectorTask,
+                        workerPool);
+                sender.bind(0, HOST);
+                senders.add(sender);
+            }
+
+            final long[] driverAllocated = new long[mSockets];
+            for (int i = 0; i < mSockets; i++) {
+                final int index = i;
+                final Thread driver = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        drive(index, senders.get(index), receivers.get(index).getLocalPort(), driverAllocated);
+                    }
+                }, "UdpBenchmark-driver-" + i);
+                drivers.add(driver);
+                driver.start();
+            }
+
+            Thread.sleep(warmupMs);
+
+            final Map<Long, Long> allocatedBefore = allocatedBytes();
+            final long[] driverBefore = driverAllocated.clone();
+            final long receivedBefore = sum(mReceived);
+            final long sentBefore = mSent.get();
+            mLatencies = new LatencyHistogram();
+            final long start = System.nanoTime();
+
+            Thread.sleep(durationMs);
+
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            final long received = sum(mReceived) - receivedBefore;
+            final long sent = mSent.get() - sentBefore;
+            final LatencyHistogram latencies = mLatencies;
+            long allocated = 0;
+            for (Map.Entry<Long, Long> entry : allocatedBytes().entrySet()) {
+                final Long before = allocatedBefore.get(entry.getKey());
+                allocated += entry.getValue() - (before != null ? before : 0);
+            }
+            for (int i = 0; i < mSockets; i++) {
+                // the payloads built by the drivers stand for the javascript layer, not the socket layer
+                allocated -= driverAllocated[i] - driverBefore[i];
+            }
+
+            System.out.println(String.format(Locale.US, "%-7s %7d %7d %12.0f %9.1f %7.2f %9.1f %9.1f %11.1f %10.0f",
+                    mEngine, mSockets, mSize,
+                    received / seconds,
+                    received * (double) mSize / seconds / (1 << 20),
+                    sent > 0 ? Math.max(0, 100.0 * (sent - received) / sent) : 0,
+                    latencies.percentile(50) / 1e3,
+                    latencies.percentile(99) / 1e3,
+                    allocated / seconds / (1 << 20),
+                    received > 0 ? allocated / (double) received : 0));
+            if (mSendErrors.get() > 0) {
+                System.err.println(mSendErrors.get() + " send errors");
+            }
+        } finally {
+            mIsRunning = false;
+            for (Thread driver : drivers) {
+                driver.join();
+            }
+            for (UdpSocketClient client : senders) {
+                client.close();
+            }
+            for (UdpSocketClient client : receivers) {
+                client.close();
+            }
+            if (selectorTask != null) {
+                selectorTask.terminate();
+            }
+            if (workerPool != null) {
+                workerPool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Sends from one socket to its peer as fast as the window allows, the way the module does:
+     * Base64 payloads, with a completion sink.
+     */
+    private void drive(int index, UdpSocketClient sender, int port, long[] allocated) {
+        final UdpCompletionSink completion = new UdpCompletionSink() {
+            @Override
+            public void onSuccess() {
+            }
+
+            @Override
+            public void onError(String code, String message) {
+                mSendErrors.incrementAndGet();
+            }
+        };
+        final ByteBuffer payload = ByteBuffer.allocate(Math.max(mSize, 8));
+        final long threadId = Thread.currentThread().getId();
+
+        long sent = 0;
+        long lost = 0;
+        long stalledSince = 0;
+        while (mIsRunning) {
+            allocated[index] = threadAllocatedBytes(threadId);
+            final long inFlight = sent - lost - mReceived.get(index);
+            if (inFlight >= WINDOW) {
+                final long now = System.nanoTime();
+                if (stalledSince == 0) {
+                    stalledSince = now;
+                } else if (now - stalledSince > STALL_NANOS) {
+                    // whatever did not arrive by now was dropped
+                    lost += inFlight;
+                    stalledSince = 0;
+                }
+                LockSupport.parkNanos(10000);
+                continue;
+            }
+            stalledSince = 0;
+
+            payload.putLong(0, System.nanoTime());
+            try {
+                sender.send(mCodec.encode(payload.array(), 0, mSize), port, HOST, completion);
+                sent++;
+                mSent.incrementAndGet();
+            } catch (Exception e) {
+                mSendErrors.incrementAndGet();
+            }
+        }
+    }
+
+    private static long sum(AtomicLongArray counts) {
+        long sum = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            sum += counts.get(i);
+        }
+        return sum;
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        return (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    private static long threadAllocatedBytes(long threadId) {
+        return threads().getThreadAllocatedBytes(threadId);
+    }
+
+    /**
+     * @return the bytes allocated so far by each live thread, by thread ID.
+     */
+    private static Map<Long, Long> allocatedBytes() {
+        final long[] ids = threads().getAllThreadIds();
+        final long[] bytes = threads().getThreadAllocatedBytes(ids);
+        final Map<Long, Long> allocated = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) {
+                allocated.put(ids[i], bytes[i]);
+            }
+        }
+        return allocated;
+    }
+}
@@ -0,0 +1,25 @@
+package com.facebook.common.logging;
+
+/**
+ * JVM stand-in for the Fresco logger, printing to the standard error.
+ */
+public final class FLog {
+    private FLog() {
+    }
+
+    public static void e(String tag, String msg) {
+        System.err.println("E/" + tag + ": " + msg);
+    }
+
+    public static void e(String tag, String msg, Throwable tr) {
+        System.err.println("E/" + tag + ": " + msg + ": " + tr);
+    }
+
+    public static void w(String tag, String msg) {
+        System.err.println("W/" + tag + ": " + msg);
+    }
+
+    public static void w(String tag, String msg, Throwable tr) {
+        System.err.println("W/" + tag + ": " + msg + ": " + tr);
+    }
+}
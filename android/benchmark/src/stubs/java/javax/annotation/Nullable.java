@@ -0,0 +1,7 @@
+package javax.annotation;
+
+/**
+ * JVM stand-in for the JSR-305 annotation.
+ */
+public @interface Nullable {
+}
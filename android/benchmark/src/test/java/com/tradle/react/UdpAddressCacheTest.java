@@ -0,0 +1,96 @@
+package com.tradle.react;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UdpAddressCacheTest {
+    private static final String UNKNOWN_HOST = "unknown-host.invalid";
+
+    @Test
+    public void parsesIpLiteralsWithoutCachingThem() throws UnknownHostException {
+        final UdpAddressCache cache = new UdpAddressCache();
+
+        final InetSocketAddress address = cache.resolve("192.168.1.20", 1234);
+        assertArrayEquals(new byte[]{(byte) 192, (byte) 168, 1, 20}, address.getAddress().getAddress());
+        assertEquals(1234, address.getPort());
+        assertEquals(InetAddress.getByName("::1"), cache.resolve("::1", 1234).getAddress());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void tellsLiteralsFromHostNames() throws UnknownHostException {
+        assertNotNull(UdpAddressCache.parseLiteral("0.0.0.0"));
+        assertNotNull(UdpAddressCache.parseLiteral("255.255.255.255"));
+        assertNull(UdpAddressCache.parseLiteral("256.0.0.1"));
+        assertNull(UdpAddressCache.parseLiteral("1.2.3"));
+        assertNull(UdpAddressCache.parseLiteral("1.2.3.4."));
+        assertNull(UdpAddressCache.parseLiteral("1..3.4"));
+        assertNull(UdpAddressCache.parseLiteral("1.2.3.4444"));
+        assertNull(UdpAddressCache.parseLiteral("localhost"));
+        assertNull(UdpAddressCache.parseLiteral("1.2.3.com"));
+    }
+
+    @Test
+    public void cachesHostsByHostAndPort() throws UnknownHostException {
+        final UdpAddressCache cache = new UdpAddressCache();
+
+        final InetSocketAddress address = cache.resolve("localhost", 1234);
+        assertTrue(address.getAddress().isLoopbackAddress());
+        assertSame(address, cache.resolve("localhost", 1234));
+        assertEquals(5678, cache.resolve("localhost", 5678).getPort());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void cachesResolutionFailures() {
+        final UdpAddressCache cache = new UdpAddressCache();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.resolve(UNKNOWN_HOST, 1234);
+                fail("the host should not resolve");
+            } catch (UnknownHostException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(UNKNOWN_HOST));
+            }
+        }
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void expiresDestinations() throws Exception {
+        final UdpAddressCache cache = new UdpAddressCache(8, 20, 20);
+
+        final InetSocketAddress address = cache.resolve("localhost", 1234);
+        UdpPolling.await("an expired destination is resolved again", new UdpPolling.Condition() {
+            @Override
+            public boolean isMet() throws Exception {
+                return address != cache.resolve("localhost", 1234);
+            }
+        });
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedDestination() throws UnknownHostException {
+        final UdpAddressCache cache = new UdpAddressCache(2, UdpAddressCache.DEFAULT_TTL_MS,
+                UdpAddressCache.DEFAULT_NEGATIVE_TTL_MS);
+
+        final InetSocketAddress first = cache.resolve("localhost", 1);
+        cache.resolve("localhost", 2);
+        assertSame(first, cache.resolve("localhost", 1));
+        cache.resolve("localhost", 3);
+
+        assertEquals(2, cache.size());
+        assertSame("recently used", first, cache.resolve("localhost", 1));
+    }
+}
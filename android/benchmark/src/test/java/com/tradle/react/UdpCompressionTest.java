@@ -0,0 +1,129 @@
+package com.tradle.react;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UdpCompressionTest extends UdpLoopbackTest {
+    private static final byte[] DICTIONARY =
+            "{\"deviceId\":\"\",\"timestamp\":,\"battery\":,\"signal\":,\"location\":{\"lat\":,\"lon\":}}"
+                    .getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void aDictionaryShrinksSmallDatagrams() throws Exception {
+        final byte[] data = telemetry(7);
+        final byte[] plain = new UdpCompression(-1, null).compress(data);
+        final UdpCompression compression = new UdpCompression(-1, DICTIONARY);
+        final byte[] compressed = compression.compress(data);
+
+        assertTrue(compressed.length + " bytes with the dictionary, " + plain.length + " without",
+                compressed.length < plain.length);
+        assertArrayEquals(data, decompress(compression, compressed, UdpBufferPool.MAX_DATAGRAM_SIZE));
+    }
+
+    @Test
+    public void storesDataThatDoesNotCompress() throws Exception {
+        final byte[] data = new byte[512];
+        new Random(1).nextBytes(data);
+        final UdpCompression compression = new UdpCompression(9, null);
+        final byte[] compressed = compression.compress(data);
+
+        assertEquals(data.length + 1, compressed.length);
+        assertArrayEquals(data, decompress(compression, compressed, UdpBufferPool.MAX_DATAGRAM_SIZE));
+        assertArrayEquals(new byte[0], decompress(compression, compression.compress(new byte[0]), 16));
+    }
+
+    @Test
+    public void rejectsDatagramsItCannotDecompress() throws Exception {
+        final byte[] data = telemetry(1);
+        final byte[] compressed = new UdpCompression(-1, DICTIONARY).compress(data);
+
+        expectDataFormatException(new UdpCompression(-1, null), compressed, UdpBufferPool.MAX_DATAGRAM_SIZE);
+        expectDataFormatException(new UdpCompression(-1, DICTIONARY), compressed, data.length - 1);
+        expectDataFormatException(new UdpCompression(-1, DICTIONARY), new byte[] { 7, 1, 2 }, 16);
+        // a datagram of exactly the largest size still fits
+        assertArrayEquals(data, decompress(new UdpCompression(-1, DICTIONARY), compressed, data.length));
+    }
+
+    @Test
+    public void compressesTheDatagramsOfTheThreadEngine() throws Exception {
+        exchange(threadEngine());
+    }
+
+    @Test
+    public void compressesTheDatagramsOfTheNioEngine() throws Exception {
+        exchange(nioEngine());
+    }
+
+    private void exchange(UdpLoopback loopback) throws Exception {
+        final UdpSocketClient sender = bind(loopback, 0);
+        final UdpSocketClient receiver = bind(loopback, 1);
+        final List<UdpSenderTask.Packet> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            batch.add(new UdpSenderTask.Packet(telemetry(i), receiver.getLocalPort(), HOST));
+        }
+
+        sender.send(loopback.encode(telemetry(-1)), receiver.getLocalPort(), HOST, null);
+        sender.sendBatch(batch, null);
+        assertArrayEquals(telemetry(-1), loopback.receive().data);
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(telemetry(i), loopback.receive().data);
+        }
+
+        // a datagram from a socket that does not compress is dropped
+        final UdpSocketClient stranger = loopback.bind(2);
+        stranger.send(loopback.encode(new byte[] { 9, 9, 9 }), receiver.getLocalPort(), HOST, null);
+        UdpPolling.await("the datagram was not dropped", new UdpPolling.Condition() {
+            @Override
+            public boolean isMet() {
+                return receiver.getStats().getDecompressionErrors() > 0;
+            }
+        });
+
+        assertEquals(1, receiver.getStats().getDecompressionErrors());
+        assertTrue(loopback.isEmpty());
+        assertTrue(sender.getStats().getSendCompressionRatio() > 1);
+        assertTrue(receiver.getStats().getReceiveCompressionRatio() > 1);
+        // every byte sent arrived, so both ends see the same ratio
+        assertTrue(Math.abs(sender.getStats().getSendCompressionRatio()
+                - receiver.getStats().getReceiveCompressionRatio()) < 1e-9);
+    }
+
+    private static UdpSocketClient bind(UdpLoopback loopback, int id) throws Exception {
+        final UdpSocketClient client = loopback.client(id);
+        client.setCompression(new UdpCompression(-1, DICTIONARY));
+        return loopback.bind(client);
+    }
+
+    private static byte[] telemetry(int i) {
+        return ("{\"deviceId\":\"sensor-" + i + "\",\"timestamp\":" + (1700000000000L + i) + ",\"battery\":"
+                + (90 - i) + ",\"signal\":-7" + i + ",\"location\":{\"lat\":48.85" + i + ",\"lon\":2.35" + i + "}}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] decompress(UdpCompression compression, byte[] datagram, int maxSize) throws DataFormatException {
+        final ByteBuffer data = compression.decompress(ByteBuffer.wrap(datagram), mBufferPool, maxSize);
+        final byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        mBufferPool.release(data);
+        return bytes;
+    }
+
+    private void expectDataFormatException(UdpCompression compression, byte[] datagram, int maxSize) {
+        try {
+            decompress(compression, datagram, maxSize);
+            fail("decompressed a datagram it should not have");
+        } catch (DataFormatException expected) {
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.tradle.react;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UdpDispatchLaneTest {
+    private static final int LANES = 8;
+    private static final int TASKS = 10000;
+
+    private final ExecutorService mPool = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        mPool.shutdownNow();
+    }
+
+    @Test
+    public void runsTheTasksOfEachLaneInOrder() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(LANES * TASKS);
+        final List<List<Integer>> runs = new ArrayList<>();
+        final List<Thread> producers = new ArrayList<>();
+
+        for (int i = 0; i < LANES; i++) {
+            final UdpDispatchLane lane = new UdpDispatchLane(mPool);
+            final List<Integer> run = new ArrayList<>();
+            runs.add(run);
+            producers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < TASKS; j++) {
+                        final int index = j;
+                        lane.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                // lanes run one task at a time, so the list needs no lock
+                                run.add(index);
+                                done.countDown();
+                            }
+                        });
+                    }
+                }
+            }));
+        }
+        for (Thread producer : producers) {
+            producer.start();
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        for (List<Integer> run : runs) {
+            assertEquals(TASKS, run.size());
+            for (int j = 0; j < TASKS; j++) {
+                assertEquals(j, (int) run.get(j));
+            }
+        }
+    }
+
+    @Test
+    public void keepsGoingAfterATaskThrows() throws InterruptedException {
+        final UdpDispatchLane lane = new UdpDispatchLane(mPool);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("expected by the test");
+            }
+        });
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, lane.getPendingCount());
+    }
+
+    @Test
+    public void clearDropsTheWaitingTasks() throws InterruptedException {
+        final UdpDispatchLane lane = new UdpDispatchLane(mPool);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<Integer> runs = new ArrayList<>();
+
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        for (int i = 0; i < 3; i++) {
+            final int task = i;
+            lane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runs.add(task);
+                }
+            });
+        }
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(3, lane.clear());
+        release.countDown();
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(String.valueOf(runs), runs.isEmpty());
+    }
+}
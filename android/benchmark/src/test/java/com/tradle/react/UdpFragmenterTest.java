@@ -0,0 +1,220 @@
+package com.tradle.react;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UdpFragmenterTest extends UdpLoopbackTest {
+    private static final int PORT = 1000;
+
+    private final UdpSocketStats mStats = new UdpSocketStats();
+    private final Random mRandom = new Random(3);
+    private ScheduledExecutorService mScheduler;
+
+    @After
+    public void shutDownScheduler() {
+        if (mScheduler != null) {
+            mScheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void reassemblesMessagesFromDatagramsInAnyOrder() {
+        final UdpFragmenter fragmenter = fragmenter(1000, 50000);
+        final byte[] message = randomBytes(200000);
+        final List<byte[]> datagrams = fragmenter.split(message);
+        assertEquals(200, datagrams.size());
+        for (byte[] datagram : datagrams) {
+            assertTrue(datagram.length <= 1000 + UdpFragmenter.HEADER_SIZE);
+        }
+
+        Collections.shuffle(datagrams, mRandom);
+        // one of them twice
+        datagrams.add(datagrams.get(7));
+        ByteBuffer reassembled = null;
+        for (byte[] datagram : datagrams) {
+            final ByteBuffer data = fragmenter.reassemble(receive(datagram), HOST, PORT);
+            if (data != null) {
+                assertNull(reassembled);
+                reassembled = data;
+            }
+        }
+        assertArrayEquals(message, drain(reassembled));
+        assertEquals(0, mStats.getMessagesDropped());
+
+        // a message fitting in a datagram, and an empty one
+        assertArrayEquals(new byte[] { 1, 2, 3 }, reassembleAll(fragmenter, new byte[] { 1, 2, 3 }));
+        assertArrayEquals(new byte[0], reassembleAll(fragmenter, new byte[0]));
+    }
+
+    @Test
+    public void dropsMessagesThatDoNotCompleteInTime() throws Exception {
+        final UdpFragmenter fragmenter = fragmenter(100, 50);
+        final List<byte[]> first = fragmenter.split(randomBytes(1000));
+        assertNull(fragmenter.reassemble(receive(first.get(0)), HOST, PORT));
+        Thread.sleep(100);
+
+        final byte[] message = randomBytes(1000);
+        assertArrayEquals(message, reassembleAll(fragmenter, message));
+        assertEquals(1, mStats.getMessagesDropped());
+        // the rest of the expired message starts it over, and it never completes
+        for (int i = 1; i < first.size(); i++) {
+            assertNull(fragmenter.reassemble(receive(first.get(i)), HOST, PORT));
+        }
+    }
+
+    @Test
+    public void boundsTheMessagesItHolds() {
+        final UdpFragmenter fragmenter = fragmenter(100, 50000);
+        final List<List<byte[]>> messages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final List<byte[]> datagrams = fragmenter.split(randomBytes(200));
+            messages.add(datagrams);
+            assertNull(fragmenter.reassemble(receive(datagrams.get(0)), HOST, PORT));
+        }
+        // only the newest are held
+        assertEquals(100 - 64, mStats.getMessagesDropped());
+        assertNull(fragmenter.reassemble(receive(messages.get(0).get(1)), HOST, PORT));
+        assertTrue(fragmenter.reassemble(receive(messages.get(99).get(1)), HOST, PORT) != null);
+
+        // the peer of a message is part of its identity
+        final List<byte[]> datagrams = fragmenter.split(randomBytes(200));
+        assertNull(fragmenter.reassemble(receive(datagrams.get(0)), HOST, PORT));
+        assertNull(fragmenter.reassemble(receive(datagrams.get(1)), HOST, PORT + 1));
+    }
+
+    @Test
+    public void rejectsMessagesLargerThanTheMax() {
+        final UdpFragmenter fragmenter = fragmenter(100, 50000);
+        try {
+            fragmenter.split(randomBytes(UdpFragmenter.DEFAULT_MAX_MESSAGE_SIZE + 1));
+            fail("split a message larger than the max");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        final UdpFragmenter sender = new UdpFragmenter(mBufferPool, new UdpSocketStats(), 100, 1000, 50000);
+        final UdpFragmenter receiver = new UdpFragmenter(mBufferPool, mStats, 100, 500, 50000);
+        for (byte[] datagram : sender.split(randomBytes(1000))) {
+            assertNull(receiver.reassemble(receive(datagram), HOST, PORT));
+        }
+        assertTrue(mStats.getMessagesDropped() > 0);
+        // datagrams which are not fragments
+        final long dropped = mStats.getMessagesDropped();
+        assertNull(receiver.reassemble(receive(new byte[] { 9, 9 }), HOST, PORT));
+        assertEquals(dropped + 1, mStats.getMessagesDropped());
+    }
+
+    @Test
+    public void rejectsHeadersOutsideTheMaxMessage() {
+        final UdpFragmenter receiver = new UdpFragmenter(mBufferPool, mStats, 100, 500, 50000);
+        // more datagrams than the largest message has, before anything is allocated for them
+        assertNull(receiver.reassemble(receive(fragment(0, 0xffff, 100)), HOST, PORT));
+        assertNull(receiver.reassemble(receive(fragment(0, 6, 100)), HOST, PORT));
+        // a last datagram reaching past the largest message
+        assertNull(receiver.reassemble(receive(fragment(4, 5, 101)), HOST, PORT));
+        assertEquals(3, mStats.getMessagesDropped());
+
+        // the largest message still goes through
+        for (int index = 0; index < 4; index++) {
+            assertNull(receiver.reassemble(receive(fragment(index, 5, 100)), HOST, PORT));
+        }
+        assertEquals(500, drain(receiver.reassemble(receive(fragment(4, 5, 100)), HOST, PORT)).length);
+        assertEquals(3, mStats.getMessagesDropped());
+    }
+
+    @Test
+    public void sendsMessagesLargerThanADatagramOnTheThreadEngine() throws Exception {
+        exchange(threadEngine(), randomBytes(20000), false);
+    }
+
+    @Test
+    public void sendsCompressedMessagesReliablyOnTheNioEngine() throws Exception {
+        final StringBuilder text = new StringBuilder();
+        while (text.length() < 300000) {
+            text.append("{\"sample\":").append(mRandom.nextInt(1000)).append("},");
+        }
+        exchange(nioEngine(), text.toString().getBytes(StandardCharsets.UTF_8), true);
+    }
+
+    private void exchange(UdpLoopback loopback, byte[] message, boolean isReliable) throws Exception {
+        final UdpSocketClient[] clients = new UdpSocketClient[2];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = loopback.client(i);
+            clients[i].setFragmentation(UdpFragmenter.DEFAULT_FRAGMENT_SIZE, UdpFragmenter.DEFAULT_MAX_MESSAGE_SIZE,
+                    UdpFragmenter.DEFAULT_TIMEOUT_MS);
+            if (isReliable) {
+                if (mScheduler == null) {
+                    mScheduler = Executors.newSingleThreadScheduledExecutor();
+                }
+                clients[i].setReliableDelivery(mScheduler);
+                clients[i].setCompression(new UdpCompression(-1, null));
+            }
+            loopback.bind(clients[i]);
+        }
+
+        final int port = clients[1].getLocalPort();
+        clients[0].send(loopback.encode(message), port, HOST, null);
+        clients[0].sendBatch(Collections.singletonList(new UdpSenderTask.Packet(new byte[] { 42 }, port, HOST)), null);
+
+        assertArrayEquals(message, loopback.receive().data);
+        assertArrayEquals(new byte[] { 42 }, loopback.receive().data);
+        final int datagrams = (message.length + UdpFragmenter.DEFAULT_FRAGMENT_SIZE - 1)
+                / UdpFragmenter.DEFAULT_FRAGMENT_SIZE + 1;
+        assertTrue(clients[1].getStats().getPacketsReceived() >= datagrams);
+        assertEquals(0, clients[1].getStats().getMessagesDropped());
+    }
+
+    private UdpFragmenter fragmenter(int fragmentSize, long timeoutMs) {
+        return new UdpFragmenter(mBufferPool, mStats, fragmentSize, UdpFragmenter.DEFAULT_MAX_MESSAGE_SIZE, timeoutMs);
+    }
+
+    private byte[] reassembleAll(UdpFragmenter fragmenter, byte[] message) {
+        ByteBuffer reassembled = null;
+        for (byte[] datagram : fragmenter.split(message)) {
+            reassembled = fragmenter.reassemble(receive(datagram), HOST, PORT);
+        }
+        return drain(reassembled);
+    }
+
+    /**
+     * @return a datagram of the message with ID 7, as a peer would send it.
+     */
+    private byte[] fragment(int index, int count, int length) {
+        final byte[] datagram = new byte[UdpFragmenter.HEADER_SIZE + length];
+        ByteBuffer.wrap(datagram).put((byte) 1).putInt(7).putShort((short) index).putShort((short) count);
+        return datagram;
+    }
+
+    private ByteBuffer receive(byte[] datagram) {
+        final ByteBuffer buffer = mBufferPool.acquire(datagram.length, true);
+        buffer.put(datagram).flip();
+        return buffer;
+    }
+
+    private byte[] drain(ByteBuffer data) {
+        final byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        mBufferPool.release(data);
+        return bytes;
+    }
+
+    private byte[] randomBytes(int length) {
+        final byte[] bytes = new byte[length];
+        mRandom.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,177 @@
+package com.tradle.react;
+
+import com.tradle.react.benchmark.JvmBase64Codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Sockets of one engine, bound over loopback for the tests exchanging datagrams between them. The
+ * datagrams they receive are copied out of their pooled buffers and queued, and the exceptions
+ * they report are kept as failures. Closing the loopback closes the sockets and the selector.
+ */
+final class UdpLoopback {
+    static final String HOST = "127.0.0.1";
+    static final long TIMEOUT_SECONDS = 10;
+
+    private final UdpCodec mCodec = new JvmBase64Codec();
+    private final UdpBufferPool mBufferPool;
+    @Nullable
+    private final UdpSelectorTask mSelectorTask;
+    @Nullable
+    private final UdpWorkerPool mWorkerPool;
+    private final List<UdpSocketClient> mClients = new ArrayList<>();
+    private final BlockingQueue<Datagram> mReceived = new LinkedBlockingQueue<>();
+    private final Queue<String> mFailures = new ConcurrentLinkedQueue<>();
+
+    private final UdpEventSink mEventSink = new UdpEventSink() {
+        @Override
+        public void didReceiveData(UdpSocketClient client, ByteBuffer data, String host, int port, String channel) {
+            final byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            mBufferPool.release(data);
+            mReceived.add(new Datagram(client, bytes, channel));
+        }
+
+        @Override
+        public void didReceiveError(UdpSocketClient client, String message) {
+            // sockets closing while receiving report an error
+        }
+
+        @Override
+        public void didReceiveException(RuntimeException exception) {
+            mFailures.add(exception.toString());
+        }
+    };
+
+    /**
+     * @param isNio whether the sockets share a selector, rather than receive on threads
+     * @param workerPool the threads the sockets of the thread engine receive on, if shared
+     */
+    UdpLoopback(UdpBufferPool bufferPool, boolean isNio, @Nullable UdpWorkerPool workerPool) throws IOException {
+        this.mBufferPool = bufferPool;
+        this.mSelectorTask = isNio ? new UdpSelectorTask(bufferPool) : null;
+        this.mWorkerPool = workerPool;
+    }
+
+    UdpCodec getCodec() {
+        return mCodec;
+    }
+
+    /**
+     * @return a socket reporting to the loopback, not bound yet.
+     */
+    UdpSocketClient client(int id) {
+        return client(id, mEventSink);
+    }
+
+    /**
+     * @return a socket reporting to the given sink, not bound yet.
+     */
+    UdpSocketClient client(int id, UdpEventSink eventSink) {
+        final UdpSocketClient client = new UdpSocketClient(id, mCodec, eventSink, mBufferPool, new UdpAddressCache(),
+                mSelectorTask, mWorkerPool);
+        mClients.add(client);
+        return client;
+    }
+
+    /**
+     * @return the socket, bound to a free port of the loopback address.
+     */
+    UdpSocketClient bind(UdpSocketClient client) throws IOException {
+        client.bind(0, HOST);
+        return client;
+    }
+
+    UdpSocketClient bind(int id) throws IOException {
+        return bind(client(id));
+    }
+
+    /**
+     * @return the data, as encoded for {@link UdpSocketClient#send}.
+     */
+    String encode(byte[] data) {
+        return mCodec.encode(ByteBuffer.wrap(data));
+    }
+
+    String encode(String text) {
+        return encode(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * @return the next datagram received, failing if none arrives in time.
+     */
+    Datagram receive() throws InterruptedException {
+        final Datagram datagram = mReceived.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull("no datagram arrived", datagram);
+        return datagram;
+    }
+
+    /**
+     * @return the next datagram received within the time, or null.
+     */
+    @Nullable
+    Datagram poll(long timeoutMs) throws InterruptedException {
+        return mReceived.poll(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    boolean isEmpty() {
+        return mReceived.isEmpty();
+    }
+
+    /**
+     * Records a failure the test did not expect, such as a send that failed.
+     */
+    void addFailure(String failure) {
+        mFailures.add(failure);
+    }
+
+    Queue<String> getFailures() {
+        return mFailures;
+    }
+
+    void close() {
+        for (UdpSocketClient client : mClients) {
+            client.close();
+        }
+        mClients.clear();
+        if (mSelectorTask != null) {
+            mSelectorTask.terminate();
+        }
+    }
+
+    /**
+     * A datagram received by a socket of the loopback.
+     */
+    static final class Datagram {
+        final UdpSocketClient client;
+        final byte[] data;
+        @Nullable
+        final String channel;
+
+        private Datagram(UdpSocketClient client, byte[] data, @Nullable String channel) {
+            this.client = client;
+            this.data = data;
+            this.channel = channel;
+        }
+
+        /**
+         * @return the data, one character per byte.
+         */
+        String getText() {
+            return new String(data, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.tradle.react;
+
+import org.junit.After;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Base of the tests exchanging datagrams over loopback, on either engine. The loopback is closed
+ * once the test ran, which fails if its sockets reported an exception.
+ */
+public abstract class UdpLoopbackTest {
+    protected static final String HOST = UdpLoopback.HOST;
+
+    protected final UdpBufferPool mBufferPool = new UdpBufferPool();
+    @Nullable
+    private UdpLoopback mLoopback;
+
+    @After
+    public void closeLoopback() {
+        if (mLoopback == null) {
+            return;
+        }
+        mLoopback.close();
+        assertTrue(String.valueOf(mLoopback.getFailures()), mLoopback.getFailures().isEmpty());
+    }
+
+    /**
+     * @return sockets receiving on threads of their own.
+     */
+    protected UdpLoopback threadEngine() throws IOException {
+        return loopback(false, null);
+    }
+
+    /**
+     * @return sockets sharing a selector.
+     */
+    protected UdpLoopback nioEngine() throws IOException {
+        return loopback(true, null);
+    }
+
+    /**
+     * @param workerPool the threads the sockets of the thread engine receive on, if shared
+     */
+    protected UdpLoopback loopback(boolean isNio, @Nullable UdpWorkerPool workerPool) throws IOException {
+        if (mLoopback != null) {
+            throw new IllegalStateException("a test runs on a single loopback");
+        }
+        mLoopback = new UdpLoopback(mBufferPool, isNio, workerPool);
+        return mLoopback;
+    }
+}
@@ -0,0 +1,133 @@
+package com.tradle.react;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class UdpPacketFilterTest extends UdpLoopbackTest {
+    private static final byte[] MAGIC = { (byte) 0xca, (byte) 0xfe };
+
+    @Test
+    public void theFirstMatchingRuleDecides() {
+        final UdpPacketFilter.Rule discovery = UdpPacketFilter.Rule.route("discovery").withBytes(2, MAGIC);
+        final UdpPacketFilter.Rule local = UdpPacketFilter.Rule.accept().fromSubnet("192.168.1.0/24");
+        final UdpPacketFilter filter = new UdpPacketFilter(Arrays.asList(
+                UdpPacketFilter.Rule.drop().withLength(1000, Integer.MAX_VALUE),
+                discovery,
+                local), UdpPacketFilter.Action.DROP);
+
+        final ByteBuffer magic = ByteBuffer.wrap(new byte[] { 0, 0, (byte) 0xca, (byte) 0xfe, 1 });
+        assertSame(discovery, filter.match(magic, "10.0.0.1", 5353));
+        assertEquals(0, magic.position());
+        assertEquals("discovery", filter.match(magic, "10.0.0.1", 5353).getChannel());
+        // too large, even though it holds the magic number
+        final ByteBuffer large = ByteBuffer.allocate(2000).put(2, (byte) 0xca).put(3, (byte) 0xfe);
+        assertEquals(UdpPacketFilter.Action.DROP, filter.match(large, "10.0.0.1", 5353).getAction());
+        // the magic number at another offset, or cut short
+        assertEquals(UdpPacketFilter.Action.DROP,
+                filter.match(ByteBuffer.wrap(new byte[] { (byte) 0xca, (byte) 0xfe }), "10.0.0.1", 5353).getAction());
+        assertEquals(UdpPacketFilter.Action.DROP,
+                filter.match(ByteBuffer.wrap(new byte[] { 0, 0, (byte) 0xca }), "10.0.0.1", 5353).getAction());
+
+        final ByteBuffer other = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+        assertSame(local, filter.match(other, "192.168.1.77", 1000));
+        assertEquals(UdpPacketFilter.Action.DROP, filter.match(other, "192.168.2.77", 1000).getAction());
+        assertNull(filter.match(other, "192.168.1.77", 1000).getChannel());
+        // the bytes of a buffer are matched from its position
+        final ByteBuffer offset = ByteBuffer.wrap(new byte[] { 9, 0, 0, (byte) 0xca, (byte) 0xfe });
+        offset.position(1);
+        assertSame(discovery, filter.match(offset, "10.0.0.1", 5353));
+    }
+
+    @Test
+    public void matchesSubnetsAndPorts() {
+        final UdpPacketFilter filter = new UdpPacketFilter(Arrays.asList(
+                UdpPacketFilter.Rule.route("link-local").fromSubnet("fe80::/10"),
+                UdpPacketFilter.Rule.route("private").fromSubnet("172.16.0.0/12").fromPorts(1900, 1900),
+                UdpPacketFilter.Rule.route("host").fromSubnet("10.1.2.3")), UdpPacketFilter.Action.ACCEPT);
+        final ByteBuffer data = ByteBuffer.allocate(1);
+
+        assertEquals("link-local", filter.match(data, "fe80::1", 1).getChannel());
+        assertEquals("link-local", filter.match(data, "febf::1", 1).getChannel());
+        assertNull(filter.match(data, "fec0::1", 1).getChannel());
+        assertEquals("private", filter.match(data, "172.31.255.1", 1900).getChannel());
+        assertNull(filter.match(data, "172.32.0.1", 1900).getChannel());
+        assertNull(filter.match(data, "172.16.0.1", 1901).getChannel());
+        assertEquals("host", filter.match(data, "10.1.2.3", 1).getChannel());
+        assertNull(filter.match(data, "10.1.2.4", 1).getChannel());
+        // IPv4 senders of IPv6 sockets are matched as such
+        assertEquals("private", filter.match(data, "::ffff:ac10:1", 1900).getChannel());
+        assertNull(filter.match(data, "::ac10:1", 1900).getChannel());
+        assertEquals(UdpPacketFilter.Action.ACCEPT, filter.match(data, "8.8.8.8", 1).getAction());
+    }
+
+    @Test
+    public void rejectsInvalidRules() {
+        final String[] subnets = { "10.0.0.0/33", "10.0.0.0/", "fe80::/129", "10.0.0", "10.0.0.0/-1" };
+        for (String subnet : subnets) {
+            try {
+                UdpPacketFilter.Rule.drop().fromSubnet(subnet);
+                fail("accepted the subnet " + subnet);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        try {
+            UdpPacketFilter.Rule.route("");
+            fail("routed to an empty channel");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            UdpPacketFilter.Rule.drop().fromPorts(2000, 1000);
+            fail("accepted an empty port range");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new UdpPacketFilter(Collections.<UdpPacketFilter.Rule>emptyList(), UdpPacketFilter.Action.ROUTE);
+            fail("routed by default");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(UdpPacketFilter.Action.DROP, UdpPacketFilter.Action.fromName("drop"));
+    }
+
+    @Test
+    public void filtersTheDatagramsOfTheThreadEngine() throws Exception {
+        exchange(threadEngine());
+    }
+
+    @Test
+    public void filtersTheDatagramsOfTheNioEngine() throws Exception {
+        exchange(nioEngine());
+    }
+
+    private void exchange(UdpLoopback loopback) throws Exception {
+        final UdpSocketClient sender = loopback.bind(0);
+        final UdpSocketClient receiver = loopback.client(1);
+        receiver.setFilter(new UdpPacketFilter(Arrays.asList(
+                UdpPacketFilter.Rule.drop().withBytes(0, "noise".getBytes(StandardCharsets.ISO_8859_1)),
+                UdpPacketFilter.Rule.route("discovery").withBytes(0, MAGIC)), UdpPacketFilter.Action.ACCEPT));
+        loopback.bind(receiver);
+
+        final String[] datagrams = { "noise 1", "\u00ca\u00fe hello", "noise 2", "data" };
+        for (String datagram : datagrams) {
+            sender.send(loopback.encode(datagram), receiver.getLocalPort(), HOST, null);
+        }
+
+        final UdpLoopback.Datagram discovery = loopback.receive();
+        assertEquals("discovery", discovery.channel);
+        assertEquals("\u00ca\u00fe hello", discovery.getText());
+        final UdpLoopback.Datagram data = loopback.receive();
+        assertNull(data.channel);
+        assertEquals("data", data.getText());
+        assertEquals(4, receiver.getStats().getPacketsReceived());
+        assertEquals(2, receiver.getStats().getFiltered());
+        assertNull(loopback.poll(100));
+    }
+}
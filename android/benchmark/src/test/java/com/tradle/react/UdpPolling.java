@@ -0,0 +1,34 @@
+package com.tradle.react;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Waits for the conditions the tests expect to become true, polling them until a deadline, rather
+ * than sleeping for a fixed time and hoping.
+ */
+final class UdpPolling {
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final long INTERVAL_MS = 5;
+
+    private UdpPolling() {
+    }
+
+    /**
+     * Waits for the condition to hold, failing with the message if it does not in time.
+     */
+    static void await(String message, Condition condition) throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (!condition.isMet()) {
+            if (System.nanoTime() - deadline > 0) {
+                fail(message);
+            }
+            Thread.sleep(INTERVAL_MS);
+        }
+    }
+
+    interface Condition {
+        boolean isMet() throws Exception;
+    }
+}
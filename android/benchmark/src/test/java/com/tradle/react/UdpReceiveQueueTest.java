@@ -0,0 +1,116 @@
+package com.tradle.react;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UdpReceiveQueueTest {
+    private final List<Integer> mDropped = new ArrayList<>();
+    private final UdpReceiveQueue.OnDropListener<Integer> mDropListener = new UdpReceiveQueue.OnDropListener<Integer>() {
+        @Override
+        public void onDrop(Integer item) {
+            synchronized (mDropped) {
+                mDropped.add(item);
+            }
+        }
+    };
+
+    @Test
+    public void dropOldestKeepsTheNewestItems() {
+        final UdpReceiveQueue<Integer> queue = new UdpReceiveQueue<>(3, UdpReceiveQueue.Policy.DROP_OLDEST, mDropListener);
+        for (int i = 0; i < 5; i++) {
+            queue.offer(i);
+        }
+
+        assertEquals(Arrays.asList(0, 1), mDropped);
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(Integer.valueOf(2), queue.poll());
+        assertEquals(Integer.valueOf(3), queue.poll());
+        assertEquals(Integer.valueOf(4), queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void dropNewestKeepsTheOldestItems() {
+        final UdpReceiveQueue<Integer> queue = new UdpReceiveQueue<>(3, UdpReceiveQueue.Policy.DROP_NEWEST, mDropListener);
+        for (int i = 0; i < 5; i++) {
+            queue.offer(i);
+        }
+
+        assertEquals(Arrays.asList(3, 4), mDropped);
+        final List<Integer> drained = new ArrayList<>();
+        assertEquals(3, queue.drainTo(drained, 10));
+        assertEquals(Arrays.asList(0, 1, 2), drained);
+    }
+
+    @Test
+    public void signalsOnlyWhenBecomingReadable() {
+        final UdpReceiveQueue<Integer> queue = new UdpReceiveQueue<>(8, UdpReceiveQueue.Policy.DROP_NEWEST, null);
+
+        assertTrue(queue.offer(0));
+        assertFalse(queue.offer(1));
+        queue.drainTo(new ArrayList<Integer>(), 1);
+        assertFalse("a partial drain does not re-arm the signal", queue.offer(2));
+        queue.drainTo(new ArrayList<Integer>(), 10);
+        assertTrue(queue.offer(3));
+    }
+
+    @Test
+    public void blockWaitsForRoom() throws InterruptedException {
+        final UdpReceiveQueue<Integer> queue = new UdpReceiveQueue<>(1, UdpReceiveQueue.Policy.BLOCK, mDropListener);
+        queue.offer(0);
+
+        final CountDownLatch offered = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.offer(1);
+                offered.countDown();
+            }
+        }).start();
+
+        assertFalse(offered.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(Integer.valueOf(0), queue.poll());
+        assertTrue(offered.await(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(1), queue.poll());
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void closeReleasesQueuedAndBlockedItems() throws Exception {
+        final UdpReceiveQueue<Integer> queue = new UdpReceiveQueue<>(1, UdpReceiveQueue.Policy.BLOCK, mDropListener);
+        queue.offer(0);
+
+        final Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.offer(1);
+            }
+        });
+        receiver.start();
+        UdpPolling.await("the receiver did not block", new UdpPolling.Condition() {
+            @Override
+            public boolean isMet() {
+                return receiver.getState() == Thread.State.WAITING;
+            }
+        });
+        queue.close();
+        receiver.join(5000);
+
+        assertFalse(receiver.isAlive());
+        assertTrue(queue.isEmpty());
+        synchronized (mDropped) {
+            assertEquals(2, mDropped.size());
+        }
+        assertEquals("items discarded on close are not counted as dropped", 0, queue.getDroppedCount());
+    }
+}
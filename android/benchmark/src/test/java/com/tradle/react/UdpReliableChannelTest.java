@@ -0,0 +1,307 @@
+package com.tradle.react;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs reliable channels over a simulated network that loses, duplicates and reorders datagrams,
+ * checking that data arrives once and in order, and over loopback sockets of both engines.
+ */
+public class UdpReliableChannelTest extends UdpLoopbackTest {
+    private static final int MESSAGES = 500;
+    private static final long TIMEOUT_SECONDS = 20;
+    // the longest the simulated network holds on to a datagram
+    private static final long MAX_DELAY_MICROS = 3000;
+
+    private final ScheduledExecutorService mScheduler = Executors.newScheduledThreadPool(2);
+    // delivers the datagrams of the simulated network, after a random delay
+    private final ScheduledExecutorService mNetwork = Executors.newSingleThreadScheduledExecutor();
+    private final Random mRandom = new Random(7);
+
+    @After
+    public void shutDownSchedulers() {
+        mNetwork.shutdownNow();
+        mScheduler.shutdownNow();
+    }
+
+    @Test
+    public void deliversInOrderOverALossyNetwork() throws Exception {
+        // enough transmissions for every datagram to get through
+        final Endpoint a = new Endpoint(1000, 0.2, 30);
+        final Endpoint b = new Endpoint(2000, 0.2, 30);
+        a.peer = b;
+        b.peer = a;
+
+        final CountDownLatch completed = new CountDownLatch(MESSAGES);
+        final Queue<String> errors = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < MESSAGES; i++) {
+            a.channel.send(message(i), b.address, new UdpCompletionSink() {
+                @Override
+                public void onSuccess() {
+                    completed.countDown();
+                }
+
+                @Override
+                public void onError(String code, String message) {
+                    errors.add(message);
+                    completed.countDown();
+                }
+            });
+        }
+
+        for (int i = 0; i < MESSAGES; i++) {
+            assertEquals(i, b.delivered.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS).intValue());
+        }
+        assertTrue("not every send completed", completed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(String.valueOf(errors), errors.isEmpty());
+        // the network delivered every copy in flight once it delivers one sent after them
+        mNetwork.schedule(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, MAX_DELAY_MICROS, TimeUnit.MICROSECONDS).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        // nothing delivered more than once
+        assertNull(b.delivered.poll());
+        assertTrue(a.stats.getRetransmits() > 0);
+        assertTrue(a.stats.getRoundTripNanos() > 0);
+    }
+
+    @Test
+    public void failsTheDatagramsOfAPeerThatDoesNotAcknowledge() throws Exception {
+        final Endpoint a = new Endpoint(1000, 1, 5);
+        final Endpoint b = new Endpoint(2000, 0, 5);
+        a.peer = b;
+        b.peer = a;
+
+        final BlockingQueue<String> results = new LinkedBlockingQueue<>();
+        final UdpCompletionSink completion = new UdpCompletionSink() {
+            @Override
+            public void onSuccess() {
+                results.add("success");
+            }
+
+            @Override
+            public void onError(String code, String message) {
+                results.add(code);
+            }
+        };
+        a.channel.send(message(0), b.address, completion);
+        a.channel.send(message(1), b.address, completion);
+
+        assertEquals(UdpErrorCodes.sendError.name(), results.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(UdpErrorCodes.sendError.name(), results.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, a.stats.getSendErrors());
+
+        // the next datagram starts a session the peer takes up
+        a.lossRate = 0;
+        a.channel.send(message(2), b.address, completion);
+        assertEquals("success", results.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, b.delivered.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS).intValue());
+    }
+
+    @Test
+    public void aBatchCompletesOnceEveryDatagramIsAcknowledged() throws Exception {
+        final BlockingQueue<String> results = new LinkedBlockingQueue<>();
+        final UdpCompletionSink batch = UdpReliableChannel.forBatch(3, new UdpCompletionSink() {
+            @Override
+            public void onSuccess() {
+                results.add("success");
+            }
+
+            @Override
+            public void onError(String code, String message) {
+                results.add(message);
+            }
+        });
+
+        batch.onSuccess();
+        batch.onError(UdpErrorCodes.sendError.name(), "lost");
+        assertTrue(results.isEmpty());
+        batch.onSuccess();
+        assertEquals("1 of 3 datagrams could not be delivered: lost", results.poll());
+        assertNull(UdpReliableChannel.forBatch(3, null));
+    }
+
+    @Test
+    public void aDeliveryWaitingForTheSchedulerDoesNotHoldUpTheRetransmissions() throws Exception {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final CountDownLatch drained = new CountDownLatch(1);
+        final InetSocketAddress peer = new InetSocketAddress(InetAddress.getByName(HOST), 1000);
+        final UdpReliableChannel channel = new UdpReliableChannel(scheduler, mBufferPool, new UdpSocketStats(),
+                new UdpReliableChannel.Transport() {
+                    @Override
+                    public void transmit(byte[] datagram, InetSocketAddress destination) {
+                        // lost, so that the datagram sent is retransmitted
+                    }
+
+                    @Override
+                    public void deliver(ByteBuffer data, String host, int port) {
+                        mBufferPool.release(data);
+                        // a full receive queue, drained by a flush on the scheduler
+                        try {
+                            drained.await();
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }, 20, 5);
+        try {
+            channel.send(message(0), peer, null);
+            final Thread receiving = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final byte[] datagram = new byte[UdpReliableChannel.HEADER_SIZE + 4];
+                    // the first datagram of a session of the peer
+                    ByteBuffer.wrap(datagram).put((byte) 1).putInt(42).putInt(0);
+                    final ByteBuffer data = mBufferPool.acquire(datagram.length, false);
+                    data.put(datagram).flip();
+                    channel.receive(data, HOST, peer.getPort());
+                }
+            });
+            receiving.start();
+            // queued behind the retransmission, due first
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    drained.countDown();
+                }
+            }, 50, TimeUnit.MILLISECONDS);
+
+            receiving.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            assertFalse("the delivery never completed", receiving.isAlive());
+        } finally {
+            drained.countDown();
+            channel.close();
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void deliversTheDatagramsOfTheThreadEngine() throws Exception {
+        exchange(threadEngine());
+    }
+
+    @Test
+    public void deliversTheDatagramsOfTheNioEngine() throws Exception {
+        exchange(nioEngine());
+    }
+
+    private void exchange(UdpLoopback loopback) throws Exception {
+        final UdpSocketClient sender = loopback.client(0);
+        final UdpSocketClient receiver = loopback.client(1);
+        for (UdpSocketClient client : new UdpSocketClient[] { sender, receiver }) {
+            client.setReliableDelivery(mScheduler);
+            loopback.bind(client);
+        }
+
+        final CountDownLatch completed = new CountDownLatch(2);
+        final UdpCompletionSink completion = new UdpCompletionSink() {
+            @Override
+            public void onSuccess() {
+                completed.countDown();
+            }
+
+            @Override
+            public void onError(String code, String message) {
+            }
+        };
+        final List<UdpSenderTask.Packet> batch = new ArrayList<>();
+        for (int i = 1; i < MESSAGES; i++) {
+            batch.add(new UdpSenderTask.Packet(message(i), receiver.getLocalPort(), HOST));
+        }
+        sender.send(loopback.encode(message(0)), receiver.getLocalPort(), HOST, completion);
+        sender.sendBatch(batch, completion);
+
+        for (int i = 0; i < MESSAGES; i++) {
+            assertEquals(i, ByteBuffer.wrap(loopback.receive().data).getInt(0));
+        }
+        assertTrue("not every send was acknowledged", completed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        // one acknowledgement per datagram received, every one of them back at the sender
+        UdpPolling.await("not every acknowledgement arrived", new UdpPolling.Condition() {
+            @Override
+            public boolean isMet() {
+                final long acknowledgements = receiver.getStats().getPacketsSent();
+                return acknowledgements == receiver.getStats().getPacketsReceived()
+                        && acknowledgements == sender.getStats().getPacketsReceived();
+            }
+        });
+        // acknowledgements never reach the sink
+        assertTrue(loopback.isEmpty());
+        assertTrue(receiver.getStats().getPacketsReceived() >= MESSAGES);
+    }
+
+    private static byte[] message(int i) {
+        return ByteBuffer.allocate(32).putInt(0, i).array();
+    }
+
+    /**
+     * A reliable channel on the simulated network, receiving from its peer only.
+     */
+    private final class Endpoint implements UdpReliableChannel.Transport {
+        private final InetSocketAddress address;
+        private final UdpSocketStats stats = new UdpSocketStats();
+        private final UdpReliableChannel channel;
+        private final BlockingQueue<Integer> delivered = new LinkedBlockingQueue<>();
+        private volatile double lossRate;
+        private Endpoint peer;
+
+        private Endpoint(int port, double lossRate, int maxTransmissions) throws IOException {
+            this.address = new InetSocketAddress(InetAddress.getByName(HOST), port);
+            this.lossRate = lossRate;
+            this.channel = new UdpReliableChannel(mScheduler, mBufferPool, stats, this, 20, maxTransmissions);
+        }
+
+        @Override
+        public void transmit(byte[] datagram, InetSocketAddress destination) {
+            assertEquals(peer.address, destination);
+            final int copies;
+            synchronized (mRandom) {
+                if (mRandom.nextDouble() < lossRate) {
+                    return;
+                }
+                copies = mRandom.nextInt(20) == 0 ? 2 : 1;
+            }
+            for (int i = 0; i < copies; i++) {
+                final ByteBuffer data = mBufferPool.acquire(datagram.length, false);
+                data.put(datagram).flip();
+                final long delayMicros;
+                synchronized (mRandom) {
+                    delayMicros = mRandom.nextInt((int) MAX_DELAY_MICROS);
+                }
+                mNetwork.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        peer.channel.receive(data, HOST, address.getPort());
+                    }
+                }, delayMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+
+        @Override
+        public void deliver(ByteBuffer data, String host, int port) {
+            delivered.add(data.getInt(data.position()));
+            mBufferPool.release(data);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.tradle.react;
+
+import com.tradle.react.benchmark.JvmBase64Codec;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UdpSendErrorCoalescerTest {
+    private static final String HOST = "127.0.0.1";
+    private static final long INTERVAL_MS = 50;
+
+    private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor();
+    private final BlockingQueue<String> mReports = new LinkedBlockingQueue<>();
+
+    private final UdpSendErrorCoalescer.OnSendErrorsListener mListener = new UdpSendErrorCoalescer.OnSendErrorsListener() {
+        @Override
+        public void onSendErrors(UdpSendErrorCoalescer coalescer, int count, String code, String message) {
+            mReports.add(count + " " + code + " " + message);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        mScheduler.shutdownNow();
+    }
+
+    @Test
+    public void reportsTheErrorsOfAnIntervalAtOnce() throws InterruptedException {
+        final UdpSendErrorCoalescer coalescer = new UdpSendErrorCoalescer(0, INTERVAL_MS, mScheduler, mListener);
+        coalescer.onSuccess();
+        for (int i = 0; i < 100; i++) {
+            coalescer.onError("sendError", "error " + i);
+        }
+
+        assertEquals("100 sendError error 0", mReports.poll(5, TimeUnit.SECONDS));
+        assertNull(mReports.poll(2 * INTERVAL_MS, TimeUnit.MILLISECONDS));
+
+        coalescer.onError("sendError", "error 100");
+        assertEquals("1 sendError error 100", mReports.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void dropsTheErrorsOfAClosedCoalescer() throws InterruptedException {
+        final UdpSendErrorCoalescer coalescer = new UdpSendErrorCoalescer(0, INTERVAL_MS, mScheduler, mListener);
+        coalescer.onError("sendError", "before close");
+        coalescer.close();
+        coalescer.onError("sendError", "after close");
+
+        assertNull(mReports.poll(3 * INTERVAL_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void coalescesTheErrorsOfASocket() throws Exception {
+        final UdpSocketClient peer = bind(0);
+        final UdpSocketClient socket = bind(1);
+        try {
+            final UdpSendErrorCoalescer coalescer = new UdpSendErrorCoalescer(socket.getId(), INTERVAL_MS, mScheduler, mListener);
+            socket.connect(peer.getLocalPort(), HOST);
+
+            // connected sockets fail datagrams that carry a destination, on their sending thread
+            for (int i = 0; i < 10; i++) {
+                socket.sendBatch(Collections.singletonList(
+                        new UdpSenderTask.Packet(new byte[]{1}, peer.getLocalPort(), HOST)), coalescer);
+            }
+
+            final String report = mReports.poll(5, TimeUnit.SECONDS);
+            assertNotNull(report);
+            assertTrue(report, report.startsWith("10 sendError "));
+            assertEquals(10, socket.getStats().getSendErrors());
+        } finally {
+            socket.close();
+            peer.close();
+        }
+    }
+
+    private UdpSocketClient bind(int id) throws Exception {
+        final UdpSocketClient client = new UdpSocketClient(id, new JvmBase64Codec(), new UdpEventSink() {
+            @Override
+            public void didReceiveData(UdpSocketClient client, ByteBuffer data, String host, int port, String channel) {
+            }
+
+            @Override
+            public void didReceiveError(UdpSocketClient client, String message) {
+            }
+
+            @Override
+            public void didReceiveException(RuntimeException exception) {
+            }
+        });
+        client.bind(0, HOST);
+        return client;
+    }
+}
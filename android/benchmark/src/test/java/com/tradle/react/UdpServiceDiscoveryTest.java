@@ -0,0 +1,359 @@
+package com.tradle.react;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UdpServiceDiscoveryTest {
+    private static final String RESPONDER = "10.0.0.1";
+    private static final String BROWSER = "10.0.0.2";
+    private static final String MEDIA_SERVER = "urn:schemas-upnp-org:device:MediaServer:1";
+
+    private final ScheduledExecutorService mScheduler = Executors.newScheduledThreadPool(2);
+    // delivers datagrams in the background, as sending under the lock of one discovery must not
+    // take the lock of another
+    private final ExecutorService mNetwork = Executors.newSingleThreadExecutor();
+    private final List<Node> mNodes = new ArrayList<>();
+    private final BlockingQueue<String> mEvents = new LinkedBlockingQueue<>();
+
+    private final UdpServiceDiscovery.Listener mListener = new UdpServiceDiscovery.Listener() {
+        @Override
+        public void onServiceUp(UdpServiceDiscovery.Service service) {
+            mEvents.add("up " + describe(service));
+        }
+
+        @Override
+        public void onServiceDown(UdpServiceDiscovery.Service service) {
+            mEvents.add("down " + service.getName());
+        }
+    };
+
+    @After
+    public void tearDown() throws InterruptedException {
+        for (Node node : mNodes) {
+            node.discovery.close();
+        }
+        mScheduler.shutdownNow();
+        mNetwork.shutdownNow();
+        mNetwork.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void parsesCompressedNames() {
+        final ByteBuffer message = ByteBuffer.wrap(new byte[]{
+                0, 7, (byte) 0x84, 0, 0, 1, 0, 1, 0, 0, 0, 0,
+                // question: a.local PTR IN
+                1, 'a', 5, 'l', 'o', 'c', 'a', 'l', 0, 0, 12, 0, 1,
+                // answer: a pointer to the question name, PTR IN, ttl 120, a pointer to the same name
+                (byte) 0xc0, 12, 0, 12, 0, 1, 0, 0, 0, 120, 0, 2, (byte) 0xc0, 12});
+
+        final UdpDnsMessage parsed = UdpDnsMessage.parse(message);
+
+        assertEquals(7, parsed.getId());
+        assertTrue(parsed.isResponse());
+        assertEquals("a.local", parsed.getQuestions().get(0).getName());
+        final UdpDnsMessage.Record answer = parsed.getAnswers().get(0);
+        assertEquals("a.local", answer.getName());
+        assertEquals(UdpDnsMessage.TYPE_PTR, answer.getType());
+        assertEquals(120, answer.getTtl());
+        assertEquals("a.local", answer.getTarget());
+    }
+
+    @Test
+    public void rejectsMalformedMessages() {
+        final byte[][] messages = {
+                {0, 0, 0, 0, 0, 1},
+                // a question whose name points to itself
+                {0, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, (byte) 0xc0, 12, 0, 1, 0, 1},
+                // a label running past the end
+                {0, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 9, 'a'},
+        };
+        for (byte[] message : messages) {
+            try {
+                UdpDnsMessage.parse(ByteBuffer.wrap(message));
+                fail("parsed " + Arrays.toString(message));
+            } catch (IllegalArgumentException expected) {
+                // malformed
+            }
+        }
+    }
+
+    @Test
+    public void encodesRecordsBackToTheSameRecords() {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("path", "/");
+        attributes.put("tls", null);
+        final List<UdpDnsMessage.Record> records = Arrays.asList(
+                UdpDnsMessage.Record.ptr("_http._tcp.local", 4500, "Living\\.Room._http._tcp.local"),
+                UdpDnsMessage.Record.srv("Living\\.Room._http._tcp.local", 120, 8080, "phone.local"),
+                UdpDnsMessage.Record.txt("Living\\.Room._http._tcp.local", 4500, attributes),
+                UdpDnsMessage.Record.address("phone.local", 120, new byte[]{10, 0, 0, 1}));
+
+        final byte[] bytes = new UdpDnsMessage(0, true, Collections.<UdpDnsMessage.Question>emptyList(), records,
+                Collections.<UdpDnsMessage.Record>emptyList()).toBytes();
+        final List<UdpDnsMessage.Record> parsed = UdpDnsMessage.parse(ByteBuffer.wrap(bytes)).getAnswers();
+
+        assertEquals(records.size(), parsed.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertTrue("record " + i, records.get(i).isSameAs(parsed.get(i)));
+            assertEquals(records.get(i).getTtl(), parsed.get(i).getTtl());
+        }
+        // repeated names are written once, and pointed to afterwards
+        assertTrue(bytes.length + " bytes", bytes.length < 160);
+    }
+
+    @Test
+    public void reportsServicesOnceUntilTheyGoAway() throws Exception {
+        final Map<String, String> txt = new HashMap<>();
+        txt.put("path", "/");
+        final Node responder = addMdnsNode(RESPONDER, Collections.singletonList(
+                new UdpMdnsDiscovery.Registration("Living Room", "_http._tcp", 8080, txt)),
+                Collections.<String>emptyList());
+        addMdnsNode(BROWSER, Collections.<UdpMdnsDiscovery.Registration>emptyList(),
+                Collections.singletonList("_http._tcp"));
+        startAll();
+
+        assertEquals("up mdns Living Room._http._tcp.local _http._tcp.local responder.local:8080 [10.0.0.1] {path=/}",
+                mEvents.poll(5, TimeUnit.SECONDS));
+        // the second announcement and the answers to the queries of the browser change nothing
+        assertNull(mEvents.poll(2500, TimeUnit.MILLISECONDS));
+
+        responder.discovery.close();
+        assertEquals("down Living Room._http._tcp.local", mEvents.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void suppressesAnswersTheQuerierKnows() throws Exception {
+        final BlockingQueue<InetSocketAddress> sent = new LinkedBlockingQueue<>();
+        final UdpMdnsDiscovery responder = new UdpMdnsDiscovery(mScheduler, new UdpServiceDiscovery.Transport() {
+            @Override
+            public void transmit(byte[] datagram, InetSocketAddress destination) {
+                if (!UdpDnsMessage.parse(ByteBuffer.wrap(datagram)).getAnswers().isEmpty()) {
+                    sent.add(destination);
+                }
+            }
+        }, group(UdpMdnsDiscovery.GROUP_IPV4, UdpMdnsDiscovery.PORT), "responder",
+                Collections.singletonList(InetAddress.getByName(RESPONDER)),
+                Collections.singletonList(new UdpMdnsDiscovery.Registration("Living Room", "_http._tcp", 8080,
+                        Collections.<String, String>emptyMap())),
+                Collections.<String>emptyList(), mListener);
+
+        final List<UdpDnsMessage.Question> questions = Collections.singletonList(
+                new UdpDnsMessage.Question("_http._tcp.local", UdpDnsMessage.TYPE_PTR, false));
+        final UdpDnsMessage.Record known = UdpDnsMessage.Record.ptr("_http._tcp.local", 4000,
+                "Living Room._http._tcp.local");
+        responder.receive(ByteBuffer.wrap(new UdpDnsMessage(0, false, questions,
+                Collections.singletonList(known), Collections.<UdpDnsMessage.Record>emptyList()).toBytes()),
+                BROWSER, UdpMdnsDiscovery.PORT);
+        assertNull(sent.poll(200, TimeUnit.MILLISECONDS));
+
+        // a known answer about to expire does not count
+        responder.receive(ByteBuffer.wrap(new UdpDnsMessage(0, false, questions,
+                Collections.singletonList(known.withTtl(60)), Collections.<UdpDnsMessage.Record>emptyList())
+                .toBytes()), BROWSER, UdpMdnsDiscovery.PORT);
+        assertEquals(UdpMdnsDiscovery.GROUP_IPV4, sent.poll(1, TimeUnit.SECONDS).getAddress().getHostAddress());
+
+        // legacy queriers get a unicast answer
+        responder.receive(ByteBuffer.wrap(new UdpDnsMessage(42, false, questions,
+                Collections.<UdpDnsMessage.Record>emptyList(), Collections.<UdpDnsMessage.Record>emptyList())
+                .toBytes()), BROWSER, 40000);
+        assertEquals(new InetSocketAddress(BROWSER, 40000), sent.poll(1, TimeUnit.SECONDS));
+        responder.close();
+    }
+
+    @Test
+    public void findsSsdpServicesThroughNotificationsAndSearches() throws InterruptedException {
+        final Node responder = addSsdpNode(RESPONDER, UdpSsdpDiscovery.PORT, Collections.singletonList(
+                new UdpSsdpDiscovery.Registration(MEDIA_SERVER, "uuid:1234::" + MEDIA_SERVER,
+                        "http://10.0.0.1:8200/description.xml", "Android UPnP/1.1 test/1.0", 1800)),
+                Collections.<String>emptyList());
+        addSsdpNode(BROWSER, 50000, Collections.<UdpSsdpDiscovery.Registration>emptyList(),
+                Collections.singletonList(MEDIA_SERVER));
+        startAll();
+
+        assertEquals("up ssdp uuid:1234::" + MEDIA_SERVER + " " + MEDIA_SERVER + " 10.0.0.1:8200 [10.0.0.1] "
+                        + "{location=http://10.0.0.1:8200/description.xml, server=Android UPnP/1.1 test/1.0}",
+                mEvents.poll(5, TimeUnit.SECONDS));
+        // the second notification and the responses to the searches of the browser change nothing
+        assertNull(mEvents.poll(2500, TimeUnit.MILLISECONDS));
+
+        responder.discovery.close();
+        assertEquals("down uuid:1234::" + MEDIA_SERVER, mEvents.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void answersSsdpSearchesAfterARandomDelay() throws InterruptedException {
+        final BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+        final UdpSsdpDiscovery responder = new UdpSsdpDiscovery(mScheduler, new UdpServiceDiscovery.Transport() {
+            @Override
+            public void transmit(byte[] datagram, InetSocketAddress destination) {
+                final String message = new String(datagram, StandardCharsets.UTF_8);
+                if (message.startsWith("HTTP/1.1 200 OK")) {
+                    sent.add(destination.getAddress().getHostAddress() + ":" + destination.getPort() + " " + message);
+                }
+            }
+        }, group(UdpSsdpDiscovery.GROUP_IPV4, UdpSsdpDiscovery.PORT),
+                Collections.singletonList(new UdpSsdpDiscovery.Registration(MEDIA_SERVER,
+                        "uuid:1234::" + MEDIA_SERVER, "http://10.0.0.1:8200/description.xml", null, 1800)),
+                Collections.<String>emptyList(), mListener);
+
+        responder.receive(search("urn:schemas-upnp-org:device:Printer:1"), BROWSER, 50000);
+        responder.receive(search("ssdp:all"), BROWSER, 50000);
+        final String response = sent.poll(2, TimeUnit.SECONDS);
+        assertTrue(response, response.startsWith(BROWSER + ":50000 HTTP/1.1 200 OK\r\n"));
+        assertTrue(response, response.contains("\r\nST: " + MEDIA_SERVER + "\r\n"));
+        assertTrue(response, response.contains("\r\nCACHE-CONTROL: max-age=1800\r\n"));
+        assertNull(sent.poll(1500, TimeUnit.MILLISECONDS));
+        responder.close();
+    }
+
+    @Test
+    public void cachesServicesForTheirTimeToLive() throws Exception {
+        final UdpServiceCache cache = new UdpServiceCache(mListener);
+        final UdpServiceDiscovery.Service service = service("one", 8080);
+
+        cache.put(service, 500);
+        cache.put(service("one", 8080), 500);
+        assertEquals("up test one _test local:8080 [10.0.0.1] {}", mEvents.poll());
+        assertNull(mEvents.poll());
+        cache.put(service("ONE", 8081), 500);
+        assertEquals("up test ONE _test local:8081 [10.0.0.1] {}", mEvents.poll());
+
+        assertTrue(cache.sweep().isEmpty());
+        // due for a refresh before it expires
+        UdpPolling.await("the service was not refreshed", new UdpPolling.Condition() {
+            @Override
+            public boolean isMet() {
+                final List<UdpServiceDiscovery.Service> stale = cache.sweep();
+                assertTrue(mEvents.isEmpty());
+                return stale.size() == 1;
+            }
+        });
+        assertTrue(cache.sweep().isEmpty());
+        UdpPolling.await("the service did not expire", new UdpPolling.Condition() {
+            @Override
+            public boolean isMet() {
+                // refreshed once per time to live
+                assertTrue(cache.sweep().isEmpty());
+                return !mEvents.isEmpty();
+            }
+        });
+        assertEquals("down ONE", mEvents.poll());
+        assertEquals(0, cache.size());
+
+        cache.put(service, 500);
+        cache.put(service, 0);
+        assertEquals("up test one _test local:8080 [10.0.0.1] {}", mEvents.poll());
+        assertEquals("down one", mEvents.poll());
+    }
+
+    @Test
+    public void boundsTheCache() {
+        final UdpServiceCache cache = new UdpServiceCache(mListener);
+        for (int i = 0; i <= UdpServiceCache.MAX_SERVICES; i++) {
+            cache.put(service("service" + i, i), 1000 + i);
+        }
+
+        assertEquals(UdpServiceCache.MAX_SERVICES, cache.size());
+        assertTrue(mEvents.contains("down service0"));
+        assertTrue(cache.contains("service" + UdpServiceCache.MAX_SERVICES));
+    }
+
+    private Node addMdnsNode(String host, List<UdpMdnsDiscovery.Registration> services, List<String> browsedTypes)
+            throws Exception {
+        final Node node = new Node(host, UdpMdnsDiscovery.PORT);
+        node.discovery = new UdpMdnsDiscovery(mScheduler, node, group(UdpMdnsDiscovery.GROUP_IPV4,
+                UdpMdnsDiscovery.PORT), host.equals(RESPONDER) ? "responder" : "browser",
+                Collections.singletonList(InetAddress.getByName(host)), services, browsedTypes, mListener);
+        mNodes.add(node);
+        return node;
+    }
+
+    private Node addSsdpNode(String host, int port, List<UdpSsdpDiscovery.Registration> services,
+                             List<String> browsedTypes) {
+        final Node node = new Node(host, port);
+        node.discovery = new UdpSsdpDiscovery(mScheduler, node, group(UdpSsdpDiscovery.GROUP_IPV4,
+                UdpSsdpDiscovery.PORT), services, browsedTypes, mListener);
+        mNodes.add(node);
+        return node;
+    }
+
+    private void startAll() {
+        for (Node node : mNodes) {
+            node.discovery.start();
+        }
+    }
+
+    private static InetSocketAddress group(String address, int port) {
+        return new InetSocketAddress(address, port);
+    }
+
+    private static ByteBuffer search(String target) {
+        return ByteBuffer.wrap(("M-SEARCH * HTTP/1.1\r\nHOST: 239.255.255.250:1900\r\nMAN: \"ssdp:discover\"\r\n"
+                + "MX: 1\r\nST: " + target + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static UdpServiceDiscovery.Service service(String name, int port) {
+        return new UdpServiceDiscovery.Service("test", name, "_test", "local", port,
+                Collections.singletonList(RESPONDER), Collections.<String, String>emptyMap());
+    }
+
+    private static String describe(UdpServiceDiscovery.Service service) {
+        return service.getProtocol() + " " + service.getName() + " " + service.getType() + " " + service.getHost()
+                + ":" + service.getPort() + " " + service.getAddresses() + " "
+                + new TreeMap<>(service.getAttributes());
+    }
+
+    /**
+     * A host of the in-memory network: datagrams sent to a group reach the other hosts, and those
+     * sent to an address the host with that address.
+     */
+    private final class Node implements UdpServiceDiscovery.Transport {
+        private final String host;
+        private final int port;
+        private UdpServiceDiscovery discovery;
+
+        private Node(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public void transmit(final byte[] datagram, final InetSocketAddress destination) {
+            mNetwork.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (Node node : mNodes) {
+                        if (destination.getAddress().isMulticastAddress()
+                                ? node != Node.this
+                                : node.host.equals(destination.getAddress().getHostAddress())) {
+                            node.discovery.receive(ByteBuffer.wrap(datagram), host, port);
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
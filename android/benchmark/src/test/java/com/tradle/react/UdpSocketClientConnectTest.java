@@ -0,0 +1,91 @@
+package com.tradle.react;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UdpSocketClientConnectTest extends UdpLoopbackTest {
+    @Test
+    public void connectsWithTheThreadEngine() throws Exception {
+        connect(threadEngine());
+    }
+
+    @Test
+    public void connectsWithTheNioEngine() throws Exception {
+        connect(nioEngine());
+    }
+
+    private void connect(UdpLoopback loopback) throws Exception {
+        final UdpSocketClient socket = loopback.bind(0);
+        final UdpSocketClient peer = loopback.bind(1);
+        final UdpSocketClient stranger = loopback.bind(2);
+
+        socket.connect(peer.getLocalPort(), HOST);
+        assertEquals(peer.getLocalPort(), socket.getRemoteAddress().getPort());
+
+        // only the peer gets through, and sends need no destination
+        send(loopback, stranger, "ignored", socket.getLocalPort());
+        send(loopback, peer, "from peer", socket.getLocalPort());
+        assertEquals("0:from peer", receive(loopback));
+        send(loopback, socket, "to peer", null);
+        assertEquals("1:to peer", receive(loopback));
+
+        try {
+            socket.send(loopback.encode("x"), stranger.getLocalPort(), HOST, null);
+            fail("a connected socket sends to its peer only");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        socket.disconnect();
+        assertNull(socket.getRemoteAddress());
+        send(loopback, stranger, "from stranger", socket.getLocalPort());
+        assertEquals("0:from stranger", receive(loopback));
+        try {
+            socket.send(loopback.encode("x"), null, null, null);
+            fail("a disconnected socket needs a destination");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            socket.send(loopback.encode("x"), null, HOST, null);
+            fail("an address needs a port");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertTrue(loopback.isEmpty());
+    }
+
+    /**
+     * Sends a datagram, and waits for it to leave, so that it is not sent after a later step of
+     * the test.
+     */
+    private static void send(final UdpLoopback loopback, UdpSocketClient client, String message, Integer port)
+            throws Exception {
+        final CountDownLatch sent = new CountDownLatch(1);
+        client.send(loopback.encode(message), port, port != null ? HOST : null, new UdpCompletionSink() {
+            @Override
+            public void onSuccess() {
+                sent.countDown();
+            }
+
+            @Override
+            public void onError(String code, String message) {
+                loopback.addFailure(code + ": " + message);
+                sent.countDown();
+            }
+        });
+        assertTrue("the datagram was not sent", sent.await(5, TimeUnit.SECONDS));
+    }
+
+    private static String receive(UdpLoopback loopback) throws InterruptedException {
+        final UdpLoopback.Datagram datagram = loopback.receive();
+        return datagram.client.getId() + ":" + datagram.getText();
+    }
+}
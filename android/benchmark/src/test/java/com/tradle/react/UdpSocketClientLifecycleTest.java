@@ -0,0 +1,236 @@
+package com.tradle.react;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Opens and closes sockets sharing a worker pool, checking that close wakes up their receiving
+ * threads at once and without reporting an error, that no data arrives once it returned, and that
+ * sockets start no thread of their own.
+ */
+public class UdpSocketClientLifecycleTest extends UdpLoopbackTest {
+    private static final int SOCKETS = 100;
+    private static final long CLOSE_BOUND_MS = 500;
+    private static final int FLOODED_SOCKETS = 20;
+
+    private final UdpWorkerPool mWorkerPool = new UdpWorkerPool();
+    private final UdpReceiveThreads mReceiveThreads = mWorkerPool.getReceiveThreads();
+    private final Queue<String> mEvents = new ConcurrentLinkedQueue<>();
+    private final Semaphore mReceived = new Semaphore(0);
+    // sockets whose close returned, and which must not receive anymore
+    private final Set<UdpSocketClient> mClosed = ConcurrentHashMap.newKeySet();
+    // how long the sink holds on to each datagram, to catch close in the middle of a delivery
+    private volatile long mDeliveryMs = 0;
+    private final AtomicInteger mDelivering = new AtomicInteger();
+
+    private final UdpEventSink mEventSink = new UdpEventSink() {
+        @Override
+        public void didReceiveData(UdpSocketClient client, ByteBuffer data, String host, int port, String channel) {
+            mDelivering.incrementAndGet();
+            if (mDeliveryMs > 0) {
+                try {
+                    Thread.sleep(mDeliveryMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (mClosed.contains(client)) {
+                mEvents.add("data after close of socket " + client.getId());
+            }
+            mBufferPool.release(data);
+            mReceived.release();
+            mDelivering.decrementAndGet();
+        }
+
+        @Override
+        public void didReceiveError(UdpSocketClient client, String message) {
+            mEvents.add("error: " + message);
+        }
+
+        @Override
+        public void didReceiveException(RuntimeException exception) {
+            mEvents.add(exception.toString());
+        }
+    };
+
+    @After
+    public void tearDown() {
+        mWorkerPool.shutdown();
+    }
+
+    @Test
+    public void closeReturnsOnceTheReceivingThreadsDid() throws Exception {
+        final UdpLoopback loopback = loopback(false, mWorkerPool);
+        final UdpSocketClient client = loopback.client(0, mEventSink);
+        client.setReceiveWorkers(4);
+        loopback.bind(client);
+        UdpPolling.await("the receiving threads did not start", new UdpPolling.Condition() {
+            @Override
+            public boolean isMet() {
+                return mReceiveThreads.getActiveCount() == client.getReceiveWorkerCount();
+            }
+        });
+
+        final long start = System.nanoTime();
+        client.close();
+        final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("close took " + elapsedMs + " ms", elapsedMs < CLOSE_BOUND_MS);
+        awaitIdleReceiveThreads();
+        assertTrue(String.valueOf(mEvents), mEvents.isEmpty());
+    }
+
+    @Test
+    public void churningSocketsReuseTheReceivingThreads() throws Exception {
+        final UdpLoopback loopback = loopback(false, mWorkerPool);
+        for (int i = 0; i < SOCKETS; i++) {
+            loopback.bind(loopback.client(i, mEventSink)).close();
+        }
+
+        awaitIdleReceiveThreads();
+        assertTrue("started " + mReceiveThreads.getThreadCount() + " threads for " + SOCKETS + " sockets",
+                mReceiveThreads.getThreadCount() < SOCKETS / 2);
+        assertTrue(String.valueOf(mEvents), mEvents.isEmpty());
+    }
+
+    @Test
+    public void noDataArrivesOnceCloseReturned() throws Exception {
+        final UdpLoopback loopback = loopback(false, mWorkerPool);
+        for (int i = 0; i < FLOODED_SOCKETS; i++) {
+            closeWhileFlooded(loopback, loopback.client(i, mEventSink));
+        }
+        assertTrue(String.valueOf(mEvents), mEvents.isEmpty());
+    }
+
+    @Test
+    public void noDataArrivesOnceCloseReturnedOnTheNioEngine() throws Exception {
+        final UdpLoopback loopback = loopback(true, mWorkerPool);
+        for (int i = 0; i < FLOODED_SOCKETS; i++) {
+            closeWhileFlooded(loopback, loopback.client(i, mEventSink));
+        }
+        assertTrue(String.valueOf(mEvents), mEvents.isEmpty());
+    }
+
+    @Test
+    public void socketsOfTheNioEngineStartNoThread() throws Exception {
+        final int threadsBefore = Thread.activeCount();
+        final UdpLoopback loopback = loopback(true, mWorkerPool);
+        final UdpSocketClient[] clients = new UdpSocketClient[SOCKETS];
+        for (int i = 0; i < SOCKETS; i++) {
+            clients[i] = loopback.bind(loopback.client(i, mEventSink));
+        }
+        // every socket sends a datagram to itself
+        for (UdpSocketClient client : clients) {
+            client.send(loopback.encode(new byte[64]), client.getLocalPort(), HOST, null);
+        }
+        assertTrue("not all datagrams arrived",
+                mReceived.tryAcquire(SOCKETS, UdpLoopback.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        final int threads = Thread.activeCount() - threadsBefore;
+        // the sending threads of the pool, at least two, and the selector
+        final int bound = Math.max(2, Runtime.getRuntime().availableProcessors()) + 1;
+        assertTrue(threads + " threads for " + SOCKETS + " sockets", threads <= bound);
+        assertTrue(String.valueOf(mEvents), mEvents.isEmpty());
+    }
+
+    @Test
+    public void aTaskTerminatedBeforeItStartsNeverRuns() throws Exception {
+        final DatagramSocket socket = new DatagramSocket(0);
+        final UdpReceiverTask task = new UdpReceiverTask(socket, mBufferPool, 1500, new UdpReceiverTask.OnDataReceivedListener() {
+            @Override
+            public void didReceiveData(ByteBuffer data, String host, int port) {
+                mEvents.add("data");
+            }
+
+            @Override
+            public void didReceiveError(String message) {
+                mEvents.add("error: " + message);
+            }
+
+            @Override
+            public void didReceiveRuntimeException(RuntimeException exception) {
+                mEvents.add(exception.toString());
+            }
+        }, null);
+
+        task.terminate();
+        assertTrue(task.awaitTermination(0, TimeUnit.MILLISECONDS));
+        task.run();
+
+        assertFalse(task.isRunning());
+        assertTrue(socket.isClosed());
+        assertTrue(String.valueOf(mEvents), mEvents.isEmpty());
+    }
+
+    /**
+     * Binds the client, floods it with datagrams it is slow to take, and closes it in the middle
+     * of a delivery.
+     */
+    private void closeWhileFlooded(UdpLoopback loopback, UdpSocketClient client) throws Exception {
+        loopback.bind(client);
+        final InetAddress address = InetAddress.getByName(HOST);
+        final int port = client.getLocalPort();
+        final DatagramSocket flooder = new DatagramSocket();
+        final Thread flooding = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final byte[] datagram = new byte[64];
+                try {
+                    while (!flooder.isClosed()) {
+                        flooder.send(new DatagramPacket(datagram, datagram.length, address, port));
+                    }
+                } catch (IOException ioe) {
+                    // closed at the end of the test
+                }
+            }
+        });
+        mDeliveryMs = 2;
+        mReceived.drainPermits();
+        flooding.start();
+        try {
+            assertTrue("no datagram arrived", mReceived.tryAcquire(UdpLoopback.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            client.close();
+            mClosed.add(client);
+            // let a delivery still in progress complete
+            UdpPolling.await("a delivery did not complete", new UdpPolling.Condition() {
+                @Override
+                public boolean isMet() {
+                    return mDelivering.get() == 0;
+                }
+            });
+        } finally {
+            flooder.close();
+            flooding.join();
+            mDeliveryMs = 0;
+        }
+    }
+
+    /**
+     * Waits for the receiving threads to be idle: the pool counts a thread as active until its
+     * task returned, slightly after close saw the task done.
+     */
+    private void awaitIdleReceiveThreads() throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_BOUND_MS);
+        while (mReceiveThreads.getActiveCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, mReceiveThreads.getActiveCount());
+    }
+}
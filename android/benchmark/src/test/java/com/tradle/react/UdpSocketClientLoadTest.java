@@ -0,0 +1,280 @@
+package com.tradle.react;
+
+import com.tradle.react.benchmark.JvmBase64Codec;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Floods sockets over loopback, checking that every datagram arrives once and in order, that every
+ * send completes, even past a full send buffer, and that closed sockets leave no thread behind.
+ */
+public class UdpSocketClientLoadTest {
+    private static final String HOST = "127.0.0.1";
+    private static final int DATAGRAMS = 20000;
+    private static final int DATAGRAM_SIZE = 512;
+    // datagrams in flight per socket, few enough for the kernel buffers to never drop any
+    private static final int WINDOW = 64;
+    private static final long TIMEOUT_SECONDS = 10;
+    // datagrams sent at once, far more than a small send buffer holds
+    private static final int BURST = 5000;
+    private static final int SMALL_SEND_BUFFER_SIZE = 4096;
+    // a documentation address (RFC 5737) off the host: loopback delivers at once, and never fills
+    // the send buffer, while a network interface drains it at its own pace
+    private static final String UNREACHABLE_HOST = "192.0.2.1";
+    private static final int DISCARD_PORT = 9;
+
+    private final UdpCodec mCodec = new JvmBase64Codec();
+    private final UdpBufferPool mBufferPool = new UdpBufferPool();
+    private final UdpAddressCache mAddressCache = new UdpAddressCache();
+    private final List<UdpSocketClient> mClients = new ArrayList<>();
+    private final Queue<String> mFailures = new ConcurrentLinkedQueue<>();
+    private UdpSelectorTask mSelectorTask;
+    private UdpWorkerPool mWorkerPool;
+
+    @After
+    public void tearDown() {
+        for (UdpSocketClient client : mClients) {
+            client.close();
+        }
+        if (mSelectorTask != null) {
+            mSelectorTask.terminate();
+        }
+        if (mWorkerPool != null) {
+            mWorkerPool.shutdown();
+        }
+    }
+
+    @Test
+    public void floodsASocketWithTheThreadEngine() throws Exception {
+        flood(1, null);
+    }
+
+    @Test
+    public void floodsASocketWithTheNioEngine() throws Exception {
+        mSelectorTask = new UdpSelectorTask(mBufferPool);
+        flood(1, mSelectorTask);
+    }
+
+    @Test
+    public void floodsSocketsSharingTheSelector() throws Exception {
+        mSelectorTask = new UdpSelectorTask(mBufferPool);
+        flood(8, mSelectorTask);
+    }
+
+    @Test
+    public void floodsSocketsWithTheirOwnThreads() throws Exception {
+        flood(8, null);
+    }
+
+    @Test
+    public void floodsSocketsSharingTheWorkerPool() throws Exception {
+        mWorkerPool = new UdpWorkerPool();
+        flood(8, null);
+    }
+
+    @Test
+    public void aBurstPastTheSendBufferOfTheNioEngineSendsEveryDatagram() throws Exception {
+        assumeTrue("no route off the host", isRoutable(UNREACHABLE_HOST));
+        mSelectorTask = new UdpSelectorTask(mBufferPool);
+        final UdpSocketClient sender = new UdpSocketClient(0, mCodec, new UdpEventSink() {
+            @Override
+            public void didReceiveData(UdpSocketClient client, ByteBuffer data, String host, int port, String channel) {
+                mBufferPool.release(data);
+            }
+
+            @Override
+            public void didReceiveError(UdpSocketClient client, String message) {
+                mFailures.add("error: " + message);
+            }
+
+            @Override
+            public void didReceiveException(RuntimeException exception) {
+                mFailures.add(exception.toString());
+            }
+        }, mBufferPool, mAddressCache, mSelectorTask, mWorkerPool);
+        mClients.add(sender);
+        sender.setSendBufferSize(SMALL_SEND_BUFFER_SIZE);
+        sender.bind(0, null);
+
+        final List<UdpSenderTask.Packet> packets = new ArrayList<>();
+        for (int i = 0; i < BURST; i++) {
+            packets.add(new UdpSenderTask.Packet(new byte[DATAGRAM_SIZE], DISCARD_PORT, UNREACHABLE_HOST));
+        }
+        final CountDownLatch sent = new CountDownLatch(1);
+        sender.sendBatch(packets, new UdpCompletionSink() {
+            @Override
+            public void onSuccess() {
+                sent.countDown();
+            }
+
+            @Override
+            public void onError(String code, String message) {
+                mFailures.add(code + ": " + message);
+                sent.countDown();
+            }
+        });
+        assertTrue("the burst was not sent", sent.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertTrue(String.valueOf(mFailures), mFailures.isEmpty());
+        assertEquals(BURST, sender.getStats().getPacketsSent());
+        assertEquals(0, sender.getStats().getSendErrors());
+    }
+
+    @Test
+    public void closeStopsTheThreadsOfTheSockets() throws Exception {
+        final int threadsBefore = Thread.activeCount();
+        flood(4, null);
+
+        for (UdpSocketClient client : mClients) {
+            client.close();
+        }
+        mClients.clear();
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (Thread.activeCount() > threadsBefore && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("threads left behind: " + (Thread.activeCount() - threadsBefore),
+                Thread.activeCount() <= threadsBefore);
+    }
+
+    /**
+     * @return whether a datagram to the host leaves the host, which it does not without a route.
+     */
+    private static boolean isRoutable(String host) {
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.send(ByteBuffer.allocate(1), new InetSocketAddress(host, DISCARD_PORT));
+            return true;
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    /**
+     * Sends {@link #DATAGRAMS} numbered datagrams from each of {@code pairs} senders to its own
+     * receiver, all at once.
+     */
+    private void flood(int pairs, UdpSelectorTask selectorTask) throws Exception {
+        final List<Peer> peers = new ArrayList<>();
+        for (int i = 0; i < pairs; i++) {
+            peers.add(new Peer(i, selectorTask));
+        }
+
+        final List<Thread> senders = new ArrayList<>();
+        for (final Peer peer : peers) {
+            final Thread sender = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    peer.send();
+                }
+            });
+            senders.add(sender);
+            sender.start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+
+        assertTrue(String.valueOf(mFailures), mFailures.isEmpty());
+        for (Peer peer : peers) {
+            assertTrue("not all datagrams arrived", peer.mWindow.tryAcquire(WINDOW, TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertEquals(DATAGRAMS, peer.mReceived.get());
+            assertEquals(DATAGRAMS, peer.mReceiver.getStats().getPacketsReceived());
+
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            while (peer.mCompleted.get() < DATAGRAMS && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals("every send completes once", DATAGRAMS, peer.mCompleted.get());
+            assertEquals(DATAGRAMS, peer.mSender.getStats().getPacketsSent());
+            assertEquals(0, peer.mSender.getStats().getSendErrors());
+        }
+    }
+
+    /**
+     * A sending and a receiving socket, the sender waiting for room in the window of the receiver.
+     */
+    private final class Peer implements UdpEventSink, UdpCompletionSink {
+        private final UdpSocketClient mSender;
+        private final UdpSocketClient mReceiver;
+        private final Semaphore mWindow = new Semaphore(WINDOW);
+        private final AtomicInteger mReceived = new AtomicInteger();
+        private final AtomicInteger mCompleted = new AtomicInteger();
+
+        private Peer(int id, UdpSelectorTask selectorTask) throws IOException {
+            mReceiver = new UdpSocketClient(id, mCodec, this, mBufferPool, mAddressCache, selectorTask, mWorkerPool);
+            mClients.add(mReceiver);
+            mReceiver.bind(0, HOST);
+            mSender = new UdpSocketClient(id, mCodec, this, mBufferPool, mAddressCache, selectorTask, mWorkerPool);
+            mClients.add(mSender);
+            mSender.bind(0, HOST);
+        }
+
+        private void send() {
+            final byte[] payload = new byte[DATAGRAM_SIZE];
+            try {
+                for (int i = 0; i < DATAGRAMS; i++) {
+                    if (!mWindow.tryAcquire(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        mFailures.add("datagrams lost, " + mReceived.get() + " of " + i + " arrived");
+                        return;
+                    }
+                    ByteBuffer.wrap(payload).putInt(0, i);
+                    mSender.send(mCodec.encode(ByteBuffer.wrap(payload)), mReceiver.getLocalPort(), HOST, this);
+                }
+            } catch (Exception e) {
+                mFailures.add(e.toString());
+            }
+        }
+
+        @Override
+        public void didReceiveData(UdpSocketClient client, ByteBuffer data, String host, int port, String channel) {
+            final int expected = mReceived.getAndIncrement();
+            final int sequence = data.getInt(data.position());
+            if (sequence != expected || data.remaining() != DATAGRAM_SIZE) {
+                mFailures.add("received datagram " + sequence + " of " + data.remaining() + " bytes, expected "
+                        + expected);
+            }
+            mBufferPool.release(data);
+            mWindow.release();
+        }
+
+        @Override
+        public void didReceiveError(UdpSocketClient client, String message) {
+            // sockets closing while receiving report an error
+        }
+
+        @Override
+        public void didReceiveException(RuntimeException exception) {
+            mFailures.add(exception.toString());
+        }
+
+        @Override
+        public void onSuccess() {
+            mCompleted.incrementAndGet();
+        }
+
+        @Override
+        public void onError(String code, String message) {
+            mFailures.add(code + ": " + message);
+            mCompleted.incrementAndGet();
+        }
+    }
+}
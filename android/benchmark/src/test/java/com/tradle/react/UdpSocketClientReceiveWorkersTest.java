@@ -0,0 +1,129 @@
+package com.tradle.react;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Floods a socket receiving on several SO_REUSEPORT workers from many peers, checking that the
+ * datagrams of every peer arrive once and in order, and that the workers share the load.
+ */
+public class UdpSocketClientReceiveWorkersTest extends UdpLoopbackTest {
+    private static final int WORKERS = 4;
+    private static final int SENDERS = 16;
+    private static final int DATAGRAMS = 2000;
+    private static final int WINDOW = 16;
+
+    private UdpLoopback mLoopback;
+    private final Map<Integer, AtomicInteger> mReceived = new ConcurrentHashMap<>();
+    private final Map<Integer, Semaphore> mWindows = new ConcurrentHashMap<>();
+    private final Set<String> mReceivingThreads = ConcurrentHashMap.newKeySet();
+
+    private final UdpEventSink mEventSink = new UdpEventSink() {
+        @Override
+        public void didReceiveData(UdpSocketClient client, ByteBuffer data, String host, int port, String channel) {
+            final int sender = data.getInt(data.position());
+            final int sequence = data.getInt(data.position() + 4);
+            final int expected = mReceived.get(sender).getAndIncrement();
+            if (sequence != expected) {
+                mLoopback.addFailure("received datagram " + sequence + " of sender " + sender + ", expected " + expected);
+            }
+            mReceivingThreads.add(Thread.currentThread().getName());
+            mBufferPool.release(data);
+            mWindows.get(sender).release();
+        }
+
+        @Override
+        public void didReceiveError(UdpSocketClient client, String message) {
+        }
+
+        @Override
+        public void didReceiveException(RuntimeException exception) {
+            mLoopback.addFailure(exception.toString());
+        }
+    };
+
+    @Test
+    public void spreadsThePeersAcrossTheWorkers() throws Exception {
+        mLoopback = threadEngine();
+        final UdpSocketClient receiver = client(-1);
+        receiver.setReceiveWorkers(WORKERS);
+        receiver.bind(0, HOST);
+        assertEquals(WORKERS, receiver.getReceiveWorkerCount());
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < SENDERS; i++) {
+            final int id = i;
+            final UdpSocketClient sender = client(id);
+            sender.bind(0, HOST);
+            mReceived.put(id, new AtomicInteger());
+            mWindows.put(id, new Semaphore(WINDOW));
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    send(id, sender, receiver.getLocalPort());
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(String.valueOf(mLoopback.getFailures()), mLoopback.getFailures().isEmpty());
+        for (int i = 0; i < SENDERS; i++) {
+            assertTrue("not all datagrams arrived", mWindows.get(i).tryAcquire(WINDOW, UdpLoopback.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertEquals(DATAGRAMS, mReceived.get(i).get());
+        }
+        assertEquals(SENDERS * DATAGRAMS, receiver.getStats().getPacketsReceived());
+        assertTrue("a single worker received: " + mReceivingThreads, mReceivingThreads.size() > 1);
+    }
+
+    @Test
+    public void rejectsMulticastWithSeveralWorkers() throws Exception {
+        mLoopback = threadEngine();
+        final UdpSocketClient receiver = client(0);
+        receiver.setReceiveWorkers(2);
+        receiver.bind(0, HOST);
+        try {
+            receiver.addMembership("239.255.0.1");
+            fail("joined a group with several workers");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private void send(int id, UdpSocketClient sender, int port) {
+        final ByteBuffer payload = ByteBuffer.allocate(64);
+        payload.putInt(0, id);
+        try {
+            for (int i = 0; i < DATAGRAMS; i++) {
+                if (!mWindows.get(id).tryAcquire(UdpLoopback.TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    mLoopback.addFailure("datagrams of sender " + id + " lost, " + mReceived.get(id).get() + " of " + i + " arrived");
+                    return;
+                }
+                payload.putInt(4, i);
+                sender.send(mLoopback.getCodec().encode(payload.duplicate()), port, HOST, null);
+            }
+        } catch (Exception e) {
+            mLoopback.addFailure(e.toString());
+        }
+    }
+
+    private UdpSocketClient client(int id) {
+        return mLoopback.client(id, mEventSink);
+    }
+}
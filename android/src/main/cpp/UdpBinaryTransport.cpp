@@ -0,0 +1,182 @@
+/**
+ *  UdpBinaryTransport.cpp
+ *  react-native-udp
+ *
+ *  JSI binding through which the javascript layer fetches received datagrams as ArrayBuffers,
+ *  from the inboxes of com.tradle.react.UdpBinaryTransport, and stages outgoing data.
+ */
+
+#include <jni.h>
+#include <jsi/jsi.h>
+
+#include <string>
+#include <vector>
+
+using namespace facebook;
+
+namespace {
+
+JavaVM *gJavaVM = nullptr;
+jobject gTransport = nullptr;
+jmethodID gPollMethod = nullptr;
+jmethodID gStageMethod = nullptr;
+jmethodID gReadMethod = nullptr;
+jfieldID gLengthField = nullptr;
+jfieldID gHostField = nullptr;
+jfieldID gPortField = nullptr;
+jfieldID gChannelField = nullptr;
+jfieldID gTsField = nullptr;
+
+JNIEnv *getEnv(jsi::Runtime &runtime, const char *function) {
+    JNIEnv *env = nullptr;
+    if (gJavaVM->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6) != JNI_OK) {
+        throw jsi::JSError(runtime, std::string(function) + ": not called from the javascript thread");
+    }
+    return env;
+}
+
+/**
+ * Drains the inbox of a socket: __udpReceive(id) returns an array of
+ * { data: ArrayBuffer, address: string, port: number, ts: number, channel?: string }, in the order
+ * received; only datagrams routed by a packet filter have a channel.
+ * Runs on the javascript thread, which is attached to the JVM.
+ */
+jsi::Value receive(jsi::Runtime &runtime, const jsi::Value &, const jsi::Value *args, size_t count) {
+    if (count < 1 || !args[0].isNumber()) {
+        throw jsi::JSError(runtime, "__udpReceive: expected a socket id");
+    }
+
+    JNIEnv *env = getEnv(runtime, "__udpReceive");
+    const jint clientId = static_cast<jint>(args[0].asNumber());
+    jsi::Function arrayBufferConstructor = runtime.global().getPropertyAsFunction(runtime, "ArrayBuffer");
+    std::vector<jsi::Object> datagrams;
+
+    while (true) {
+        jobject datagram = env->CallObjectMethod(gTransport, gPollMethod, clientId);
+        if (env->ExceptionCheck()) {
+            env->ExceptionClear();
+            throw jsi::JSError(runtime, "__udpReceive: failed to poll received data");
+        }
+        if (datagram == nullptr) {
+            break;
+        }
+
+        // the datagram is copied straight from its pooled buffer into the ArrayBuffer memory
+        const jint length = env->GetIntField(datagram, gLengthField);
+        jsi::Object buffer = arrayBufferConstructor
+                .callAsConstructor(runtime, static_cast<double>(length))
+                .getObject(runtime);
+        jobject target = length > 0
+                ? env->NewDirectByteBuffer(buffer.getArrayBuffer(runtime).data(runtime), length)
+                : nullptr;
+        env->CallVoidMethod(gTransport, gReadMethod, datagram, target);
+        if (target != nullptr) {
+            env->DeleteLocalRef(target);
+        }
+        if (env->ExceptionCheck()) {
+            env->ExceptionClear();
+            throw jsi::JSError(runtime, "__udpReceive: failed to read received data");
+        }
+
+        auto host = static_cast<jstring>(env->GetObjectField(datagram, gHostField));
+        const char *hostChars = env->GetStringUTFChars(host, nullptr);
+        const std::string address(hostChars);
+        env->ReleaseStringUTFChars(host, hostChars);
+
+        jsi::Object info(runtime);
+        info.setProperty(runtime, "data", std::move(buffer));
+        info.setProperty(runtime, "address", jsi::String::createFromUtf8(runtime, address));
+        info.setProperty(runtime, "port", static_cast<int>(env->GetIntField(datagram, gPortField)));
+        info.setProperty(runtime, "ts", static_cast<double>(env->GetLongField(datagram, gTsField)));
+        auto channel = static_cast<jstring>(env->GetObjectField(datagram, gChannelField));
+        if (channel != nullptr) {
+            const char *channelChars = env->GetStringUTFChars(channel, nullptr);
+            info.setProperty(runtime, "channel", jsi::String::createFromUtf8(runtime, channelChars));
+            env->ReleaseStringUTFChars(channel, channelChars);
+            env->DeleteLocalRef(channel);
+        }
+        datagrams.push_back(std::move(info));
+
+        env->DeleteLocalRef(host);
+        env->DeleteLocalRef(datagram);
+    }
+
+    jsi::Array result(runtime, datagrams.size());
+    for (size_t i = 0; i < datagrams.size(); i++) {
+        result.setValueAtIndex(runtime, i, std::move(datagrams[i]));
+    }
+    return result;
+}
+
+/**
+ * Copies outgoing data into the JVM: __udpStage(arrayBuffer, offset, length) returns the handle
+ * to send it with.
+ */
+jsi::Value stage(jsi::Runtime &runtime, const jsi::Value &, const jsi::Value *args, size_t count) {
+    if (count < 3 || !args[0].isObject() || !args[1].isNumber() || !args[2].isNumber()) {
+        throw jsi::JSError(runtime, "__udpStage: expected an ArrayBuffer, an offset and a length");
+    }
+
+    jsi::ArrayBuffer buffer = args[0].getObject(runtime).getArrayBuffer(runtime);
+    const auto offset = static_cast<size_t>(args[1].asNumber());
+    const auto length = static_cast<size_t>(args[2].asNumber());
+    if (offset + length > buffer.size(runtime)) {
+        throw jsi::JSError(runtime, "__udpStage: out of bounds");
+    }
+
+    JNIEnv *env = getEnv(runtime, "__udpStage");
+    jbyteArray data = env->NewByteArray(static_cast<jsize>(length));
+    env->SetByteArrayRegion(data, 0, static_cast<jsize>(length),
+                            reinterpret_cast<const jbyte *>(buffer.data(runtime) + offset));
+    const jint handle = env->CallIntMethod(gTransport, gStageMethod, data);
+    env->DeleteLocalRef(data);
+    if (env->ExceptionCheck()) {
+        env->ExceptionClear();
+        throw jsi::JSError(runtime, "__udpStage: failed to stage data");
+    }
+    return jsi::Value(static_cast<int>(handle));
+}
+
+} // namespace
+
+extern "C" JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *vm, void *) {
+    gJavaVM = vm;
+    return JNI_VERSION_1_6;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_tradle_react_UdpBinaryTransport_nativeInstall(JNIEnv *env, jobject thiz, jlong jsRuntime) {
+    auto &runtime = *reinterpret_cast<jsi::Runtime *>(jsRuntime);
+
+    // a reload creates a new transport, which replaces the previous one
+    if (gTransport != nullptr) {
+        env->DeleteGlobalRef(gTransport);
+    }
+    gTransport = env->NewGlobalRef(thiz);
+
+    jclass transportClass = env->GetObjectClass(thiz);
+    gPollMethod = env->GetMethodID(transportClass, "poll", "(I)Lcom/tradle/react/UdpDatagram;");
+    gStageMethod = env->GetMethodID(transportClass, "stage", "([B)I");
+    gReadMethod = env->GetMethodID(transportClass, "read",
+                                   "(Lcom/tradle/react/UdpDatagram;Ljava/nio/ByteBuffer;)V");
+    env->DeleteLocalRef(transportClass);
+
+    jclass datagramClass = env->FindClass("com/tradle/react/UdpDatagram");
+    gLengthField = env->GetFieldID(datagramClass, "length", "I");
+    gHostField = env->GetFieldID(datagramClass, "host", "Ljava/lang/String;");
+    gPortField = env->GetFieldID(datagramClass, "port", "I");
+    gTsField = env->GetFieldID(datagramClass, "ts", "J");
+    gChannelField = env->GetFieldID(datagramClass, "channel", "Ljava/lang/String;");
+    env->DeleteLocalRef(datagramClass);
+
+    runtime.global().setProperty(
+            runtime,
+            "__udpReceive",
+            jsi::Function::createFromHostFunction(runtime, jsi::PropNameID::forAscii(runtime, "__udpReceive"), 1,
+                                                  receive));
+    runtime.global().setProperty(
+            runtime,
+            "__udpStage",
+            jsi::Function::createFromHostFunction(runtime, jsi::PropNameID::forAscii(runtime, "__udpStage"), 3,
+                                                  stage));
+}
@@ -0,0 +1,209 @@
+/**
+ *  UdpNativeIo.cpp
+ *  react-native-udp
+ *
+ *  Batched datagram I/O for com.tradle.react.UdpNativeIo: several datagrams per recvmmsg or
+ *  sendmmsg call, moved through slots of a direct buffer. Bionic only declares both calls from
+ *  API 21, so they are made as raw system calls, which kernels have had since 2.6.33 and 3.0.
+ */
+
+#include <jni.h>
+
+#include <arpa/inet.h>
+#include <cerrno>
+#include <cstring>
+#include <netinet/in.h>
+#include <sys/socket.h>
+#include <sys/syscall.h>
+#include <unistd.h>
+
+namespace {
+
+constexpr int kMaxBatchSize = 32;
+// per datagram: length, port, and length of the address
+constexpr int kMetaSize = 3;
+constexpr int kAddressSize = 16;
+
+int recvMmsg(int fd, mmsghdr *messages, unsigned int count, int flags) {
+    return static_cast<int>(syscall(__NR_recvmmsg, fd, messages, count, flags, nullptr));
+}
+
+int sendMmsg(int fd, mmsghdr *messages, unsigned int count, int flags) {
+    return static_cast<int>(syscall(__NR_sendmmsg, fd, messages, count, flags));
+}
+
+/**
+ * Reads the sender of a datagram, IPv4 senders of dual stack sockets as plain IPv4 addresses.
+ *
+ * @return the length of the address, 0 if there is none.
+ */
+int readAddress(const sockaddr_storage &name, socklen_t length, jbyte *address, jint *port) {
+    if (length >= sizeof(sockaddr_in) && name.ss_family == AF_INET) {
+        const auto &in = reinterpret_cast<const sockaddr_in &>(name);
+        memcpy(address, &in.sin_addr, 4);
+        *port = ntohs(in.sin_port);
+        return 4;
+    }
+    if (length >= sizeof(sockaddr_in6) && name.ss_family == AF_INET6) {
+        const auto &in6 = reinterpret_cast<const sockaddr_in6 &>(name);
+        *port = ntohs(in6.sin6_port);
+        if (IN6_IS_ADDR_V4MAPPED(&in6.sin6_addr)) {
+            memcpy(address, in6.sin6_addr.s6_addr + 12, 4);
+            return 4;
+        }
+        memcpy(address, in6.sin6_addr.s6_addr, 16);
+        return 16;
+    }
+    *port = 0;
+    return 0;
+}
+
+/**
+ * Writes a destination, IPv4 destinations of dual stack sockets as IPv4 mapped addresses.
+ *
+ * @return the length of the socket address, 0 if the socket cannot send to the address.
+ */
+socklen_t writeAddress(bool isIpv6Socket, const jbyte *address, int addressLength, int port, sockaddr_storage *name) {
+    memset(name, 0, sizeof(sockaddr_storage));
+    if (isIpv6Socket) {
+        auto *in6 = reinterpret_cast<sockaddr_in6 *>(name);
+        in6->sin6_family = AF_INET6;
+        in6->sin6_port = htons(static_cast<uint16_t>(port));
+        if (addressLength == 4) {
+            in6->sin6_addr.s6_addr[10] = 0xff;
+            in6->sin6_addr.s6_addr[11] = 0xff;
+            memcpy(in6->sin6_addr.s6_addr + 12, address, 4);
+        } else if (addressLength == 16) {
+            memcpy(in6->sin6_addr.s6_addr, address, 16);
+        } else {
+            return 0;
+        }
+        return sizeof(sockaddr_in6);
+    }
+    if (addressLength != 4) {
+        return 0;
+    }
+    auto *in = reinterpret_cast<sockaddr_in *>(name);
+    in->sin_family = AF_INET;
+    in->sin_port = htons(static_cast<uint16_t>(port));
+    memcpy(&in->sin_addr, address, 4);
+    return sizeof(sockaddr_in);
+}
+
+} // namespace
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_tradle_react_UdpNativeIo_nativeReceive(JNIEnv *env, jclass, jint fd, jobject arena, jint slotSize,
+                                                jint count, jintArray meta, jbyteArray addresses) {
+    auto *base = static_cast<uint8_t *>(env->GetDirectBufferAddress(arena));
+    if (base == nullptr || count <= 0 || count > kMaxBatchSize) {
+        return -EINVAL;
+    }
+
+    mmsghdr messages[kMaxBatchSize];
+    iovec vectors[kMaxBatchSize];
+    sockaddr_storage names[kMaxBatchSize];
+    memset(messages, 0, sizeof(mmsghdr) * count);
+    for (int i = 0; i < count; i++) {
+        vectors[i].iov_base = base + static_cast<size_t>(i) * slotSize;
+        vectors[i].iov_len = static_cast<size_t>(slotSize);
+        messages[i].msg_hdr.msg_iov = &vectors[i];
+        messages[i].msg_hdr.msg_iovlen = 1;
+        messages[i].msg_hdr.msg_name = &names[i];
+        messages[i].msg_hdr.msg_namelen = sizeof(sockaddr_storage);
+    }
+
+    int received;
+    do {
+        // blocks for the first datagram only, then takes those already waiting
+        received = recvMmsg(fd, messages, static_cast<unsigned int>(count), MSG_WAITFORONE);
+    } while (received < 0 && errno == EINTR);
+    if (received < 0) {
+        return -errno;
+    }
+
+    jint metaValues[kMaxBatchSize * kMetaSize];
+    jbyte addressValues[kMaxBatchSize * kAddressSize];
+    for (int i = 0; i < received; i++) {
+        jint *datagram = metaValues + i * kMetaSize;
+        const int addressLength = readAddress(names[i], messages[i].msg_hdr.msg_namelen,
+                                              addressValues + i * kAddressSize, &datagram[1]);
+        if (addressLength == 0) {
+            // a socket shut down reads as an empty message without a sender, ending the batch
+            received = i;
+            break;
+        }
+        datagram[0] = static_cast<jint>(messages[i].msg_len);
+        datagram[2] = addressLength;
+    }
+    env->SetIntArrayRegion(meta, 0, received * kMetaSize, metaValues);
+    env->SetByteArrayRegion(addresses, 0, received * kAddressSize, addressValues);
+    return received;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_tradle_react_UdpNativeIo_nativeSend(JNIEnv *env, jclass, jint fd, jboolean isIpv6Socket, jobject arena,
+                                             jintArray meta, jbyteArray addresses, jint from, jint count) {
+    auto *base = static_cast<uint8_t *>(env->GetDirectBufferAddress(arena));
+    if (base == nullptr || from < 0 || count <= 0 || from + count > kMaxBatchSize) {
+        return -EINVAL;
+    }
+
+    jint metaValues[kMaxBatchSize * kMetaSize];
+    jbyte addressValues[kMaxBatchSize * kAddressSize];
+    env->GetIntArrayRegion(meta, 0, (from + count) * kMetaSize, metaValues);
+    env->GetByteArrayRegion(addresses, from * kAddressSize, count * kAddressSize, addressValues);
+
+    // queued datagrams are packed one after the other
+    size_t offset = 0;
+    for (int i = 0; i < from; i++) {
+        offset += static_cast<size_t>(metaValues[i * kMetaSize]);
+    }
+
+    mmsghdr messages[kMaxBatchSize];
+    iovec vectors[kMaxBatchSize];
+    sockaddr_storage names[kMaxBatchSize];
+    memset(messages, 0, sizeof(mmsghdr) * count);
+    for (int i = 0; i < count; i++) {
+        const jint *datagram = metaValues + (from + i) * kMetaSize;
+        const socklen_t nameLength = writeAddress(isIpv6Socket, addressValues + i * kAddressSize, datagram[2],
+                                                  datagram[1], &names[i]);
+        if (nameLength == 0) {
+            if (i == 0) {
+                return -EAFNOSUPPORT;
+            }
+            // sent up to the unsupported destination, which fails on its own in the next call
+            count = i;
+            break;
+        }
+        vectors[i].iov_base = base + offset;
+        vectors[i].iov_len = static_cast<size_t>(datagram[0]);
+        messages[i].msg_hdr.msg_iov = &vectors[i];
+        messages[i].msg_hdr.msg_iovlen = 1;
+        messages[i].msg_hdr.msg_name = &names[i];
+        messages[i].msg_hdr.msg_namelen = nameLength;
+        offset += static_cast<size_t>(datagram[0]);
+    }
+
+    int sent;
+    do {
+        sent = sendMmsg(fd, messages, static_cast<unsigned int>(count), 0);
+    } while (sent < 0 && errno == EINTR);
+    return sent < 0 ? -errno : sent;
+}
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_tradle_react_UdpNativeIo_nativeIsIpv6(JNIEnv *, jclass, jint fd) {
+    sockaddr_storage name;
+    socklen_t length = sizeof(name);
+    if (getsockname(fd, reinterpret_cast<sockaddr *>(&name), &length) != 0) {
+        return JNI_FALSE;
+    }
+    return name.ss_family == AF_INET6 ? JNI_TRUE : JNI_FALSE;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_tradle_react_UdpNativeIo_nativeShutdown(JNIEnv *, jclass, jint fd) {
+    // wakes up the thread blocked in recvmmsg, on this or any other descriptor of the socket
+    shutdown(fd, SHUT_RDWR);
+}
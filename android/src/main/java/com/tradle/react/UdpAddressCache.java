@@ -0,0 +1,178 @@
+package com.tradle.react;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * A bounded cache of resolved send destinations, shared by all the clients. Destinations are keyed
+ * by host and port, and evicted least recently used first once the cache is full, or when their
+ * time to live expires. Hosts that failed to resolve are cached too, for a shorter time, so that a
+ * bad host name does not hit the resolver on every datagram.
+ *
+ * IP literals never reach the resolver nor the cache: IPv4 addresses are parsed right away, and
+ * IPv6 addresses are left to {@link InetAddress#getByName}, which parses literals without a lookup.
+ */
+public final class UdpAddressCache {
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final long DEFAULT_TTL_MS = 30000;
+    public static final long DEFAULT_NEGATIVE_TTL_MS = 5000;
+
+    private final long mTtlNanos;
+    private final long mNegativeTtlNanos;
+    private final LinkedHashMap<Key, Destination> mEntries;
+
+    public UdpAddressCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_TTL_MS, DEFAULT_NEGATIVE_TTL_MS);
+    }
+
+    /**
+     * @param capacity maximum number of destinations cached at once
+     * @param ttlMs time a resolved destination stays cached
+     * @param negativeTtlMs time a destination that failed to resolve stays cached
+     */
+    public UdpAddressCache(final int capacity, long ttlMs, long negativeTtlMs) {
+        this.mTtlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.mNegativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMs);
+        this.mEntries = new LinkedHashMap<Key, Destination>(Math.min(capacity, 64), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Destination> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Resolves a destination, from the cache if possible. A miss resolves the host on the calling
+     * thread.
+     *
+     * @throws UnknownHostException if the host could not be resolved, now or recently
+     */
+    public InetSocketAddress resolve(String host, int port) throws UnknownHostException {
+        final InetAddress literal = parseLiteral(host);
+        if (literal != null) {
+            return new InetSocketAddress(literal, port);
+        }
+
+        final Key key = new Key(host, port);
+        final long now = System.nanoTime();
+        synchronized (this) {
+            final Destination destination = mEntries.get(key);
+            if (destination != null && now - destination.expiresAt < 0) {
+                if (destination.address == null) {
+                    throw new UnknownHostException(destination.error);
+                }
+                return destination.address;
+            }
+        }
+
+        // resolved without holding the lock, so that hits are not held up by a slow lookup
+        try {
+            final InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(host), port);
+            put(key, new Destination(address, null, System.nanoTime() + mTtlNanos));
+            return address;
+        } catch (UnknownHostException uhe) {
+            put(key, new Destination(null, uhe.getMessage(), System.nanoTime() + mNegativeTtlNanos));
+            throw uhe;
+        }
+    }
+
+    private synchronized void put(Key key, Destination destination) {
+        mEntries.put(key, destination);
+    }
+
+    /**
+     * @return the number of destinations cached, some of which may have expired.
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * Parses an IP literal without resolving it.
+     *
+     * @return the address, or null if {@code host} is not an IP literal.
+     */
+    @Nullable
+    public static InetAddress parseLiteral(String host) throws UnknownHostException {
+        if (host.indexOf(':') >= 0) {
+            // only IPv6 literals have colons, and those are parsed without a lookup
+            return InetAddress.getByName(host);
+        }
+
+        final byte[] bytes = new byte[4];
+        int part = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i < host.length(); i++) {
+            final char c = host.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + c - '0';
+                if (++digits > 3 || value > 255) {
+                    return null;
+                }
+            } else if (c == '.' && digits > 0 && part < 3) {
+                bytes[part++] = (byte) value;
+                value = 0;
+                digits = 0;
+            } else {
+                return null;
+            }
+        }
+        if (part != 3 || digits == 0) {
+            return null;
+        }
+        bytes[3] = (byte) value;
+        return InetAddress.getByAddress(bytes);
+    }
+
+    private static final class Key {
+        private final String host;
+        private final int port;
+
+        private Key(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return port == key.port && host.equals(key.host);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * host.hashCode() + port;
+        }
+    }
+
+    /**
+     * A resolved destination, or the error resolving it, along with its expiry time.
+     */
+    private static final class Destination {
+        @Nullable
+        private final InetSocketAddress address;
+        @Nullable
+        private final String error;
+        private final long expiresAt;
+
+        private Destination(@Nullable InetSocketAddress address, @Nullable String error, long expiresAt) {
+            this.address = address;
+            this.error = error;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.tradle.react;
+
+import android.util.Base64;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The Base64 encoding received and sent data crosses the bridge in.
+ */
+public final class UdpBase64Codec implements UdpCodec {
+    // receiving threads copy direct buffers into this array to encode them
+    private static final ThreadLocal<byte[]> sEncodeBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[UdpBufferPool.MAX_DATAGRAM_SIZE];
+        }
+    };
+
+    @Override
+    public byte[] decode(String data) {
+        return Base64.decode(data, Base64.NO_WRAP);
+    }
+
+    /**
+     * Base64 encodes received data, copying it out of direct buffers first.
+     */
+    @Override
+    public String encode(ByteBuffer data) {
+        if (data.hasArray()) {
+            return Base64.encodeToString(data.array(), data.arrayOffset() + data.position(), data.remaining(),
+                    Base64.NO_WRAP);
+        }
+
+        final byte[] scratch = sEncodeBuffer.get();
+        final int length = data.remaining();
+        data.get(scratch, 0, length);
+        return Base64.encodeToString(scratch, 0, length, Base64.NO_WRAP);
+    }
+}
@@ -0,0 +1,178 @@
+package com.tradle.react;
+
+import com.facebook.common.logging.FLog;
+import com.facebook.proguard.annotations.DoNotStrip;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Hands received datagrams over to the javascript layer as ArrayBuffers, through a JSI binding,
+ * instead of Base64 strings carried by bridge events. In the other direction, the binding stages
+ * outgoing data, so that sends only carry a handle to it over the bridge.
+ *
+ * Datagrams wait in a bounded per-client inbox, and the javascript layer is only notified when an
+ * inbox becomes readable. It then drains the inbox with a synchronous call into the binding, so a burst
+ * of datagrams costs a single bridge event. The binding lives in an optional native library; when
+ * it is not available, the Base64 events are used as before.
+ */
+@DoNotStrip
+public final class UdpBinaryTransport {
+    private static final String TAG = "UdpBinaryTransport";
+    private static final String LIBRARY_NAME = "react-native-udp";
+
+    private static boolean sLoadAttempted = false;
+    private static boolean sIsLoaded = false;
+
+    private final UdpBufferPool mBufferPool;
+    private final Map<Integer, UdpReceiveQueue<UdpDatagram>> mInboxes = new ConcurrentHashMap<>();
+    private final Map<Integer, UdpSocketStats> mStats = new ConcurrentHashMap<>();
+    private final Map<Integer, byte[]> mStaged = new ConcurrentHashMap<>();
+    private final AtomicInteger mNextHandle = new AtomicInteger();
+    private volatile boolean mIsInstalled = false;
+
+    /**
+     * @param bufferPool pool the buffers of received datagrams are released to
+     */
+    public UdpBinaryTransport(UdpBufferPool bufferPool) {
+        this.mBufferPool = bufferPool;
+    }
+
+    /**
+     * Loads the native library holding the binding, if it was built.
+     */
+    private static synchronized boolean loadLibrary() {
+        if (!sLoadAttempted) {
+            sLoadAttempted = true;
+            try {
+                System.loadLibrary(LIBRARY_NAME);
+                sIsLoaded = true;
+            } catch (UnsatisfiedLinkError e) {
+                FLog.w(TAG, "binary transport unavailable, received data is Base64 encoded.");
+            }
+        }
+        return sIsLoaded;
+    }
+
+    /**
+     * Installs the binding in the given javascript runtime. Must be called on the javascript thread.
+     *
+     * @param jsRuntime pointer to the jsi::Runtime, 0 if there is none (e.g. remote debugging)
+     * @return boolean true IF received data can be fetched as ArrayBuffers.
+     */
+    public boolean install(long jsRuntime) {
+        if (jsRuntime == 0 || !loadLibrary()) {
+            return false;
+        }
+
+        nativeInstall(jsRuntime);
+        mIsInstalled = true;
+        return true;
+    }
+
+    public boolean isInstalled() {
+        return mIsInstalled;
+    }
+
+    /**
+     * Creates the inbox of a client. The buffers of the datagrams it drops go back to the pool.
+     *
+     * @param capacity maximum number of datagrams waiting in the inbox
+     * @param policy what to do with received datagrams when the inbox is full
+     * @param stats counters recording the latency of the datagrams taken out of the inbox
+     */
+    public UdpReceiveQueue<UdpDatagram> open(int clientId, int capacity, UdpReceiveQueue.Policy policy,
+                                             UdpSocketStats stats) {
+        final UdpReceiveQueue<UdpDatagram> inbox = new UdpReceiveQueue<>(capacity, policy,
+                new UdpReceiveQueue.OnDropListener<UdpDatagram>() {
+                    @Override
+                    public void onDrop(UdpDatagram datagram) {
+                        mBufferPool.release(datagram.data);
+                    }
+                });
+        mStats.put(clientId, stats);
+        mInboxes.put(clientId, inbox);
+        return inbox;
+    }
+
+    /**
+     * Discards the inbox of a client, and any datagram still in it.
+     */
+    public void close(int clientId) {
+        final UdpReceiveQueue<UdpDatagram> inbox = mInboxes.remove(clientId);
+        mStats.remove(clientId);
+        if (inbox != null) {
+            inbox.close();
+        }
+    }
+
+    /**
+     * Discards every inbox and the outgoing data still staged, once the javascript runtime the
+     * binding was installed in is gone.
+     */
+    public void clear() {
+        for (Integer clientId : mInboxes.keySet()) {
+            close(clientId);
+        }
+        mStaged.clear();
+    }
+
+    /**
+     * Takes the next datagram out of the inbox of a client. Called by the binding, on the
+     * javascript thread.
+     */
+    @DoNotStrip
+    @Nullable
+    UdpDatagram poll(int clientId) {
+        final UdpReceiveQueue<UdpDatagram> inbox = mInboxes.get(clientId);
+        final UdpDatagram datagram = inbox != null ? inbox.poll() : null;
+        final UdpSocketStats stats = mStats.get(clientId);
+        if (datagram != null && stats != null) {
+            stats.recordLatency(datagram.receivedNanos);
+        }
+        return datagram;
+    }
+
+    /**
+     * Copies a datagram taken out of an inbox into the memory of an ArrayBuffer, and releases its
+     * buffer. Called by the binding, on the javascript thread.
+     *
+     * @param target direct buffer wrapping the ArrayBuffer, {@link UdpDatagram#length} bytes long,
+     *               or null for an empty datagram
+     */
+    @DoNotStrip
+    void read(UdpDatagram datagram, @Nullable ByteBuffer target) {
+        if (target != null) {
+            target.put(datagram.data);
+        }
+        mBufferPool.release(datagram.data);
+    }
+
+    /**
+     * Keeps outgoing data until it is sent. Called by the binding, on the javascript thread.
+     *
+     * @return the handle the data can be taken back with
+     */
+    @DoNotStrip
+    int stage(byte[] data) {
+        final int handle = mNextHandle.incrementAndGet();
+        mStaged.put(handle, data);
+        return handle;
+    }
+
+    /**
+     * Takes back outgoing data staged by the binding.
+     *
+     * @return the data, or null if the handle is unknown
+     */
+    @Nullable
+    public byte[] take(int handle) {
+        return mStaged.remove(handle);
+    }
+
+    private native void nativeInstall(long jsRuntime);
+}
@@ -0,0 +1,80 @@
+package com.tradle.react;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A bounded pool of receive buffers, shared by all the clients. Buffers come in power of two size
+ * classes, from 512 bytes up to the largest UDP datagram, so a client capping its datagram size
+ * only holds a buffer of the matching class. Each class retains a bounded number of bytes: when a
+ * class is empty, a new buffer is allocated; when it is full, released buffers are left to the GC.
+ *
+ * Direct buffers are pooled apart from heap buffers, as {@link java.net.DatagramSocket} can only
+ * receive into arrays, while {@link java.nio.channels.DatagramChannel} receives into direct
+ * buffers without an intermediate copy.
+ */
+public final class UdpBufferPool {
+    public static final int MAX_DATAGRAM_SIZE = 0xffff;
+    private static final int MIN_SIZE_CLASS_SHIFT = 9;
+    private static final int MAX_SIZE_CLASS_SHIFT = 16;
+    private static final int MAX_POOLED_BYTES_PER_CLASS = 256 * 1024;
+
+    private final ArrayBlockingQueue<ByteBuffer>[] mHeapBuffers = createClasses();
+    private final ArrayBlockingQueue<ByteBuffer>[] mDirectBuffers = createClasses();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayBlockingQueue<ByteBuffer>[] createClasses() {
+        final ArrayBlockingQueue<ByteBuffer>[] classes =
+                new ArrayBlockingQueue[MAX_SIZE_CLASS_SHIFT - MIN_SIZE_CLASS_SHIFT + 1];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ArrayBlockingQueue<>(Math.max(2, MAX_POOLED_BYTES_PER_CLASS >> (MIN_SIZE_CLASS_SHIFT + i)));
+        }
+        return classes;
+    }
+
+    /**
+     * Index of the smallest size class holding {@code size} bytes.
+     */
+    private static int sizeClass(int size) {
+        final int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+        return Math.max(shift, MIN_SIZE_CLASS_SHIFT) - MIN_SIZE_CLASS_SHIFT;
+    }
+
+    /**
+     * Takes a buffer out of the pool, or allocates one if its size class is empty.
+     *
+     * @param size the number of bytes needed, at most {@link #MAX_DATAGRAM_SIZE}
+     * @param direct whether a direct buffer is needed, rather than a heap buffer
+     * @return a cleared buffer, with its limit set to {@code size}
+     */
+    public ByteBuffer acquire(int size, boolean direct) {
+        if (size < 0 || size > MAX_DATAGRAM_SIZE) {
+            throw new IllegalArgumentException("Invalid buffer size " + size);
+        }
+
+        final int index = sizeClass(size);
+        ByteBuffer buffer = (direct ? mDirectBuffers : mHeapBuffers)[index].poll();
+        if (buffer == null) {
+            final int capacity = 1 << (MIN_SIZE_CLASS_SHIFT + index);
+            buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer acquired from a pool back. The buffer must not be used afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        final int capacity = buffer.capacity();
+        final int index = sizeClass(capacity);
+        if (index >= mHeapBuffers.length || capacity != 1 << (MIN_SIZE_CLASS_SHIFT + index)) {
+            // not a pooled buffer
+            return;
+        }
+
+        (buffer.isDirect() ? mDirectBuffers : mHeapBuffers)[index].offer(buffer);
+    }
+}
@@ -0,0 +1,117 @@
+package com.tradle.react;
+
+import com.facebook.common.logging.FLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Sends datagrams through a non-blocking channel the way a blocking socket would. While the send
+ * buffer of the socket is full, the channel sends nothing at all; the sender then waits for the
+ * channel to be writable again, on a selector of its own, as a channel may be registered with
+ * several selectors while it stays registered for reads with the shared one.
+ *
+ * Sends are serialized, so the sending lane and the timers of the reliable channel may share it.
+ * {@link #close} wakes up a send waiting for room, which then fails.
+ */
+public final class UdpChannelSender implements Closeable {
+    private static final String TAG = "UdpChannelSender";
+    // how long a datagram waits for room in the send buffer, before its send fails
+    private static final long SEND_TIMEOUT_MS = 2000;
+
+    private final DatagramChannel mChannel;
+    // opened once the send buffer is first found full, most sockets never need it
+    @Nullable
+    private volatile Selector mSelector;
+    @Nullable
+    private SelectionKey mKey;
+    private volatile boolean mIsClosed = false;
+
+    /**
+     * @param channel a non-blocking channel
+     */
+    public UdpChannelSender(DatagramChannel channel) {
+        this.mChannel = channel;
+    }
+
+    /**
+     * Sends the datagram, waiting for room in the send buffer if it is full.
+     *
+     * @param destination ignored if the channel is connected
+     * @return the number of bytes sent, the whole datagram.
+     * @throws IOException if the datagram could not be sent, or the send buffer stayed full.
+     */
+    public synchronized int send(ByteBuffer data, SocketAddress destination) throws IOException {
+        int sent = write(data, destination);
+        if (sent > 0 || !data.hasRemaining()) {
+            return sent;
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SEND_TIMEOUT_MS);
+        try {
+            final Selector selector = openSelector();
+            if (mKey == null) {
+                mKey = mChannel.register(selector, SelectionKey.OP_WRITE);
+            }
+            while (sent == 0) {
+                final long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    throw new IOException("Socket send buffer is full");
+                }
+                selector.select(remainingMs);
+                selector.selectedKeys().clear();
+                if (mIsClosed) {
+                    throw new IOException("Socket is closed");
+                }
+                sent = write(data, destination);
+            }
+        } catch (ClosedSelectorException cse) {
+            throw new IOException("Socket is closed");
+        }
+        return sent;
+    }
+
+    private int write(ByteBuffer data, SocketAddress destination) throws IOException {
+        // connected channels skip the address checks of send()
+        return mChannel.isConnected() ? mChannel.write(data) : mChannel.send(data, destination);
+    }
+
+    private Selector openSelector() throws IOException {
+        Selector selector = mSelector;
+        if (selector == null) {
+            selector = Selector.open();
+            mSelector = selector;
+            if (mIsClosed) {
+                // closed while the selector was opened, which close did not see
+                selector.close();
+                throw new IOException("Socket is closed");
+            }
+        }
+        return selector;
+    }
+
+    /**
+     * Closes the selector of the sender, if it was opened, but not the channel.
+     */
+    @Override
+    public void close() {
+        mIsClosed = true;
+        final Selector selector = mSelector;
+        if (selector != null) {
+            try {
+                selector.close();
+            } catch (IOException ioe) {
+                FLog.e(TAG, "close", ioe);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.tradle.react;
+
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * The clients of the module, by ID. Clients are looked up on every bridge call, from any thread,
+ * but only added and removed when sockets are created and closed: the registry is a copy-on-write
+ * {@link SparseArray}, so lookups neither lock nor box their key. A published array is never
+ * mutated, not even compacted.
+ */
+public final class UdpClientRegistry {
+    private volatile SparseArray<UdpSocketClient> mClients = new SparseArray<>();
+
+    @Nullable
+    public UdpSocketClient get(int id) {
+        return mClients.get(id);
+    }
+
+    /**
+     * Adds a client, unless a client with the same ID is already registered.
+     *
+     * @return boolean true IF the client was added.
+     */
+    public synchronized boolean putIfAbsent(UdpSocketClient client) {
+        if (mClients.get(client.getId()) != null) {
+            return false;
+        }
+
+        final SparseArray<UdpSocketClient> clients = mClients.clone();
+        clients.put(client.getId(), client);
+        mClients = clients;
+        return true;
+    }
+
+    /**
+     * @return the removed client, or null if there was none with this ID
+     */
+    @Nullable
+    public synchronized UdpSocketClient remove(int id) {
+        final UdpSocketClient client = mClients.get(id);
+        if (client == null) {
+            return null;
+        }
+
+        final SparseArray<UdpSocketClient> clients = mClients.clone();
+        clients.remove(id);
+        // removal only marks the entry, and the array compacts on its next size() or valueAt():
+        // compacted before it is published, so that readers never see it change
+        clients.size();
+        mClients = clients;
+        return client;
+    }
+
+    /**
+     * Removes every client.
+     *
+     * @return the removed clients
+     */
+    public synchronized List<UdpSocketClient> removeAll() {
+        // iterated on a private copy, as iterating may compact the array
+        final SparseArray<UdpSocketClient> clients = mClients.clone();
+        mClients = new SparseArray<>();
+
+        final List<UdpSocketClient> removed = new ArrayList<>(clients.size());
+        for (int i = 0; i < clients.size(); i++) {
+            removed.add(clients.valueAt(i));
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,21 @@
+package com.tradle.react;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts datagrams to and from the string form they cross the bridge in. Keeps the socket layer
+ * free of a particular encoding, so that it runs off-device as well.
+ */
+public interface UdpCodec {
+    /**
+     * @return the bytes of the datagram held by {@code data}.
+     * @throws IllegalArgumentException if {@code data} is not validly encoded
+     */
+    byte[] decode(String data);
+
+    /**
+     * Encodes the datagram between the position and the limit of {@code data}, which may be
+     * consumed.
+     */
+    String encode(ByteBuffer data);
+}
@@ -0,0 +1,14 @@
+package com.tradle.react;
+
+/**
+ * Receives the outcome of an asynchronous operation of a {@link UdpSocketClient}, such as a
+ * send. Exactly one of its methods is invoked, once, on the thread the operation ran on.
+ */
+public interface UdpCompletionSink {
+    void onSuccess();
+
+    /**
+     * @param code one of the {@link UdpErrorCodes}
+     */
+    void onError(String code, String message);
+}
@@ -0,0 +1,178 @@
+package com.tradle.react;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nullable;
+
+/**
+ * Compresses the datagrams a socket sends, and decompresses those it receives, with raw Deflate
+ * and an optional preset dictionary, which both ends must share. A dictionary of the strings
+ * the datagrams have in common lets even small datagrams compress, as each is compressed on its
+ * own.
+ *
+ * Every datagram starts with a byte telling whether it is deflated or stored as is, so that data
+ * which does not compress grows by that byte only. The compressor and the decompressor are kept
+ * for the life of the socket, and reset between datagrams; each is used by one thread at a time.
+ */
+public final class UdpCompression {
+    private static final byte STORED = 0;
+    private static final byte DEFLATED = 1;
+    private static final int HEADER_SIZE = 1;
+
+    private final int mLevel;
+    @Nullable
+    private final byte[] mDictionary;
+    private final Deflater mDeflater;
+    private final Inflater mInflater;
+    private byte[] mDeflated = new byte[0];
+    private byte[] mReceived = new byte[0];
+    private final byte[] mOverflow = new byte[1];
+    private boolean mIsClosed = false;
+
+    /**
+     * @param level the Deflate level, from 0 to 9, or -1 for the default
+     * @param dictionary the preset dictionary, or null for none
+     * @throws IllegalArgumentException if the level is not valid
+     */
+    public UdpCompression(int level, @Nullable byte[] dictionary) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.mLevel = level;
+        this.mDictionary = dictionary != null && dictionary.length > 0 ? dictionary : null;
+        // raw Deflate: the datagram already has a checksum, and its length bounds the data
+        this.mDeflater = new Deflater(level, true);
+        this.mInflater = new Inflater(true);
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * @return the datagram to send for the data, deflated if that makes it smaller.
+     * @throws IllegalStateException if the compression was closed
+     */
+    public synchronized byte[] compress(byte[] data) {
+        if (mIsClosed) {
+            throw new IllegalStateException("Compression is closed.");
+        }
+        mDeflater.reset();
+        if (mDictionary != null) {
+            mDeflater.setDictionary(mDictionary);
+        }
+        mDeflater.setInput(data);
+        mDeflater.finish();
+
+        // not worth it unless smaller than storing the data
+        final int limit = HEADER_SIZE + data.length;
+        if (mDeflated.length < limit) {
+            mDeflated = new byte[limit];
+        }
+        int length = HEADER_SIZE;
+        while (!mDeflater.finished() && length < limit) {
+            length += mDeflater.deflate(mDeflated, length, limit - length);
+        }
+
+        final byte[] datagram;
+        if (mDeflater.finished() && length < limit) {
+            datagram = new byte[length];
+            System.arraycopy(mDeflated, HEADER_SIZE, datagram, HEADER_SIZE, length - HEADER_SIZE);
+            datagram[0] = DEFLATED;
+        } else {
+            datagram = new byte[limit];
+            System.arraycopy(data, 0, datagram, HEADER_SIZE, data.length);
+            datagram[0] = STORED;
+        }
+        return datagram;
+    }
+
+    /**
+     * Decompresses a received datagram, between the position and limit of its buffer, into a
+     * buffer of the pool. The received buffer is left to the caller.
+     *
+     * @param maxSize the size of the largest datagram to decompress
+     * @return the buffer holding the data, which the caller must release to the pool.
+     * @throws DataFormatException if the datagram is not one {@link #compress} made with the same
+     * dictionary, or if it decompresses to more than {@code maxSize} bytes.
+     */
+    public synchronized ByteBuffer decompress(ByteBuffer datagram, UdpBufferPool bufferPool, int maxSize)
+            throws DataFormatException {
+        if (mIsClosed) {
+            throw new DataFormatException("Compression is closed");
+        }
+        final int length = datagram.remaining() - HEADER_SIZE;
+        if (length < 0) {
+            throw new DataFormatException("Empty compressed datagram");
+        }
+        final byte header = datagram.get(datagram.position());
+        if (header == STORED) {
+            if (length > maxSize) {
+                throw new DataFormatException("Datagram larger than " + maxSize + " bytes");
+            }
+            final ByteBuffer data = bufferPool.acquire(Math.max(length, 1), false);
+            final ByteBuffer stored = datagram.duplicate();
+            stored.position(stored.position() + HEADER_SIZE);
+            data.put(stored);
+            data.flip();
+            return data;
+        }
+        if (header != DEFLATED) {
+            throw new DataFormatException("Unknown compression " + header);
+        }
+
+        // the inflater reads arrays, and datagrams of the nio engine arrive in direct buffers
+        if (mReceived.length < length) {
+            mReceived = new byte[length];
+        }
+        final ByteBuffer deflated = datagram.duplicate();
+        deflated.position(deflated.position() + HEADER_SIZE);
+        deflated.get(mReceived, 0, length);
+
+        mInflater.reset();
+        if (mDictionary != null) {
+            mInflater.setDictionary(mDictionary);
+        }
+        mInflater.setInput(mReceived, 0, length);
+
+        final ByteBuffer data = bufferPool.acquire(Math.max(maxSize, 1), false);
+        try {
+            final byte[] array = data.array();
+            final int offset = data.arrayOffset();
+            int size = 0;
+            while (!mInflater.finished() && size < maxSize) {
+                final int inflated = mInflater.inflate(array, offset + size, maxSize - size);
+                if (inflated == 0 && (mInflater.needsInput() || mInflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated compressed datagram");
+                }
+                size += inflated;
+            }
+            // a full buffer may still leave data, or only the end of the stream
+            if (!mInflater.finished() && mInflater.inflate(mOverflow) > 0) {
+                throw new DataFormatException("Datagram larger than " + maxSize + " bytes");
+            }
+            if (!mInflater.finished()) {
+                throw new DataFormatException("Truncated compressed datagram");
+            }
+            data.position(0).limit(size);
+            return data;
+        } catch (DataFormatException e) {
+            bufferPool.release(data);
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the native memory of the compressor and decompressor.
+     */
+    public synchronized void close() {
+        if (!mIsClosed) {
+            mIsClosed = true;
+            mDeflater.end();
+            mInflater.end();
+        }
+    }
+}
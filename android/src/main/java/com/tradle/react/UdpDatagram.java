@@ -0,0 +1,42 @@
+package com.tradle.react;
+
+import com.facebook.proguard.annotations.DoNotStrip;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
+
+/**
+ * A received datagram, waiting to be handed over to the javascript layer.
+ */
+@DoNotStrip
+public final class UdpDatagram {
+    final ByteBuffer data;
+    @DoNotStrip
+    final int length;
+    @DoNotStrip
+    final String host;
+    @DoNotStrip
+    final int port;
+    @DoNotStrip
+    @Nullable
+    final String channel;
+    @DoNotStrip
+    final long ts;
+    final long receivedNanos;
+
+    /**
+     * @param data pooled buffer holding the datagram, between its position and limit
+     * @param channel the channel a {@link UdpPacketFilter} routed the datagram to, or null
+     * @param receivedNanos the {@link System#nanoTime()} of receipt
+     */
+    UdpDatagram(ByteBuffer data, String host, int port, @Nullable String channel, long ts, long receivedNanos) {
+        this.data = data;
+        this.length = data.remaining();
+        this.host = host;
+        this.port = port;
+        this.channel = channel;
+        this.ts = ts;
+        this.receivedNanos = receivedNanos;
+    }
+}
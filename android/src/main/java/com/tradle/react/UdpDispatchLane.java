@@ -0,0 +1,105 @@
+package com.tradle.react;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the tasks of a single client one at a time, in the order they were submitted, on a pool
+ * shared by all the clients. A lane only occupies a pool thread while it has tasks, and hands the
+ * thread back after a few of them, so a busy client cannot starve the others.
+ */
+public final class UdpDispatchLane implements Executor {
+    private static final int MAX_TASKS_PER_RUN = 16;
+
+    private final Executor mPool;
+    private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+    private boolean mIsScheduled = false;
+    private int mMaxPending = 0;
+    private long mCompleted = 0;
+
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * @param pool the threads the lane runs its tasks on
+     */
+    public UdpDispatchLane(Executor pool) {
+        this.mPool = pool;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        synchronized (this) {
+            mTasks.offer(task);
+            mMaxPending = Math.max(mMaxPending, mTasks.size());
+            if (mIsScheduled) {
+                return;
+            }
+            mIsScheduled = true;
+        }
+        mPool.execute(mDrainTask);
+    }
+
+    private void drain() {
+        boolean isDrained = false;
+        try {
+            for (int i = 0; i < MAX_TASKS_PER_RUN; i++) {
+                final Runnable task;
+                synchronized (this) {
+                    task = mTasks.poll();
+                    if (task == null) {
+                        mIsScheduled = false;
+                        isDrained = true;
+                        return;
+                    }
+                }
+                task.run();
+                synchronized (this) {
+                    mCompleted++;
+                }
+            }
+        } finally {
+            // yields to other lanes, and keeps the lane going if a task threw
+            if (!isDrained) {
+                mPool.execute(mDrainTask);
+            }
+        }
+    }
+
+    /**
+     * Drops the tasks waiting to run. A task already running completes, and the lane takes new
+     * tasks afterwards.
+     *
+     * @return the number of tasks dropped.
+     */
+    public synchronized int clear() {
+        final int dropped = mTasks.size();
+        mTasks.clear();
+        return dropped;
+    }
+
+    /**
+     * @return the number of tasks waiting to run.
+     */
+    public synchronized int getPendingCount() {
+        return mTasks.size();
+    }
+
+    /**
+     * @return the largest number of tasks that were waiting at once.
+     */
+    public synchronized int getMaxPendingCount() {
+        return mMaxPending;
+    }
+
+    /**
+     * @return the number of tasks that ran to completion.
+     */
+    public synchronized long getCompletedCount() {
+        return mCompleted;
+    }
+}
@@ -0,0 +1,585 @@
+package com.tradle.react;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * A DNS message, as multicast DNS exchanges them: the records service discovery relies on (PTR,
+ * SRV, TXT, A and AAAA) are parsed, the others are kept as opaque data.
+ *
+ * Names are in presentation form, labels separated by dots, with dots and backslashes within a
+ * label escaped by a backslash, so that instance names such as {@code "Living Room v1.2"} survive.
+ * Names are compared case-insensitively, as DNS does.
+ */
+public final class UdpDnsMessage {
+    public static final int TYPE_A = 1;
+    public static final int TYPE_PTR = 12;
+    public static final int TYPE_TXT = 16;
+    public static final int TYPE_AAAA = 28;
+    public static final int TYPE_SRV = 33;
+    public static final int TYPE_ANY = 255;
+    private static final int CLASS_IN = 1;
+    // the top bit of the class: cache-flush in records, unicast-response in questions
+    private static final int CLASS_FLAG = 0x8000;
+    private static final int FLAG_RESPONSE = 0x8000;
+    private static final int FLAG_AUTHORITATIVE = 0x0400;
+    private static final int MAX_LABEL_SIZE = 63;
+    private static final int MAX_POINTERS = 32;
+
+    private final int mId;
+    private final boolean mIsResponse;
+    private final List<Question> mQuestions;
+    private final List<Record> mAnswers;
+    private final List<Record> mAdditionals;
+
+    /**
+     * @param id the ID of the message, 0 in multicast messages
+     * @param isResponse whether the message responds, rather than queries
+     */
+    public UdpDnsMessage(int id, boolean isResponse, List<Question> questions, List<Record> answers,
+                         List<Record> additionals) {
+        this.mId = id;
+        this.mIsResponse = isResponse;
+        this.mQuestions = questions;
+        this.mAnswers = answers;
+        this.mAdditionals = additionals;
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public boolean isResponse() {
+        return mIsResponse;
+    }
+
+    public List<Question> getQuestions() {
+        return mQuestions;
+    }
+
+    /**
+     * @return the answers of a response, or the answers known to the sender of a query.
+     */
+    public List<Record> getAnswers() {
+        return mAnswers;
+    }
+
+    /**
+     * @return the records of the authority and additional sections.
+     */
+    public List<Record> getAdditionals() {
+        return mAdditionals;
+    }
+
+    /**
+     * @param data the message, between the position and the limit of the buffer, which is left
+     *             untouched
+     * @throws IllegalArgumentException if the message is malformed
+     */
+    public static UdpDnsMessage parse(ByteBuffer data) {
+        final ByteBuffer message = data.slice();
+        try {
+            final int id = message.getShort() & 0xffff;
+            final int flags = message.getShort() & 0xffff;
+            final int questionCount = message.getShort() & 0xffff;
+            final int answerCount = message.getShort() & 0xffff;
+            final int authorityCount = message.getShort() & 0xffff;
+            final int additionalCount = message.getShort() & 0xffff;
+
+            final List<Question> questions = new ArrayList<>(Math.min(questionCount, 16));
+            for (int i = 0; i < questionCount; i++) {
+                final String name = readName(message);
+                final int type = message.getShort() & 0xffff;
+                final int questionClass = message.getShort() & 0xffff;
+                questions.add(new Question(name, type, (questionClass & CLASS_FLAG) != 0));
+            }
+            final List<Record> answers = new ArrayList<>(Math.min(answerCount, 16));
+            for (int i = 0; i < answerCount; i++) {
+                answers.add(readRecord(message));
+            }
+            final List<Record> additionals = new ArrayList<>(Math.min(authorityCount + additionalCount, 16));
+            for (int i = 0; i < authorityCount + additionalCount; i++) {
+                additionals.add(readRecord(message));
+            }
+            return new UdpDnsMessage(id, (flags & FLAG_RESPONSE) != 0, questions, answers, additionals);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated DNS message", e);
+        }
+    }
+
+    private static Record readRecord(ByteBuffer message) {
+        final String name = readName(message);
+        final int type = message.getShort() & 0xffff;
+        final int recordClass = message.getShort() & 0xffff;
+        final long ttl = message.getInt() & 0xffffffffL;
+        final int length = message.getShort() & 0xffff;
+        final int end = message.position() + length;
+        if (end > message.limit()) {
+            throw new IllegalArgumentException("Truncated DNS record");
+        }
+
+        final Record record = new Record(name, type, ttl, (recordClass & CLASS_FLAG) != 0);
+        switch (type) {
+            case TYPE_PTR:
+                record.mTarget = readName(message);
+                break;
+            case TYPE_SRV:
+                record.mPriority = message.getShort() & 0xffff;
+                record.mWeight = message.getShort() & 0xffff;
+                record.mPort = message.getShort() & 0xffff;
+                record.mTarget = readName(message);
+                break;
+            case TYPE_TXT:
+                record.mStrings = new ArrayList<>();
+                while (message.position() < end) {
+                    final byte[] string = new byte[message.get() & 0xff];
+                    message.get(string);
+                    record.mStrings.add(new String(string, StandardCharsets.UTF_8));
+                }
+                break;
+            default:
+                record.mData = new byte[length];
+                message.get(record.mData);
+                break;
+        }
+        if (message.position() != end) {
+            throw new IllegalArgumentException("Malformed DNS record of type " + type);
+        }
+        return record;
+    }
+
+    /**
+     * Reads a name at the position of the message, following compression pointers.
+     */
+    private static String readName(ByteBuffer message) {
+        final StringBuilder name = new StringBuilder();
+        int position = message.position();
+        int resumeAt = -1;
+        int pointers = 0;
+        while (true) {
+            final int length = message.get(position) & 0xff;
+            if ((length & 0xc0) == 0xc0) {
+                if (++pointers > MAX_POINTERS) {
+                    throw new IllegalArgumentException("DNS name compression loop");
+                }
+                if (resumeAt < 0) {
+                    resumeAt = position + 2;
+                }
+                position = ((length & 0x3f) << 8) | (message.get(position + 1) & 0xff);
+                continue;
+            }
+            if (length > MAX_LABEL_SIZE) {
+                throw new IllegalArgumentException("Invalid DNS label length " + length);
+            }
+            position++;
+            if (length == 0) {
+                break;
+            }
+            final byte[] label = new byte[length];
+            for (int i = 0; i < length; i++) {
+                label[i] = message.get(position + i);
+            }
+            position += length;
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            escape(new String(label, StandardCharsets.UTF_8), name);
+        }
+        message.position(resumeAt >= 0 ? resumeAt : position);
+        return name.toString();
+    }
+
+    /**
+     * @return the message in wire form, its names compressed.
+     */
+    public byte[] toBytes() {
+        final Writer writer = new Writer();
+        writer.writeShort(mId);
+        writer.writeShort(mIsResponse ? FLAG_RESPONSE | FLAG_AUTHORITATIVE : 0);
+        writer.writeShort(mQuestions.size());
+        writer.writeShort(mAnswers.size());
+        writer.writeShort(0);
+        writer.writeShort(mAdditionals.size());
+        for (Question question : mQuestions) {
+            writer.writeName(question.mName);
+            writer.writeShort(question.mType);
+            writer.writeShort(CLASS_IN | (question.mIsUnicast ? CLASS_FLAG : 0));
+        }
+        for (Record record : mAnswers) {
+            writer.writeRecord(record);
+        }
+        for (Record record : mAdditionals) {
+            writer.writeRecord(record);
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * @return the name made of the given label followed by a name, the label escaped.
+     */
+    public static String join(String label, String name) {
+        final StringBuilder joined = new StringBuilder();
+        escape(label, joined);
+        return joined.append('.').append(name).toString();
+    }
+
+    /**
+     * @return the first label of a name, unescaped.
+     */
+    public static String firstLabel(String name) {
+        return split(name).get(0);
+    }
+
+    /**
+     * @return the name without its first label, or the empty name.
+     */
+    public static String parent(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '.') {
+                return name.substring(i + 1);
+            }
+        }
+        return "";
+    }
+
+    /**
+     * @return the name in a form that compares as DNS names do.
+     */
+    public static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static void escape(String label, StringBuilder name) {
+        for (int i = 0; i < label.length(); i++) {
+            final char c = label.charAt(i);
+            if (c == '.' || c == '\\') {
+                name.append('\\');
+            }
+            name.append(c);
+        }
+    }
+
+    private static List<String> split(String name) {
+        final List<String> labels = new ArrayList<>();
+        final StringBuilder label = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (c == '\\' && i + 1 < name.length()) {
+                label.append(name.charAt(++i));
+            } else if (c == '.') {
+                labels.add(label.toString());
+                label.setLength(0);
+            } else {
+                label.append(c);
+            }
+        }
+        if (label.length() > 0 || labels.isEmpty()) {
+            labels.add(label.toString());
+        }
+        return labels;
+    }
+
+    /**
+     * A question of a query.
+     */
+    public static final class Question {
+        private final String mName;
+        private final int mType;
+        private final boolean mIsUnicast;
+
+        /**
+         * @param isUnicast whether the sender asks for a unicast response
+         */
+        public Question(String name, int type, boolean isUnicast) {
+            this.mName = name;
+            this.mType = type;
+            this.mIsUnicast = isUnicast;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getType() {
+            return mType;
+        }
+
+        public boolean isUnicast() {
+            return mIsUnicast;
+        }
+
+        /**
+         * @return whether the record answers the question.
+         */
+        public boolean isAnsweredBy(Record record) {
+            return (mType == TYPE_ANY || mType == record.mType) && key(mName).equals(key(record.mName));
+        }
+    }
+
+    /**
+     * A resource record, its data parsed for the types of service discovery.
+     */
+    public static final class Record {
+        private final String mName;
+        private final int mType;
+        private final long mTtl;
+        private final boolean mIsCacheFlush;
+        @Nullable
+        private String mTarget;
+        private int mPriority;
+        private int mWeight;
+        private int mPort;
+        @Nullable
+        private List<String> mStrings;
+        @Nullable
+        private byte[] mData;
+
+        private Record(String name, int type, long ttl, boolean isCacheFlush) {
+            this.mName = name;
+            this.mType = type;
+            this.mTtl = ttl;
+            this.mIsCacheFlush = isCacheFlush;
+        }
+
+        /**
+         * @return a PTR record, shared, as a service type points to the instances of several hosts.
+         */
+        public static Record ptr(String name, long ttl, String target) {
+            final Record record = new Record(name, TYPE_PTR, ttl, false);
+            record.mTarget = target;
+            return record;
+        }
+
+        public static Record srv(String name, long ttl, int port, String target) {
+            final Record record = new Record(name, TYPE_SRV, ttl, true);
+            record.mPort = port;
+            record.mTarget = target;
+            return record;
+        }
+
+        /**
+         * @param attributes the {@code key=value} pairs, or keys alone for null values
+         */
+        public static Record txt(String name, long ttl, Map<String, String> attributes) {
+            final Record record = new Record(name, TYPE_TXT, ttl, true);
+            record.mStrings = new ArrayList<>(attributes.size());
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                record.mStrings.add(attribute.getValue() != null
+                        ? attribute.getKey() + "=" + attribute.getValue()
+                        : attribute.getKey());
+            }
+            if (record.mStrings.isEmpty()) {
+                // a TXT record holds at least one string
+                record.mStrings.add("");
+            }
+            return record;
+        }
+
+        /**
+         * @param address the 4 bytes of an IPv4 address, or the 16 of an IPv6 one
+         */
+        public static Record address(String name, long ttl, byte[] address) {
+            final Record record = new Record(name, address.length == 4 ? TYPE_A : TYPE_AAAA, ttl, true);
+            record.mData = address.clone();
+            return record;
+        }
+
+        /**
+         * @return the same record, with another time to live.
+         */
+        public Record withTtl(long ttl) {
+            final Record record = new Record(mName, mType, ttl, mIsCacheFlush);
+            record.mTarget = mTarget;
+            record.mPriority = mPriority;
+            record.mWeight = mWeight;
+            record.mPort = mPort;
+            record.mStrings = mStrings;
+            record.mData = mData;
+            return record;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getType() {
+            return mType;
+        }
+
+        /**
+         * @return the time to live of the record, in seconds, 0 for a record going away.
+         */
+        public long getTtl() {
+            return mTtl;
+        }
+
+        /**
+         * @return the name a PTR or SRV record points to.
+         */
+        @Nullable
+        public String getTarget() {
+            return mTarget;
+        }
+
+        public int getPort() {
+            return mPort;
+        }
+
+        /**
+         * @return the attributes of a TXT record; keys without a value map to null.
+         */
+        public Map<String, String> getAttributes() {
+            if (mStrings == null) {
+                return Collections.emptyMap();
+            }
+            final Map<String, String> attributes = new HashMap<>();
+            for (String string : mStrings) {
+                if (string.isEmpty()) {
+                    continue;
+                }
+                final int equals = string.indexOf('=');
+                if (equals < 0) {
+                    attributes.put(string, null);
+                } else if (equals > 0) {
+                    attributes.put(string.substring(0, equals), string.substring(equals + 1));
+                }
+            }
+            return attributes;
+        }
+
+        /**
+         * @return the address of an A or AAAA record.
+         */
+        @Nullable
+        public byte[] getAddress() {
+            return mType == TYPE_A || mType == TYPE_AAAA ? mData : null;
+        }
+
+        /**
+         * @return whether both records hold the same data for the same name, regardless of TTL.
+         */
+        public boolean isSameAs(Record other) {
+            return mType == other.mType
+                    && key(mName).equals(key(other.mName))
+                    && mPort == other.mPort
+                    && (mTarget == null ? other.mTarget == null
+                            : other.mTarget != null && key(mTarget).equals(key(other.mTarget)))
+                    && (mStrings == null ? other.mStrings == null : mStrings.equals(other.mStrings))
+                    && Arrays.equals(mData, other.mData);
+        }
+    }
+
+    /**
+     * Writes a message, compressing names against the ones written before.
+     */
+    private static final class Writer {
+        private final ByteArrayOutputStream mOut = new ByteArrayOutputStream(512);
+        private final Map<String, Integer> mNameOffsets = new HashMap<>();
+        // offset of the data length of each record, and the length to fill it with
+        private final List<int[]> mLengths = new ArrayList<>();
+
+        private void writeShort(int value) {
+            mOut.write(value >>> 8);
+            mOut.write(value);
+        }
+
+        private void writeInt(long value) {
+            writeShort((int) (value >>> 16) & 0xffff);
+            writeShort((int) value & 0xffff);
+        }
+
+        private void writeName(String name) {
+            final List<String> labels = split(name);
+            for (int i = 0; i < labels.size(); i++) {
+                if (labels.get(i).isEmpty()) {
+                    break;
+                }
+                final String suffix = key(joinLabels(labels, i));
+                final Integer offset = mNameOffsets.get(suffix);
+                if (offset != null) {
+                    writeShort(0xc000 | offset);
+                    return;
+                }
+                if (mOut.size() < 0x3fff) {
+                    mNameOffsets.put(suffix, mOut.size());
+                }
+                final byte[] label = labels.get(i).getBytes(StandardCharsets.UTF_8);
+                if (label.length > MAX_LABEL_SIZE) {
+                    throw new IllegalArgumentException("DNS label longer than " + MAX_LABEL_SIZE + " bytes");
+                }
+                mOut.write(label.length);
+                mOut.write(label, 0, label.length);
+            }
+            mOut.write(0);
+        }
+
+        private static String joinLabels(List<String> labels, int from) {
+            final StringBuilder name = new StringBuilder();
+            for (int i = from; i < labels.size(); i++) {
+                if (name.length() > 0) {
+                    name.append('.');
+                }
+                escape(labels.get(i), name);
+            }
+            return name.toString();
+        }
+
+        private void writeRecord(Record record) {
+            writeName(record.mName);
+            writeShort(record.mType);
+            writeShort(CLASS_IN | (record.mIsCacheFlush ? CLASS_FLAG : 0));
+            writeInt(record.mTtl);
+            // the data length is known once the data is written, as names are compressed
+            final int lengthAt = mOut.size();
+            writeShort(0);
+            switch (record.mType) {
+                case TYPE_PTR:
+                    writeName(record.mTarget);
+                    break;
+                case TYPE_SRV:
+                    writeShort(record.mPriority);
+                    writeShort(record.mWeight);
+                    writeShort(record.mPort);
+                    writeName(record.mTarget);
+                    break;
+                case TYPE_TXT:
+                    for (String string : record.mStrings) {
+                        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                        if (bytes.length > 0xff) {
+                            throw new IllegalArgumentException("TXT string longer than 255 bytes");
+                        }
+                        mOut.write(bytes.length);
+                        mOut.write(bytes, 0, bytes.length);
+                    }
+                    break;
+                default:
+                    mOut.write(record.mData, 0, record.mData.length);
+                    break;
+            }
+            mLengths.add(new int[] { lengthAt, mOut.size() - lengthAt - 2 });
+        }
+
+        private byte[] toByteArray() {
+            final byte[] bytes = mOut.toByteArray();
+            for (int[] length : mLengths) {
+                bytes[length[0]] = (byte) (length[1] >>> 8);
+                bytes[length[0] + 1] = (byte) length[1];
+            }
+            return bytes;
+        }
+    }
+}
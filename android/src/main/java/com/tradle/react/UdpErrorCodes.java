@@ -9,4 +9,12 @@ public enum UdpErrorCodes {
     sendError,
 
     setBroadcast,
+
+    setBufferSize,
+
+    connectError,
+
+    disconnectError,
+
+    discoveryError,
 }
@@ -0,0 +1,28 @@
+package com.tradle.react;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
+
+/**
+ * Receives the events of {@link UdpSocketClient}s, on their receiving threads.
+ */
+public interface UdpEventSink {
+    /**
+     * The sink takes ownership of the buffer holding the received data, between its position and
+     * limit, and must release it to the {@link UdpBufferPool} once done with it.
+     *
+     * @param channel the channel a {@link UdpPacketFilter} routed the data to, or null
+     */
+    void didReceiveData(UdpSocketClient client, ByteBuffer data, String host, int port, @Nullable String channel);
+
+    /**
+     * An error happened during or prior to data reception.
+     */
+    void didReceiveError(UdpSocketClient client, String message);
+
+    /**
+     * An unexpected exception was thrown while receiving or sending data.
+     */
+    void didReceiveException(RuntimeException exception);
+}
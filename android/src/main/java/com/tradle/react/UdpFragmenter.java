@@ -0,0 +1,300 @@
+package com.tradle.react;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Splits the messages a socket sends into datagrams small enough to cross the path without IP
+ * fragmentation, and reassembles the messages it receives, so that messages can be larger than a
+ * datagram, and a lost datagram is the only part of a message to be lost. Both ends must use it.
+ *
+ * Every datagram starts with the ID of its message, its index, and the number of datagrams of the
+ * message. Received datagrams are held until their message is complete, in a table bounded in
+ * messages and bytes: a message is dropped when it is not complete within the timeout, or to make
+ * room for newer ones, oldest first. Expired messages are dropped as datagrams arrive, so that no
+ * timer runs for them.
+ */
+public final class UdpFragmenter {
+    /**
+     * Size of the header of a datagram: its type, the ID of its message, its index, and the number
+     * of datagrams of the message.
+     */
+    public static final int HEADER_SIZE = 9;
+    public static final int DEFAULT_FRAGMENT_SIZE = 1200;
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 1024 * 1024;
+    public static final long DEFAULT_TIMEOUT_MS = 5000;
+    private static final byte FRAGMENT = 1;
+    private static final int MAX_FRAGMENTS = 0xffff;
+    private static final int MAX_PENDING_MESSAGES = 64;
+    private static final int MAX_PENDING_MESSAGE_SIZES = 4;
+
+    private final UdpBufferPool mBufferPool;
+    private final UdpSocketStats mStats;
+    private final int mFragmentSize;
+    private final int mMaxMessageSize;
+    // datagrams of the largest message, more are not from a peer with the same settings
+    private final int mMaxFragments;
+    private final long mTimeoutNanos;
+    // bytes the pending messages may hold in all
+    private final long mMaxPendingBytes;
+    private final AtomicInteger mNextMessageId = new AtomicInteger(new Random().nextInt());
+
+    // in order of arrival of their first datagram, so that the oldest come first
+    private final Map<Key, Message> mPending = new LinkedHashMap<>();
+    private long mPendingBytes = 0;
+    private boolean mIsClosed = false;
+
+    /**
+     * @param bufferPool pool the received datagrams were taken from
+     * @param stats counters the dropped messages are recorded in
+     * @param fragmentSize the size of the part of a message each datagram carries
+     * @param maxMessageSize the size of the largest message to send or receive
+     * @param timeoutMs time a received message has to complete
+     * @throws IllegalArgumentException if a size or the timeout is not valid
+     */
+    public UdpFragmenter(UdpBufferPool bufferPool, UdpSocketStats stats, int fragmentSize, int maxMessageSize,
+                         long timeoutMs) {
+        if (fragmentSize <= 0 || fragmentSize > UdpBufferPool.MAX_DATAGRAM_SIZE - HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid fragment size " + fragmentSize);
+        }
+        if (maxMessageSize <= 0 || (long) maxMessageSize > (long) fragmentSize * MAX_FRAGMENTS) {
+            throw new IllegalArgumentException("Invalid max message size " + maxMessageSize);
+        }
+        if (timeoutMs <= 0) {
+            throw new IllegalArgumentException("Invalid reassembly timeout " + timeoutMs);
+        }
+        this.mBufferPool = bufferPool;
+        this.mStats = stats;
+        this.mFragmentSize = fragmentSize;
+        this.mMaxMessageSize = maxMessageSize;
+        this.mMaxFragments = (maxMessageSize + fragmentSize - 1) / fragmentSize;
+        this.mTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        this.mMaxPendingBytes = (long) MAX_PENDING_MESSAGE_SIZES * maxMessageSize;
+    }
+
+    public int getFragmentSize() {
+        return mFragmentSize;
+    }
+
+    public int getMaxMessageSize() {
+        return mMaxMessageSize;
+    }
+
+    /**
+     * @return the datagrams to send for the message, in order.
+     * @throws IllegalArgumentException if the message is larger than the max message size
+     */
+    public List<byte[]> split(byte[] message) {
+        if (message.length > mMaxMessageSize) {
+            throw new IllegalArgumentException("Message larger than " + mMaxMessageSize + " bytes");
+        }
+        final int count = Math.max(1, (message.length + mFragmentSize - 1) / mFragmentSize);
+        final int messageId = mNextMessageId.getAndIncrement();
+        final List<byte[]> datagrams = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            final int offset = index * mFragmentSize;
+            final int length = Math.min(mFragmentSize, message.length - offset);
+            final byte[] datagram = new byte[HEADER_SIZE + length];
+            ByteBuffer.wrap(datagram)
+                    .put(FRAGMENT)
+                    .putInt(messageId)
+                    .putShort((short) index)
+                    .putShort((short) count)
+                    .put(message, offset, length);
+            datagrams.add(datagram);
+        }
+        return datagrams;
+    }
+
+    /**
+     * Takes a received datagram in, handing back its message if it completes it.
+     *
+     * @param datagram pooled buffer holding the datagram, between its position and limit, which is
+     *                 released to the pool, or handed back
+     * @return the buffer holding the message, between its position and limit, which the caller
+     * must release to the pool, or null if the message is not complete yet, or the datagram was
+     * dropped.
+     */
+    @Nullable
+    public ByteBuffer reassemble(ByteBuffer datagram, String host, int port) {
+        final int start = datagram.position();
+        if (datagram.remaining() < HEADER_SIZE || datagram.get(start) != FRAGMENT) {
+            // not from a peer fragmenting its messages
+            mBufferPool.release(datagram);
+            mStats.recordMessageDropped();
+            return null;
+        }
+        final int messageId = datagram.getInt(start + 1);
+        final int index = datagram.getShort(start + 5) & 0xffff;
+        final int count = datagram.getShort(start + 7) & 0xffff;
+        final int length = datagram.remaining() - HEADER_SIZE;
+        // checked before a table of the fragments is allocated for the message, as both come off the wire
+        if (count == 0 || index >= count || count > mMaxFragments
+                || (long) index * mFragmentSize + length > mMaxMessageSize) {
+            mBufferPool.release(datagram);
+            mStats.recordMessageDropped();
+            return null;
+        }
+        datagram.position(start + HEADER_SIZE);
+        if (count == 1) {
+            return datagram;
+        }
+
+        synchronized (this) {
+            if (mIsClosed) {
+                mBufferPool.release(datagram);
+                return null;
+            }
+            final long now = System.nanoTime();
+            evictExpired(now);
+
+            final Key key = new Key(host, port, messageId);
+            Message message = mPending.get(key);
+            if (message == null) {
+                message = new Message(count, now);
+                mPending.put(key, message);
+            } else if (message.fragments.length != count || message.fragments[index] != null) {
+                // a datagram received twice, or not from the same message
+                mBufferPool.release(datagram);
+                return null;
+            }
+
+            // copied out, so that the pending messages hold their bytes only, and no receive buffer
+            final byte[] fragment = new byte[datagram.remaining()];
+            datagram.get(fragment);
+            mBufferPool.release(datagram);
+            message.fragments[index] = fragment;
+            message.received++;
+            message.size += fragment.length;
+            mPendingBytes += fragment.length;
+            if (message.size > mMaxMessageSize) {
+                drop(key, message);
+                return null;
+            }
+            if (message.received < count) {
+                evictOverflow(key);
+                return null;
+            }
+
+            mPending.remove(key);
+            mPendingBytes -= message.size;
+            return assemble(message);
+        }
+    }
+
+    /**
+     * Drops the messages which did not complete within the timeout.
+     */
+    private void evictExpired(long now) {
+        final Iterator<Message> messages = mPending.values().iterator();
+        while (messages.hasNext()) {
+            final Message message = messages.next();
+            if (now - message.startNanos < mTimeoutNanos) {
+                return;
+            }
+            messages.remove();
+            release(message);
+        }
+    }
+
+    /**
+     * Drops the oldest messages other than the given one, until the table is within bounds. The
+     * given one is bounded by the max message size.
+     */
+    private void evictOverflow(Key current) {
+        final Iterator<Map.Entry<Key, Message>> entries = mPending.entrySet().iterator();
+        while ((mPending.size() > MAX_PENDING_MESSAGES || mPendingBytes > mMaxPendingBytes) && entries.hasNext()) {
+            final Map.Entry<Key, Message> entry = entries.next();
+            if (entry.getKey().equals(current)) {
+                continue;
+            }
+            entries.remove();
+            release(entry.getValue());
+        }
+    }
+
+    private void drop(Key key, Message message) {
+        mPending.remove(key);
+        release(message);
+    }
+
+    private void release(Message message) {
+        mPendingBytes -= message.size;
+        mStats.recordMessageDropped();
+    }
+
+    /**
+     * Copies the parts of a complete message into one buffer, from the pool if a datagram could
+     * hold the message.
+     */
+    private ByteBuffer assemble(Message message) {
+        final ByteBuffer data = message.size <= UdpBufferPool.MAX_DATAGRAM_SIZE
+                ? mBufferPool.acquire(message.size, false)
+                : ByteBuffer.allocate(message.size);
+        for (byte[] fragment : message.fragments) {
+            data.put(fragment);
+        }
+        data.flip();
+        return data;
+    }
+
+    /**
+     * Drops the messages not complete yet. Datagrams received afterwards are dropped, unless they
+     * hold a whole message.
+     */
+    public synchronized void close() {
+        mIsClosed = true;
+        mPending.clear();
+        mPendingBytes = 0;
+    }
+
+    /**
+     * A message being reassembled.
+     */
+    private static final class Message {
+        private final byte[][] fragments;
+        private final long startNanos;
+        private int received = 0;
+        private int size = 0;
+
+        private Message(int count, long startNanos) {
+            this.fragments = new byte[count][];
+            this.startNanos = startNanos;
+        }
+    }
+
+    private static final class Key {
+        private final String host;
+        private final int port;
+        private final int messageId;
+
+        private Key(String host, int port, int messageId) {
+            this.host = host;
+            this.port = port;
+            this.messageId = messageId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return port == key.port && messageId == key.messageId && host.equals(key.host);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * host.hashCode() + port) + messageId;
+        }
+    }
+}
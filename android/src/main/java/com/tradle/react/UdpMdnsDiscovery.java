@@ -0,0 +1,569 @@
+package com.tradle.react;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * DNS-based service discovery over multicast DNS (RFC 6762 and 6763), on a socket bound to port
+ * 5353 and joined to the mDNS group.
+ *
+ * The services given are announced on start, answered for on query, and said goodbye for on
+ * close, with the suppression of answers the querier already knows. Instances of the browsed
+ * service types are resolved, through their PTR, SRV, TXT and address records, and handed to a
+ * {@link UdpServiceCache} once their host address is known; queries go out at growing intervals,
+ * and again when a cached service is due for a refresh.
+ *
+ * Host names are not probed for conflicts: the host name given must be unique on the link.
+ */
+public final class UdpMdnsDiscovery implements UdpServiceDiscovery {
+    public static final String PROTOCOL = "mdns";
+    public static final int PORT = 5353;
+    public static final String GROUP_IPV4 = "224.0.0.251";
+    public static final String GROUP_IPV6 = "ff02::fb";
+    private static final String DOMAIN = "local";
+    private static final String SERVICE_TYPES = "_services._dns-sd._udp.local";
+    // RFC 6762 section 10: records naming a host live 2 minutes, the others 75
+    private static final long HOST_TTL = 120;
+    private static final long SERVICE_TTL = 4500;
+    // the time to live of the answers to legacy queriers, which do not expect records to change
+    private static final long LEGACY_TTL = 10;
+    private static final long SWEEP_INTERVAL_MS = 1000;
+    private static final long FIRST_QUERY_INTERVAL_MS = 1000;
+    private static final long MAX_QUERY_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+    private static final long ANNOUNCE_INTERVAL_MS = 1000;
+    private static final int ANNOUNCEMENTS = 2;
+
+    private final ScheduledExecutorService mScheduler;
+    private final Transport mTransport;
+    private final InetSocketAddress mGroup;
+    private final Listener mListener;
+    // the records of the services answered for
+    private final List<UdpDnsMessage.Record> mRecords;
+    private final List<String> mBrowsedTypes;
+    private final Set<String> mBrowsedKeys = new HashSet<>();
+    private final UdpServiceCache mCache;
+    // instances of the browsed types being resolved or cached, by lower case name
+    private final Map<String, Instance> mInstances = new HashMap<>();
+    // addresses of the hosts of those instances, by lower case name
+    private final Map<String, List<String>> mHostAddresses = new HashMap<>();
+    @Nullable
+    private ScheduledFuture<?> mSweepTask;
+    private long mQueryIntervalMs = FIRST_QUERY_INTERVAL_MS;
+    private boolean mIsClosed = false;
+
+    private final Listener mCacheListener = new Listener() {
+        @Override
+        public void onServiceUp(Service service) {
+            mListener.onServiceUp(service);
+        }
+
+        @Override
+        public void onServiceDown(Service service) {
+            mInstances.remove(UdpDnsMessage.key(service.getName()));
+            mListener.onServiceDown(service);
+        }
+    };
+
+    private final Runnable mQueryTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (UdpMdnsDiscovery.this) {
+                if (mIsClosed) {
+                    return;
+                }
+                query(mBrowsedTypes);
+                mScheduler.schedule(this, mQueryIntervalMs, TimeUnit.MILLISECONDS);
+                mQueryIntervalMs = Math.min(mQueryIntervalMs * 2, MAX_QUERY_INTERVAL_MS);
+            }
+        }
+    };
+
+    private final Runnable mAnnounceTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (UdpMdnsDiscovery.this) {
+                if (!mIsClosed) {
+                    announce(mRecords);
+                }
+            }
+        }
+    };
+
+    private final Runnable mSweepRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sweep();
+        }
+    };
+
+    /**
+     * @param scheduler runs the announcements, queries and cache expiry
+     * @param group the mDNS group, e.g. {@link #GROUP_IPV4} on port {@link #PORT}
+     * @param hostName the name of this host, e.g. {@code "phone"} or {@code "phone.local"}
+     * @param addresses the addresses of this host, which its services are reached at
+     * @param services the services to answer for
+     * @param browsedTypes the service types to look for, e.g. {@code "_http._tcp"}
+     * @throws IllegalArgumentException if a name is too long to fit in a DNS message
+     */
+    public UdpMdnsDiscovery(ScheduledExecutorService scheduler, Transport transport, InetSocketAddress group,
+                            String hostName, List<InetAddress> addresses, List<Registration> services,
+                            List<String> browsedTypes, Listener listener) {
+        this.mScheduler = scheduler;
+        this.mTransport = transport;
+        this.mGroup = group;
+        this.mListener = listener;
+        this.mCache = new UdpServiceCache(mCacheListener);
+
+        final String host = qualify(hostName);
+        final List<UdpDnsMessage.Record> records = new ArrayList<>();
+        final Set<String> types = new HashSet<>();
+        for (Registration service : services) {
+            final String type = qualify(service.type);
+            final String instance = UdpDnsMessage.join(service.name, type);
+            records.add(UdpDnsMessage.Record.ptr(type, SERVICE_TTL, instance));
+            records.add(UdpDnsMessage.Record.srv(instance, HOST_TTL, service.port, host));
+            records.add(UdpDnsMessage.Record.txt(instance, SERVICE_TTL, service.attributes));
+            if (types.add(UdpDnsMessage.key(type))) {
+                records.add(UdpDnsMessage.Record.ptr(SERVICE_TYPES, SERVICE_TTL, type));
+            }
+        }
+        if (!services.isEmpty()) {
+            for (InetAddress address : addresses) {
+                records.add(UdpDnsMessage.Record.address(host, HOST_TTL, address.getAddress()));
+            }
+        }
+        this.mRecords = Collections.unmodifiableList(records);
+        // fails early on names a DNS message cannot hold
+        response(0, Collections.<UdpDnsMessage.Question>emptyList(), mRecords,
+                Collections.<UdpDnsMessage.Record>emptyList()).toBytes();
+
+        this.mBrowsedTypes = new ArrayList<>();
+        for (String type : browsedTypes) {
+            final String qualified = qualify(type);
+            if (mBrowsedKeys.add(UdpDnsMessage.key(qualified))) {
+                mBrowsedTypes.add(qualified);
+            }
+        }
+    }
+
+    /**
+     * @return the name in the local domain, e.g. {@code "_http._tcp.local"} for {@code "_http._tcp"}.
+     */
+    private static String qualify(String name) {
+        final String lowerCase = name.toLowerCase(Locale.ROOT);
+        if (lowerCase.equals(DOMAIN) || lowerCase.endsWith("." + DOMAIN)) {
+            return name;
+        }
+        return name + "." + DOMAIN;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (mIsClosed) {
+            return;
+        }
+        if (!mRecords.isEmpty()) {
+            for (int i = 0; i < ANNOUNCEMENTS; i++) {
+                mScheduler.schedule(mAnnounceTask, i * ANNOUNCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (!mBrowsedTypes.isEmpty()) {
+            mScheduler.execute(mQueryTask);
+        }
+        mSweepTask = mScheduler.scheduleWithFixedDelay(mSweepRunnable, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void receive(ByteBuffer data, String host, int port) {
+        final UdpDnsMessage message;
+        try {
+            message = UdpDnsMessage.parse(data);
+        } catch (IllegalArgumentException iae) {
+            // not a DNS message
+            return;
+        }
+        synchronized (this) {
+            if (mIsClosed) {
+                return;
+            }
+            if (message.isResponse()) {
+                learn(message);
+            } else {
+                answer(message, host, port);
+            }
+        }
+    }
+
+    /**
+     * Answers the questions of a query about the services, leaving out the answers the querier
+     * knows already. Queries from ports other than 5353 come from legacy resolvers, which expect
+     * a unicast response echoing their query.
+     */
+    private void answer(UdpDnsMessage query, String host, int port) {
+        final boolean isLegacy = port != PORT;
+        boolean isUnicast = !query.getQuestions().isEmpty();
+        final List<UdpDnsMessage.Record> answers = new ArrayList<>();
+        for (UdpDnsMessage.Question question : query.getQuestions()) {
+            isUnicast &= question.isUnicast();
+            for (UdpDnsMessage.Record record : mRecords) {
+                if (question.isAnsweredBy(record) && !contains(answers, record)
+                        && !isKnown(query.getAnswers(), record)) {
+                    answers.add(record);
+                }
+            }
+        }
+        if (answers.isEmpty()) {
+            return;
+        }
+
+        // the records a querier would ask for next
+        final List<UdpDnsMessage.Record> additionals = new ArrayList<>();
+        for (UdpDnsMessage.Record answer : answers) {
+            if (answer.getType() == UdpDnsMessage.TYPE_PTR && !UdpDnsMessage.key(answer.getName()).equals(SERVICE_TYPES)) {
+                addRecords(answer.getTarget(), answers, additionals);
+            }
+        }
+        for (UdpDnsMessage.Record answer : new ArrayList<>(answers)) {
+            if (answer.getType() == UdpDnsMessage.TYPE_SRV) {
+                addRecords(answer.getTarget(), answers, additionals);
+            }
+        }
+        for (UdpDnsMessage.Record additional : new ArrayList<>(additionals)) {
+            if (additional.getType() == UdpDnsMessage.TYPE_SRV) {
+                addRecords(additional.getTarget(), answers, additionals);
+            }
+        }
+
+        if (isLegacy) {
+            mTransport.transmit(response(query.getId(), query.getQuestions(), withLegacyTtl(answers),
+                    withLegacyTtl(additionals)).toBytes(), new InetSocketAddress(host, port));
+        } else {
+            mTransport.transmit(response(0, Collections.<UdpDnsMessage.Question>emptyList(), answers, additionals)
+                    .toBytes(), isUnicast ? new InetSocketAddress(host, port) : mGroup);
+        }
+    }
+
+    /**
+     * Adds the records of the services with the given name, which are not added yet.
+     */
+    private void addRecords(String name, List<UdpDnsMessage.Record> answers, List<UdpDnsMessage.Record> additionals) {
+        final String key = UdpDnsMessage.key(name);
+        for (UdpDnsMessage.Record record : mRecords) {
+            if (UdpDnsMessage.key(record.getName()).equals(key) && !contains(answers, record)
+                    && !contains(additionals, record)) {
+                additionals.add(record);
+            }
+        }
+    }
+
+    private static boolean contains(List<UdpDnsMessage.Record> records, UdpDnsMessage.Record record) {
+        for (UdpDnsMessage.Record other : records) {
+            if (other.isSameAs(record)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the querier knows the record, with at least half its time to live left.
+     */
+    private static boolean isKnown(List<UdpDnsMessage.Record> knownAnswers, UdpDnsMessage.Record record) {
+        for (UdpDnsMessage.Record known : knownAnswers) {
+            if (known.isSameAs(record) && known.getTtl() >= record.getTtl() / 2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<UdpDnsMessage.Record> withLegacyTtl(List<UdpDnsMessage.Record> records) {
+        final List<UdpDnsMessage.Record> capped = new ArrayList<>(records.size());
+        for (UdpDnsMessage.Record record : records) {
+            capped.add(record.withTtl(Math.min(record.getTtl(), LEGACY_TTL)));
+        }
+        return capped;
+    }
+
+    private static UdpDnsMessage response(int id, List<UdpDnsMessage.Question> questions,
+                                          List<UdpDnsMessage.Record> answers, List<UdpDnsMessage.Record> additionals) {
+        return new UdpDnsMessage(id, true, questions, answers, additionals);
+    }
+
+    private void announce(List<UdpDnsMessage.Record> records) {
+        mTransport.transmit(response(0, Collections.<UdpDnsMessage.Question>emptyList(), records,
+                Collections.<UdpDnsMessage.Record>emptyList()).toBytes(), mGroup);
+    }
+
+    /**
+     * Asks for the instances of service types, listing the instances known already, so that their
+     * hosts do not answer for them again.
+     */
+    private void query(Iterable<String> types) {
+        final long now = System.nanoTime();
+        final List<UdpDnsMessage.Question> questions = new ArrayList<>();
+        final List<UdpDnsMessage.Record> knownAnswers = new ArrayList<>();
+        for (String type : types) {
+            questions.add(new UdpDnsMessage.Question(type, UdpDnsMessage.TYPE_PTR, false));
+            final String key = UdpDnsMessage.key(type);
+            for (Instance instance : mInstances.values()) {
+                final long ttl = TimeUnit.NANOSECONDS.toSeconds(instance.expiresAt - now);
+                if (instance.typeKey.equals(key) && ttl > instance.ttl / 2) {
+                    knownAnswers.add(UdpDnsMessage.Record.ptr(instance.type, ttl, instance.name));
+                }
+            }
+        }
+        send(questions, knownAnswers);
+    }
+
+    private void send(List<UdpDnsMessage.Question> questions, List<UdpDnsMessage.Record> knownAnswers) {
+        mTransport.transmit(new UdpDnsMessage(0, false, questions, knownAnswers,
+                Collections.<UdpDnsMessage.Record>emptyList()).toBytes(), mGroup);
+    }
+
+    /**
+     * Takes in the records of a response about the instances of the browsed types, and hands
+     * those it completes or changes to the cache.
+     */
+    private void learn(UdpDnsMessage response) {
+        final List<UdpDnsMessage.Record> records = new ArrayList<>(response.getAnswers());
+        records.addAll(response.getAdditionals());
+        final Set<Instance> touched = new LinkedHashSet<>();
+
+        for (UdpDnsMessage.Record record : records) {
+            if (record.getType() != UdpDnsMessage.TYPE_PTR || !mBrowsedKeys.contains(UdpDnsMessage.key(record.getName()))) {
+                continue;
+            }
+            final String key = UdpDnsMessage.key(record.getTarget());
+            if (record.getTtl() == 0) {
+                // a goodbye
+                final Instance instance = mInstances.remove(key);
+                if (instance != null) {
+                    touched.remove(instance);
+                    mCache.remove(instance.name);
+                }
+                continue;
+            }
+            Instance instance = mInstances.get(key);
+            if (instance == null) {
+                if (mInstances.size() >= UdpServiceCache.MAX_SERVICES) {
+                    continue;
+                }
+                instance = new Instance(record.getTarget(), record.getName());
+                mInstances.put(key, instance);
+            }
+            instance.refresh(record.getTtl());
+            touched.add(instance);
+        }
+
+        for (UdpDnsMessage.Record record : records) {
+            final Instance instance = mInstances.get(UdpDnsMessage.key(record.getName()));
+            if (instance == null || record.getTtl() == 0) {
+                continue;
+            }
+            if (record.getType() == UdpDnsMessage.TYPE_SRV) {
+                instance.host = record.getTarget();
+                instance.port = record.getPort();
+                touched.add(instance);
+            } else if (record.getType() == UdpDnsMessage.TYPE_TXT) {
+                instance.attributes = record.getAttributes();
+                touched.add(instance);
+            }
+        }
+
+        // the addresses a response holds for a host replace those known
+        final Map<String, List<String>> addresses = new HashMap<>();
+        for (UdpDnsMessage.Record record : records) {
+            final byte[] address = record.getAddress();
+            final String host = UdpDnsMessage.key(record.getName());
+            if (address == null || !isHostOfInstance(host)) {
+                continue;
+            }
+            List<String> hostAddresses = addresses.get(host);
+            if (hostAddresses == null) {
+                hostAddresses = new ArrayList<>();
+                addresses.put(host, hostAddresses);
+            }
+            try {
+                final String literal = InetAddress.getByAddress(address).getHostAddress();
+                if (record.getTtl() > 0 && !hostAddresses.contains(literal)) {
+                    hostAddresses.add(literal);
+                }
+            } catch (UnknownHostException uhe) {
+                // an address of the wrong size
+            }
+        }
+        for (Map.Entry<String, List<String>> host : addresses.entrySet()) {
+            mHostAddresses.put(host.getKey(), host.getValue());
+            for (Instance instance : mInstances.values()) {
+                if (instance.host != null && UdpDnsMessage.key(instance.host).equals(host.getKey())) {
+                    touched.add(instance);
+                }
+            }
+        }
+
+        for (Instance instance : touched) {
+            publish(instance);
+        }
+    }
+
+    private boolean isHostOfInstance(String hostKey) {
+        for (Instance instance : mInstances.values()) {
+            if (instance.host != null && UdpDnsMessage.key(instance.host).equals(hostKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hands an instance to the cache if it is resolved, or asks once for what it lacks.
+     */
+    private void publish(Instance instance) {
+        if (instance.host == null) {
+            if (!instance.isResolving) {
+                instance.isResolving = true;
+                send(Arrays.asList(
+                        new UdpDnsMessage.Question(instance.name, UdpDnsMessage.TYPE_SRV, false),
+                        new UdpDnsMessage.Question(instance.name, UdpDnsMessage.TYPE_TXT, false)),
+                        Collections.<UdpDnsMessage.Record>emptyList());
+            }
+            return;
+        }
+        final List<String> addresses = mHostAddresses.get(UdpDnsMessage.key(instance.host));
+        if (addresses == null || addresses.isEmpty()) {
+            if (!instance.isResolvingHost) {
+                instance.isResolvingHost = true;
+                send(Arrays.asList(
+                        new UdpDnsMessage.Question(instance.host, UdpDnsMessage.TYPE_A, false),
+                        new UdpDnsMessage.Question(instance.host, UdpDnsMessage.TYPE_AAAA, false)),
+                        Collections.<UdpDnsMessage.Record>emptyList());
+            }
+            return;
+        }
+        final long ttlMs = TimeUnit.NANOSECONDS.toMillis(instance.expiresAt - System.nanoTime());
+        mCache.put(new Service(PROTOCOL, instance.name, instance.type, instance.host, instance.port,
+                new ArrayList<>(addresses), instance.attributes), ttlMs);
+    }
+
+    /**
+     * Expires the cached services, and the instances which never resolved, querying again for
+     * the types of the services due for a refresh.
+     */
+    private synchronized void sweep() {
+        if (mIsClosed) {
+            return;
+        }
+        final Set<String> staleTypes = new LinkedHashSet<>();
+        for (Service service : mCache.sweep()) {
+            staleTypes.add(service.getType());
+        }
+        final long now = System.nanoTime();
+        final Iterator<Instance> instances = mInstances.values().iterator();
+        while (instances.hasNext()) {
+            final Instance instance = instances.next();
+            if (now - instance.expiresAt >= 0 && !mCache.contains(instance.name)) {
+                instances.remove();
+            }
+        }
+        final Iterator<String> hosts = mHostAddresses.keySet().iterator();
+        while (hosts.hasNext()) {
+            if (!isHostOfInstance(hosts.next())) {
+                hosts.remove();
+            }
+        }
+        if (!staleTypes.isEmpty()) {
+            query(staleTypes);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mIsClosed) {
+            return;
+        }
+        mIsClosed = true;
+        if (mSweepTask != null) {
+            mSweepTask.cancel(false);
+        }
+        if (!mRecords.isEmpty()) {
+            final List<UdpDnsMessage.Record> goodbyes = new ArrayList<>(mRecords.size());
+            for (UdpDnsMessage.Record record : mRecords) {
+                goodbyes.add(record.withTtl(0));
+            }
+            announce(goodbyes);
+        }
+        mCache.clear();
+        mInstances.clear();
+        mHostAddresses.clear();
+    }
+
+    /**
+     * A service to answer for.
+     */
+    public static final class Registration {
+        private final String name;
+        private final String type;
+        private final int port;
+        private final Map<String, String> attributes;
+
+        /**
+         * @param name the name of the instance, e.g. {@code "Living Room"}
+         * @param type the service type, e.g. {@code "_http._tcp"}
+         * @param attributes the TXT record of the service; keys without a value map to null
+         */
+        public Registration(String name, String type, int port, Map<String, String> attributes) {
+            this.name = name;
+            this.type = type;
+            this.port = port;
+            this.attributes = attributes;
+        }
+    }
+
+    /**
+     * An instance of a browsed type, as resolved so far.
+     */
+    private static final class Instance {
+        private final String name;
+        private final String type;
+        private final String typeKey;
+        private long ttl;
+        private long expiresAt;
+        @Nullable
+        private String host;
+        private int port;
+        private Map<String, String> attributes = Collections.emptyMap();
+        private boolean isResolving = false;
+        private boolean isResolvingHost = false;
+
+        private Instance(String name, String type) {
+            this.name = name;
+            this.type = type;
+            this.typeKey = UdpDnsMessage.key(type);
+        }
+
+        private void refresh(long ttl) {
+            this.ttl = ttl;
+            this.expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(ttl);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.tradle.react;
+
+import com.facebook.common.logging.FLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
+
+/**
+ * Moves several datagrams per system call through {@code recvmmsg} and {@code sendmmsg}, instead of
+ * one per {@link DatagramSocket#receive} or {@link DatagramSocket#send}. Datagrams go through a
+ * direct buffer split in slots, which the native code hands to the kernel as is.
+ *
+ * The calls live in an optional native library; when it was not built, or when the socket
+ * descriptor cannot be taken, {@link #open} returns null and the socket API is used as before.
+ * An instance is not thread safe, except for {@link #shutdown} and {@link #close}: the receiving
+ * and the sending threads of a socket each open their own.
+ */
+public final class UdpNativeIo implements Closeable {
+    private static final String TAG = "UdpNativeIo";
+    private static final String LIBRARY_NAME = "react-native-udp-io";
+    // caps the memory held by the slots of each instance
+    private static final int MAX_ARENA_SIZE = 256 * 1024;
+    public static final int MAX_BATCH_SIZE = 32;
+    // per datagram: length, port, and length of the address
+    private static final int META_SIZE = 3;
+    private static final int ADDRESS_SIZE = 16;
+
+    private static boolean sLoadAttempted = false;
+    private static boolean sIsLoaded = false;
+
+    private final UdpSocketDescriptor mDescriptor;
+    private final boolean mIsIpv6;
+    private final int mSlotSize;
+    private final int mBatchSize;
+    private final ByteBuffer mArena;
+    private final int[] mMeta;
+    private final byte[] mAddresses;
+    private int mCount = 0;
+    private int mArenaPosition = 0;
+    private long mLastSentBytes = 0;
+    private boolean mIsClosed = false;
+    @Nullable
+    private String mLastError;
+
+    private UdpNativeIo(UdpSocketDescriptor descriptor, int slotSize, int batchSize, int arenaSize) {
+        this.mDescriptor = descriptor;
+        this.mIsIpv6 = nativeIsIpv6(descriptor.getFd());
+        this.mSlotSize = slotSize;
+        this.mBatchSize = batchSize;
+        this.mArena = ByteBuffer.allocateDirect(arenaSize);
+        this.mMeta = new int[batchSize * META_SIZE];
+        this.mAddresses = new byte[batchSize * ADDRESS_SIZE];
+    }
+
+    /**
+     * Loads the native library holding the calls, if it was built.
+     */
+    private static synchronized boolean loadLibrary() {
+        if (!sLoadAttempted) {
+            sLoadAttempted = true;
+            try {
+                System.loadLibrary(LIBRARY_NAME);
+                sIsLoaded = true;
+            } catch (UnsatisfiedLinkError e) {
+                FLog.w(TAG, "native I/O unavailable, datagrams are moved one per system call.");
+            }
+        }
+        return sIsLoaded;
+    }
+
+    /**
+     * Opens native I/O to receive with, in slots of a fixed size: the fewer slots the larger they
+     * are, so that sockets receiving large datagrams do not hold large buffers.
+     *
+     * @param slotSize the size of the largest datagram to receive, larger datagrams are truncated
+     * @return native I/O for the socket, or null if it is not available.
+     */
+    @Nullable
+    public static UdpNativeIo openReceiver(DatagramSocket socket, int slotSize) {
+        final UdpSocketDescriptor descriptor = loadLibrary() ? UdpSocketDescriptor.dup(socket) : null;
+        if (descriptor == null) {
+            return null;
+        }
+        final int batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, MAX_ARENA_SIZE / slotSize));
+        return new UdpNativeIo(descriptor, slotSize, batchSize, slotSize * batchSize);
+    }
+
+    /**
+     * Opens native I/O to send with, queued datagrams being packed one after the other.
+     *
+     * @return native I/O for the socket, or null if it is not available.
+     */
+    @Nullable
+    public static UdpNativeIo openSender(DatagramSocket socket) {
+        final UdpSocketDescriptor descriptor = loadLibrary() ? UdpSocketDescriptor.dup(socket) : null;
+        if (descriptor == null) {
+            return null;
+        }
+        return new UdpNativeIo(descriptor, 0, MAX_BATCH_SIZE, MAX_ARENA_SIZE);
+    }
+
+    /**
+     * Blocks until at least one datagram is received, then takes as many of those waiting as
+     * there are slots, in a single call. Their data, sender and length are then read by index.
+     *
+     * @return the number of datagrams received, 0 once the socket was shut down.
+     * @throws IOException if the call failed
+     */
+    public int receive() throws IOException {
+        mCount = 0;
+        final int result = nativeReceive(mDescriptor.getFd(), mArena, mSlotSize, mBatchSize, mMeta, mAddresses);
+        if (result < 0) {
+            throw new IOException("recvmmsg failed with errno " + -result);
+        }
+        mCount = result;
+        return result;
+    }
+
+    /**
+     * Copies the data of a received datagram into a buffer of the pool.
+     *
+     * @return the buffer, with its limit set to the length of the datagram.
+     */
+    public ByteBuffer copyReceived(int index, UdpBufferPool bufferPool) {
+        final int length = mMeta[index * META_SIZE];
+        final ByteBuffer buffer = bufferPool.acquire(Math.max(length, 1), false);
+        final ByteBuffer slot = mArena.duplicate();
+        slot.limit(index * mSlotSize + length).position(index * mSlotSize);
+        buffer.put(slot);
+        buffer.flip();
+        return buffer;
+    }
+
+    public int getReceivedPort(int index) {
+        return mMeta[index * META_SIZE + 1];
+    }
+
+    public InetAddress getReceivedAddress(int index) throws IOException {
+        final byte[] address = new byte[mMeta[index * META_SIZE + 2]];
+        System.arraycopy(mAddresses, index * ADDRESS_SIZE, address, 0, address.length);
+        return InetAddress.getByAddress(address);
+    }
+
+    /**
+     * Queues a datagram, to be sent by the next {@link #flush}. The queue must be flushed first
+     * once full.
+     *
+     * @param destination a resolved address
+     * @return false if the datagram does not fit in the remaining slots, and was not queued.
+     */
+    public boolean queue(byte[] data, InetSocketAddress destination) {
+        if (mCount == mBatchSize || mArenaPosition + data.length > mArena.capacity()) {
+            return false;
+        }
+        final byte[] address = destination.getAddress().getAddress();
+        final ByteBuffer slot = mArena.duplicate();
+        slot.position(mArenaPosition);
+        slot.put(data);
+        mMeta[mCount * META_SIZE] = data.length;
+        mMeta[mCount * META_SIZE + 1] = destination.getPort();
+        mMeta[mCount * META_SIZE + 2] = address.length;
+        System.arraycopy(address, 0, mAddresses, mCount * ADDRESS_SIZE, address.length);
+        mArenaPosition += data.length;
+        mCount++;
+        return true;
+    }
+
+    /**
+     * @return the largest datagram {@link #queue} accepts into an empty queue.
+     */
+    public int getMaxQueuedSize() {
+        return mArena.capacity();
+    }
+
+    /**
+     * Sends the queued datagrams in as few calls as possible, and empties the queue. A datagram
+     * the kernel rejects is skipped, and the others are still sent.
+     *
+     * @return the number of datagrams sent; if some could not be, {@link #getLastError} tells why.
+     */
+    public synchronized int flush() {
+        final int count = mCount;
+        mCount = 0;
+        mArenaPosition = 0;
+        mLastSentBytes = 0;
+        mLastError = null;
+        if (mIsClosed) {
+            mLastError = "Socket is closed";
+            return 0;
+        }
+
+        int sent = 0;
+        int handled = 0;
+        int firstError = 0;
+        while (handled < count) {
+            final int result = nativeSend(mDescriptor.getFd(), mIsIpv6, mArena, mMeta, mAddresses, handled, count - handled);
+            if (result > 0) {
+                for (int i = handled; i < handled + result; i++) {
+                    mLastSentBytes += mMeta[i * META_SIZE];
+                }
+                sent += result;
+                handled += result;
+            } else {
+                // the datagram at the head of the rest failed, skip it
+                if (firstError == 0) {
+                    firstError = result < 0 ? -result : 1;
+                }
+                handled++;
+            }
+        }
+        if (firstError != 0) {
+            mLastError = "sendmmsg failed with errno " + firstError;
+        }
+        return sent;
+    }
+
+    /**
+     * @return the number of bytes the last {@link #flush} sent.
+     */
+    public long getLastSentBytes() {
+        return mLastSentBytes;
+    }
+
+    /**
+     * @return the error of the first datagram the last {@link #flush} could not send, if any.
+     */
+    @Nullable
+    public String getLastError() {
+        return mLastError;
+    }
+
+    /**
+     * Wakes up a thread blocked in {@link #receive}, which then returns 0. The socket receives
+     * nothing afterwards.
+     */
+    public synchronized void shutdown() {
+        if (!mIsClosed) {
+            nativeShutdown(mDescriptor.getFd());
+        }
+    }
+
+    /**
+     * Releases the descriptor of the socket, which closes once it was closed itself. Waits for a
+     * send in progress, so that its descriptor is not reused under it.
+     */
+    @Override
+    public synchronized void close() {
+        if (!mIsClosed) {
+            mIsClosed = true;
+            mDescriptor.close();
+        }
+    }
+
+    private static native int nativeReceive(int fd, ByteBuffer arena, int slotSize, int count, int[] meta,
+                                            byte[] addresses);
+
+    private static native int nativeSend(int fd, boolean isIpv6, ByteBuffer arena, int[] meta, byte[] addresses,
+                                         int from, int count);
+
+    private static native boolean nativeIsIpv6(int fd);
+
+    private static native void nativeShutdown(int fd);
+}
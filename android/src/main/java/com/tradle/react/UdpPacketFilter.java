@@ -0,0 +1,255 @@
+package com.tradle.react;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+
+import javax.annotation.Nullable;
+
+/**
+ * Decides what becomes of a received datagram before any of the cost of handing it over to the
+ * javascript layer is paid: it is dropped, handed over as usual, or routed to a channel of its
+ * own. Rules are tried in order, and the first one to match decides; datagrams no rule matches
+ * get the default action.
+ *
+ * A rule matches on the subnet of the sender, a range of sender ports, bytes at an offset of the
+ * datagram, such as a magic number, and a range of lengths, all of which must hold. Rules must not
+ * change once in a filter, so that receiving threads share it without locking.
+ */
+public final class UdpPacketFilter {
+    public enum Action {
+        /** Hand the datagram over as usual. */
+        ACCEPT,
+        /** Discard the datagram. */
+        DROP,
+        /** Hand the datagram over on the channel of the rule. */
+        ROUTE;
+
+        /**
+         * @param name the javascript name of the action, e.g. {@code "drop"}
+         * @throws IllegalArgumentException if the name is unknown
+         */
+        public static Action fromName(String name) {
+            return valueOf(name.toUpperCase(Locale.US));
+        }
+    }
+
+    private final Rule[] mRules;
+    private final Rule mDefault;
+    // whether a rule needs the address of the sender, which is parsed for those only
+    private final boolean mMatchesSubnets;
+
+    /**
+     * @param defaultAction the action for the datagrams no rule matches, either accept or drop
+     * @throws IllegalArgumentException if the default action routes
+     */
+    public UdpPacketFilter(List<Rule> rules, Action defaultAction) {
+        if (defaultAction == Action.ROUTE) {
+            throw new IllegalArgumentException("The default action cannot route");
+        }
+        this.mRules = rules.toArray(new Rule[0]);
+        this.mDefault = new Rule(defaultAction, null);
+        boolean matchesSubnets = false;
+        for (Rule rule : mRules) {
+            matchesSubnets |= rule.mNetwork != null;
+        }
+        this.mMatchesSubnets = matchesSubnets;
+    }
+
+    /**
+     * @param data the datagram, between its position and limit, which is left untouched
+     * @param host the address of the sender, as a literal
+     * @return the first rule matching the datagram, or a rule holding the default action.
+     */
+    public Rule match(ByteBuffer data, String host, int port) {
+        byte[] address = null;
+        if (mMatchesSubnets) {
+            try {
+                final InetAddress literal = UdpAddressCache.parseLiteral(host);
+                if (literal != null) {
+                    address = literal.getAddress();
+                }
+            } catch (UnknownHostException uhe) {
+                // matches no subnet
+            }
+        }
+        for (Rule rule : mRules) {
+            if (rule.matches(data, address, port)) {
+                return rule;
+            }
+        }
+        return mDefault;
+    }
+
+    /**
+     * A condition on received datagrams, and what becomes of the datagrams meeting it. A rule
+     * without conditions matches every datagram.
+     */
+    public static final class Rule {
+        private final Action mAction;
+        @Nullable
+        private final String mChannel;
+        @Nullable
+        private byte[] mNetwork;
+        private int mPrefixLength;
+        private int mMinPort = 0;
+        private int mMaxPort = 0xffff;
+        @Nullable
+        private byte[] mBytes;
+        private int mOffset;
+        private int mMinLength = 0;
+        private int mMaxLength = Integer.MAX_VALUE;
+
+        private Rule(Action action, @Nullable String channel) {
+            this.mAction = action;
+            this.mChannel = channel;
+        }
+
+        public static Rule accept() {
+            return new Rule(Action.ACCEPT, null);
+        }
+
+        public static Rule drop() {
+            return new Rule(Action.DROP, null);
+        }
+
+        /**
+         * @throws IllegalArgumentException if the channel name is empty
+         */
+        public static Rule route(String channel) {
+            if (channel == null || channel.isEmpty()) {
+                throw new IllegalArgumentException("A routing rule needs a channel");
+            }
+            return new Rule(Action.ROUTE, channel);
+        }
+
+        /**
+         * Matches the datagrams of senders in a subnet.
+         *
+         * @param subnet an address literal, optionally followed by a prefix length, e.g.
+         *               {@code "192.168.1.0/24"} or {@code "fe80::/10"}
+         * @throws IllegalArgumentException if the subnet is not valid
+         */
+        public Rule fromSubnet(String subnet) {
+            final int slash = subnet.indexOf('/');
+            final String literal = slash >= 0 ? subnet.substring(0, slash) : subnet;
+            InetAddress network = null;
+            try {
+                network = UdpAddressCache.parseLiteral(literal);
+            } catch (UnknownHostException uhe) {
+                // reported below
+            }
+            if (network == null) {
+                throw new IllegalArgumentException("Invalid subnet " + subnet);
+            }
+            final byte[] bytes = network.getAddress();
+            int prefixLength = bytes.length * 8;
+            if (slash >= 0) {
+                try {
+                    prefixLength = Integer.parseInt(subnet.substring(slash + 1));
+                } catch (NumberFormatException nfe) {
+                    prefixLength = -1;
+                }
+                if (prefixLength < 0 || prefixLength > bytes.length * 8) {
+                    throw new IllegalArgumentException("Invalid subnet " + subnet);
+                }
+            }
+            mNetwork = bytes;
+            mPrefixLength = prefixLength;
+            return this;
+        }
+
+        /**
+         * Matches the datagrams of senders with a port in {@code [min, max]}.
+         *
+         * @throws IllegalArgumentException if the range is not valid
+         */
+        public Rule fromPorts(int min, int max) {
+            if (min < 0 || max > 0xffff || min > max) {
+                throw new IllegalArgumentException("Invalid port range " + min + "-" + max);
+            }
+            mMinPort = min;
+            mMaxPort = max;
+            return this;
+        }
+
+        /**
+         * Matches the datagrams holding the given bytes at the given offset.
+         *
+         * @throws IllegalArgumentException if the offset is negative
+         */
+        public Rule withBytes(int offset, byte[] bytes) {
+            if (offset < 0) {
+                throw new IllegalArgumentException("Invalid offset " + offset);
+            }
+            mOffset = offset;
+            mBytes = bytes.clone();
+            return this;
+        }
+
+        /**
+         * Matches the datagrams of {@code min} to {@code max} bytes.
+         *
+         * @throws IllegalArgumentException if the range is not valid
+         */
+        public Rule withLength(int min, int max) {
+            if (min < 0 || min > max) {
+                throw new IllegalArgumentException("Invalid length range " + min + "-" + max);
+            }
+            mMinLength = min;
+            mMaxLength = max;
+            return this;
+        }
+
+        public Action getAction() {
+            return mAction;
+        }
+
+        /**
+         * @return the channel the rule routes to, or null if it does not route.
+         */
+        @Nullable
+        public String getChannel() {
+            return mChannel;
+        }
+
+        private boolean matches(ByteBuffer data, @Nullable byte[] address, int port) {
+            final int length = data.remaining();
+            if (length < mMinLength || length > mMaxLength || port < mMinPort || port > mMaxPort) {
+                return false;
+            }
+            if (mBytes != null) {
+                if (length < mOffset + mBytes.length) {
+                    return false;
+                }
+                final int start = data.position() + mOffset;
+                for (int i = 0; i < mBytes.length; i++) {
+                    if (data.get(start + i) != mBytes[i]) {
+                        return false;
+                    }
+                }
+            }
+            return mNetwork == null || isInSubnet(address);
+        }
+
+        private boolean isInSubnet(@Nullable byte[] address) {
+            if (address == null || address.length != mNetwork.length) {
+                return false;
+            }
+            final int whole = mPrefixLength / 8;
+            for (int i = 0; i < whole; i++) {
+                if (address[i] != mNetwork[i]) {
+                    return false;
+                }
+            }
+            final int rest = mPrefixLength % 8;
+            if (rest == 0) {
+                return true;
+            }
+            final int mask = (0xff << (8 - rest)) & 0xff;
+            return (address[whole] & mask) == (mNetwork[whole] & mask);
+        }
+    }
+}
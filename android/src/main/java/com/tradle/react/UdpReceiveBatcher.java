@@ -0,0 +1,184 @@
+package com.tradle.react;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Coalesces the receive events of a single client, so that they reach the javascript layer as one
+ * array event per window, instead of one event per datagram. A batch is flushed once it holds
+ * {@code maxSize} events, or {@code intervalMs} after its first event, whichever comes first.
+ *
+ * Events wait in a bounded {@link UdpReceiveQueue}. Emitted events are in flight until the
+ * javascript layer acknowledges them, and no more than {@link #RECEIVE_WINDOW} events are in flight
+ * at once, so a stalled javascript thread fills the bounded queue instead of the bridge.
+ */
+public final class UdpReceiveBatcher {
+    /**
+     * Maximum number of events emitted but not acknowledged yet. The javascript layer must
+     * acknowledge events before it holds that many, or receiving stalls.
+     */
+    public static final int RECEIVE_WINDOW = 128;
+
+    private final int mClientId;
+    private final int mMaxSize;
+    private final long mIntervalMs;
+    private final ScheduledExecutorService mScheduler;
+    private final OnBatchReadyListener mListener;
+    private final UdpReceiveQueue<Event> mQueue;
+
+    private final List<Event> mDrained = new ArrayList<>();
+    private int mInFlight = 0;
+    private boolean mIsClosed = false;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param maxSize number of events that triggers a flush right away
+     * @param intervalMs delay between the first event of a batch and its flush, 0 to flush as soon
+     *                   as possible
+     */
+    public UdpReceiveBatcher(int clientId, int maxSize, long intervalMs, int queueSize, UdpReceiveQueue.Policy queuePolicy,
+                             ScheduledExecutorService scheduler, OnBatchReadyListener listener) {
+        this.mClientId = clientId;
+        this.mMaxSize = maxSize;
+        this.mIntervalMs = intervalMs;
+        this.mQueue = new UdpReceiveQueue<>(queueSize, queuePolicy, null);
+        this.mScheduler = scheduler;
+        this.mListener = listener;
+    }
+
+    public int getClientId() {
+        return mClientId;
+    }
+
+    public UdpReceiveQueue<?> getQueue() {
+        return mQueue;
+    }
+
+    /**
+     * Adds a receive event to the queue, scheduling a flush if it starts a new batch. Depending on
+     * the policy of the queue, this may block until the javascript layer catches up.
+     *
+     * @param data the Base64 encoded datagram
+     * @param channel the channel a {@link UdpPacketFilter} routed the datagram to, or null
+     * @param ts the wall clock time of receipt, in milliseconds
+     * @param receivedNanos the {@link System#nanoTime()} of receipt
+     */
+    public void add(String data, String host, int port, @Nullable String channel, long ts, long receivedNanos) {
+        if (mQueue.offer(new Event(data, host, port, channel, ts, receivedNanos))) {
+            if (mIntervalMs > 0) {
+                mScheduler.schedule(mFlushTask, mIntervalMs, TimeUnit.MILLISECONDS);
+            } else {
+                mScheduler.execute(mFlushTask);
+            }
+        } else if (mQueue.size() >= mMaxSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Hands the queued events over to the listener, as many as the window allows. The listener is
+     * invoked while holding the lock, so batches are handed over in the order they were filled.
+     */
+    public synchronized void flush() {
+        if (mIsClosed) {
+            return;
+        }
+
+        mQueue.drainTo(mDrained, RECEIVE_WINDOW - mInFlight);
+        if (mDrained.isEmpty()) {
+            return;
+        }
+
+        final WritableArray batch = Arguments.createArray();
+        final long[] receivedNanos = new long[mDrained.size()];
+        for (int i = 0; i < receivedNanos.length; i++) {
+            final Event event = mDrained.get(i);
+            batch.pushMap(event.toMap());
+            receivedNanos[i] = event.receivedNanos;
+        }
+        mInFlight += receivedNanos.length;
+        mDrained.clear();
+        mListener.onBatchReady(this, batch, receivedNanos);
+    }
+
+    /**
+     * Acknowledges events handled by the javascript layer, resuming the flush of events left
+     * behind by a full window.
+     */
+    public synchronized void acknowledge(int count) {
+        final boolean wasFull = mInFlight >= RECEIVE_WINDOW;
+        mInFlight = Math.max(0, mInFlight - count);
+        if (wasFull && !mQueue.isEmpty()) {
+            mScheduler.execute(mFlushTask);
+        }
+    }
+
+    /**
+     * Discards the queued events, and ignores any event added afterwards.
+     */
+    public void close() {
+        synchronized (this) {
+            mIsClosed = true;
+        }
+        mQueue.close();
+    }
+
+    /**
+     * A received datagram, waiting to be emitted.
+     */
+    private static final class Event {
+        private final String data;
+        private final String host;
+        private final int port;
+        @Nullable
+        private final String channel;
+        private final long ts;
+        private final long receivedNanos;
+
+        private Event(String data, String host, int port, @Nullable String channel, long ts, long receivedNanos) {
+            this.data = data;
+            this.host = host;
+            this.port = port;
+            this.channel = channel;
+            this.ts = ts;
+            this.receivedNanos = receivedNanos;
+        }
+
+        private WritableMap toMap() {
+            WritableMap eventParams = Arguments.createMap();
+            eventParams.putString("data", data);
+            eventParams.putString("address", host);
+            eventParams.putInt("port", port);
+            if (channel != null) {
+                eventParams.putString("channel", channel);
+            }
+            // Use string for ts since it's 64 bits and putInt is only 32
+            eventParams.putString("ts", Long.toString(ts));
+            return eventParams;
+        }
+    }
+
+    /**
+     * Callback interface for batches ready to be emitted.
+     */
+    public interface OnBatchReadyListener {
+        /**
+         * @param receivedNanos the {@link System#nanoTime()} of receipt of each event
+         */
+        void onBatchReady(UdpReceiveBatcher batcher, WritableArray events, long[] receivedNanos);
+    }
+}
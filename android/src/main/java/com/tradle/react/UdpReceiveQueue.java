@@ -0,0 +1,196 @@
+package com.tradle.react;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Locale;
+
+import javax.annotation.Nullable;
+
+/**
+ * A bounded queue of received data, waiting for a single client to be handed over to the
+ * javascript layer. When the javascript layer falls behind and the queue is full, its policy
+ * decides whether the oldest or the newest data is dropped, or whether the receiving thread waits
+ * for room, leaving further datagrams to the kernel buffer.
+ *
+ * The queue also tracks whether its consumer was signalled: {@link #offer} only asks for a signal
+ * when the queue becomes readable, and the consumer re-arms it by draining the queue empty.
+ */
+public final class UdpReceiveQueue<T> {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * What to do with received data when the queue is full.
+     */
+    public enum Policy {
+        /** Discard the oldest queued item to make room. */
+        DROP_OLDEST,
+        /** Discard the incoming item. */
+        DROP_NEWEST,
+        /** Make the receiving thread wait until there is room, or the queue is closed. */
+        BLOCK;
+
+        /**
+         * @param name the javascript name of the policy, e.g. {@code "drop-oldest"}
+         * @throws IllegalArgumentException if the name is unknown
+         */
+        public static Policy fromName(String name) {
+            return valueOf(name.replace('-', '_').toUpperCase(Locale.US));
+        }
+    }
+
+    private final int mCapacity;
+    private final Policy mPolicy;
+    private final OnDropListener<T> mDropListener;
+    private final ArrayDeque<T> mQueue;
+
+    private boolean mIsSignalled = false;
+    private boolean mIsClosed = false;
+    private long mDropped = 0;
+
+    /**
+     * @param dropListener notified of every dropped item, e.g. to release its buffer
+     */
+    public UdpReceiveQueue(int capacity, Policy policy, @Nullable OnDropListener<T> dropListener) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid receive queue size " + capacity);
+        }
+        this.mCapacity = capacity;
+        this.mPolicy = policy;
+        this.mDropListener = dropListener;
+        this.mQueue = new ArrayDeque<>(Math.min(capacity, 64));
+    }
+
+    /**
+     * Adds an item to the queue, applying the policy if it is full. Items offered after the queue
+     * was closed are dropped.
+     *
+     * @return boolean true IF the consumer must be signalled that the queue is readable.
+     */
+    public boolean offer(T item) {
+        T dropped = null;
+        synchronized (this) {
+            if (mPolicy == Policy.BLOCK) {
+                while (!mIsClosed && mQueue.size() >= mCapacity) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+
+            if (mIsClosed || mQueue.size() >= mCapacity && mPolicy != Policy.DROP_OLDEST) {
+                dropped = item;
+            } else {
+                if (mQueue.size() >= mCapacity) {
+                    dropped = mQueue.poll();
+                }
+                mQueue.offer(item);
+            }
+
+            if (dropped != null && !mIsClosed) {
+                mDropped++;
+            }
+        }
+
+        if (dropped != null && mDropListener != null) {
+            mDropListener.onDrop(dropped);
+        }
+        return signal();
+    }
+
+    private synchronized boolean signal() {
+        if (mIsSignalled || mQueue.isEmpty()) {
+            return false;
+        }
+        mIsSignalled = true;
+        return true;
+    }
+
+    /**
+     * Takes the oldest item out of the queue. Re-arms the signal when the queue is empty.
+     *
+     * @return the item, or null if the queue is empty
+     */
+    @Nullable
+    public synchronized T poll() {
+        final T item = mQueue.poll();
+        if (item == null) {
+            mIsSignalled = false;
+        } else if (mPolicy == Policy.BLOCK) {
+            notifyAll();
+        }
+        return item;
+    }
+
+    /**
+     * Takes up to {@code max} of the oldest items out of the queue. Re-arms the signal if this
+     * empties the queue; otherwise the consumer is expected to drain it further later on.
+     *
+     * @return the number of items taken
+     */
+    public synchronized int drainTo(Collection<? super T> target, int max) {
+        int count = 0;
+        while (count < max && !mQueue.isEmpty()) {
+            target.add(mQueue.poll());
+            count++;
+        }
+        if (mQueue.isEmpty()) {
+            mIsSignalled = false;
+        }
+        if (count > 0 && mPolicy == Policy.BLOCK) {
+            notifyAll();
+        }
+        return count;
+    }
+
+    public synchronized int size() {
+        return mQueue.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return mQueue.isEmpty();
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public Policy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * @return the number of items dropped since the queue was created, because it was full.
+     */
+    public synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * Discards the queued items, and drops any item offered afterwards. Wakes up blocked receivers.
+     */
+    public void close() {
+        final ArrayDeque<T> discarded;
+        synchronized (this) {
+            mIsClosed = true;
+            discarded = mQueue.clone();
+            mQueue.clear();
+            notifyAll();
+        }
+
+        if (mDropListener != null) {
+            for (T item : discarded) {
+                mDropListener.onDrop(item);
+            }
+        }
+    }
+
+    /**
+     * Callback interface for dropped items.
+     */
+    public interface OnDropListener<T> {
+        void onDrop(T item);
+    }
+}
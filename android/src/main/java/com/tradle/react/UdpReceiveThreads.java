@@ -0,0 +1,70 @@
+package com.tradle.react;
+
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads sockets of the thread engine receive on, shared by the clients through their
+ * {@link UdpWorkerPool}, so that sockets opened and closed in quick succession reuse the threads of
+ * the closed ones instead of starting their own. Every receiver task gets a thread of its own as
+ * soon as it is started, and its thread waits for the next task once it returns, for some time
+ * before it stops.
+ */
+public final class UdpReceiveThreads {
+    private static final String TAG = "UdpReceiveThreads";
+    public static final long DEFAULT_KEEP_ALIVE_MS = 30000;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    public UdpReceiveThreads() {
+        this(DEFAULT_KEEP_ALIVE_MS);
+    }
+
+    /**
+     * @param keepAliveMs how long an idle thread waits for a task before it stops
+     */
+    public UdpReceiveThreads(long keepAliveMs) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        // no queue: a task runs right away, on an idle thread or a new one
+        mExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, keepAliveMs, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        final Thread thread = new Thread(runnable, TAG + "-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Runs a receiver task on an idle thread, or on a new one if none is idle.
+     */
+    public void start(UdpReceiverTask task) {
+        mExecutor.execute(task);
+    }
+
+    /**
+     * @return the number of threads, receiving or idle.
+     */
+    public int getThreadCount() {
+        return mExecutor.getPoolSize();
+    }
+
+    /**
+     * @return the number of threads running a receiver task.
+     */
+    public int getActiveCount() {
+        return mExecutor.getActiveCount();
+    }
+
+    /**
+     * Stops the idle threads, and the others once their task returns. Tasks can no longer be started.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+}
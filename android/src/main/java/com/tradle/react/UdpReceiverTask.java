@@ -1,34 +1,105 @@
 package com.tradle.react;
 
-import android.util.Base64;
-
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
 
 /**
  * This is a specialized Runnable that receives data from a socket in the background, and
  * notifies it's listener when data is received. This is not threadsafe, the listener
  * should handle synchronicity.
+ *
+ * The task runs once: {@link #terminate} wakes it up from any thread, after which it returns
+ * without reporting the error its socket then fails with.
  */
 public class UdpReceiverTask implements Runnable {
-    private static final int MAX_UDP_DATAGRAM_LEN = 0xffff;
+    private static final byte[] NO_DATA = new byte[0];
     private final DatagramSocket socket;
+    private final UdpBufferPool bufferPool;
+    private final int maxDatagramSize;
     private final UdpReceiverTask.OnDataReceivedListener receiverListener;
-    private boolean isRunning = false;
+    @Nullable
+    private final UdpNativeIo nativeIo;
+    private volatile boolean isRunning = false;
+    private volatile boolean isTerminated = false;
+    // claimed by the first of run and terminate, so that a task terminated first never runs
+    private final AtomicBoolean hasStarted = new AtomicBoolean(false);
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Thread thread;
+    private volatile InetSocketAddress remoteAddress;
 
-    public UdpReceiverTask(DatagramSocket socket, UdpReceiverTask.OnDataReceivedListener receivedListener) {
+    /**
+     * @param bufferPool pool the receive buffers are taken from
+     * @param maxDatagramSize size of the receive buffers, larger datagrams are truncated
+     * @param nativeIo if present, datagrams are received several at a time through it, instead of
+     *                 one at a time through the socket. The task closes it once done.
+     */
+    public UdpReceiverTask(DatagramSocket socket, UdpBufferPool bufferPool, int maxDatagramSize,
+                           UdpReceiverTask.OnDataReceivedListener receivedListener,
+                           @Nullable UdpNativeIo nativeIo) {
         this.socket = socket;
+        this.bufferPool = bufferPool;
+        this.maxDatagramSize = maxDatagramSize;
         this.receiverListener = receivedListener;
+        this.nativeIo = nativeIo;
     }
 
     public boolean isRunning() {
         return isRunning;
     }
 
+    public boolean isTerminated() {
+        return isTerminated;
+    }
+
+    /**
+     * Stops the task, waking it up if it is blocked in a receive by closing its socket. A task
+     * terminated before it starts never runs.
+     */
     public void terminate() {
+        isTerminated = true;
         isRunning = false;
+        if (hasStarted.compareAndSet(false, true)) {
+            if (nativeIo != null) {
+                nativeIo.close();
+            }
+            done.countDown();
+        } else if (nativeIo != null) {
+            // closing the socket does not wake up a thread receiving through another descriptor
+            nativeIo.shutdown();
+        }
+        socket.close();
+    }
+
+    /**
+     * Waits for the task to return, so that its listener hears no more from it.
+     *
+     * @return true if the task returned, or never started, false if it is still running once the
+     * timeout elapsed, or if called from its own thread, which cannot wait for itself.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        if (thread == Thread.currentThread()) {
+            return false;
+        }
+        return done.await(timeout, unit);
+    }
+
+    /**
+     * Restricts the datagrams handed to the listener to those sent from an address, as if the
+     * socket was connected to it. Connecting the socket itself would block until its next receive.
+     *
+     * @param address the only address to receive from, or null to receive from any
+     */
+    public void setRemoteAddress(@Nullable InetSocketAddress address) {
+        remoteAddress = address;
     }
 
     /**
@@ -36,22 +107,56 @@ public class UdpReceiverTask implements Runnable {
      */
     @Override
     public void run() {
-        isRunning = true;
-        final byte[] buffer = new byte[MAX_UDP_DATAGRAM_LEN];
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        if (!hasStarted.compareAndSet(false, true)) {
+            // terminated first
+            return;
+        }
+        thread = Thread.currentThread();
+        try {
+            isRunning = true;
+            if (nativeIo != null) {
+                runBatched(nativeIo);
+            } else {
+                runSingle();
+            }
+        } finally {
+            isRunning = false;
+            if (nativeIo != null) {
+                nativeIo.close();
+            }
+            thread = null;
+            done.countDown();
+        }
+    }
+
+    /**
+     * Reads one datagram at a time through the socket.
+     */
+    private void runSingle() {
+        final DatagramPacket packet = new DatagramPacket(NO_DATA, 0);
+        ByteBuffer buffer = null;
 
         while (isRunning) {
             try {
+                if (buffer == null) {
+                    buffer = bufferPool.acquire(maxDatagramSize, false);
+                }
+                packet.setData(buffer.array(), buffer.arrayOffset(), buffer.limit());
                 socket.receive(packet);
 
                 final InetAddress address = packet.getAddress();
-                final String base64Data = Base64.encodeToString(packet.getData(), packet.getOffset(),
-                        packet.getLength(), Base64.NO_WRAP);
-                receiverListener.didReceiveData(base64Data, address.getHostAddress(), packet.getPort());
-            } catch (IOException ioe) {
-                if (receiverListener != null) {
-                    receiverListener.didReceiveError(ioe.getMessage());
+                final InetSocketAddress remote = remoteAddress;
+                if (remote != null && (packet.getPort() != remote.getPort() || !address.equals(remote.getAddress()))) {
+                    continue;
                 }
+
+                buffer.limit(packet.getLength());
+                // the listener now owns the buffer
+                final ByteBuffer data = buffer;
+                buffer = null;
+                receiverListener.didReceiveData(data, address.getHostAddress(), packet.getPort());
+            } catch (IOException ioe) {
+                reportError(ioe);
                 isRunning = false;
             } catch (RuntimeException rte) {
                 if (receiverListener != null) {
@@ -60,13 +165,60 @@ public class UdpReceiverTask implements Runnable {
                 isRunning = false;
             }
         }
+
+        if (buffer != null) {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * An infinite loop to block and read several datagrams at a time through native I/O. Each
+     * datagram is copied into a buffer of its own size class, so that the listener owns it.
+     */
+    private void runBatched(UdpNativeIo io) {
+        try {
+            while (isRunning) {
+                final int count = io.receive();
+                if (count == 0) {
+                    // shut down
+                    break;
+                }
+
+                final InetSocketAddress remote = remoteAddress;
+                for (int i = 0; i < count; i++) {
+                    final InetAddress address = io.getReceivedAddress(i);
+                    final int port = io.getReceivedPort(i);
+                    if (remote != null && (port != remote.getPort() || !address.equals(remote.getAddress()))) {
+                        continue;
+                    }
+                    receiverListener.didReceiveData(io.copyReceived(i, bufferPool), address.getHostAddress(), port);
+                }
+            }
+        } catch (IOException ioe) {
+            reportError(ioe);
+        } catch (RuntimeException rte) {
+            if (receiverListener != null) {
+                receiverListener.didReceiveRuntimeException(rte);
+            }
+        }
+    }
+
+    /**
+     * Reports a failed receive, unless the task was terminated: its socket was closed on purpose.
+     */
+    private void reportError(IOException ioe) {
+        if (!isTerminated && receiverListener != null) {
+            receiverListener.didReceiveError(ioe.getMessage());
+        }
     }
 
     /**
-     * Listener interface for receive events.
+     * Listener interface for receive events. The listener takes ownership of the buffer holding
+     * the received data, between its position and limit, and must release it to the
+     * {@link UdpBufferPool} once done with it.
      */
     public interface OnDataReceivedListener {
-        void didReceiveData(String data, String host, int port);
+        void didReceiveData(ByteBuffer data, String host, int port);
         void didReceiveError(String message);
         void didReceiveRuntimeException(RuntimeException exception);
     }
@@ -0,0 +1,643 @@
+package com.tradle.react;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reliable, ordered delivery over the datagrams of a single client, whose peers must use it too.
+ * Every datagram sent starts with the session of its sender and a sequence number, and is sent
+ * again until the peer acknowledges it; the peer hands the data over in order, once per datagram.
+ * Acknowledgements are sent and consumed here, and never reach the javascript layer.
+ *
+ * A peer acknowledges every datagram it receives with the next sequence number it expects, and a
+ * mask of the {@value #SACK_BITS} following ones it already holds, so that only the datagrams it
+ * is missing are sent again: right away once it holds several datagrams past one, or else once
+ * the timeout of that one expires. The timeout follows the smoothed round trip time to the peer,
+ * as in RFC 6298, and doubles whenever the oldest datagram expires. At most {@link #WINDOW}
+ * datagrams per peer are in flight; later ones wait in a bounded backlog.
+ *
+ * A session starts at sequence number 0, and the receiving side only starts a session there. A
+ * datagram the peer did not acknowledge after {@value #DEFAULT_MAX_TRANSMISSIONS} transmissions
+ * fails, along with every datagram waiting for the peer, and the next one starts a new session.
+ * That way both sides get back in step after either of them restarted.
+ *
+ * The state of the channel is guarded by its monitor, which is never held while a datagram is
+ * transmitted or data is delivered: both may block, the latter until the javascript layer drains
+ * the receive queue, while the retransmissions wait for the monitor on the scheduler. The work is
+ * gathered under the monitor and done once it is released; deliveries hold a lock of their own,
+ * which keeps them in order.
+ */
+public final class UdpReliableChannel {
+    /**
+     * Maximum number of datagrams in flight to a single peer, and held by a peer until the ones
+     * before them arrive.
+     */
+    public static final int WINDOW = 64;
+    /**
+     * Size of the header of a datagram: its type, the session of its sender and its sequence number.
+     */
+    public static final int HEADER_SIZE = 9;
+    private static final int ACK_SIZE = 13;
+    private static final int SACK_BITS = 32;
+    // datagrams held past a missing one before it is sent again without waiting for its timeout
+    private static final int FAST_RETRANSMIT_THRESHOLD = 3;
+    private static final byte DATA = 1;
+    private static final byte ACK = 2;
+
+    private static final int DEFAULT_MAX_TRANSMISSIONS = 10;
+    private static final int MAX_BACKLOG = 1024;
+    private static final int MAX_PEERS = 256;
+    private static final long DEFAULT_INITIAL_TIMEOUT_MS = 200;
+    private static final long MIN_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long MAX_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(2000);
+
+    private final ScheduledExecutorService mScheduler;
+    private final UdpBufferPool mBufferPool;
+    private final UdpSocketStats mStats;
+    private final Transport mTransport;
+    private final long mInitialTimeoutNanos;
+    private final int mMaxTransmissions;
+    private final Random mRandom = new Random();
+    // held while data is delivered, and never by the scheduler
+    private final Object mDeliveryLock = new Object();
+
+    // the least recently used peers are forgotten first, so that a busy socket holds bounded state
+    private final Map<InetSocketAddress, Sender> mSenders =
+            new LinkedHashMap<InetSocketAddress, Sender>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, Sender> eldest) {
+                    if (size() <= MAX_PEERS) {
+                        return false;
+                    }
+                    fail(eldest.getValue(), "Too many peers waiting for acknowledgements");
+                    return true;
+                }
+            };
+    private final Map<InetSocketAddress, Receiver> mReceivers =
+            new LinkedHashMap<InetSocketAddress, Receiver>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, Receiver> eldest) {
+                    if (size() <= MAX_PEERS) {
+                        return false;
+                    }
+                    eldest.getValue().clear(mBufferPool);
+                    return true;
+                }
+            };
+
+    @Nullable
+    private ScheduledFuture<?> mTimer;
+    private long mTimerDeadline;
+    private boolean mIsClosed = false;
+
+    private final Runnable mRetransmitTask = new Runnable() {
+        @Override
+        public void run() {
+            retransmit();
+        }
+    };
+
+    /**
+     * @param scheduler runs the retransmissions
+     * @param bufferPool pool the received datagrams were taken from
+     * @param stats counters the datagrams sent, and the retransmissions, are recorded in
+     * @param transport the socket of the client
+     */
+    public UdpReliableChannel(ScheduledExecutorService scheduler, UdpBufferPool bufferPool, UdpSocketStats stats,
+                              Transport transport) {
+        this(scheduler, bufferPool, stats, transport, DEFAULT_INITIAL_TIMEOUT_MS, DEFAULT_MAX_TRANSMISSIONS);
+    }
+
+    /**
+     * @param initialTimeoutMs the timeout of the datagrams sent to a peer before its round trip
+     *                         time is known
+     * @param maxTransmissions the number of times a datagram is sent before it fails
+     */
+    UdpReliableChannel(ScheduledExecutorService scheduler, UdpBufferPool bufferPool, UdpSocketStats stats,
+                       Transport transport, long initialTimeoutMs, int maxTransmissions) {
+        this.mScheduler = scheduler;
+        this.mBufferPool = bufferPool;
+        this.mStats = stats;
+        this.mTransport = transport;
+        this.mInitialTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(initialTimeoutMs);
+        this.mMaxTransmissions = maxTransmissions;
+    }
+
+    /**
+     * Sends data to a peer, once the datagrams before it leave room in the window. The completion
+     * succeeds once the peer acknowledged the data, and fails if it did not after every
+     * retransmission.
+     *
+     * @param destination the resolved address of the peer
+     */
+    public void send(byte[] data, InetSocketAddress destination, @Nullable UdpCompletionSink completion) {
+        if (data.length > UdpBufferPool.MAX_DATAGRAM_SIZE - HEADER_SIZE) {
+            fail(completion, "Datagram too large for reliable delivery");
+            return;
+        }
+        final List<Transmission> transmissions = new ArrayList<>(1);
+        synchronized (this) {
+            enqueue(data, destination, completion, transmissions);
+        }
+        transmitAll(transmissions);
+    }
+
+    private void enqueue(byte[] data, InetSocketAddress destination, @Nullable UdpCompletionSink completion,
+                         List<Transmission> transmissions) {
+        if (mIsClosed) {
+            return;
+        }
+
+        Sender sender = mSenders.get(destination);
+        if (sender == null) {
+            sender = new Sender(destination, mRandom.nextInt(), mInitialTimeoutNanos);
+            mSenders.put(destination, sender);
+        }
+        if (sender.backlog.size() >= MAX_BACKLOG) {
+            fail(completion, "Too many datagrams waiting for acknowledgements");
+            return;
+        }
+
+        final byte[] datagram = new byte[HEADER_SIZE + data.length];
+        ByteBuffer.wrap(datagram).put(DATA).putInt(sender.session).putInt(sender.nextSeq).put(data);
+        final Outgoing outgoing = new Outgoing(sender.nextSeq++, datagram, completion);
+        if (sender.unacked.size() < WINDOW) {
+            sender.unacked.add(outgoing);
+            transmit(sender, outgoing, System.nanoTime(), transmissions);
+        } else {
+            sender.backlog.add(outgoing);
+        }
+    }
+
+    /**
+     * Handles a datagram received from a peer: hands over the data it completes in order to the
+     * transport, and acknowledges it, or takes the acknowledgement it holds into account.
+     *
+     * @param data pooled buffer holding the datagram, between its position and limit, which is
+     *             released to the pool, or handed over to the transport
+     */
+    public void receive(ByteBuffer data, String host, int port) {
+        final InetAddress address;
+        try {
+            address = UdpAddressCache.parseLiteral(host);
+        } catch (UnknownHostException uhe) {
+            mBufferPool.release(data);
+            return;
+        }
+        if (address == null) {
+            mBufferPool.release(data);
+            return;
+        }
+        final InetSocketAddress peer = new InetSocketAddress(address, port);
+
+        final List<ByteBuffer> delivered = new ArrayList<>(1);
+        final List<Transmission> transmissions = new ArrayList<>(1);
+        synchronized (mDeliveryLock) {
+            synchronized (this) {
+                final int start = data.position();
+                final byte type = data.remaining() > 0 ? data.get(start) : 0;
+                if (mIsClosed) {
+                    mBufferPool.release(data);
+                } else if (type == DATA && data.remaining() >= HEADER_SIZE) {
+                    receiveData(data, peer, data.getInt(start + 1), data.getInt(start + 5), delivered, transmissions);
+                } else if (type == ACK && data.remaining() >= ACK_SIZE) {
+                    final int session = data.getInt(start + 1);
+                    final int next = data.getInt(start + 5);
+                    final int mask = data.getInt(start + 9);
+                    mBufferPool.release(data);
+                    receiveAck(peer, session, next, mask, transmissions);
+                } else {
+                    // not from a peer using reliable delivery
+                    mBufferPool.release(data);
+                }
+            }
+            for (ByteBuffer next : delivered) {
+                mTransport.deliver(next, host, port);
+            }
+        }
+        transmitAll(transmissions);
+    }
+
+    private void receiveData(ByteBuffer data, InetSocketAddress peer, int session, int seq,
+                             List<ByteBuffer> delivered, List<Transmission> transmissions) {
+        Receiver receiver = mReceivers.get(peer);
+        if (receiver == null || receiver.session != session) {
+            if (seq != 0) {
+                // the start of the session was missed, the peer sends it again
+                mBufferPool.release(data);
+                return;
+            }
+            if (receiver == null) {
+                receiver = new Receiver();
+                mReceivers.put(peer, receiver);
+            } else {
+                receiver.clear(mBufferPool);
+            }
+            receiver.session = session;
+            receiver.next = 0;
+        }
+
+        final int distance = seq - receiver.next;
+        final int slot = seq & (WINDOW - 1);
+        if (distance < 0 || distance >= WINDOW || receiver.pending[slot] != null) {
+            // a datagram received before, whose acknowledgement was lost
+            mBufferPool.release(data);
+        } else {
+            data.position(data.position() + HEADER_SIZE);
+            receiver.pending[slot] = data;
+        }
+
+        ByteBuffer next;
+        while ((next = receiver.pending[receiver.next & (WINDOW - 1)]) != null) {
+            receiver.pending[receiver.next & (WINDOW - 1)] = null;
+            receiver.next++;
+            delivered.add(next);
+        }
+
+        int mask = 0;
+        for (int i = 0; i < SACK_BITS && i < WINDOW - 1; i++) {
+            if (receiver.pending[(receiver.next + 1 + i) & (WINDOW - 1)] != null) {
+                mask |= 1 << i;
+            }
+        }
+        final byte[] ack = new byte[ACK_SIZE];
+        ByteBuffer.wrap(ack).put(ACK).putInt(session).putInt(receiver.next).putInt(mask);
+        transmissions.add(new Transmission(null, ack, peer));
+    }
+
+    private void receiveAck(InetSocketAddress peer, int session, int next, int mask,
+                            List<Transmission> transmissions) {
+        final Sender sender = mSenders.get(peer);
+        if (sender == null || sender.session != session) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        while (!sender.unacked.isEmpty() && sender.unacked.peekFirst().seq - next < 0) {
+            acknowledge(sender, sender.unacked.pollFirst(), now);
+        }
+        for (Outgoing outgoing : sender.unacked) {
+            final int bit = outgoing.seq - next - 1;
+            if (bit >= 0 && bit < SACK_BITS && (mask & (1 << bit)) != 0) {
+                acknowledge(sender, outgoing, now);
+            }
+        }
+
+        // the datagrams missing before the last few the peer holds were most likely lost: sent
+        // again right away, unless they were already within the last round trip
+        final int held = SACK_BITS - Integer.numberOfLeadingZeros(mask);
+        final long roundTripNanos = sender.smoothedRoundTripNanos >= 0
+                ? sender.smoothedRoundTripNanos
+                : sender.timeoutNanos;
+        for (Outgoing outgoing : sender.unacked) {
+            if (outgoing.seq - next >= held - FAST_RETRANSMIT_THRESHOLD) {
+                break;
+            }
+            if (!outgoing.isAcked && now - outgoing.sentNanos >= roundTripNanos
+                    && outgoing.transmissions < mMaxTransmissions) {
+                mStats.recordRetransmit();
+                transmit(sender, outgoing, now, transmissions);
+            }
+        }
+
+        while (sender.unacked.size() < WINDOW && !sender.backlog.isEmpty()) {
+            final Outgoing outgoing = sender.backlog.pollFirst();
+            sender.unacked.add(outgoing);
+            transmit(sender, outgoing, now, transmissions);
+        }
+    }
+
+    private void acknowledge(Sender sender, Outgoing outgoing, long now) {
+        if (outgoing.isAcked) {
+            return;
+        }
+        outgoing.isAcked = true;
+        if (outgoing.transmissions == 1) {
+            // only datagrams sent once tell the round trip time apart from the retransmissions
+            sender.sampleRoundTrip(now - outgoing.sentNanos);
+            mStats.recordRoundTrip(sender.smoothedRoundTripNanos);
+        }
+        if (outgoing.completion != null) {
+            outgoing.completion.onSuccess();
+        }
+    }
+
+    /**
+     * Counts a transmission of the datagram, which is added to the ones to transmit once the
+     * monitor is released.
+     */
+    private void transmit(Sender sender, Outgoing outgoing, long now, List<Transmission> transmissions) {
+        outgoing.transmissions++;
+        outgoing.sentNanos = now;
+        outgoing.deadlineNanos = now + sender.timeoutNanos;
+        transmissions.add(new Transmission(sender, outgoing.datagram, sender.destination));
+        schedule(outgoing.deadlineNanos);
+    }
+
+    /**
+     * Transmits the datagrams gathered under the monitor, which must not be held.
+     */
+    private void transmitAll(List<Transmission> transmissions) {
+        for (Transmission transmission : transmissions) {
+            try {
+                mTransport.transmit(transmission.datagram, transmission.destination);
+                mStats.recordSent(1, transmission.datagram.length);
+            } catch (IOException ioe) {
+                // lost like any other datagram, and sent again once its timeout expires, or the
+                // peer sends again the datagram an acknowledgement was for
+                if (transmission.sender != null) {
+                    transmission.sender.lastError = ioe.getMessage();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wakes up the retransmissions by the deadline, if they are not already due to wake up before.
+     */
+    private void schedule(long deadlineNanos) {
+        if (mTimer != null && mTimerDeadline - deadlineNanos <= 0) {
+            return;
+        }
+        if (mTimer != null) {
+            mTimer.cancel(false);
+        }
+        mTimerDeadline = deadlineNanos;
+        mTimer = mScheduler.schedule(mRetransmitTask, Math.max(0, deadlineNanos - System.nanoTime()),
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sends again the datagrams whose timeout expired, or fails them if they were sent too often.
+     */
+    private void retransmit() {
+        final List<Transmission> transmissions = new ArrayList<>();
+        synchronized (this) {
+            retransmitExpired(transmissions);
+        }
+        transmitAll(transmissions);
+    }
+
+    private void retransmitExpired(List<Transmission> transmissions) {
+        mTimer = null;
+        if (mIsClosed) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        boolean isWaiting = false;
+        long deadline = 0;
+        final Iterator<Sender> senders = mSenders.values().iterator();
+        while (senders.hasNext()) {
+            final Sender sender = senders.next();
+            boolean isOldest = true;
+            boolean hasFailed = false;
+            for (Outgoing outgoing : sender.unacked) {
+                if (outgoing.isAcked) {
+                    continue;
+                }
+                final boolean wasOldest = isOldest;
+                isOldest = false;
+                if (outgoing.deadlineNanos - now > 0) {
+                    continue;
+                }
+                if (outgoing.transmissions >= mMaxTransmissions) {
+                    hasFailed = true;
+                    break;
+                }
+                if (wasOldest) {
+                    // backs off like the single timer of RFC 6298, which runs for the oldest datagram
+                    sender.timeoutNanos = Math.min(sender.timeoutNanos * 2, MAX_TIMEOUT_NANOS);
+                }
+                mStats.recordRetransmit();
+                transmit(sender, outgoing, now, transmissions);
+            }
+
+            if (hasFailed) {
+                senders.remove();
+                fail(sender, "Peer did not acknowledge the datagram after " + mMaxTransmissions + " transmissions"
+                        + (sender.lastError != null ? ": " + sender.lastError : ""));
+                continue;
+            }
+            for (Outgoing outgoing : sender.unacked) {
+                if (!outgoing.isAcked && (!isWaiting || outgoing.deadlineNanos - deadline < 0)) {
+                    isWaiting = true;
+                    deadline = outgoing.deadlineNanos;
+                }
+            }
+        }
+
+        // transmit() scheduled the retransmitted datagrams already
+        if (isWaiting) {
+            schedule(deadline);
+        }
+    }
+
+    private void fail(Sender sender, String message) {
+        for (Outgoing outgoing : sender.unacked) {
+            if (!outgoing.isAcked) {
+                fail(outgoing.completion, message);
+            }
+        }
+        for (Outgoing outgoing : sender.backlog) {
+            fail(outgoing.completion, message);
+        }
+        sender.unacked.clear();
+        sender.backlog.clear();
+    }
+
+    private void fail(@Nullable UdpCompletionSink completion, String message) {
+        mStats.recordSendErrors(1);
+        if (completion != null) {
+            completion.onError(UdpErrorCodes.sendError.name(), message);
+        }
+    }
+
+    /**
+     * Stops the retransmissions, and releases the datagrams held for their predecessors. Datagrams
+     * waiting for an acknowledgement are dropped, without completing.
+     */
+    public synchronized void close() {
+        if (mIsClosed) {
+            return;
+        }
+        mIsClosed = true;
+        if (mTimer != null) {
+            mTimer.cancel(false);
+            mTimer = null;
+        }
+        for (Receiver receiver : mReceivers.values()) {
+            receiver.clear(mBufferPool);
+        }
+        mReceivers.clear();
+        mSenders.clear();
+    }
+
+    /**
+     * @return a completion sink for the datagrams of a batch, reporting to {@code completion} once
+     * every one of them completed, or null if {@code completion} is null.
+     */
+    @Nullable
+    public static UdpCompletionSink forBatch(final int count, @Nullable final UdpCompletionSink completion) {
+        if (completion == null) {
+            return null;
+        }
+        if (count == 0) {
+            completion.onSuccess();
+            return null;
+        }
+        return new UdpCompletionSink() {
+            private final AtomicInteger mRemaining = new AtomicInteger(count);
+            private final AtomicInteger mFailures = new AtomicInteger();
+            private volatile String mFirstError;
+
+            @Override
+            public void onSuccess() {
+                complete();
+            }
+
+            @Override
+            public void onError(String code, String message) {
+                if (mFailures.getAndIncrement() == 0) {
+                    mFirstError = message;
+                }
+                complete();
+            }
+
+            private void complete() {
+                if (mRemaining.decrementAndGet() > 0) {
+                    return;
+                }
+                final int failures = mFailures.get();
+                if (failures == 0) {
+                    completion.onSuccess();
+                } else {
+                    completion.onError(UdpErrorCodes.sendError.name(), failures + " of " + count
+                            + " datagrams could not be delivered: " + mFirstError);
+                }
+            }
+        };
+    }
+
+    /**
+     * Sending state of a peer.
+     */
+    private static final class Sender {
+        private final InetSocketAddress destination;
+        private final int session;
+        private int nextSeq = 0;
+        // sent and not acknowledged up to the first of them, in order
+        private final ArrayDeque<Outgoing> unacked = new ArrayDeque<>();
+        private final ArrayDeque<Outgoing> backlog = new ArrayDeque<>();
+        private long smoothedRoundTripNanos = -1;
+        private long roundTripVarianceNanos = 0;
+        private long timeoutNanos;
+        // set by the transmissions, outside of the monitor
+        @Nullable
+        private volatile String lastError;
+
+        private Sender(InetSocketAddress destination, int session, long timeoutNanos) {
+            this.destination = destination;
+            this.session = session;
+            this.timeoutNanos = timeoutNanos;
+        }
+
+        private void sampleRoundTrip(long nanos) {
+            if (smoothedRoundTripNanos < 0) {
+                smoothedRoundTripNanos = nanos;
+                roundTripVarianceNanos = nanos / 2;
+            } else {
+                roundTripVarianceNanos = (3 * roundTripVarianceNanos + Math.abs(smoothedRoundTripNanos - nanos)) / 4;
+                smoothedRoundTripNanos = (7 * smoothedRoundTripNanos + nanos) / 8;
+            }
+            timeoutNanos = Math.max(MIN_TIMEOUT_NANOS,
+                    Math.min(smoothedRoundTripNanos + 4 * roundTripVarianceNanos, MAX_TIMEOUT_NANOS));
+        }
+    }
+
+    private static final class Outgoing {
+        private final int seq;
+        private final byte[] datagram;
+        @Nullable
+        private final UdpCompletionSink completion;
+        private int transmissions = 0;
+        private long sentNanos;
+        private long deadlineNanos;
+        private boolean isAcked = false;
+
+        private Outgoing(int seq, byte[] datagram, @Nullable UdpCompletionSink completion) {
+            this.seq = seq;
+            this.datagram = datagram;
+            this.completion = completion;
+        }
+    }
+
+    /**
+     * A datagram to transmit once the monitor is released.
+     */
+    private static final class Transmission {
+        // the sender of the datagram, or null for an acknowledgement
+        @Nullable
+        private final Sender sender;
+        private final byte[] datagram;
+        private final InetSocketAddress destination;
+
+        private Transmission(@Nullable Sender sender, byte[] datagram, InetSocketAddress destination) {
+            this.sender = sender;
+            this.datagram = datagram;
+            this.destination = destination;
+        }
+    }
+
+    /**
+     * Receiving state of a peer: the datagrams received ahead of the next one, by sequence number
+     * modulo the window.
+     */
+    private static final class Receiver {
+        private int session;
+        private int next;
+        private final ByteBuffer[] pending = new ByteBuffer[WINDOW];
+
+        private void clear(UdpBufferPool bufferPool) {
+            for (int i = 0; i < pending.length; i++) {
+                if (pending[i] != null) {
+                    bufferPool.release(pending[i]);
+                    pending[i] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * The socket of the client the channel sends and delivers through.
+     */
+    public interface Transport {
+        /**
+         * Sends a datagram as is.
+         */
+        void transmit(byte[] datagram, InetSocketAddress destination) throws IOException;
+
+        /**
+         * Hands over data received in order.
+         *
+         * @param data pooled buffer holding the data, between its position and limit
+         */
+        void deliver(ByteBuffer data, String host, int port);
+    }
+}
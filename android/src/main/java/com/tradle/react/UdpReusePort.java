@@ -0,0 +1,56 @@
+package com.tradle.react;
+
+import com.facebook.common.logging.FLog;
+
+import java.io.FileDescriptor;
+import java.lang.reflect.Method;
+import java.net.DatagramSocket;
+import java.net.SocketOption;
+
+/**
+ * Enables {@code SO_REUSEPORT} on unbound sockets, so that several of them can bind the same port,
+ * the kernel spreading incoming datagrams across them by flow. Neither the Android SDK nor Java 8
+ * expose the option, so it is looked up at runtime: through {@code StandardSocketOptions} on Java
+ * 9 and later, or else through {@code android.system.Os} on a dup of the socket's descriptor.
+ */
+public final class UdpReusePort {
+    private static final String TAG = "UdpReusePort";
+    // from the Linux headers, which Android shares
+    private static final int SOL_SOCKET = 1;
+    private static final int SO_REUSEPORT = 15;
+
+    private UdpReusePort() {
+    }
+
+    /**
+     * @return true if the option was set, false if neither the platform nor the kernel support it.
+     */
+    public static boolean enable(DatagramSocket socket) {
+        try {
+            final Object option = Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT").get(null);
+            final Method setOption = DatagramSocket.class.getMethod("setOption", SocketOption.class, Object.class);
+            setOption.invoke(socket, option, Boolean.TRUE);
+            return true;
+        } catch (Exception e) {
+            // not Java 9, or a platform without the option
+        }
+
+        final UdpSocketDescriptor descriptor = UdpSocketDescriptor.dup(socket);
+        if (descriptor == null) {
+            FLog.w(TAG, "SO_REUSEPORT is not supported.");
+            return false;
+        }
+        try {
+            Class.forName("android.system.Os")
+                    .getMethod("setsockoptInt", FileDescriptor.class, int.class, int.class, int.class)
+                    .invoke(null, descriptor.getFileDescriptor(), SOL_SOCKET, SO_REUSEPORT, 1);
+            return true;
+        } catch (Exception e) {
+            FLog.w(TAG, "SO_REUSEPORT is not supported.", e);
+            return false;
+        } finally {
+            // the duplicate shares the socket, which stays open
+            descriptor.close();
+        }
+    }
+}
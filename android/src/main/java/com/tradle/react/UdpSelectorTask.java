@@ -0,0 +1,253 @@
+package com.tradle.react;
+
+import com.facebook.common.logging.FLog;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * This is a specialized Runnable that multiplexes the receiving side of many non-blocking
+ * {@link DatagramChannel}s over a single {@link Selector}, so that any number of sockets can
+ * share one background thread. Each channel notifies its own listener when data is received.
+ */
+public class UdpSelectorTask implements Runnable {
+    private static final String TAG = "UdpSelectorTask";
+    // bounds the work done for a single channel before the other ready channels get a turn
+    private static final int MAX_READS_PER_SELECT = 16;
+
+    private final Selector mSelector;
+    private final UdpBufferPool mBufferPool;
+    private final Queue<Registration> mPendingRegistrations = new ConcurrentLinkedQueue<>();
+    // counted down once the selector thread is past the reads of the channels unregistered
+    private final Queue<CountDownLatch> mPendingReleases = new ConcurrentLinkedQueue<>();
+    // guards registrations between their queue and the selector, for unregister to find them
+    private final Object mRegistrationLock = new Object();
+    private volatile boolean isRunning = false;
+    private volatile Thread mThread;
+
+    /**
+     * @param bufferPool pool the receive buffers are taken from
+     */
+    public UdpSelectorTask(UdpBufferPool bufferPool) throws IOException {
+        this.mSelector = Selector.open();
+        this.mBufferPool = bufferPool;
+    }
+
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    /**
+     * Starts the selector thread, if it is not running already.
+     */
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+
+        isRunning = true;
+        mThread = new Thread(this, TAG);
+        mThread.start();
+    }
+
+    /**
+     * Stops the selector thread, and closes the selector.
+     */
+    public synchronized void terminate() {
+        isRunning = false;
+        if (mThread == null) {
+            closeSelector();
+            return;
+        }
+        mSelector.wakeup();
+    }
+
+    /**
+     * Starts listening for data on the given channel. The registration itself happens on the
+     * selector thread, as {@link DatagramChannel#register} would block while a select is in progress.
+     *
+     * @param channel a bound, non-blocking channel
+     * @param maxDatagramSize size of the receive buffers, larger datagrams are truncated
+     * @param receiverListener listener notified of data received on the channel
+     */
+    public void register(DatagramChannel channel, int maxDatagramSize,
+                         UdpReceiverTask.OnDataReceivedListener receiverListener) {
+        mPendingRegistrations.add(new Registration(channel, maxDatagramSize, receiverListener));
+        start();
+        mSelector.wakeup();
+    }
+
+    /**
+     * Stops listening for data on the given channel. The selector is woken up so the channel is
+     * released promptly, should it be closed afterwards. A read in progress on the selector thread
+     * may still hand over data: the returned latch is counted down once it completed, after which
+     * no data of the channel is handed over.
+     *
+     * @return a latch counted down once the selector thread no longer hands over data of the channel.
+     */
+    public CountDownLatch unregister(DatagramChannel channel) {
+        final CountDownLatch released = new CountDownLatch(1);
+        boolean isRegistered = false;
+        synchronized (mRegistrationLock) {
+            for (Registration registration : mPendingRegistrations) {
+                if (registration.channel == channel) {
+                    registration.isCancelled = true;
+                }
+            }
+            final SelectionKey key = channel.keyFor(mSelector);
+            if (key != null) {
+                ((Registration) key.attachment()).isCancelled = true;
+                key.cancel();
+                isRegistered = true;
+            }
+        }
+
+        final Thread thread = mThread;
+        if (!isRegistered || thread == null || thread == Thread.currentThread()) {
+            // no read in progress, or the one in progress is the caller's, and reads no further
+            released.countDown();
+            return released;
+        }
+
+        mPendingReleases.add(released);
+        if (!thread.isAlive()) {
+            // the selector thread is gone, and has no latch left to count down
+            releaseUnregistered();
+        }
+        mSelector.wakeup();
+        return released;
+    }
+
+    /**
+     * An infinite loop to select ready channels, and read data from them.
+     */
+    @Override
+    public void run() {
+        while (isRunning) {
+            try {
+                mSelector.select();
+                registerPending();
+
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (key.isValid() && key.isReadable()) {
+                        read(key);
+                    }
+                }
+            } catch (IOException ioe) {
+                FLog.e(TAG, "select", ioe);
+            }
+            releaseUnregistered();
+        }
+
+        closeSelector();
+        releaseUnregistered();
+    }
+
+    /**
+     * Acknowledges the channels unregistered so far, now that no read of theirs is in progress.
+     */
+    private void releaseUnregistered() {
+        CountDownLatch released;
+        while ((released = mPendingReleases.poll()) != null) {
+            released.countDown();
+        }
+    }
+
+    private void closeSelector() {
+        try {
+            mSelector.close();
+        } catch (IOException ioe) {
+            FLog.e(TAG, "close", ioe);
+        }
+    }
+
+    private void registerPending() {
+        synchronized (mRegistrationLock) {
+            Registration registration;
+            while ((registration = mPendingRegistrations.poll()) != null) {
+                if (registration.isCancelled) {
+                    continue;
+                }
+                try {
+                    registration.channel.register(mSelector, SelectionKey.OP_READ, registration);
+                } catch (ClosedChannelException cce) {
+                    // the socket was closed before it could be registered, nothing to listen to
+                }
+            }
+        }
+    }
+
+    private void read(SelectionKey key) {
+        final DatagramChannel channel = (DatagramChannel) key.channel();
+        final Registration registration = (Registration) key.attachment();
+        final UdpReceiverTask.OnDataReceivedListener listener = registration.listener;
+        ByteBuffer buffer = null;
+
+        try {
+            for (int i = 0; i < MAX_READS_PER_SELECT && !registration.isCancelled; i++) {
+                if (buffer == null) {
+                    buffer = mBufferPool.acquire(registration.maxDatagramSize, true);
+                }
+                final InetSocketAddress address;
+                try {
+                    address = (InetSocketAddress) channel.receive(buffer);
+                } catch (PortUnreachableException pue) {
+                    // a connected channel learns that its peer is not listening, but keeps receiving
+                    listener.didReceiveError(pue.getMessage());
+                    continue;
+                }
+                if (address == null) {
+                    // no more datagrams queued on this channel
+                    return;
+                }
+
+                buffer.flip();
+                // the listener now owns the buffer
+                final ByteBuffer data = buffer;
+                buffer = null;
+                listener.didReceiveData(data, address.getAddress().getHostAddress(), address.getPort());
+            }
+        } catch (IOException ioe) {
+            key.cancel();
+            if (channel.isOpen() && !registration.isCancelled) {
+                listener.didReceiveError(ioe.getMessage());
+            }
+        } catch (RuntimeException rte) {
+            key.cancel();
+            listener.didReceiveRuntimeException(rte);
+        } finally {
+            if (buffer != null) {
+                mBufferPool.release(buffer);
+            }
+        }
+    }
+
+    private static final class Registration {
+        private final DatagramChannel channel;
+        private final int maxDatagramSize;
+        private final UdpReceiverTask.OnDataReceivedListener listener;
+        // set when the channel is unregistered, so that a read in progress stops handing data over
+        private volatile boolean isCancelled = false;
+
+        private Registration(DatagramChannel channel, int maxDatagramSize,
+                             UdpReceiverTask.OnDataReceivedListener listener) {
+            this.channel = channel;
+            this.maxDatagramSize = maxDatagramSize;
+            this.listener = listener;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.tradle.react;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completion sink shared by the unacknowledged sends of a single client. Successes are ignored,
+ * and errors are counted, so that they reach the javascript layer as one report per interval,
+ * instead of one callback per datagram. A report is handed over {@code intervalMs} after the first
+ * error since the previous one, with the number of sends that failed, a batch counting as one
+ * send, and the first error.
+ */
+public final class UdpSendErrorCoalescer implements UdpCompletionSink {
+    public static final long DEFAULT_INTERVAL_MS = 1000;
+
+    private final int mClientId;
+    private final long mIntervalMs;
+    private final ScheduledExecutorService mScheduler;
+    private final OnSendErrorsListener mListener;
+
+    private int mCount = 0;
+    private String mCode;
+    private String mMessage;
+    private boolean mIsClosed = false;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param intervalMs delay between the first error of a report and its hand over
+     */
+    public UdpSendErrorCoalescer(int clientId, long intervalMs, ScheduledExecutorService scheduler,
+                                 OnSendErrorsListener listener) {
+        this.mClientId = clientId;
+        this.mIntervalMs = intervalMs;
+        this.mScheduler = scheduler;
+        this.mListener = listener;
+    }
+
+    public int getClientId() {
+        return mClientId;
+    }
+
+    @Override
+    public void onSuccess() {
+    }
+
+    /**
+     * Counts the error, scheduling a report if it is the first since the previous one.
+     */
+    @Override
+    public void onError(String code, String message) {
+        synchronized (this) {
+            if (mIsClosed || mCount++ > 0) {
+                return;
+            }
+            mCode = code;
+            mMessage = message;
+        }
+        mScheduler.schedule(mFlushTask, mIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hands the errors counted so far over to the listener, if any.
+     */
+    public void flush() {
+        final int count;
+        final String code;
+        final String message;
+        synchronized (this) {
+            if (mIsClosed || mCount == 0) {
+                return;
+            }
+            count = mCount;
+            code = mCode;
+            message = mMessage;
+            mCount = 0;
+            mCode = null;
+            mMessage = null;
+        }
+        mListener.onSendErrors(this, count, code, message);
+    }
+
+    /**
+     * Discards the errors counted so far, and ignores any error reported afterwards.
+     */
+    public synchronized void close() {
+        mIsClosed = true;
+        mCount = 0;
+    }
+
+    /**
+     * Callback interface for reports of send errors.
+     */
+    public interface OnSendErrorsListener {
+        /**
+         * @param count the number of sends that failed since the previous report
+         * @param code the code of the first error
+         * @param message the message of the first error
+         */
+        void onSendErrors(UdpSendErrorCoalescer coalescer, int count, String code, String message);
+    }
+}
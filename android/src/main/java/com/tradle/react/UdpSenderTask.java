@@ -8,53 +8,287 @@
 package com.tradle.react;
 
 import java.io.IOException;
-import java.lang.ref.WeakReference;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
-import java.net.SocketAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import javax.annotation.Nullable;
 
 /**
  * Specialized AsyncTask that transmits data in the background, and notifies listeners of the result.
+ * A task transmits either a single datagram, or a batch of them in one pass, reporting a single
+ * result for the whole batch.
  */
 public class UdpSenderTask implements Runnable {
     private static final String TAG = "UdpSenderTask";
 
     private final DatagramSocket mSocket;
-    private final WeakReference<OnDataSentListener> mListener;
+    private final UdpChannelSender mChannelSender;
+    private final OnDataSentListener mListener;
+    private final UdpAddressCache mAddressCache;
+    @Nullable
+    private final UdpCompletionSink mCompletion;
 
-    private SocketAddress mSocketAddress;
+    private InetSocketAddress mSocketAddress;
     private byte[] mData;
+    private List<Packet> mPackets;
+    @Nullable
+    private UdpNativeIo mNativeIo;
+    private volatile int mSentCount = 0;
+    private volatile long mSentBytes = 0;
+    private int mFailureCount = 0;
+    private String mFirstError;
 
-    public UdpSenderTask(DatagramSocket socket, OnDataSentListener listener, SocketAddress socketAddress, byte[] data) {
-        this.mSocket = socket;
-        this.mListener = new WeakReference<>(listener);
+    /**
+     * @param socketAddress the destination, resolved through {@code addressCache} when the task
+     *                      runs if it is unresolved
+     * @param completion sink for the result, handed to the listener along with the task
+     */
+    public UdpSenderTask(DatagramSocket socket, OnDataSentListener listener, UdpAddressCache addressCache,
+                         InetSocketAddress socketAddress, byte[] data, @Nullable UdpCompletionSink completion) {
+        this(socket, null, listener, addressCache, completion);
         this.mSocketAddress = socketAddress;
         this.mData = data;
     }
 
+    /**
+     * @param socketAddress the destination, resolved through {@code addressCache} when the task
+     *                      runs if it is unresolved
+     * @param completion sink for the result, handed to the listener along with the task
+     */
+    public UdpSenderTask(UdpChannelSender channelSender, OnDataSentListener listener, UdpAddressCache addressCache,
+                         InetSocketAddress socketAddress, byte[] data, @Nullable UdpCompletionSink completion) {
+        this(null, channelSender, listener, addressCache, completion);
+        this.mSocketAddress = socketAddress;
+        this.mData = data;
+    }
+
+    /**
+     * @param remoteAddress destination of the packets without an address, the peer of a
+     *                      connected socket
+     * @param completion sink for the result of the whole batch
+     * @param nativeIo if present, the packets are sent several at a time through it. It must only
+     *                 be used by one task at a time.
+     */
+    public UdpSenderTask(DatagramSocket socket, OnDataSentListener listener, UdpAddressCache addressCache,
+                         List<Packet> packets, @Nullable InetSocketAddress remoteAddress,
+                         @Nullable UdpCompletionSink completion, @Nullable UdpNativeIo nativeIo) {
+        this(socket, null, listener, addressCache, completion);
+        this.mPackets = packets;
+        this.mSocketAddress = remoteAddress;
+        this.mNativeIo = nativeIo;
+    }
+
+    /**
+     * @param remoteAddress destination of the packets without an address, the peer of a
+     *                      connected socket
+     * @param completion sink for the result of the whole batch
+     */
+    public UdpSenderTask(UdpChannelSender channelSender, OnDataSentListener listener, UdpAddressCache addressCache,
+                         List<Packet> packets, @Nullable InetSocketAddress remoteAddress,
+                         @Nullable UdpCompletionSink completion) {
+        this(null, channelSender, listener, addressCache, completion);
+        this.mPackets = packets;
+        this.mSocketAddress = remoteAddress;
+    }
+
+    private UdpSenderTask(DatagramSocket socket, UdpChannelSender channelSender, OnDataSentListener listener,
+                          UdpAddressCache addressCache, @Nullable UdpCompletionSink completion) {
+        this.mSocket = socket;
+        this.mChannelSender = channelSender;
+        this.mListener = listener;
+        this.mAddressCache = addressCache;
+        this.mCompletion = completion;
+    }
+
     @Override
     public void run() {
-        OnDataSentListener listener = mListener.get();
+        final OnDataSentListener listener = mListener;
 
         try {
-            if (mSocket == null) {
+            if (mChannelSender == null && mSocket == null) {
                 return;
             }
 
-            mSocket.send(new DatagramPacket(mData, mData.length, mSocketAddress));
-
-            if (listener != null) {
-                listener.onDataSent(this);
+            if (mPackets != null) {
+                sendBatch(listener);
+                return;
             }
+
+            send(mData, mSocketAddress);
+            mSentCount = 1;
+            mSentBytes = mData.length;
+
+            listener.onDataSent(this);
         } catch (IOException e) {
-            if (listener != null) {
-                listener.onDataSentError(this, e.getMessage());
-            }
+            listener.onDataSentError(this, e.getMessage());
         } catch (RuntimeException rte) {
-            if (listener != null) {
-                listener.onDataSentRuntimeException(this, rte);
+            listener.onDataSentRuntimeException(this, rte);
+        }
+    }
+
+    /**
+     * Transmits every packet of the batch, even if some fail, resolving destinations through the cache.
+     * With native I/O, packets are queued and sent several per system call.
+     */
+    private void sendBatch(OnDataSentListener listener) {
+        final UdpNativeIo io = mNativeIo;
+        int queued = 0;
+
+        for (Packet packet : mPackets) {
+            try {
+                final InetSocketAddress destination = getDestination(packet);
+                if (io != null && packet.data.length <= io.getMaxQueuedSize()) {
+                    if (!io.queue(packet.data, destination)) {
+                        flush(io, queued);
+                        queued = 0;
+                        io.queue(packet.data, destination);
+                    }
+                    queued++;
+                    continue;
+                }
+
+                if (queued > 0) {
+                    // sent first, to keep the packets in order
+                    flush(io, queued);
+                    queued = 0;
+                }
+                send(packet.data, destination);
+                mSentCount++;
+                mSentBytes += packet.data.length;
+            } catch (IOException e) {
+                recordFailures(1, e.getMessage());
             }
         }
+        if (queued > 0) {
+            flush(io, queued);
+        }
+
+        if (mFailureCount == 0) {
+            listener.onDataSent(this);
+        } else {
+            listener.onDataSentError(this, mFailureCount + " of " + mPackets.size()
+                    + " datagrams could not be sent: " + mFirstError);
+        }
+    }
+
+    private InetSocketAddress getDestination(Packet packet) throws IOException {
+        if (packet.address == null) {
+            if (mSocketAddress == null) {
+                throw new IOException("Socket is not connected");
+            }
+            return mSocketAddress;
+        }
+        if (mSocketAddress != null) {
+            throw new IOException("Socket is connected");
+        }
+        return mAddressCache.resolve(packet.address, packet.port);
+    }
+
+    /**
+     * Sends the packets queued for native I/O.
+     */
+    private void flush(UdpNativeIo io, int queued) {
+        final int sent = io.flush();
+        mSentCount += sent;
+        mSentBytes += io.getLastSentBytes();
+        if (sent < queued) {
+            recordFailures(queued - sent, io.getLastError());
+        }
+    }
+
+    private void recordFailures(int count, String error) {
+        if (mFailureCount == 0) {
+            mFirstError = error;
+        }
+        mFailureCount += count;
+    }
+
+    private void send(byte[] data, @Nullable InetSocketAddress socketAddress) throws IOException {
+        if (socketAddress == null) {
+            throw new IOException("Socket is not connected");
+        }
+        if (socketAddress.isUnresolved()) {
+            // resolved on the sending thread of the client, so that a slow lookup holds up no one else;
+            // getHostName() does not look unresolved addresses up
+            socketAddress = mAddressCache.resolve(socketAddress.getHostName(), socketAddress.getPort());
+        }
+
+        if (mChannelSender != null) {
+            // waits for room in the send buffer, as the socket would
+            mChannelSender.send(ByteBuffer.wrap(data), socketAddress);
+        } else {
+            mSocket.send(new DatagramPacket(data, data.length, socketAddress));
+        }
+    }
+
+    /**
+     * @return the sink for the result of the task, if any.
+     */
+    @Nullable
+    public UdpCompletionSink getCompletion() {
+        return mCompletion;
+    }
+
+    /**
+     * @return the number of datagrams the task holds.
+     */
+    public int getPacketCount() {
+        return mPackets != null ? mPackets.size() : 1;
+    }
+
+    /**
+     * @return the number of datagrams sent successfully, once the task ran.
+     */
+    public int getSentCount() {
+        return mSentCount;
+    }
+
+    /**
+     * @return the number of bytes sent successfully, once the task ran.
+     */
+    public long getSentBytes() {
+        return mSentBytes;
+    }
+
+    /**
+     * A datagram of a batch, along with its destination.
+     */
+    public static final class Packet {
+        private final byte[] data;
+        private final int port;
+        private final String address;
+
+        /**
+         * @param address the destination host, or null for the peer of a connected socket
+         */
+        public Packet(byte[] data, int port, @Nullable String address) {
+            this.data = data;
+            this.port = port;
+            this.address = address;
+        }
+
+        /**
+         * @return a packet with the same destination, holding other data.
+         */
+        Packet withData(byte[] data) {
+            return new Packet(data, port, address);
+        }
+
+        byte[] getData() {
+            return data;
+        }
+
+        int getPort() {
+            return port;
+        }
+
+        @Nullable
+        String getAddress() {
+            return address;
+        }
     }
 
     /**
@@ -0,0 +1,132 @@
+package com.tradle.react;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The services a {@link UdpServiceDiscovery} found, each for as long as its time to live. The
+ * listener hears of a service when it first appears, when its details change, and when it goes
+ * away or expires, but not when it is merely seen again, so that repeated announcements and
+ * responses never reach it.
+ *
+ * Entries are refreshed at 80% of their time to live, as RFC 6762 has caches do, and the cache is
+ * bounded, dropping the services that expire first to make room. It is not thread-safe: its
+ * discovery guards it.
+ */
+public final class UdpServiceCache {
+    public static final int MAX_SERVICES = 256;
+
+    private final UdpServiceDiscovery.Listener mListener;
+    // by lower case name, as names compare case-insensitively
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>();
+
+    public UdpServiceCache(UdpServiceDiscovery.Listener listener) {
+        this.mListener = listener;
+    }
+
+    /**
+     * Adds or refreshes a service, notifying the listener unless it was cached as is.
+     *
+     * @param ttlMs time the service lives for, 0 if it goes away
+     */
+    public void put(UdpServiceDiscovery.Service service, long ttlMs) {
+        if (ttlMs <= 0) {
+            remove(service.getName());
+            return;
+        }
+        final long now = System.nanoTime();
+        final String key = key(service.getName());
+        final Entry previous = mEntries.remove(key);
+        final Entry entry = new Entry(service, now, TimeUnit.MILLISECONDS.toNanos(ttlMs));
+        mEntries.put(key, entry);
+        if (previous == null || !previous.service.isSameAs(service)) {
+            if (previous == null && mEntries.size() > MAX_SERVICES) {
+                evictFirstExpiring(key);
+            }
+            mListener.onServiceUp(service);
+        }
+    }
+
+    /**
+     * Removes a service, notifying the listener if it was cached.
+     */
+    public void remove(String name) {
+        final Entry entry = mEntries.remove(key(name));
+        if (entry != null) {
+            mListener.onServiceDown(entry.service);
+        }
+    }
+
+    public boolean contains(String name) {
+        return mEntries.containsKey(key(name));
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Drops the expired services, notifying the listener.
+     *
+     * @return the services due for a refresh, each returned once per time to live.
+     */
+    public List<UdpServiceDiscovery.Service> sweep() {
+        final long now = System.nanoTime();
+        final List<UdpServiceDiscovery.Service> stale = new ArrayList<>();
+        final Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            final Entry entry = entries.next();
+            if (now - entry.expiresAt >= 0) {
+                entries.remove();
+                mListener.onServiceDown(entry.service);
+            } else if (!entry.isRefreshed && now - entry.refreshAt >= 0) {
+                entry.isRefreshed = true;
+                stale.add(entry.service);
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * Forgets every service, without notifying the listener.
+     */
+    public void clear() {
+        mEntries.clear();
+    }
+
+    private void evictFirstExpiring(String current) {
+        Map.Entry<String, Entry> first = null;
+        for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+            if (!entry.getKey().equals(current)
+                    && (first == null || entry.getValue().expiresAt - first.getValue().expiresAt < 0)) {
+                first = entry;
+            }
+        }
+        if (first != null) {
+            mEntries.remove(first.getKey());
+            mListener.onServiceDown(first.getValue().service);
+        }
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Entry {
+        private final UdpServiceDiscovery.Service service;
+        private final long refreshAt;
+        private final long expiresAt;
+        private boolean isRefreshed = false;
+
+        private Entry(UdpServiceDiscovery.Service service, long now, long ttlNanos) {
+            this.service = service;
+            this.refreshAt = now + ttlNanos * 4 / 5;
+            this.expiresAt = now + ttlNanos;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.tradle.react;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service discovery running natively on a socket joined to a multicast group: it answers the
+ * queries for the services it was given, and caches the services other hosts announce, so that
+ * the javascript layer only hears of services appearing, changing or going away, instead of every
+ * query and response on the network.
+ */
+public interface UdpServiceDiscovery {
+    /**
+     * Announces the services, and starts looking for others.
+     */
+    void start();
+
+    /**
+     * Handles a datagram received by the socket.
+     *
+     * @param data the datagram, between its position and limit, which the caller still owns
+     */
+    void receive(ByteBuffer data, String host, int port);
+
+    /**
+     * Announces that the services go away, and stops. The services found are forgotten without
+     * notice.
+     */
+    void close();
+
+    /**
+     * Sends the datagrams of a discovery.
+     */
+    interface Transport {
+        void transmit(byte[] datagram, InetSocketAddress destination);
+    }
+
+    /**
+     * Notified of the services found, on the thread that received or expired them, while the
+     * discovery is locked. It must not block.
+     */
+    interface Listener {
+        /**
+         * A service was found, or some of its details changed.
+         */
+        void onServiceUp(Service service);
+
+        /**
+         * A service went away, or was not seen again before it expired.
+         */
+        void onServiceDown(Service service);
+    }
+
+    /**
+     * A service found on the network.
+     */
+    final class Service {
+        private final String mProtocol;
+        private final String mName;
+        private final String mType;
+        private final String mHost;
+        private final int mPort;
+        private final List<String> mAddresses;
+        private final Map<String, String> mAttributes;
+
+        /**
+         * @param name the name identifying the service, e.g. its mDNS instance name or SSDP USN
+         * @param addresses the addresses of the host, as literals
+         * @param attributes the details of the service, e.g. its TXT record or SSDP headers
+         */
+        public Service(String protocol, String name, String type, String host, int port, List<String> addresses,
+                       Map<String, String> attributes) {
+            this.mProtocol = protocol;
+            this.mName = name;
+            this.mType = type;
+            this.mHost = host;
+            this.mPort = port;
+            this.mAddresses = Collections.unmodifiableList(addresses);
+            this.mAttributes = Collections.unmodifiableMap(attributes);
+        }
+
+        public String getProtocol() {
+            return mProtocol;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public String getType() {
+            return mType;
+        }
+
+        public String getHost() {
+            return mHost;
+        }
+
+        public int getPort() {
+            return mPort;
+        }
+
+        public List<String> getAddresses() {
+            return mAddresses;
+        }
+
+        public Map<String, String> getAttributes() {
+            return mAttributes;
+        }
+
+        /**
+         * @return whether both describe the service the same way.
+         */
+        public boolean isSameAs(Service other) {
+            return mPort == other.mPort
+                    && mProtocol.equals(other.mProtocol)
+                    && mName.equals(other.mName)
+                    && mType.equals(other.mType)
+                    && mHost.equals(other.mHost)
+                    && mAddresses.equals(other.mAddresses)
+                    && mAttributes.equals(other.mAttributes);
+        }
+    }
+}
@@ -1,45 +1,173 @@
 package com.tradle.react;
 
-import android.util.Base64;
-
-import com.facebook.react.bridge.Callback;
+import com.facebook.common.logging.FLog;
 
 import java.io.IOException;
+import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
+import java.net.NetworkInterface;
 import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
 
 import static com.tradle.react.UdpSenderTask.OnDataSentListener;
 
 import javax.annotation.Nullable;
 
 /**
- * Client class that wraps a sender and a receiver for UDP data.
+ * Client class that wraps a sender and a receiver for UDP data. Free of React Native types: data
+ * is decoded by a {@link UdpCodec}, events go to a {@link UdpEventSink}, and the outcome of sends
+ * to {@link UdpCompletionSink}s.
  */
 public final class UdpSocketClient implements UdpReceiverTask.OnDataReceivedListener, OnDataSentListener {
-    private final OnDataReceivedListener mReceiverListener;
-    private final OnRuntimeExceptionListener mExceptionListener;
+    private static final String TAG = "UdpSocketClient";
+    // how long close waits for the receiving threads to return
+    private static final long CLOSE_TIMEOUT_MS = 1000;
+
+    private final int mId;
+    private final UdpSocketStats mStats = new UdpSocketStats();
+    private final UdpCodec mCodec;
+    private final UdpEventSink mEventSink;
 
-    private ExecutorService executor = Executors.newSingleThreadExecutor();
+    // runs the sends one at a time, on the worker pool or else on a thread of the client's own
+    private final UdpDispatchLane mSendLane;
+    @Nullable
+    private final ExecutorService mSendExecutor;
 
     private UdpReceiverTask mReceiverTask;
+    // the sockets sharing the port of mSocket through SO_REUSEPORT, and their receiving tasks
+    private final List<DatagramSocket> mWorkerSockets = new ArrayList<>();
+    private final List<UdpReceiverTask> mWorkerTasks = new ArrayList<>();
+    private int mReceiveWorkers = 1;
+    // moves the datagrams of batches several per system call, if available
+    @Nullable
+    private UdpNativeIo mSendIo;
+    // sends through the non-blocking channel, waiting for room in its send buffer
+    @Nullable
+    private UdpChannelSender mChannelSender;
+    private final UdpSelectorTask mSelectorTask;
+    @Nullable
+    private final UdpWorkerPool mWorkerPool;
+    private final UdpBufferPool mBufferPool;
+    private final UdpAddressCache mAddressCache;
+    private int mMaxDatagramSize = UdpBufferPool.MAX_DATAGRAM_SIZE;
+    private int mReceiveBufferSize = 0;
+    private int mSendBufferSize = 0;
+    @Nullable
+    private volatile UdpCompression mCompression;
+    @Nullable
+    private volatile UdpReliableChannel mReliableChannel;
+    @Nullable
+    private volatile UdpFragmenter mFragmenter;
+    @Nullable
+    private volatile UdpPacketFilter mFilter;
+    @Nullable
+    private volatile UdpServiceDiscovery mDiscovery;
 
-    private final Map<UdpSenderTask, Callback> mPendingSends;
+    private final Map<String, MembershipKey> mMemberships;
     private DatagramSocket mSocket;
+    private DatagramChannel mChannel;
+    private volatile InetSocketAddress mRemoteAddress;
     private boolean mIsMulticastSocket = false;
 
-    public UdpSocketClient(OnDataReceivedListener receiverListener, OnRuntimeExceptionListener exceptionListener) {
-        this.mReceiverListener = receiverListener;
-        this.mExceptionListener = exceptionListener;
-        this.mPendingSends = new ConcurrentHashMap<>();
+    /**
+     * Sends the datagrams of the reliable channel right away, from the thread it runs on, and
+     * hands the data it received in order to the listener.
+     */
+    private final UdpReliableChannel.Transport mReliableTransport = new UdpReliableChannel.Transport() {
+        @Override
+        public void transmit(byte[] datagram, InetSocketAddress destination) throws IOException {
+            final UdpChannelSender channelSender = mChannelSender;
+            final DatagramSocket socket = mSocket;
+            if (channelSender != null) {
+                channelSender.send(ByteBuffer.wrap(datagram), destination);
+            } else if (socket != null) {
+                socket.send(new DatagramPacket(datagram, datagram.length, destination));
+            } else {
+                throw new IOException("Socket is closed");
+            }
+        }
+
+        @Override
+        public void deliver(ByteBuffer data, String host, int port) {
+            deliverData(data, host, port);
+        }
+    };
+
+    public UdpSocketClient(int id, UdpCodec codec, UdpEventSink eventSink) {
+        this(id, codec, eventSink, new UdpBufferPool(), new UdpAddressCache(), null);
+    }
+
+    /**
+     * @param id the ID the javascript layer knows the client by
+     * @param codec decodes the data to send
+     * @param bufferPool pool the receive buffers are taken from, and released to by the listener
+     * @param addressCache cache the send destinations are resolved through
+     * @param selectorTask if present, the socket is backed by a non-blocking {@link DatagramChannel}
+     *                     which receives data through this shared selector, instead of its own thread.
+     */
+    public UdpSocketClient(int id, UdpCodec codec, UdpEventSink eventSink,
+                           UdpBufferPool bufferPool, UdpAddressCache addressCache,
+                           @Nullable UdpSelectorTask selectorTask) {
+        this(id, codec, eventSink, bufferPool, addressCache, selectorTask, null);
+    }
+
+    /**
+     * @param workerPool if present, data is sent, and received if the socket is not backed by the
+     *                   selector, on the threads of this shared pool, instead of two threads of the
+     *                   client's own which stop on close.
+     */
+    public UdpSocketClient(int id, UdpCodec codec, UdpEventSink eventSink,
+                           UdpBufferPool bufferPool, UdpAddressCache addressCache,
+                           @Nullable UdpSelectorTask selectorTask, @Nullable UdpWorkerPool workerPool) {
+        this.mId = id;
+        this.mCodec = codec;
+        this.mEventSink = eventSink;
+        this.mBufferPool = bufferPool;
+        this.mAddressCache = addressCache;
+        this.mSelectorTask = selectorTask;
+        this.mWorkerPool = workerPool;
+        if (workerPool != null) {
+            this.mSendExecutor = null;
+            this.mSendLane = workerPool.newLane();
+        } else {
+            this.mSendExecutor = Executors.newSingleThreadExecutor();
+            this.mSendLane = new UdpDispatchLane(mSendExecutor);
+        }
+        this.mMemberships = new ConcurrentHashMap<>();
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public UdpSocketStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * @return the local port the socket is bound to, or -1 if it is not bound.
+     */
+    public int getLocalPort() {
+        final DatagramSocket socket = mSocket;
+        return socket != null ? socket.getLocalPort() : -1;
     }
 
     /**
@@ -50,6 +178,223 @@ public final class UdpSocketClient implements UdpReceiverTask.OnDataReceivedList
         return mIsMulticastSocket;
     }
 
+    /**
+     * Caps the size of the buffers data is received into, so that sockets expecting small
+     * datagrams hold small buffers. Larger datagrams are truncated. Takes effect on bind.
+     *
+     * @param size the maximum size of a received datagram, in bytes
+     * @throws IllegalArgumentException if the size is not a valid datagram size
+     */
+    public void setMaxDatagramSize(int size) {
+        if (size <= 0 || size > UdpBufferPool.MAX_DATAGRAM_SIZE) {
+            throw new IllegalArgumentException("Invalid max datagram size " + size);
+        }
+        mMaxDatagramSize = size;
+    }
+
+    /**
+     * Compresses the datagrams sent from then on, and decompresses those received, dropping the
+     * ones that cannot be. The peers of the socket must use the same compression. The compression
+     * is closed along with the socket.
+     *
+     * @param compression the compression, or null to send and receive datagrams as is
+     */
+    public void setCompression(@Nullable UdpCompression compression) {
+        mCompression = compression;
+    }
+
+    /**
+     * Delivers the datagrams sent from then on reliably and in order, and those received from
+     * peers doing the same, through a {@link UdpReliableChannel}. The completion of a send then
+     * waits for the peer to acknowledge the datagram. The peers of the socket must deliver
+     * reliably too. The channel is closed along with the socket.
+     *
+     * @param scheduler runs the retransmissions, or null to send and receive datagrams as is
+     */
+    public void setReliableDelivery(@Nullable ScheduledExecutorService scheduler) {
+        final UdpReliableChannel previous = mReliableChannel;
+        mReliableChannel = scheduler != null
+                ? new UdpReliableChannel(scheduler, mBufferPool, mStats, mReliableTransport)
+                : null;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Splits the messages sent from then on into datagrams carrying at most {@code fragmentSize}
+     * bytes of them, and reassembles the messages received from peers doing the same, through a
+     * {@link UdpFragmenter}, before they are handed over. Each datagram is compressed, and
+     * delivered reliably, on its own. The peers of the socket must fragment their messages too.
+     *
+     * @param fragmentSize the size of the part of a message each datagram carries
+     * @param maxMessageSize the size of the largest message to send or receive
+     * @param timeoutMs time a received message has to complete before it is dropped
+     * @throws IllegalArgumentException if a size or the timeout is not valid
+     */
+    public void setFragmentation(int fragmentSize, int maxMessageSize, long timeoutMs) {
+        final UdpFragmenter previous = mFragmenter;
+        mFragmenter = new UdpFragmenter(mBufferPool, mStats, fragmentSize, maxMessageSize, timeoutMs);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Filters the datagrams received from then on through the rules of a {@link UdpPacketFilter},
+     * right before they are handed over: dropped datagrams are released on the receiving thread,
+     * and routed ones are handed over along with their channel. Datagrams are filtered once in
+     * order, decompressed and reassembled, for sockets doing any of those.
+     *
+     * @param filter the filter, or null to hand every datagram over
+     */
+    public void setFilter(@Nullable UdpPacketFilter filter) {
+        mFilter = filter;
+    }
+
+    /**
+     * Hands the datagrams received from then on over to a {@link UdpServiceDiscovery} instead of
+     * the event sink, starting it. The socket is expected to be bound to the port of the protocol
+     * and joined to its group. A previous discovery is closed, announcing its services go away.
+     *
+     * @param discovery the discovery, or null to hand datagrams over to the event sink again
+     */
+    public void setDiscovery(@Nullable UdpServiceDiscovery discovery) {
+        final UdpServiceDiscovery previous = mDiscovery;
+        mDiscovery = discovery;
+        if (previous != null) {
+            previous.close();
+        }
+        if (discovery != null) {
+            discovery.start();
+        }
+    }
+
+    /**
+     * Sends a datagram as is, past the compression, reliable delivery and fragmentation of the
+     * socket, as service discovery protocols talk to hosts which know nothing of those. It is sent
+     * on the calling thread, so that the goodbyes of a discovery go out before the socket closes.
+     *
+     * @param destination the resolved destination
+     * @throws IllegalStateException if socket is not bound.
+     */
+    public void transmit(byte[] datagram, InetSocketAddress destination) throws IllegalStateException {
+        if (null == mSocket || !mSocket.isBound()) {
+            throw new IllegalStateException("Socket is not bound.");
+        }
+
+        UdpSenderTask task = mChannel != null
+                ? new UdpSenderTask(mChannelSender, this, mAddressCache, destination, datagram, null)
+                : new UdpSenderTask(mSocket, this, mAddressCache, destination, datagram, null);
+
+        task.run();
+    }
+
+    /**
+     * Spreads the receipt of datagrams across several threads, each with its own socket bound to
+     * the same port through SO_REUSEPORT. The kernel hashes datagrams to sockets by flow, so the
+     * datagrams of a single peer keep arriving in order. Only applies to sockets receiving on
+     * their own threads, and only where the kernel supports SO_REUSEPORT; otherwise a single
+     * thread receives. Takes effect on bind.
+     *
+     * @param count the number of receiving threads
+     * @throws IllegalArgumentException if the count is not positive
+     */
+    public void setReceiveWorkers(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Invalid receive worker count " + count);
+        }
+        mReceiveWorkers = count;
+    }
+
+    /**
+     * @return the number of threads receiving datagrams, 0 if the socket is not bound, or if it
+     * receives through the shared selector.
+     */
+    public int getReceiveWorkerCount() {
+        return mReceiverTask != null ? 1 + mWorkerTasks.size() : 0;
+    }
+
+    /**
+     * Sets the SO_RCVBUF option of the socket, the size of the kernel buffer datagrams wait in
+     * until they are received. If the socket is not bound yet, the size is applied on bind.
+     *
+     * @param size the requested size, in bytes
+     * @return the size granted by the OS, or the requested size if the socket is not bound yet.
+     * @throws IllegalArgumentException if the size is not positive
+     * @throws SocketException if the option could not be set
+     */
+    public int setReceiveBufferSize(int size) throws SocketException {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Invalid receive buffer size " + size);
+        }
+        mReceiveBufferSize = size;
+        if (mSocket == null) {
+            return size;
+        }
+        for (DatagramSocket socket : mWorkerSockets) {
+            socket.setReceiveBufferSize(size);
+        }
+        mSocket.setReceiveBufferSize(size);
+        return mSocket.getReceiveBufferSize();
+    }
+
+    /**
+     * Sets the SO_SNDBUF option of the socket. If the socket is not bound yet, the size is
+     * applied on bind.
+     *
+     * @param size the requested size, in bytes
+     * @return the size granted by the OS, or the requested size if the socket is not bound yet.
+     * @throws IllegalArgumentException if the size is not positive
+     * @throws SocketException if the option could not be set
+     */
+    public int setSendBufferSize(int size) throws SocketException {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Invalid send buffer size " + size);
+        }
+        mSendBufferSize = size;
+        if (mSocket == null) {
+            return size;
+        }
+        mSocket.setSendBufferSize(size);
+        return mSocket.getSendBufferSize();
+    }
+
+    /**
+     * @return the SO_RCVBUF option of the socket, in bytes.
+     * @throws IllegalStateException if socket is not bound.
+     */
+    public int getReceiveBufferSize() throws SocketException {
+        if (mSocket == null) {
+            throw new IllegalStateException("Socket is not bound.");
+        }
+        return mSocket.getReceiveBufferSize();
+    }
+
+    /**
+     * @return the SO_SNDBUF option of the socket, in bytes.
+     * @throws IllegalStateException if socket is not bound.
+     */
+    public int getSendBufferSize() throws SocketException {
+        if (mSocket == null) {
+            throw new IllegalStateException("Socket is not bound.");
+        }
+        return mSocket.getSendBufferSize();
+    }
+
+    /**
+     * Applies the buffer sizes requested before bind. The receive buffer must be sized before the
+     * socket is bound, so that no datagram is dropped in between.
+     */
+    private void applyBufferSizes(DatagramSocket socket) throws SocketException {
+        if (mReceiveBufferSize > 0) {
+            socket.setReceiveBufferSize(mReceiveBufferSize);
+        }
+        if (mSendBufferSize > 0) {
+            socket.setSendBufferSize(mSendBufferSize);
+        }
+    }
+
     /**
      * Binds to a specific port or address.  A random port is used if the address is {@code null}.
      *
@@ -63,7 +408,7 @@ public final class UdpSocketClient implements UdpReceiverTask.OnDataReceivedList
      *             binding.
      */
     public void bind(Integer port, @Nullable String address) throws IOException {
-        if (mSocket != null || mReceiverTask != null) {
+        if (mSocket != null || mReceiverTask != null || mChannel != null) {
             throw new IllegalStateException("Socket is already bound");
         }
         SocketAddress socketAddress;
@@ -73,12 +418,91 @@ public final class UdpSocketClient implements UdpReceiverTask.OnDataReceivedList
             socketAddress = new InetSocketAddress(port);
         }
 
-        mSocket = new MulticastSocket(socketAddress);
-        mSocket.setReuseAddress(true);
+        if (mSelectorTask != null) {
+            mChannel = DatagramChannel.open();
+            try {
+                mSocket = mChannel.socket();
+                mSocket.setReuseAddress(true);
+                applyBufferSizes(mSocket);
+                mSocket.bind(socketAddress);
+                mChannel.configureBlocking(false);
+            } catch (IOException ioe) {
+                mChannel.close();
+                mChannel = null;
+                mSocket = null;
+                throw ioe;
+            }
+
+            // begin listening for data on the shared selector
+            mChannelSender = new UdpChannelSender(mChannel);
+            mSelectorTask.register(mChannel, mMaxDatagramSize, this);
+            return;
+        }
+
+        final MulticastSocket socket = new MulticastSocket(null);
+        boolean isReusingPort = false;
+        try {
+            socket.setReuseAddress(true);
+            isReusingPort = mReceiveWorkers > 1 && UdpReusePort.enable(socket);
+            applyBufferSizes(socket);
+            socket.bind(socketAddress);
+        } catch (IOException ioe) {
+            socket.close();
+            throw ioe;
+        }
+        mSocket = socket;
+        if (isReusingPort) {
+            bindWorkers((InetSocketAddress) socket.getLocalSocketAddress());
+        }
 
         // begin listening for data in the background
-        mReceiverTask = new UdpReceiverTask(mSocket, this);
-        new Thread(mReceiverTask).start();
+        mReceiverTask = new UdpReceiverTask(mSocket, mBufferPool, mMaxDatagramSize, this,
+                UdpNativeIo.openReceiver(mSocket, mMaxDatagramSize));
+        mSendIo = UdpNativeIo.openSender(mSocket);
+        startReceiving(mReceiverTask);
+        for (UdpReceiverTask task : mWorkerTasks) {
+            startReceiving(task);
+        }
+    }
+
+    private void startReceiving(UdpReceiverTask task) {
+        if (mWorkerPool != null) {
+            mWorkerPool.startReceiving(task);
+        } else {
+            new Thread(task).start();
+        }
+    }
+
+    /**
+     * Binds the sockets of the additional receive workers to the address the socket is bound to.
+     * Workers that cannot be bound are left out, as the socket receives without them.
+     */
+    private void bindWorkers(InetSocketAddress localAddress) {
+        for (int i = 1; i < mReceiveWorkers; i++) {
+            final DatagramSocket worker;
+            try {
+                worker = new DatagramSocket(null);
+            } catch (SocketException se) {
+                FLog.e(TAG, "could not open a receive worker socket.", se);
+                return;
+            }
+            try {
+                worker.setReuseAddress(true);
+                if (!UdpReusePort.enable(worker)) {
+                    worker.close();
+                    return;
+                }
+                applyBufferSizes(worker);
+                worker.bind(localAddress);
+            } catch (IOException ioe) {
+                FLog.e(TAG, "could not bind a receive worker socket.", ioe);
+                worker.close();
+                return;
+            }
+            mWorkerSockets.add(worker);
+            mWorkerTasks.add(new UdpReceiverTask(worker, mBufferPool, mMaxDatagramSize, this,
+                    UdpNativeIo.openReceiver(worker, mMaxDatagramSize)));
+        }
     }
 
     /**
@@ -95,7 +519,19 @@ public final class UdpSocketClient implements UdpReceiverTask.OnDataReceivedList
             throw new IllegalStateException("Socket is not bound.");
         }
 
-        ((MulticastSocket) mSocket).joinGroup(InetAddress.getByName(address));
+        if (!mWorkerSockets.isEmpty()) {
+            // every socket bound to the port would receive the group's datagrams
+            throw new IllegalStateException("Multicast is not supported with several receive workers.");
+        }
+
+        if (mChannel != null) {
+            final InetAddress group = InetAddress.getByName(address);
+            if (!mMemberships.containsKey(address)) {
+                mMemberships.put(address, mChannel.join(group, getMulticastInterface(group)));
+            }
+        } else {
+            ((MulticastSocket) mSocket).joinGroup(InetAddress.getByName(address));
+        }
         mIsMulticastSocket = true;
     }
 
@@ -107,38 +543,283 @@ public final class UdpSocketClient implements UdpReceiverTask.OnDataReceivedList
      * @throws IOException
      */
     public void dropMembership(String address) throws UnknownHostException, IOException {
-        ((MulticastSocket) mSocket).leaveGroup(InetAddress.getByName(address));
+        if (mChannel != null) {
+            final MembershipKey membership = mMemberships.remove(address);
+            if (membership != null) {
+                membership.drop();
+            }
+        } else {
+            ((MulticastSocket) mSocket).leaveGroup(InetAddress.getByName(address));
+        }
         mIsMulticastSocket = false;
     }
 
     /**
-     * Creates a UdpSenderTask, and transmits udp data in the background.
+     * Picks the interface a channel joins a multicast group on. Unlike {@link MulticastSocket},
+     * {@link DatagramChannel#join} requires one: the interface of the bound address is preferred,
+     * then the first multicast capable interface that is up.
+     */
+    private NetworkInterface getMulticastInterface(InetAddress group) throws SocketException {
+        final InetAddress localAddress = mSocket.getLocalAddress();
+        if (localAddress != null && !localAddress.isAnyLocalAddress()) {
+            final NetworkInterface boundInterface = NetworkInterface.getByInetAddress(localAddress);
+            if (boundInterface != null) {
+                return boundInterface;
+            }
+        }
+
+        NetworkInterface loopback = null;
+        final Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+        while (interfaces != null && interfaces.hasMoreElements()) {
+            final NetworkInterface networkInterface = interfaces.nextElement();
+            if (!networkInterface.isUp() || !networkInterface.supportsMulticast()) {
+                continue;
+            }
+            if (!networkInterface.isLoopback()) {
+                return networkInterface;
+            }
+            loopback = networkInterface;
+        }
+
+        if (loopback == null) {
+            throw new SocketException("No multicast interface available to join " + group.getHostAddress());
+        }
+        return loopback;
+    }
+
+    /**
+     * Associates the socket with a remote address, resolved once: datagrams are then sent there
+     * when no destination is given, and only datagrams from there are received. Sockets using the
+     * nio engine are connected by the kernel. Connecting a socket of the thread engine would block
+     * until its receiving thread gets a datagram, so its receiving thread filters datagrams
+     * instead.
      *
-     * @param base64String byte array housed in a String.
-     * @param port destination port
-     * @param address destination address
-     * @param callback callback for results
+     * @param port remote port
+     * @param address remote address
      * @throws UnknownHostException
      * @throws IOException
+     * @throws IllegalStateException if socket is not bound, or already connected.
+     */
+    public void connect(Integer port, String address) throws UnknownHostException, IOException, IllegalStateException {
+        if (null == mSocket || !mSocket.isBound()) {
+            throw new IllegalStateException("Socket is not bound.");
+        }
+        if (mRemoteAddress != null) {
+            throw new IllegalStateException("Socket is already connected.");
+        }
+
+        final InetSocketAddress remoteAddress = mAddressCache.resolve(address, port);
+        if (mChannel != null) {
+            mChannel.connect(remoteAddress);
+        } else {
+            mReceiverTask.setRemoteAddress(remoteAddress);
+            for (UdpReceiverTask task : mWorkerTasks) {
+                task.setRemoteAddress(remoteAddress);
+            }
+        }
+        mRemoteAddress = remoteAddress;
+    }
+
+    /**
+     * Dissociates the socket from its remote address.
+     *
+     * @throws IOException
+     * @throws IllegalStateException if socket is not connected.
+     */
+    public void disconnect() throws IOException, IllegalStateException {
+        if (mRemoteAddress == null) {
+            throw new IllegalStateException("Socket is not connected.");
+        }
+
+        if (mChannel != null) {
+            mChannel.disconnect();
+        } else if (mReceiverTask != null) {
+            mReceiverTask.setRemoteAddress(null);
+            for (UdpReceiverTask task : mWorkerTasks) {
+                task.setRemoteAddress(null);
+            }
+        }
+        mRemoteAddress = null;
+    }
+
+    /**
+     * @return the remote address the socket is connected to, or null if it is not connected.
+     */
+    @Nullable
+    public InetSocketAddress getRemoteAddress() {
+        return mRemoteAddress;
+    }
+
+    /**
+     * Creates a UdpSenderTask, and transmits udp data in the background. The destination is
+     * resolved in the background as well, so resolution errors go to the completion sink.
+     *
+     * @param data byte array housed in a String, as encoded by the codec of the client.
+     * @param port destination port, null if the socket is connected
+     * @param address destination address, null if the socket is connected
+     * @param completion sink for the result
+     * @throws IllegalStateException if socket is not bound, or if a destination is given for a
+     * connected socket, none for a socket that is not connected, or an address without a port.
+     * @throws IllegalArgumentException if the socket fragments its messages, and the data is larger
+     * than the max message size.
+     */
+    public void send(String data, @Nullable Integer port, @Nullable String address, @Nullable UdpCompletionSink completion)
+            throws IllegalStateException {
+        if (null == mSocket || !mSocket.isBound()) {
+            throw new IllegalStateException("Socket is not bound.");
+        }
+
+        byte[] bytes = mCodec.decode(data);
+
+        InetSocketAddress socketAddress = getDestination(port, address);
+        final UdpFragmenter fragmenter = mFragmenter;
+        if (fragmenter != null) {
+            final List<UdpSenderTask.Packet> packets = new ArrayList<>();
+            for (byte[] fragment : fragmenter.split(bytes)) {
+                packets.add(new UdpSenderTask.Packet(fragment, port != null ? port : 0, address));
+            }
+            sendPackets(packets, completion);
+            return;
+        }
+
+        bytes = compress(bytes);
+        final UdpReliableChannel reliableChannel = mReliableChannel;
+        if (reliableChannel != null) {
+            sendReliably(reliableChannel, bytes, socketAddress, completion);
+            return;
+        }
+        UdpSenderTask task = mChannel != null
+                ? new UdpSenderTask(mChannelSender, this, mAddressCache, socketAddress, bytes, completion)
+                : new UdpSenderTask(mSocket, this, mAddressCache, socketAddress, bytes, completion);
+
+        mSendLane.execute(task);
+    }
+
+    /**
+     * Picks the destination of a datagram: the remote address of a connected socket, which needs
+     * no resolution, or the given one, left for the sending thread to resolve.
+     */
+    private InetSocketAddress getDestination(@Nullable Integer port, @Nullable String address)
+            throws IllegalStateException {
+        final InetSocketAddress remoteAddress = mRemoteAddress;
+        if (address == null) {
+            if (remoteAddress == null) {
+                throw new IllegalStateException("Socket is not connected.");
+            }
+            return remoteAddress;
+        }
+
+        if (remoteAddress != null) {
+            throw new IllegalStateException("Socket is connected.");
+        }
+        if (port == null) {
+            throw new IllegalStateException("No port to send to " + address + ".");
+        }
+        return InetSocketAddress.createUnresolved(address, port);
+    }
+
+    /**
+     * Creates a single UdpSenderTask for several datagrams, and transmits them in the background in
+     * one pass. Destination hosts are resolved on the sending thread.
+     *
+     * @param packets datagrams to send, along with their destinations, which are left out for the
+     *                peer of a connected socket
+     * @param completion sink for the result of the whole batch
      * @throws IllegalStateException if socket is not bound.
+     * @throws IllegalArgumentException if the socket fragments its messages, and one is larger than
+     * the max message size.
      */
-    public void send(String base64String, Integer port, String address, @Nullable Callback callback)
-            throws UnknownHostException, IllegalStateException, IOException {
+    public void sendBatch(List<UdpSenderTask.Packet> packets, @Nullable UdpCompletionSink completion)
+            throws IllegalStateException {
         if (null == mSocket || !mSocket.isBound()) {
             throw new IllegalStateException("Socket is not bound.");
         }
 
-        byte[] data = Base64.decode(base64String, Base64.NO_WRAP);
+        final UdpFragmenter fragmenter = mFragmenter;
+        if (fragmenter != null) {
+            final List<UdpSenderTask.Packet> fragments = new ArrayList<>(packets.size());
+            for (UdpSenderTask.Packet packet : packets) {
+                for (byte[] fragment : fragmenter.split(packet.getData())) {
+                    fragments.add(packet.withData(fragment));
+                }
+            }
+            packets = fragments;
+        }
+        sendPackets(packets, completion);
+    }
 
-        UdpSenderTask task = new UdpSenderTask(mSocket, this, new InetSocketAddress(InetAddress.getByName(address), port), data);
+    /**
+     * Sends datagrams as a batch, once compressed, reliably if the socket delivers reliably.
+     */
+    private void sendPackets(List<UdpSenderTask.Packet> packets, @Nullable UdpCompletionSink completion) {
+        if (mCompression != null) {
+            final List<UdpSenderTask.Packet> compressed = new ArrayList<>(packets.size());
+            for (UdpSenderTask.Packet packet : packets) {
+                compressed.add(packet.withData(compress(packet.getData())));
+            }
+            packets = compressed;
+        }
 
-        if (callback != null) {
-            synchronized (mPendingSends) {
-                mPendingSends.put(task, callback);
+        final UdpReliableChannel reliableChannel = mReliableChannel;
+        if (reliableChannel != null) {
+            final UdpCompletionSink batchCompletion = UdpReliableChannel.forBatch(packets.size(), completion);
+            final InetSocketAddress remoteAddress = mRemoteAddress;
+            for (UdpSenderTask.Packet packet : packets) {
+                final InetSocketAddress destination = packet.getAddress() != null
+                        ? InetSocketAddress.createUnresolved(packet.getAddress(), packet.getPort())
+                        : remoteAddress;
+                sendReliably(reliableChannel, packet.getData(), destination, batchCompletion);
             }
+            return;
         }
 
-        executor.submit(task);
+        UdpSenderTask task = mChannel != null
+                ? new UdpSenderTask(mChannelSender, this, mAddressCache, packets, mRemoteAddress, completion)
+                : new UdpSenderTask(mSocket, this, mAddressCache, packets, mRemoteAddress, completion, mSendIo);
+
+        mSendLane.execute(task);
+    }
+
+    /**
+     * Hands a datagram over to the reliable channel, on the sending thread, which resolves its
+     * destination first.
+     *
+     * @param destination the destination, unresolved unless it is the remote address, or null if
+     *                    the socket is not connected
+     */
+    private void sendReliably(final UdpReliableChannel channel, final byte[] data,
+                              @Nullable final InetSocketAddress destination, @Nullable final UdpCompletionSink completion) {
+        mSendLane.execute(new Runnable() {
+            @Override
+            public void run() {
+                final InetSocketAddress resolved;
+                try {
+                    if (destination == null) {
+                        throw new IOException("Socket is not connected");
+                    }
+                    resolved = destination.isUnresolved()
+                            ? mAddressCache.resolve(destination.getHostName(), destination.getPort())
+                            : destination;
+                } catch (IOException e) {
+                    mStats.recordSendErrors(1);
+                    if (completion != null) {
+                        completion.onError(UdpErrorCodes.sendError.name(), e.getMessage());
+                    }
+                    return;
+                }
+                channel.send(data, resolved, completion);
+            }
+        });
+    }
+
+    private byte[] compress(byte[] data) {
+        final UdpCompression compression = mCompression;
+        if (compression == null) {
+            return data;
+        }
+        final byte[] compressed = compression.compress(data);
+        mStats.recordCompressed(data.length, compressed.length);
+        return compressed;
     }
 
     /**
@@ -151,32 +832,156 @@ public final class UdpSocketClient implements UdpReceiverTask.OnDataReceivedList
     }
 
     /**
-     * Shuts down the receiver task, closing the socket.
+     * Shuts down the receiver task, closing the socket. Waits a bounded time for the receiving
+     * threads to return, so that no data is received for the client once it is closed.
      */
     public void close() {
-        // stop the receiving task
-        if (mReceiverTask != null && mReceiverTask.isRunning()) {
-            mReceiverTask.terminate();
+        // announce the services go away, while the socket can still send
+        final UdpServiceDiscovery discovery = mDiscovery;
+        mDiscovery = null;
+        if (discovery != null) {
+            discovery.close();
+        }
+
+        // stop the receiving tasks, which close their sockets to wake up
+        // terminated even if they did not start yet, so that they do not start receiving
+        final List<UdpReceiverTask> receiverTasks = new ArrayList<>(mWorkerTasks);
+        if (mReceiverTask != null) {
+            receiverTasks.add(mReceiverTask);
+        }
+        for (UdpReceiverTask task : receiverTasks) {
+            task.terminate();
+        }
+
+        // stop listening on the shared selector, which acknowledges once its read in progress is done
+        CountDownLatch selectorReleased = null;
+        if (mChannel != null) {
+            selectorReleased = mSelectorTask.unregister(mChannel);
         }
 
         // stop pending send tasks
-        executor.shutdownNow();
+        mSendLane.clear();
+        if (mSendExecutor != null) {
+            mSendExecutor.shutdownNow();
+        }
+        if (mSendIo != null) {
+            mSendIo.close();
+        }
+        if (mChannelSender != null) {
+            mChannelSender.close();
+        }
 
         // close the socket
         if (mSocket != null && !mSocket.isClosed()) {
             mSocket.close();
         }
+        for (DatagramSocket socket : mWorkerSockets) {
+            socket.close();
+        }
+        awaitReceivers(receiverTasks, selectorReleased);
 
         mSocket = null;
+        mChannel = null;
         mReceiverTask = null;
+        mSendIo = null;
+        mChannelSender = null;
+        mWorkerSockets.clear();
+        mWorkerTasks.clear();
+        mRemoteAddress = null;
+        mMemberships.clear();
+        if (mCompression != null) {
+            mCompression.close();
+        }
+        if (mReliableChannel != null) {
+            mReliableChannel.close();
+        }
+        if (mFragmenter != null) {
+            mFragmenter.close();
+        }
+    }
+
+    private void awaitReceivers(List<UdpReceiverTask> tasks, @Nullable CountDownLatch selectorReleased) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MS);
+        try {
+            for (UdpReceiverTask task : tasks) {
+                // a client closed from its own receiving thread cannot wait for it, which returns next
+                if (!task.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) && task.isRunning()) {
+                    FLog.w(TAG, "a receiving thread did not return within " + CLOSE_TIMEOUT_MS + " ms of close.");
+                    return;
+                }
+            }
+            if (selectorReleased != null
+                    && !selectorReleased.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                FLog.w(TAG, "the selector did not release the socket within " + CLOSE_TIMEOUT_MS + " ms of close.");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
-     * Retransmits the data back a level, attaching {@code this}
+     * Retransmits the data back a level, attaching {@code this}, once in order if the socket
+     * delivers reliably, once decompressed if it compresses its datagrams, once reassembled if it
+     * fragments its messages, and unless its filter drops it. Datagrams go to the service
+     * discovery instead, if the socket runs one.
      */
     @Override
-    public void didReceiveData(String data, String host, int port) {
-        mReceiverListener.didReceiveData(this, data, host, port);
+    public void didReceiveData(ByteBuffer data, String host, int port) {
+        mStats.recordReceived(data.remaining());
+        final UdpServiceDiscovery discovery = mDiscovery;
+        if (discovery != null) {
+            try {
+                discovery.receive(data, host, port);
+            } finally {
+                mBufferPool.release(data);
+            }
+            return;
+        }
+        final UdpReliableChannel reliableChannel = mReliableChannel;
+        if (reliableChannel != null) {
+            reliableChannel.receive(data, host, port);
+            return;
+        }
+        deliverData(data, host, port);
+    }
+
+    private void deliverData(ByteBuffer data, String host, int port) {
+        final UdpCompression compression = mCompression;
+        if (compression != null) {
+            final int compressedSize = data.remaining();
+            final ByteBuffer decompressed;
+            try {
+                decompressed = compression.decompress(data, mBufferPool, mMaxDatagramSize);
+            } catch (DataFormatException dfe) {
+                // not from a peer of the socket, or corrupted on the way
+                mStats.recordDecompressionError();
+                return;
+            } finally {
+                mBufferPool.release(data);
+            }
+            mStats.recordDecompressed(compressedSize, decompressed.remaining());
+            data = decompressed;
+        }
+        final UdpFragmenter fragmenter = mFragmenter;
+        if (fragmenter != null) {
+            data = fragmenter.reassemble(data, host, port);
+            if (data == null) {
+                // the rest of the message is still to come
+                return;
+            }
+        }
+        String channel = null;
+        final UdpPacketFilter filter = mFilter;
+        if (filter != null) {
+            final UdpPacketFilter.Rule rule = filter.match(data, host, port);
+            if (rule.getAction() == UdpPacketFilter.Action.DROP) {
+                mBufferPool.release(data);
+                mStats.recordFiltered();
+                return;
+            }
+            channel = rule.getChannel();
+        }
+        mEventSink.didReceiveData(this, data, host, port, channel);
     }
 
     /**
@@ -184,7 +989,8 @@ public final class UdpSocketClient implements UdpReceiverTask.OnDataReceivedList
      */
     @Override
     public void didReceiveError(String message) {
-        mReceiverListener.didReceiveError(this, message);
+        mStats.recordReceiveError();
+        mEventSink.didReceiveError(this, message);
     }
 
     /**
@@ -192,40 +998,31 @@ public final class UdpSocketClient implements UdpReceiverTask.OnDataReceivedList
      */
     @Override
     public void didReceiveRuntimeException(RuntimeException exception) {
-        mExceptionListener.didReceiveException(exception);
+        mEventSink.didReceiveException(exception);
     }
 
     /**
-     * Transmits success to the javascript layer, if a callback is present.
+     * Transmits success to the completion sink of the task, if present.
      */
     @Override
     public void onDataSent(UdpSenderTask task) {
-        Callback callback;
-
-        synchronized (mPendingSends) {
-            callback = mPendingSends.get(task);
-            mPendingSends.remove(task);
-        }
-
-        if (callback != null) {
-            callback.invoke();
+        mStats.recordSent(task.getSentCount(), task.getSentBytes());
+        final UdpCompletionSink completion = task.getCompletion();
+        if (completion != null) {
+            completion.onSuccess();
         }
     }
 
     /**
-     * Transmits an error to the javascript layer, if a callback is present.
+     * Transmits an error to the completion sink of the task, if present.
      */
     @Override
     public void onDataSentError(UdpSenderTask task, String error) {
-        Callback callback;
-
-        synchronized (mPendingSends) {
-            callback = mPendingSends.get(task);
-            mPendingSends.remove(task);
-        }
-
-        if (callback != null) {
-            callback.invoke(UdpErrorUtil.getError(UdpErrorCodes.sendError.name(), error));
+        mStats.recordSent(task.getSentCount(), task.getSentBytes());
+        mStats.recordSendErrors(task.getPacketCount() - task.getSentCount());
+        final UdpCompletionSink completion = task.getCompletion();
+        if (completion != null) {
+            completion.onError(UdpErrorCodes.sendError.name(), error);
         }
     }
 
@@ -234,24 +1031,7 @@ public final class UdpSocketClient implements UdpReceiverTask.OnDataReceivedList
      */
     @Override
     public void onDataSentRuntimeException(UdpSenderTask task, RuntimeException exception) {
-        mExceptionListener.didReceiveException(exception);
-        synchronized (mPendingSends) {
-            mPendingSends.remove(task);
-        }
-    }
-
-    /**
-     * Callback interface for runtime exceptions.
-     */
-    public interface OnRuntimeExceptionListener {
-        void didReceiveException(RuntimeException exception);
-    }
-
-    /**
-     * Callback interface data received events.
-     */
-    public interface OnDataReceivedListener {
-        void didReceiveData(UdpSocketClient client, String data, String host, int port);
-        void didReceiveError(UdpSocketClient client, String message);
+        mStats.recordSendErrors(task.getPacketCount() - task.getSentCount());
+        mEventSink.didReceiveException(exception);
     }
 }
@@ -0,0 +1,68 @@
+package com.tradle.react;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.net.DatagramSocket;
+
+import javax.annotation.Nullable;
+
+/**
+ * A duplicate of the file descriptor of a socket, for the system calls the socket API does not
+ * expose. The duplicate shares the socket: options set through it apply to the socket, and it
+ * keeps the socket open until it is closed itself.
+ *
+ * The descriptor is taken through {@code android.os.ParcelFileDescriptor}, looked up at runtime so
+ * that the socket layer still builds without the Android SDK; there is no such duplicate on the JVM.
+ */
+final class UdpSocketDescriptor implements Closeable {
+    private final Closeable mParcelFileDescriptor;
+    private final FileDescriptor mFileDescriptor;
+    private final int mFd;
+
+    private UdpSocketDescriptor(Closeable parcelFileDescriptor, FileDescriptor fileDescriptor, int fd) {
+        this.mParcelFileDescriptor = parcelFileDescriptor;
+        this.mFileDescriptor = fileDescriptor;
+        this.mFd = fd;
+    }
+
+    /**
+     * @return a duplicate of the descriptor of the socket, or null if it cannot be taken on this
+     * platform.
+     */
+    @Nullable
+    static UdpSocketDescriptor dup(DatagramSocket socket) {
+        try {
+            final Class<?> parcelFileDescriptor = Class.forName("android.os.ParcelFileDescriptor");
+            final Object dup = parcelFileDescriptor.getMethod("fromDatagramSocket", DatagramSocket.class).invoke(null, socket);
+            if (dup == null) {
+                return null;
+            }
+            return new UdpSocketDescriptor((Closeable) dup,
+                    (FileDescriptor) parcelFileDescriptor.getMethod("getFileDescriptor").invoke(dup),
+                    (Integer) parcelFileDescriptor.getMethod("getFd").invoke(dup));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    FileDescriptor getFileDescriptor() {
+        return mFileDescriptor;
+    }
+
+    int getFd() {
+        return mFd;
+    }
+
+    /**
+     * Closes the duplicate. The socket stays open if it was not closed itself.
+     */
+    @Override
+    public void close() {
+        try {
+            mParcelFileDescriptor.close();
+        } catch (IOException ioe) {
+            // nothing left to release
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.tradle.react;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Traffic counters of a single client, updated without locking from the receiving, sending and
+ * dispatching threads. The latency histogram tracks the time from the receipt of a datagram to
+ * its hand-over to the javascript layer, in power of two buckets of milliseconds.
+ */
+public final class UdpSocketStats {
+    /**
+     * Number of latency buckets. Bucket {@code i} counts latencies below {@code 2^i} ms, and above
+     * the bound of the previous bucket; the last bucket counts every latency above its bound.
+     */
+    public static final int LATENCY_BUCKETS = 15;
+
+    private final AtomicLong mPacketsReceived = new AtomicLong();
+    private final AtomicLong mBytesReceived = new AtomicLong();
+    private final AtomicLong mReceiveErrors = new AtomicLong();
+    private final AtomicLong mPacketsSent = new AtomicLong();
+    private final AtomicLong mBytesSent = new AtomicLong();
+    private final AtomicLong mSendErrors = new AtomicLong();
+    // data before and after compression, of the datagrams sent and received compressed
+    private final AtomicLong mUncompressedBytesSent = new AtomicLong();
+    private final AtomicLong mCompressedBytesSent = new AtomicLong();
+    private final AtomicLong mCompressedBytesReceived = new AtomicLong();
+    private final AtomicLong mUncompressedBytesReceived = new AtomicLong();
+    private final AtomicLong mDecompressionErrors = new AtomicLong();
+    // datagrams sent again for want of an acknowledgement, and the last smoothed round trip time
+    private final AtomicLong mRetransmits = new AtomicLong();
+    private final AtomicLong mRoundTripNanos = new AtomicLong();
+    private final AtomicLong mMessagesDropped = new AtomicLong();
+    private final AtomicLong mFiltered = new AtomicLong();
+    private final AtomicLongArray mLatencies = new AtomicLongArray(LATENCY_BUCKETS);
+    private final AtomicLong mLatencySumNanos = new AtomicLong();
+    private final AtomicLong mLatencyMaxNanos = new AtomicLong();
+
+    public void recordReceived(int bytes) {
+        mPacketsReceived.incrementAndGet();
+        mBytesReceived.addAndGet(bytes);
+    }
+
+    public void recordReceiveError() {
+        mReceiveErrors.incrementAndGet();
+    }
+
+    public void recordSent(int packets, long bytes) {
+        mPacketsSent.addAndGet(packets);
+        mBytesSent.addAndGet(bytes);
+    }
+
+    public void recordSendErrors(int packets) {
+        mSendErrors.addAndGet(packets);
+    }
+
+    public void recordCompressed(int uncompressedBytes, int compressedBytes) {
+        mUncompressedBytesSent.addAndGet(uncompressedBytes);
+        mCompressedBytesSent.addAndGet(compressedBytes);
+    }
+
+    public void recordDecompressed(int compressedBytes, int uncompressedBytes) {
+        mCompressedBytesReceived.addAndGet(compressedBytes);
+        mUncompressedBytesReceived.addAndGet(uncompressedBytes);
+    }
+
+    public void recordDecompressionError() {
+        mDecompressionErrors.incrementAndGet();
+    }
+
+    public void recordRetransmit() {
+        mRetransmits.incrementAndGet();
+    }
+
+    public void recordRoundTrip(long smoothedNanos) {
+        mRoundTripNanos.set(smoothedNanos);
+    }
+
+    public void recordMessageDropped() {
+        mMessagesDropped.incrementAndGet();
+    }
+
+    public void recordFiltered() {
+        mFiltered.incrementAndGet();
+    }
+
+    /**
+     * Records the time a datagram took to reach the javascript layer.
+     *
+     * @param receivedNanos the {@link System#nanoTime()} at which the datagram was received
+     */
+    public void recordLatency(long receivedNanos) {
+        final long nanos = Math.max(0, System.nanoTime() - receivedNanos);
+        final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        final int bucket = Math.min(64 - Long.numberOfLeadingZeros(millis), LATENCY_BUCKETS - 1);
+        mLatencies.incrementAndGet(bucket);
+        mLatencySumNanos.addAndGet(nanos);
+
+        long max = mLatencyMaxNanos.get();
+        while (nanos > max && !mLatencyMaxNanos.compareAndSet(max, nanos)) {
+            max = mLatencyMaxNanos.get();
+        }
+    }
+
+    public long getPacketsReceived() {
+        return mPacketsReceived.get();
+    }
+
+    public long getBytesReceived() {
+        return mBytesReceived.get();
+    }
+
+    public long getReceiveErrors() {
+        return mReceiveErrors.get();
+    }
+
+    public long getPacketsSent() {
+        return mPacketsSent.get();
+    }
+
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    public long getSendErrors() {
+        return mSendErrors.get();
+    }
+
+    /**
+     * @return the size of the data sent compressed, divided by its size once compressed, 1 if
+     * none was.
+     */
+    public double getSendCompressionRatio() {
+        return ratio(mUncompressedBytesSent.get(), mCompressedBytesSent.get());
+    }
+
+    /**
+     * @return the size of the data received compressed once decompressed, divided by its
+     * compressed size, 1 if none was.
+     */
+    public double getReceiveCompressionRatio() {
+        return ratio(mUncompressedBytesReceived.get(), mCompressedBytesReceived.get());
+    }
+
+    private static double ratio(long uncompressed, long compressed) {
+        return compressed > 0 ? (double) uncompressed / compressed : 1;
+    }
+
+    /**
+     * @return the number of received datagrams dropped because they could not be decompressed.
+     */
+    public long getDecompressionErrors() {
+        return mDecompressionErrors.get();
+    }
+
+    /**
+     * @return the number of datagrams sent again because the peer did not acknowledge them in time.
+     */
+    public long getRetransmits() {
+        return mRetransmits.get();
+    }
+
+    /**
+     * @return the smoothed round trip time to the peer that last acknowledged a datagram, 0 if none did.
+     */
+    public long getRoundTripNanos() {
+        return mRoundTripNanos.get();
+    }
+
+    /**
+     * @return the number of fragmented messages dropped before they were complete, and of received
+     * datagrams which were not fragments.
+     */
+    public long getMessagesDropped() {
+        return mMessagesDropped.get();
+    }
+
+    /**
+     * @return the number of received datagrams dropped by the filter of the socket.
+     */
+    public long getFiltered() {
+        return mFiltered.get();
+    }
+
+    /**
+     * @return the number of latencies recorded in the given bucket.
+     */
+    public long getLatencyCount(int bucket) {
+        return mLatencies.get(bucket);
+    }
+
+    public long getLatencySumNanos() {
+        return mLatencySumNanos.get();
+    }
+
+    public long getLatencyMaxNanos() {
+        return mLatencyMaxNanos.get();
+    }
+}
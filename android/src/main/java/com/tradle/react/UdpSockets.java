@@ -3,8 +3,6 @@ package com.tradle.react;
 import android.content.Context;
 import android.net.wifi.WifiManager;
 
-import android.util.SparseArray;
-
 import com.facebook.common.logging.FLog;
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Callback;
@@ -12,15 +10,32 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.zip.Deflater;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -29,13 +44,39 @@ import javax.annotation.Nullable;
  * The NativeModule in charge of storing active {@link UdpSocketClient}s, and acting as an api layer.
  */
 public final class UdpSockets extends ReactContextBaseJavaModule
-        implements UdpSocketClient.OnDataReceivedListener, UdpSocketClient.OnRuntimeExceptionListener {
+        implements UdpEventSink, UdpReceiveBatcher.OnBatchReadyListener, UdpSendErrorCoalescer.OnSendErrorsListener {
     private static final String TAG = "UdpSockets";
     private static final int N_THREADS = 2;
+    private static final String ENGINE_NIO = "nio";
+    private static final String SEND_MODE_UNACKNOWLEDGED = "unacknowledged";
+    private static final String COMPRESSION_DEFLATE = "deflate";
+    private static final long DEFAULT_RECEIVE_BATCH_INTERVAL_MS = 10;
 
     private WifiManager.MulticastLock mMulticastLock;
-    private final SparseArray<UdpSocketClient> mClients = new SparseArray<>();
+    private final UdpClientRegistry mClients = new UdpClientRegistry();
+    // shared by the lanes of the clients; a plain pool, so that exceptions thrown by their tasks
+    // reach the uncaught exception handler instead of a future nobody reads
     private final ExecutorService executorService = Executors.newFixedThreadPool(N_THREADS);
+    // closes the clients, which waits up to a second for their receiving threads: off the lanes, so
+    // that a close holds up the calls and events of no other client
+    private final ExecutorService mCloser = Executors.newCachedThreadPool();
+    // the flush timers of the receive batchers and error coalescers: a single thread for the
+    // batching of every client, so their tasks must not block
+    private final ScheduledExecutorService mTimers = Executors.newScheduledThreadPool(1);
+    // the retransmissions of reliable delivery and the announcements of service discovery, which
+    // send, and so may wait for room in a send buffer: kept apart, so that they hold up no flush
+    private final ScheduledExecutorService mSendTimers = Executors.newScheduledThreadPool(1);
+    private final Map<UdpSocketClient, UdpReceiveBatcher> mBatchers = new ConcurrentHashMap<>();
+    private final Map<UdpSocketClient, UdpSendErrorCoalescer> mSendErrorCoalescers = new ConcurrentHashMap<>();
+    private final UdpCodec mCodec = new UdpBase64Codec();
+    private final UdpBufferPool mBufferPool = new UdpBufferPool();
+    private final UdpAddressCache mAddressCache = new UdpAddressCache();
+    // the threads the clients send and receive on, so that sockets coming and going start none
+    private final UdpWorkerPool mWorkerPool = new UdpWorkerPool();
+    private final UdpBinaryTransport mBinaryTransport = new UdpBinaryTransport(mBufferPool);
+    private final Map<UdpSocketClient, UdpReceiveQueue<UdpDatagram>> mInboxes = new ConcurrentHashMap<>();
+    private final Map<UdpSocketClient, UdpDispatchLane> mLanes = new ConcurrentHashMap<>();
+    private UdpSelectorTask mSelectorTask;
 
     public UdpSockets(ReactApplicationContext reactContext) {
         super(reactContext);
@@ -49,20 +90,44 @@ public final class UdpSockets extends ReactContextBaseJavaModule
 
     @Override
     public void onCatalystInstanceDestroy() {
-        executorService.execute(new Thread(new Runnable() {
+        mCloser.execute(new Runnable() {
             @Override
             public void run() {
-                for (int i = 0; i < mClients.size(); i++) {
-                    UdpSocketClient client = mClients.valueAt(i);
+                for (UdpSocketClient client : mClients.removeAll()) {
+                    closeBatcher(client);
+                    closeInbox(client);
+                    closeSendErrorCoalescer(client);
                     client.close();
+                    mLanes.remove(client);
                     if (mMulticastLock != null && mMulticastLock.isHeld() && client.isMulticast()) {
                         // drop the multi-cast lock if this is a multi-cast client
                         mMulticastLock.release();
                     }
                 }
-                mClients.clear();
+
+                mBinaryTransport.clear();
+                mWorkerPool.shutdown();
+                mTimers.shutdownNow();
+                mSendTimers.shutdownNow();
+                synchronized (UdpSockets.this) {
+                    if (mSelectorTask != null) {
+                        mSelectorTask.terminate();
+                        mSelectorTask = null;
+                    }
+                }
+                mCloser.shutdown();
             }
-        }));
+        });
+    }
+
+    /**
+     * Private method to retrieve the selector shared by all the clients using the nio engine.
+     */
+    private synchronized UdpSelectorTask getSelectorTask() throws IOException {
+        if (mSelectorTask == null) {
+            mSelectorTask = new UdpSelectorTask(mBufferPool);
+        }
+        return mSelectorTask;
     }
 
     /**
@@ -72,7 +137,8 @@ public final class UdpSockets extends ReactContextBaseJavaModule
         final UdpSocketClient client = mClients.get(cId);
         if (client == null) {
             if (callback == null) {
-                FLog.e(TAG, "missing callback parameter.");
+                // unacknowledged sends have no callback to report to
+                FLog.e(TAG, "no client found with id " + cId);
             } else {
                 callback.invoke(UdpErrorUtil.getError(UdpErrorCodes.clientNotFound.name(), "no client found with id " + cId), null);
             }
@@ -81,6 +147,81 @@ public final class UdpSockets extends ReactContextBaseJavaModule
         return client;
     }
 
+    /**
+     * Private method to report the outcome of a client operation to a javascript callback.
+     */
+    @Nullable
+    private static UdpCompletionSink toCompletionSink(@Nullable final Callback callback) {
+        if (callback == null) {
+            return null;
+        }
+
+        return new UdpCompletionSink() {
+            @Override
+            public void onSuccess() {
+                callback.invoke();
+            }
+
+            @Override
+            public void onError(String code, String message) {
+                callback.invoke(UdpErrorUtil.getError(code, message));
+            }
+        };
+    }
+
+    /**
+     * Private method to pick the sink for the result of a send: its callback if given, or else the
+     * error coalescer of the client, if its sends are unacknowledged.
+     */
+    @Nullable
+    private UdpCompletionSink toSendCompletionSink(@Nullable UdpSocketClient client, @Nullable Callback callback) {
+        if (callback != null || client == null) {
+            return toCompletionSink(callback);
+        }
+        return mSendErrorCoalescers.get(client);
+    }
+
+    /**
+     * Private method to report a send that failed before reaching the client.
+     */
+    private void reportSendError(@Nullable UdpSocketClient client, @Nullable Callback callback, String message) {
+        final UdpCompletionSink completion = toSendCompletionSink(client, callback);
+        if (completion != null) {
+            completion.onError(UdpErrorCodes.sendError.name(), message);
+        } else {
+            FLog.e(TAG, message);
+        }
+    }
+
+    /**
+     * Private method to run a task on the lane of a client, after the tasks previously submitted
+     * for the same client. Tasks for unknown clients run right away on the pool, to report it.
+     */
+    private void dispatch(final Integer cId, final Runnable task) {
+        final UdpSocketClient client = cId != null ? mClients.get(cId) : null;
+        dispatch(client, task);
+    }
+
+    private void dispatch(@Nullable final UdpSocketClient client, final Runnable task) {
+        final UdpDispatchLane lane = client != null ? mLanes.get(client) : null;
+        if (lane != null) {
+            lane.execute(task);
+        } else {
+            executorService.execute(task);
+        }
+    }
+
+    /**
+     * Installs the binding through which received data is fetched as ArrayBuffers, if available.
+     * Runs on the javascript thread, which the binding must be installed from.
+     *
+     * @return boolean true IF clients bound with the {@code binary} option skip Base64 encoding.
+     */
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public boolean installBinaryTransport() {
+        return mBinaryTransport.install(getReactApplicationContext().getJavaScriptContextHolder().get());
+    }
+
     /**
      * Creates a {@link UdpSocketClient} with the given ID, and options
      */
@@ -91,12 +232,226 @@ public final class UdpSockets extends ReactContextBaseJavaModule
             return;
         }
 
-        UdpSocketClient client = mClients.get(cId);
-        if (client != null) {
+        if (mClients.get(cId) != null) {
             FLog.e(TAG, "createSocket called twice with the same id.");
             return;
         }
-        mClients.put(cId, new UdpSocketClient(this, this));
+
+        UdpSelectorTask selectorTask = null;
+        if (options != null && options.hasKey("engine") && ENGINE_NIO.equals(options.getString("engine"))) {
+            try {
+                selectorTask = getSelectorTask();
+            } catch (IOException ioe) {
+                FLog.e(TAG, "createSocket could not open a selector, falling back to a receiver thread.", ioe);
+            }
+        }
+        final UdpSocketClient client = new UdpSocketClient(cId, mCodec, this, mBufferPool, mAddressCache, selectorTask,
+                mWorkerPool);
+        if (options != null && options.hasKey("sendMode") && SEND_MODE_UNACKNOWLEDGED.equals(options.getString("sendMode"))) {
+            long errorInterval = UdpSendErrorCoalescer.DEFAULT_INTERVAL_MS;
+            if (options.hasKey("sendErrorInterval") && !options.isNull("sendErrorInterval")
+                    && options.getDouble("sendErrorInterval") > 0) {
+                errorInterval = (long) options.getDouble("sendErrorInterval");
+            }
+            mSendErrorCoalescers.put(client, new UdpSendErrorCoalescer(cId, errorInterval, mTimers, this));
+        }
+        if (options != null && options.hasKey("maxDatagramSize") && !options.isNull("maxDatagramSize")) {
+            try {
+                client.setMaxDatagramSize(options.getInt("maxDatagramSize"));
+            } catch (IllegalArgumentException iae) {
+                FLog.e(TAG, "createSocket called with an invalid maxDatagramSize.", iae);
+            }
+        }
+        if (options != null && options.hasKey("compression") && !options.isNull("compression")) {
+            if (COMPRESSION_DEFLATE.equals(options.getString("compression"))) {
+                try {
+                    client.setCompression(createCompression(options));
+                } catch (IllegalArgumentException iae) {
+                    FLog.e(TAG, "createSocket called with an invalid compressionLevel.", iae);
+                }
+            } else {
+                FLog.e(TAG, "createSocket called with an unknown compression " + options.getString("compression"));
+            }
+        }
+        if (options != null && options.hasKey("fragment") && !options.isNull("fragment")
+                && options.getBoolean("fragment")) {
+            try {
+                client.setFragmentation(
+                        getInt(options, "fragmentSize", UdpFragmenter.DEFAULT_FRAGMENT_SIZE),
+                        getInt(options, "maxMessageSize", UdpFragmenter.DEFAULT_MAX_MESSAGE_SIZE),
+                        getInt(options, "reassemblyTimeout", (int) UdpFragmenter.DEFAULT_TIMEOUT_MS));
+            } catch (IllegalArgumentException iae) {
+                FLog.e(TAG, "createSocket called with invalid fragmentation options.", iae);
+            }
+        }
+        if (options != null && options.hasKey("reliable") && !options.isNull("reliable")
+                && options.getBoolean("reliable")) {
+            client.setReliableDelivery(mSendTimers);
+        }
+        if (options != null && options.hasKey("filter") && !options.isNull("filter")) {
+            try {
+                client.setFilter(createFilter(options.getMap("filter")));
+            } catch (IllegalArgumentException iae) {
+                FLog.e(TAG, "createSocket called with an invalid filter.", iae);
+            }
+        }
+        mLanes.put(client, new UdpDispatchLane(executorService));
+        if (!mClients.putIfAbsent(client)) {
+            mLanes.remove(client);
+            mSendErrorCoalescers.remove(client);
+            FLog.e(TAG, "createSocket called twice with the same id.");
+            return;
+        }
+
+        int queueSize = UdpReceiveQueue.DEFAULT_CAPACITY;
+        UdpReceiveQueue.Policy queuePolicy = UdpReceiveQueue.Policy.DROP_NEWEST;
+        if (options != null && options.hasKey("receiveQueueSize") && !options.isNull("receiveQueueSize")
+                && options.getInt("receiveQueueSize") > 0) {
+            queueSize = options.getInt("receiveQueueSize");
+        }
+        if (options != null && options.hasKey("receiveQueuePolicy") && !options.isNull("receiveQueuePolicy")) {
+            try {
+                queuePolicy = UdpReceiveQueue.Policy.fromName(options.getString("receiveQueuePolicy"));
+            } catch (IllegalArgumentException iae) {
+                FLog.e(TAG, "createSocket called with an invalid receiveQueuePolicy.", iae);
+            }
+        }
+
+        int batchSize = 0;
+        long batchInterval = 0;
+        if (options != null && options.hasKey("receiveBatchSize") && !options.isNull("receiveBatchSize")) {
+            batchSize = options.getInt("receiveBatchSize");
+        }
+        if (options != null && options.hasKey("receiveBatchInterval") && !options.isNull("receiveBatchInterval")) {
+            batchInterval = (long) options.getDouble("receiveBatchInterval");
+        }
+        // without batching options, events queued while a flush is pending still share an event;
+        // clients using the binary transport swap the batcher for an inbox when they bind
+        final boolean isBatching = batchSize > 1 || batchInterval > 0;
+        mBatchers.put(client, new UdpReceiveBatcher(cId,
+                batchSize > 1 ? batchSize : Integer.MAX_VALUE,
+                isBatching ? (batchInterval > 0 ? batchInterval : DEFAULT_RECEIVE_BATCH_INTERVAL_MS) : 0,
+                queueSize, queuePolicy,
+                mTimers, this));
+    }
+
+    /**
+     * Private method to have a client store its received datagrams in an inbox, fetched through
+     * the binding, instead of emitting them in batches. The javascript layer installs the binding
+     * on its first bind, as installing it on import breaks remote debugging, so the receive path
+     * is only switched then, before any datagram is received. The inbox keeps the size and policy
+     * of the queue of the batcher.
+     */
+    private void openInbox(UdpSocketClient client) {
+        if (!mBinaryTransport.isInstalled() || mInboxes.containsKey(client)) {
+            return;
+        }
+        final UdpReceiveBatcher batcher = mBatchers.remove(client);
+        if (batcher == null) {
+            return;
+        }
+        final UdpReceiveQueue<?> queue = batcher.getQueue();
+        mInboxes.put(client, mBinaryTransport.open(client.getId(), queue.getCapacity(), queue.getPolicy(),
+                client.getStats()));
+        batcher.close();
+    }
+
+    /**
+     * Private method to read an optional integer option.
+     */
+    private static int getInt(ReadableMap options, String key, int defaultValue) {
+        return options.hasKey(key) && !options.isNull(key) ? options.getInt(key) : defaultValue;
+    }
+
+    /**
+     * Private method to build the compression of a client, from its optional level and Base64
+     * encoded dictionary.
+     */
+    private UdpCompression createCompression(ReadableMap options) {
+        int level = Deflater.DEFAULT_COMPRESSION;
+        if (options.hasKey("compressionLevel") && !options.isNull("compressionLevel")) {
+            level = options.getInt("compressionLevel");
+        }
+        byte[] dictionary = null;
+        if (options.hasKey("compressionDictionary") && !options.isNull("compressionDictionary")) {
+            dictionary = mCodec.decode(options.getString("compressionDictionary"));
+        }
+        return new UdpCompression(level, dictionary);
+    }
+
+    /**
+     * Private method to build the packet filter of a client, from its rules and default action.
+     * Ports come as ranges, and matched bytes Base64 encoded.
+     */
+    private UdpPacketFilter createFilter(ReadableMap options) {
+        final List<UdpPacketFilter.Rule> rules = new ArrayList<>();
+        final ReadableArray ruleOptions = options.hasKey("rules") && !options.isNull("rules")
+                ? options.getArray("rules")
+                : null;
+        for (int i = 0; ruleOptions != null && i < ruleOptions.size(); i++) {
+            final ReadableMap ruleOption = ruleOptions.getMap(i);
+            final UdpPacketFilter.Rule rule;
+            switch (UdpPacketFilter.Action.fromName(ruleOption.getString("action"))) {
+                case DROP:
+                    rule = UdpPacketFilter.Rule.drop();
+                    break;
+                case ROUTE:
+                    rule = UdpPacketFilter.Rule.route(
+                            ruleOption.hasKey("channel") ? ruleOption.getString("channel") : null);
+                    break;
+                default:
+                    rule = UdpPacketFilter.Rule.accept();
+                    break;
+            }
+            if (ruleOption.hasKey("address") && !ruleOption.isNull("address")) {
+                rule.fromSubnet(ruleOption.getString("address"));
+            }
+            if (ruleOption.hasKey("minPort") || ruleOption.hasKey("maxPort")) {
+                rule.fromPorts(getInt(ruleOption, "minPort", 0), getInt(ruleOption, "maxPort", 0xffff));
+            }
+            if (ruleOption.hasKey("bytes") && !ruleOption.isNull("bytes")) {
+                rule.withBytes(getInt(ruleOption, "offset", 0), mCodec.decode(ruleOption.getString("bytes")));
+            }
+            if (ruleOption.hasKey("minLength") || ruleOption.hasKey("maxLength")) {
+                rule.withLength(getInt(ruleOption, "minLength", 0),
+                        getInt(ruleOption, "maxLength", Integer.MAX_VALUE));
+            }
+            rules.add(rule);
+        }
+        UdpPacketFilter.Action defaultAction = UdpPacketFilter.Action.ACCEPT;
+        if (options.hasKey("defaultAction") && !options.isNull("defaultAction")) {
+            defaultAction = UdpPacketFilter.Action.fromName(options.getString("defaultAction"));
+        }
+        return new UdpPacketFilter(rules, defaultAction);
+    }
+
+    /**
+     * Private method to discard the binary inbox of a client, if it had one.
+     */
+    private void closeInbox(UdpSocketClient client) {
+        if (mInboxes.remove(client) != null) {
+            mBinaryTransport.close(client.getId());
+        }
+    }
+
+    /**
+     * Private method to discard the send errors of a client, if its sends were unacknowledged.
+     */
+    private void closeSendErrorCoalescer(UdpSocketClient client) {
+        UdpSendErrorCoalescer coalescer = mSendErrorCoalescers.remove(client);
+        if (coalescer != null) {
+            coalescer.close();
+        }
+    }
+
+    /**
+     * Private method to stop queueing the receive events of a client.
+     */
+    private void closeBatcher(UdpSocketClient client) {
+        UdpReceiveBatcher batcher = mBatchers.remove(client);
+        if (batcher != null) {
+            batcher.close();
+        }
     }
 
     /**
@@ -105,7 +460,7 @@ public final class UdpSockets extends ReactContextBaseJavaModule
     @ReactMethod
     public void bind(final Integer cId, final Integer port, final @Nullable String address, final @Nullable ReadableMap options,
                      final Callback callback) {
-        executorService.execute(new Thread(new Runnable() {
+        dispatch(cId, new Runnable() {
             @Override
             public void run() {
                 UdpSocketClient client = findClient(cId, callback);
@@ -114,6 +469,19 @@ public final class UdpSockets extends ReactContextBaseJavaModule
                 }
 
                 try {
+                    if (options != null && options.hasKey("recvBufferSize") && !options.isNull("recvBufferSize")) {
+                        client.setReceiveBufferSize(options.getInt("recvBufferSize"));
+                    }
+                    if (options != null && options.hasKey("sendBufferSize") && !options.isNull("sendBufferSize")) {
+                        client.setSendBufferSize(options.getInt("sendBufferSize"));
+                    }
+                    if (options != null && options.hasKey("receiveWorkers") && !options.isNull("receiveWorkers")) {
+                        client.setReceiveWorkers(options.getInt("receiveWorkers"));
+                    }
+                    if (options != null && options.hasKey("binary") && !options.isNull("binary")
+                            && options.getBoolean("binary")) {
+                        openInbox(client);
+                    }
                     client.bind(port, address);
 
                     WritableMap result = Arguments.createMap();
@@ -126,7 +494,7 @@ public final class UdpSockets extends ReactContextBaseJavaModule
                     callback.invoke(UdpErrorUtil.getError(UdpErrorCodes.socketAlreadyBoundError.name(), e.getMessage()));
                 }
             }
-        }));
+        });
     }
 
     /**
@@ -135,7 +503,7 @@ public final class UdpSockets extends ReactContextBaseJavaModule
     @SuppressWarnings("unused")
     @ReactMethod
     public void addMembership(final Integer cId, final String multicastAddress) {
-        executorService.execute(new Thread(new Runnable() {
+        dispatch(cId, new Runnable() {
             @Override
             public void run() {
                 UdpSocketClient client = findClient(cId, null);
@@ -174,7 +542,7 @@ public final class UdpSockets extends ReactContextBaseJavaModule
                     FLog.e(TAG, "addMembership", ioe);
                 }
             }
-        }));
+        });
     }
 
     /**
@@ -182,7 +550,7 @@ public final class UdpSockets extends ReactContextBaseJavaModule
      */
     @ReactMethod
     public void dropMembership(final Integer cId, final String multicastAddress) {
-        executorService.execute(new Thread(new Runnable() {
+        dispatch(cId, new Runnable() {
             @Override
             public void run() {
                 UdpSocketClient client = findClient(cId, null);
@@ -201,16 +569,251 @@ public final class UdpSockets extends ReactContextBaseJavaModule
                     }
                 }
             }
-        }));
+        });
+    }
+
+    /**
+     * Runs mDNS or SSDP service discovery natively on a client bound to the port of the protocol
+     * and joined to its group, replacing a previous discovery. Datagrams received from then on no
+     * longer reach the javascript layer, which only hears of services going up or down.
+     */
+    @ReactMethod
+    public void startDiscovery(final Integer cId, final ReadableMap options, final Callback callback) {
+        dispatch(cId, new Runnable() {
+            @Override
+            public void run() {
+                final UdpSocketClient client = findClient(cId, callback);
+                if (client == null) {
+                    return;
+                }
+
+                try {
+                    client.setDiscovery(createDiscovery(client, options));
+                    callback.invoke();
+                } catch (IllegalArgumentException | IOException e) {
+                    callback.invoke(UdpErrorUtil.getError(UdpErrorCodes.discoveryError.name(), e.getMessage()));
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the service discovery of a client, announcing its services go away. Datagrams reach
+     * the javascript layer again.
+     */
+    @ReactMethod
+    public void stopDiscovery(final Integer cId, final Callback callback) {
+        dispatch(cId, new Runnable() {
+            @Override
+            public void run() {
+                final UdpSocketClient client = findClient(cId, callback);
+                if (client == null) {
+                    return;
+                }
+
+                client.setDiscovery(null);
+                callback.invoke();
+            }
+        });
+    }
+
+    /**
+     * Private method to build the service discovery of a client, which sends through the client
+     * and notifies the javascript layer of the services found.
+     */
+    private UdpServiceDiscovery createDiscovery(final UdpSocketClient client, ReadableMap options)
+            throws IOException {
+        final InetSocketAddress group = new InetSocketAddress(
+                InetAddress.getByName(options.getString("address")), options.getInt("port"));
+        final ReadableArray serviceOptions = options.hasKey("services") && !options.isNull("services")
+                ? options.getArray("services")
+                : null;
+        final List<String> browsedTypes = new ArrayList<>();
+        final ReadableArray browseOptions = options.hasKey("browse") && !options.isNull("browse")
+                ? options.getArray("browse")
+                : null;
+        for (int i = 0; browseOptions != null && i < browseOptions.size(); i++) {
+            browsedTypes.add(browseOptions.getString(i));
+        }
+
+        final UdpServiceDiscovery.Transport transport = new UdpServiceDiscovery.Transport() {
+            @Override
+            public void transmit(byte[] datagram, InetSocketAddress destination) {
+                try {
+                    client.transmit(datagram, destination);
+                } catch (IllegalStateException ise) {
+                    FLog.e(TAG, "discovery", ise);
+                }
+            }
+        };
+        final UdpServiceDiscovery.Listener listener = new UdpServiceDiscovery.Listener() {
+            @Override
+            public void onServiceUp(UdpServiceDiscovery.Service service) {
+                emitService(client, "serviceUp", service);
+            }
+
+            @Override
+            public void onServiceDown(UdpServiceDiscovery.Service service) {
+                emitService(client, "serviceDown", service);
+            }
+        };
+
+        final String protocol = options.getString("protocol");
+        if (UdpMdnsDiscovery.PROTOCOL.equals(protocol)) {
+            final List<UdpMdnsDiscovery.Registration> services = new ArrayList<>();
+            for (int i = 0; serviceOptions != null && i < serviceOptions.size(); i++) {
+                final ReadableMap serviceOption = serviceOptions.getMap(i);
+                final Map<String, String> attributes = new LinkedHashMap<>();
+                final ReadableMap txt = serviceOption.hasKey("txt") && !serviceOption.isNull("txt")
+                        ? serviceOption.getMap("txt")
+                        : null;
+                final ReadableMapKeySetIterator keys = txt != null ? txt.keySetIterator() : null;
+                while (keys != null && keys.hasNextKey()) {
+                    final String key = keys.nextKey();
+                    attributes.put(key, txt.isNull(key) ? null : txt.getString(key));
+                }
+                services.add(new UdpMdnsDiscovery.Registration(serviceOption.getString("name"),
+                        serviceOption.getString("type"), serviceOption.getInt("port"), attributes));
+            }
+            final List<InetAddress> addresses = new ArrayList<>();
+            if (options.hasKey("addresses") && !options.isNull("addresses")) {
+                final ReadableArray addressOptions = options.getArray("addresses");
+                for (int i = 0; i < addressOptions.size(); i++) {
+                    addresses.add(InetAddress.getByName(addressOptions.getString(i)));
+                }
+            } else {
+                addresses.addAll(getLocalAddresses());
+            }
+            return new UdpMdnsDiscovery(mSendTimers, transport, group, options.getString("hostName"),
+                    addresses, services, browsedTypes, listener);
+        }
+        if (UdpSsdpDiscovery.PROTOCOL.equals(protocol)) {
+            final List<UdpSsdpDiscovery.Registration> services = new ArrayList<>();
+            for (int i = 0; serviceOptions != null && i < serviceOptions.size(); i++) {
+                final ReadableMap serviceOption = serviceOptions.getMap(i);
+                services.add(new UdpSsdpDiscovery.Registration(serviceOption.getString("type"),
+                        serviceOption.getString("usn"), serviceOption.getString("location"),
+                        serviceOption.hasKey("server") ? serviceOption.getString("server") : null,
+                        getInt(serviceOption, "maxAge", UdpSsdpDiscovery.DEFAULT_MAX_AGE)));
+            }
+            return new UdpSsdpDiscovery(mSendTimers, transport, group, services, browsedTypes, listener);
+        }
+        throw new IllegalArgumentException("Unknown discovery protocol " + protocol);
+    }
+
+    /**
+     * Private method to list the addresses services are reached at: those of the network
+     * interfaces which are up, but for loopback ones.
+     */
+    private static List<InetAddress> getLocalAddresses() throws SocketException {
+        final List<InetAddress> addresses = new ArrayList<>();
+        final Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+        while (interfaces != null && interfaces.hasMoreElements()) {
+            final NetworkInterface networkInterface = interfaces.nextElement();
+            if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+                continue;
+            }
+            for (InetAddress address : Collections.list(networkInterface.getInetAddresses())) {
+                if (!address.isLoopbackAddress()) {
+                    addresses.add(address);
+                }
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Private method to notify the javascript layer of a service going up or down, in order with
+     * the other events of its client.
+     */
+    private void emitService(final UdpSocketClient client, final String event,
+                             final UdpServiceDiscovery.Service service) {
+        dispatch(client, new Runnable() {
+            @Override
+            public void run() {
+                WritableMap eventParams = Arguments.createMap();
+                eventParams.putString("protocol", service.getProtocol());
+                eventParams.putString("name", service.getName());
+                eventParams.putString("type", service.getType());
+                eventParams.putString("host", service.getHost());
+                eventParams.putInt("port", service.getPort());
+                WritableArray addresses = Arguments.createArray();
+                for (String address : service.getAddresses()) {
+                    addresses.pushString(address);
+                }
+                eventParams.putArray("addresses", addresses);
+                WritableMap attributes = Arguments.createMap();
+                for (Map.Entry<String, String> attribute : service.getAttributes().entrySet()) {
+                    attributes.putString(attribute.getKey(), attribute.getValue());
+                }
+                eventParams.putMap("attributes", attributes);
+
+                ReactContext reactContext = UdpSockets.this.getReactApplicationContext();
+                reactContext
+                        .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                        .emit("udp-" + client.getId() + "-" + event, eventParams);
+            }
+        });
     }
 
     /**
-     * Sends udp data via the {@link UdpSocketClient}
+     * Sends udp data via the {@link UdpSocketClient}. A null {@code address} sends to the peer of
+     * a connected client, ignoring the {@code port}. Without a callback, the errors of clients
+     * whose sends are unacknowledged are reported by their coalescer.
      */
     @ReactMethod
     public void send(final Integer cId, final String base64String,
-                     final Integer port, final String address, final Callback callback) {
-        executorService.execute(new Thread(new Runnable() {
+                     final Integer port, final String address, final @Nullable Callback callback) {
+        dispatch(cId, new Runnable() {
+            @Override
+            public void run() {
+                UdpSocketClient client = findClient(cId, callback);
+                if (client == null) {
+                    return;
+                }
+
+                try {
+                    client.send(base64String, port, address, toSendCompletionSink(client, callback));
+                } catch (Exception exception) {
+                    reportSendError(client, callback, exception.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends several datagrams via the {@link UdpSocketClient}, in one pass on its sending thread.
+     * The packets are decoded on the calling thread, and handed over in order with other sends.
+     * Each packet holds either Base64 {@code data}, or the {@code handle} of data staged through
+     * the binary transport, along with its destination {@code port} and {@code address}. The
+     * callback, if any, is invoked once, for the whole batch.
+     */
+    @ReactMethod
+    public void sendBatch(final Integer cId, final ReadableArray packets, final @Nullable Callback callback) {
+        // decoded right away, so that staged data is taken back even if the client is gone
+        final List<UdpSenderTask.Packet> batch = new ArrayList<>(packets.size());
+        boolean isMissingData = false;
+        for (int i = 0; i < packets.size(); i++) {
+            ReadableMap packet = packets.getMap(i);
+            byte[] data = packet.hasKey("handle")
+                    ? mBinaryTransport.take(packet.getInt("handle"))
+                    : mCodec.decode(packet.getString("data"));
+            if (data == null) {
+                isMissingData = true;
+                continue;
+            }
+            // packets for the peer of a connected socket have no destination
+            final boolean hasAddress = packet.hasKey("address") && !packet.isNull("address");
+            batch.add(new UdpSenderTask.Packet(data, hasAddress ? packet.getInt("port") : 0,
+                    hasAddress ? packet.getString("address") : null));
+        }
+
+        if (isMissingData) {
+            reportSendError(mClients.get(cId), callback, "unknown data handle");
+            return;
+        }
+
+        dispatch(cId, new Runnable() {
             @Override
             public void run() {
                 UdpSocketClient client = findClient(cId, callback);
@@ -219,12 +822,12 @@ public final class UdpSockets extends ReactContextBaseJavaModule
                 }
 
                 try {
-                    client.send(base64String, port, address, callback);
+                    client.sendBatch(batch, toSendCompletionSink(client, callback));
                 } catch (Exception exception) {
-                    callback.invoke((UdpErrorUtil.getError(UdpErrorCodes.sendError.name(), exception.getMessage())));
+                    reportSendError(client, callback, exception.getMessage());
                 }
             }
-        }));
+        });
     }
 
     /**
@@ -232,11 +835,13 @@ public final class UdpSockets extends ReactContextBaseJavaModule
      */
     @ReactMethod
     public void close(final Integer cId, final Callback callback) {
-        executorService.execute(new Thread(new Runnable() {
+        dispatch(cId, new Runnable() {
             @Override
             public void run() {
-                UdpSocketClient client = findClient(cId, callback);
+                // removed first, so that concurrent calls only close the client once
+                UdpSocketClient client = mClients.remove(cId);
                 if (client == null) {
+                    callback.invoke(UdpErrorUtil.getError(UdpErrorCodes.clientNotFound.name(), "no client found with id " + cId), null);
                     return;
                 }
 
@@ -244,11 +849,83 @@ public final class UdpSockets extends ReactContextBaseJavaModule
                     // drop the multi-cast lock if this is a multi-cast client
                     mMulticastLock.release();
                 }
+                closeBatcher(client);
+                closeInbox(client);
+                closeSendErrorCoalescer(client);
+                mLanes.remove(client);
+                finishClose(client, callback);
+            }
+        });
+    }
+
+    /**
+     * Private method to close a client removed from the registry, reporting to the callback once
+     * its receiving threads returned.
+     */
+    private void finishClose(final UdpSocketClient client, final Callback callback) {
+        final Runnable close = new Runnable() {
+            @Override
+            public void run() {
                 client.close();
                 callback.invoke();
-                mClients.remove(cId);
             }
-        }));
+        };
+        try {
+            mCloser.execute(close);
+        } catch (RejectedExecutionException ree) {
+            // the module was destroyed meanwhile
+            close.run();
+        }
+    }
+
+    /**
+     * Connects a client to a remote address, reporting the resolved address.
+     */
+    @ReactMethod
+    public void connect(final Integer cId, final Integer port, final String address, final Callback callback) {
+        dispatch(cId, new Runnable() {
+            @Override
+            public void run() {
+                UdpSocketClient client = findClient(cId, callback);
+                if (client == null) {
+                    return;
+                }
+
+                try {
+                    client.connect(port, address);
+                    final InetSocketAddress remoteAddress = client.getRemoteAddress();
+                    WritableMap result = Arguments.createMap();
+                    result.putString("address", remoteAddress.getAddress().getHostAddress());
+                    result.putInt("port", remoteAddress.getPort());
+                    callback.invoke(null, result);
+                } catch (IllegalStateException | IOException e) {
+                    callback.invoke(UdpErrorUtil.getError(UdpErrorCodes.connectError.name(), e.getMessage()));
+                }
+            }
+        });
+    }
+
+    /**
+     * Disconnects a client from its remote address.
+     */
+    @ReactMethod
+    public void disconnect(final Integer cId, final Callback callback) {
+        dispatch(cId, new Runnable() {
+            @Override
+            public void run() {
+                UdpSocketClient client = findClient(cId, callback);
+                if (client == null) {
+                    return;
+                }
+
+                try {
+                    client.disconnect();
+                    callback.invoke();
+                } catch (IllegalStateException | IOException e) {
+                    callback.invoke(UdpErrorUtil.getError(UdpErrorCodes.disconnectError.name(), e.getMessage()));
+                }
+            }
+        });
     }
 
     /**
@@ -256,7 +933,7 @@ public final class UdpSockets extends ReactContextBaseJavaModule
      */
     @ReactMethod
     public void setBroadcast(final Integer cId, final Boolean flag, final Callback callback) {
-        executorService.execute(new Thread(new Runnable() {
+        dispatch(cId, new Runnable() {
             @Override
             public void run() {
                 UdpSocketClient client = findClient(cId, callback);
@@ -271,44 +948,276 @@ public final class UdpSockets extends ReactContextBaseJavaModule
                     callback.invoke(UdpErrorUtil.getError(UdpErrorCodes.setBroadcast.name(), e.getMessage()));
                 }
             }
-        }));
+        });
     }
 
     /**
-     * Notifies the javascript layer upon data receipt.
+     * Acknowledges receive events handled by the javascript layer, making room in the window of
+     * events in flight.
      */
-    @Override
-    public void didReceiveData(final UdpSocketClient socket, final String data, final String host, final int port) {
-        final long ts = System.currentTimeMillis();
-        executorService.execute(new Thread(new Runnable() {
+    @ReactMethod
+    public void ackReceive(final Integer cId, final Integer count) {
+        final UdpSocketClient client = mClients.get(cId);
+        final UdpReceiveBatcher batcher = client != null ? mBatchers.get(client) : null;
+        if (batcher != null) {
+            batcher.acknowledge(count);
+        }
+    }
+
+    /**
+     * Reads the traffic counters of a client. Synchronous, so it can be polled cheaply.
+     *
+     * @return a map of counters, or null if the client is unknown. Latencies are the time from the
+     * receipt of a datagram to its hand-over to the javascript layer: {@code latencyHistogram}
+     * holds {@link UdpSocketStats#LATENCY_BUCKETS} counts, bucket {@code i} counting latencies
+     * below {@code 2^i} ms.
+     */
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public WritableMap getStats(final Integer cId) {
+        final UdpSocketClient client = mClients.get(cId);
+        if (client == null) {
+            return null;
+        }
+
+        final UdpSocketStats stats = client.getStats();
+        WritableMap result = Arguments.createMap();
+        result.putDouble("packetsReceived", stats.getPacketsReceived());
+        result.putDouble("bytesReceived", stats.getBytesReceived());
+        result.putDouble("receiveErrors", stats.getReceiveErrors());
+        result.putDouble("packetsSent", stats.getPacketsSent());
+        result.putDouble("bytesSent", stats.getBytesSent());
+        result.putDouble("sendErrors", stats.getSendErrors());
+        result.putDouble("sendCompressionRatio", stats.getSendCompressionRatio());
+        result.putDouble("receiveCompressionRatio", stats.getReceiveCompressionRatio());
+        result.putDouble("decompressionErrors", stats.getDecompressionErrors());
+        result.putDouble("retransmits", stats.getRetransmits());
+        result.putDouble("rtt", stats.getRoundTripNanos() / 1e6);
+        result.putDouble("messagesDropped", stats.getMessagesDropped());
+        result.putDouble("filtered", stats.getFiltered());
+
+        final UdpReceiveBatcher batcher = mBatchers.get(client);
+        final UdpReceiveQueue<?> queue = batcher != null ? batcher.getQueue() : mInboxes.get(client);
+        result.putDouble("dropped", queue != null ? queue.getDroppedCount() : 0);
+
+        WritableArray histogram = Arguments.createArray();
+        long latencyCount = 0;
+        for (int i = 0; i < UdpSocketStats.LATENCY_BUCKETS; i++) {
+            histogram.pushDouble(stats.getLatencyCount(i));
+            latencyCount += stats.getLatencyCount(i);
+        }
+        result.putArray("latencyHistogram", histogram);
+        result.putDouble("latencyMean", latencyCount > 0 ? stats.getLatencySumNanos() / 1e6 / latencyCount : 0);
+        result.putDouble("latencyMax", stats.getLatencyMaxNanos() / 1e6);
+        return result;
+    }
+
+    /**
+     * Reads the state of the receive queue of a client. Synchronous, so it can be polled cheaply.
+     *
+     * @return a map with the {@code size} and {@code capacity} of the queue, and the number of
+     * datagrams {@code dropped} so far because it was full, or null if the client is unknown.
+     */
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public WritableMap getReceiveQueueStats(final Integer cId) {
+        final UdpSocketClient client = mClients.get(cId);
+        if (client == null) {
+            return null;
+        }
+
+        final UdpReceiveBatcher batcher = mBatchers.get(client);
+        final UdpReceiveQueue<?> queue = batcher != null ? batcher.getQueue() : mInboxes.get(client);
+        if (queue == null) {
+            return null;
+        }
+
+        WritableMap stats = Arguments.createMap();
+        stats.putInt("size", queue.size());
+        stats.putInt("capacity", queue.getCapacity());
+        stats.putDouble("dropped", queue.getDroppedCount());
+        return stats;
+    }
+
+    /**
+     * Reads the state of the lane the tasks of a client run on. Synchronous, so it can be polled
+     * cheaply.
+     *
+     * @return a map with the number of tasks {@code pending}, the most that were pending at once
+     * ({@code maxPending}), and the number of tasks {@code completed}, or null if the client is unknown.
+     */
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public WritableMap getLaneStats(final Integer cId) {
+        final UdpSocketClient client = mClients.get(cId);
+        final UdpDispatchLane lane = client != null ? mLanes.get(client) : null;
+        if (lane == null) {
+            return null;
+        }
+
+        WritableMap stats = Arguments.createMap();
+        stats.putInt("pending", lane.getPendingCount());
+        stats.putInt("maxPending", lane.getMaxPendingCount());
+        stats.putDouble("completed", lane.getCompletedCount());
+        return stats;
+    }
+
+    /**
+     * Sets the SO_RCVBUF option of the socket, and reports the size granted by the OS.
+     */
+    @ReactMethod
+    public void setRecvBufferSize(final Integer cId, final Integer size, final Callback callback) {
+        dispatch(cId, new Runnable() {
             @Override
             public void run() {
-                int clientID = -1;
-                for (int i = 0; i < mClients.size(); i++) {
-                    clientID = mClients.keyAt(i);
-                    // get the object by the key.
-                    if (socket.equals(mClients.get(clientID))) {
-                        break;
-                    }
+                UdpSocketClient client = findClient(cId, callback);
+                if (client == null) {
+                    return;
+                }
+
+                try {
+                    callback.invoke(null, client.setReceiveBufferSize(size));
+                } catch (SocketException | IllegalArgumentException e) {
+                    callback.invoke(UdpErrorUtil.getError(UdpErrorCodes.setBufferSize.name(), e.getMessage()));
                 }
+            }
+        });
+    }
 
-                if (clientID == -1) {
+    /**
+     * Sets the SO_SNDBUF option of the socket, and reports the size granted by the OS.
+     */
+    @ReactMethod
+    public void setSendBufferSize(final Integer cId, final Integer size, final Callback callback) {
+        dispatch(cId, new Runnable() {
+            @Override
+            public void run() {
+                UdpSocketClient client = findClient(cId, callback);
+                if (client == null) {
                     return;
                 }
 
+                try {
+                    callback.invoke(null, client.setSendBufferSize(size));
+                } catch (SocketException | IllegalArgumentException e) {
+                    callback.invoke(UdpErrorUtil.getError(UdpErrorCodes.setBufferSize.name(), e.getMessage()));
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the SO_RCVBUF option of the socket. Synchronous, as reading a socket option is cheap.
+     *
+     * @return the size in bytes, or null if the client is unknown or not bound.
+     */
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public Integer getRecvBufferSize(final Integer cId) {
+        final UdpSocketClient client = mClients.get(cId);
+        if (client == null) {
+            return null;
+        }
+
+        try {
+            return client.getReceiveBufferSize();
+        } catch (SocketException | IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the SO_SNDBUF option of the socket. Synchronous, as reading a socket option is cheap.
+     *
+     * @return the size in bytes, or null if the client is unknown or not bound.
+     */
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public Integer getSendBufferSize(final Integer cId) {
+        final UdpSocketClient client = mClients.get(cId);
+        if (client == null) {
+            return null;
+        }
+
+        try {
+            return client.getSendBufferSize();
+        } catch (SocketException | IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Notifies the javascript layer upon data receipt. Receive events wait in the bounded queue of
+     * their client, and are flushed to the javascript layer in batches. Clients using the binary
+     * transport store the data in their inbox instead, and only notify when it becomes readable.
+     */
+    @Override
+    public void didReceiveData(final UdpSocketClient socket, final ByteBuffer buffer, final String host, final int port,
+                               final @Nullable String channel) {
+        final long ts = System.currentTimeMillis();
+        final long receivedNanos = System.nanoTime();
+        final UdpReceiveQueue<UdpDatagram> inbox = mInboxes.get(socket);
+        if (inbox != null) {
+            // the buffer is released once the binding copied it out
+            if (inbox.offer(new UdpDatagram(buffer, host, port, channel, ts, receivedNanos))) {
+                dispatch(socket, new Runnable() {
+                    @Override
+                    public void run() {
+                        ReactContext reactContext = UdpSockets.this.getReactApplicationContext();
+                        reactContext
+                                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                                .emit("udp-" + socket.getId() + "-readable", null);
+                    }
+                });
+            }
+            return;
+        }
+
+        final String data = mCodec.encode(buffer);
+        mBufferPool.release(buffer);
+        final UdpReceiveBatcher batcher = mBatchers.get(socket);
+        if (batcher != null) {
+            batcher.add(data, host, port, channel, ts, receivedNanos);
+        }
+    }
+
+    /**
+     * Notifies the javascript layer of a batch of received data, as a single array event.
+     */
+    @Override
+    public void onBatchReady(final UdpReceiveBatcher batcher, final WritableArray events, final long[] receivedNanos) {
+        final UdpSocketClient client = mClients.get(batcher.getClientId());
+        dispatch(client, new Runnable() {
+            @Override
+            public void run() {
+                ReactContext reactContext = UdpSockets.this.getReactApplicationContext();
+                reactContext
+                        .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                        .emit("udp-" + batcher.getClientId() + "-data", events);
+
+                if (client != null) {
+                    for (long nanos : receivedNanos) {
+                        client.getStats().recordLatency(nanos);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Notifies the javascript layer of the errors of unacknowledged sends, as a single event.
+     */
+    @Override
+    public void onSendErrors(final UdpSendErrorCoalescer coalescer, final int count, final String code, final String message) {
+        dispatch(mClients.get(coalescer.getClientId()), new Runnable() {
+            @Override
+            public void run() {
                 WritableMap eventParams = Arguments.createMap();
-                eventParams.putString("data", data);
-                eventParams.putString("address", host);
-                eventParams.putInt("port", port);
-                // Use string for ts since it's 64 bits and putInt is only 32
-                eventParams.putString("ts", Long.toString(ts));
+                eventParams.putString("code", code);
+                eventParams.putString("message", message);
+                eventParams.putInt("count", count);
 
                 ReactContext reactContext = UdpSockets.this.getReactApplicationContext();
                 reactContext
                         .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                        .emit("udp-" + clientID + "-data", eventParams);
+                        .emit("udp-" + coalescer.getClientId() + "-sendErrors", eventParams);
             }
-        }));
+        });
     }
 
     /**
@@ -0,0 +1,376 @@
+package com.tradle.react;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Service discovery over SSDP, the discovery protocol of UPnP, on a socket bound to port 1900 and
+ * joined to the SSDP group.
+ *
+ * The services given are announced with {@code ssdp:alive} notifications on start and every half
+ * of their max age, answered for on search after the random delay the searcher allows, and said
+ * goodbye for with {@code ssdp:byebye} on close. Searches for the browsed types go out on start,
+ * and again when a cached service is due for a refresh; the notifications and search responses
+ * of those types are handed to a {@link UdpServiceCache}, by USN, for their max age.
+ */
+public final class UdpSsdpDiscovery implements UdpServiceDiscovery {
+    public static final String PROTOCOL = "ssdp";
+    public static final int PORT = 1900;
+    public static final String GROUP_IPV4 = "239.255.255.250";
+    public static final String GROUP_IPV6 = "ff02::c";
+    public static final int DEFAULT_MAX_AGE = 1800;
+    private static final String ALL = "ssdp:all";
+    private static final String ALIVE = "ssdp:alive";
+    private static final String BYEBYE = "ssdp:byebye";
+    private static final String UPDATE = "ssdp:update";
+    // the longest a searcher may ask responses to be spread over, in seconds
+    private static final int MAX_MX = 5;
+    private static final int SEARCHES = 2;
+    private static final long SEARCH_INTERVAL_MS = 1000;
+    private static final long SWEEP_INTERVAL_MS = 1000;
+    // headers which vary between messages about the same service, or describe the message only
+    private static final Set<String> MESSAGE_HEADERS = new HashSet<>(Arrays.asList(
+            "cache-control", "date", "ext", "host", "man", "mx", "nt", "nts", "st", "usn"));
+
+    private final ScheduledExecutorService mScheduler;
+    private final Transport mTransport;
+    private final InetSocketAddress mGroup;
+    private final List<Registration> mServices;
+    private final List<String> mBrowsedTypes;
+    private final UdpServiceCache mCache;
+    private final Random mRandom = new Random();
+    private final List<ScheduledFuture<?>> mTasks = new ArrayList<>();
+    private boolean mIsClosed = false;
+
+    private final Runnable mSweepRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sweep();
+        }
+    };
+
+    /**
+     * @param scheduler runs the notifications, searches and cache expiry
+     * @param group the SSDP group, e.g. {@link #GROUP_IPV4} on port {@link #PORT}
+     * @param services the services to answer for
+     * @param browsedTypes the types to search for, e.g. {@code "urn:schemas-upnp-org:device:MediaRenderer:1"},
+     *                     or {@code "ssdp:all"}
+     */
+    public UdpSsdpDiscovery(ScheduledExecutorService scheduler, Transport transport, InetSocketAddress group,
+                            List<Registration> services, List<String> browsedTypes, Listener listener) {
+        this.mScheduler = scheduler;
+        this.mTransport = transport;
+        this.mGroup = group;
+        this.mServices = new ArrayList<>(services);
+        this.mBrowsedTypes = new ArrayList<>(browsedTypes);
+        this.mCache = new UdpServiceCache(listener);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (mIsClosed) {
+            return;
+        }
+        for (final Registration service : mServices) {
+            // notified twice, as either may be lost
+            mTasks.add(mScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    announce(service, ALIVE);
+                }
+            }, 0, TimeUnit.SECONDS.toMillis(service.maxAge) / 2, TimeUnit.MILLISECONDS));
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    announce(service, ALIVE);
+                }
+            }, SEARCH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        for (int i = 0; i < SEARCHES && !mBrowsedTypes.isEmpty(); i++) {
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    search(mBrowsedTypes);
+                }
+            }, i * SEARCH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        mTasks.add(mScheduler.scheduleWithFixedDelay(mSweepRunnable, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS,
+                TimeUnit.MILLISECONDS));
+    }
+
+    private synchronized void announce(Registration service, String subtype) {
+        if (mIsClosed && !BYEBYE.equals(subtype)) {
+            return;
+        }
+        final StringBuilder message = new StringBuilder("NOTIFY * HTTP/1.1\r\n")
+                .append("HOST: ").append(hostHeader()).append("\r\n")
+                .append("NT: ").append(service.type).append("\r\n")
+                .append("NTS: ").append(subtype).append("\r\n")
+                .append("USN: ").append(service.usn).append("\r\n");
+        if (!BYEBYE.equals(subtype)) {
+            appendDescription(message, service);
+        }
+        mTransport.transmit(message.append("\r\n").toString().getBytes(StandardCharsets.UTF_8), mGroup);
+    }
+
+    private synchronized void search(List<String> types) {
+        if (mIsClosed) {
+            return;
+        }
+        for (String type : types) {
+            final String message = "M-SEARCH * HTTP/1.1\r\n"
+                    + "HOST: " + hostHeader() + "\r\n"
+                    + "MAN: \"ssdp:discover\"\r\n"
+                    + "MX: 1\r\n"
+                    + "ST: " + type + "\r\n"
+                    + "\r\n";
+            mTransport.transmit(message.getBytes(StandardCharsets.UTF_8), mGroup);
+        }
+    }
+
+    private String hostHeader() {
+        final String address = mGroup.getAddress().getHostAddress();
+        return (address.indexOf(':') >= 0 ? "[" + address + "]" : address) + ":" + mGroup.getPort();
+    }
+
+    private static void appendDescription(StringBuilder message, Registration service) {
+        message.append("CACHE-CONTROL: max-age=").append(service.maxAge).append("\r\n")
+                .append("LOCATION: ").append(service.location).append("\r\n");
+        if (service.server != null) {
+            message.append("SERVER: ").append(service.server).append("\r\n");
+        }
+    }
+
+    @Override
+    public void receive(ByteBuffer data, String host, int port) {
+        final byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        final String[] lines = new String(bytes, StandardCharsets.UTF_8).split("\r?\n");
+        final String startLine = lines[0].trim().toUpperCase(Locale.ROOT);
+        final Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            final int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                        lines[i].substring(colon + 1).trim());
+            }
+        }
+
+        synchronized (this) {
+            if (mIsClosed) {
+                return;
+            }
+            if (startLine.startsWith("M-SEARCH ")) {
+                answer(headers, host, port);
+            } else if (startLine.startsWith("NOTIFY ")) {
+                final String nts = headers.get("nts");
+                if (BYEBYE.equals(nts)) {
+                    if (headers.containsKey("usn") && isBrowsed(headers.get("nt"))) {
+                        mCache.remove(headers.get("usn"));
+                    }
+                } else if (ALIVE.equals(nts) || UPDATE.equals(nts)) {
+                    learn(headers.get("nt"), headers, host, port);
+                }
+            } else if (startLine.startsWith("HTTP/1.1 200")) {
+                learn(headers.get("st"), headers, host, port);
+            }
+        }
+    }
+
+    /**
+     * Responds to a search for the services, each after a random delay within the one the
+     * searcher allows, so that responders do not all answer at once.
+     */
+    private void answer(Map<String, String> headers, final String host, final int port) {
+        final String target = headers.get("st");
+        if (target == null || !"\"ssdp:discover\"".equals(headers.get("man"))) {
+            return;
+        }
+        int mx = 1;
+        try {
+            mx = Math.max(0, Math.min(MAX_MX, Integer.parseInt(headers.get("mx"))));
+        } catch (NumberFormatException nfe) {
+            // the default, also for unicast searches without MX
+        }
+        for (final Registration service : mServices) {
+            final String searchTarget;
+            if (ALL.equals(target)) {
+                searchTarget = service.type;
+            } else if (target.equalsIgnoreCase(service.type) || target.equalsIgnoreCase(service.getUuid())) {
+                searchTarget = target;
+            } else {
+                continue;
+            }
+            final long delayMs = mx > 0 ? mRandom.nextInt(mx * 1000) : 0;
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    respond(service, searchTarget, new InetSocketAddress(host, port));
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void respond(Registration service, String searchTarget, InetSocketAddress destination) {
+        if (mIsClosed) {
+            return;
+        }
+        final StringBuilder message = new StringBuilder("HTTP/1.1 200 OK\r\n")
+                .append("EXT:\r\n")
+                .append("ST: ").append(searchTarget).append("\r\n")
+                .append("USN: ").append(service.usn).append("\r\n");
+        appendDescription(message, service);
+        mTransport.transmit(message.append("\r\n").toString().getBytes(StandardCharsets.UTF_8), destination);
+    }
+
+    private boolean isBrowsed(@Nullable String type) {
+        if (type == null) {
+            return false;
+        }
+        for (String browsed : mBrowsedTypes) {
+            if (ALL.equals(browsed) || browsed.equalsIgnoreCase(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Caches the service a notification or search response describes, for its max age. The host
+     * and port of a service are those of its description URL.
+     */
+    private void learn(@Nullable String type, Map<String, String> headers, String host, int port) {
+        final String usn = headers.get("usn");
+        if (usn == null || !isBrowsed(type)) {
+            return;
+        }
+        final long maxAge = getMaxAge(headers.get("cache-control"));
+        String serviceHost = host;
+        int servicePort = port;
+        final String location = headers.get("location");
+        if (location != null) {
+            try {
+                final URI uri = new URI(location);
+                if (uri.getHost() != null) {
+                    serviceHost = uri.getHost();
+                    servicePort = uri.getPort() >= 0 ? uri.getPort() : 80;
+                }
+            } catch (URISyntaxException use) {
+                // the sender is the host then
+            }
+        }
+        final Map<String, String> attributes = new HashMap<>();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (!MESSAGE_HEADERS.contains(header.getKey())) {
+                attributes.put(header.getKey(), header.getValue());
+            }
+        }
+        mCache.put(new Service(PROTOCOL, usn, type, serviceHost, servicePort, Collections.singletonList(host),
+                attributes), TimeUnit.SECONDS.toMillis(maxAge));
+    }
+
+    private static long getMaxAge(@Nullable String cacheControl) {
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                final String[] parts = directive.trim().split("=", 2);
+                if (parts.length == 2 && parts[0].trim().equalsIgnoreCase("max-age")) {
+                    try {
+                        return Math.max(0, Long.parseLong(parts[1].trim()));
+                    } catch (NumberFormatException nfe) {
+                        break;
+                    }
+                }
+            }
+        }
+        return DEFAULT_MAX_AGE;
+    }
+
+    /**
+     * Expires the cached services, searching again for the types of those due for a refresh.
+     */
+    private synchronized void sweep() {
+        if (mIsClosed) {
+            return;
+        }
+        final Set<String> staleTypes = new HashSet<>();
+        for (Service service : mCache.sweep()) {
+            staleTypes.add(service.getType());
+        }
+        if (!staleTypes.isEmpty()) {
+            search(new ArrayList<>(staleTypes));
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mIsClosed) {
+            return;
+        }
+        mIsClosed = true;
+        for (ScheduledFuture<?> task : mTasks) {
+            task.cancel(false);
+        }
+        mTasks.clear();
+        for (Registration service : mServices) {
+            announce(service, BYEBYE);
+        }
+        mCache.clear();
+    }
+
+    /**
+     * A service to answer for.
+     */
+    public static final class Registration {
+        private final String type;
+        private final String usn;
+        private final String location;
+        @Nullable
+        private final String server;
+        private final int maxAge;
+
+        /**
+         * @param type the notification type, e.g. {@code "urn:schemas-upnp-org:device:MediaServer:1"}
+         * @param usn the unique service name, e.g. {@code "uuid:<uuid>::<type>"}
+         * @param location the URL of the description of the service
+         * @param server the SERVER header, e.g. {@code "Android/14 UPnP/1.1 app/1.0"}
+         * @param maxAge seconds the service is cached for by those finding it
+         * @throws IllegalArgumentException if the max age is not positive
+         */
+        public Registration(String type, String usn, String location, @Nullable String server, int maxAge) {
+            if (maxAge <= 0) {
+                throw new IllegalArgumentException("Invalid max age " + maxAge);
+            }
+            this.type = type;
+            this.usn = usn;
+            this.location = location;
+            this.server = server;
+            this.maxAge = maxAge;
+        }
+
+        /**
+         * @return the {@code uuid:} part of the USN, which devices are searched for by.
+         */
+        private String getUuid() {
+            final int separator = usn.indexOf("::");
+            return separator >= 0 ? usn.substring(0, separator) : usn;
+        }
+    }
+}
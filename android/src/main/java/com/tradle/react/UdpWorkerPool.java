@@ -0,0 +1,119 @@
+package com.tradle.react;
+
+import com.facebook.common.logging.FLog;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * The threads the clients of a module do their socket I/O on, so that a socket costs no thread of
+ * its own. Sends of every client run on a pool sized to the cores, each client through its own
+ * {@link UdpDispatchLane}, one at a time and in order. Sockets of the thread engine block in their
+ * receive, so each needs a thread while it is bound; those come from {@link UdpReceiveThreads},
+ * and return to it on close.
+ *
+ * On a JVM with virtual threads, the pool can run both sends and receives on them instead, a
+ * blocked receive then holding no platform thread. Android has none, and always uses the pools.
+ */
+public final class UdpWorkerPool {
+    private static final String TAG = "UdpWorkerPool";
+    private static final long KEEP_ALIVE_MS = 30000;
+    private static final int MIN_THREADS = 2;
+
+    private final ExecutorService mExecutor;
+    @Nullable
+    private final UdpReceiveThreads mReceiveThreads;
+
+    public UdpWorkerPool() {
+        this(false);
+    }
+
+    /**
+     * @param preferVirtualThreads runs the I/O on virtual threads if the JVM has them
+     */
+    public UdpWorkerPool(boolean preferVirtualThreads) {
+        final ExecutorService virtualThreads = preferVirtualThreads ? newVirtualThreadExecutor() : null;
+        if (virtualThreads != null) {
+            mExecutor = virtualThreads;
+            mReceiveThreads = null;
+            return;
+        }
+
+        // at least two, so that a send held up resolving its destination does not hold up every socket
+        final int threads = Math.max(MIN_THREADS, Runtime.getRuntime().availableProcessors());
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        final Thread thread = new Thread(runnable, TAG + "-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        // an app without sockets holds no thread
+        executor.allowCoreThreadTimeOut(true);
+        mExecutor = executor;
+        mReceiveThreads = new UdpReceiveThreads(KEEP_ALIVE_MS);
+    }
+
+    /**
+     * Looks up {@code Executors.newVirtualThreadPerTaskExecutor}, from Java 21.
+     */
+    @Nullable
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Class.forName("java.util.concurrent.Executors")
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            FLog.w(TAG, "virtual threads are not supported, using a pool of platform threads.");
+            return null;
+        }
+    }
+
+    public boolean usesVirtualThreads() {
+        return mReceiveThreads == null;
+    }
+
+    /**
+     * @return a lane running the sends of a client one at a time, in order.
+     */
+    public UdpDispatchLane newLane() {
+        return new UdpDispatchLane(mExecutor);
+    }
+
+    /**
+     * Runs a receiver task on a thread of its own until it returns.
+     */
+    public void startReceiving(UdpReceiverTask task) {
+        if (mReceiveThreads != null) {
+            mReceiveThreads.start(task);
+        } else {
+            mExecutor.execute(task);
+        }
+    }
+
+    /**
+     * @return the threads receiver tasks run on, or null if they run on virtual threads.
+     */
+    @Nullable
+    public UdpReceiveThreads getReceiveThreads() {
+        return mReceiveThreads;
+    }
+
+    /**
+     * Stops the threads once their tasks return. Tasks can no longer be run.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+        if (mReceiveThreads != null) {
+            mReceiveThreads.shutdown();
+        }
+    }
+}
@@ -1,22 +1,52 @@
 /**
  * @typedef {"ascii" | "utf8" | "utf-8" | "utf16le" | "ucs2" | "ucs-2" | "base64" | "latin1" | "binary" | "hex"} BufferEncoding
+ *
+ * @typedef {{ type: string; reusePort?: boolean; debug?: boolean; engine?: 'thread' | 'nio'; receiveBatchInterval?: number; receiveBatchSize?: number; maxDatagramSize?: number; recvBufferSize?: number; sendBufferSize?: number; receiveQueueSize?: number; receiveQueuePolicy?: 'drop-oldest' | 'drop-newest' | 'block'; sendMode?: 'acknowledged' | 'unacknowledged'; sendErrorInterval?: number; compression?: 'deflate'; compressionLevel?: number; compressionDictionary?: string | Buffer | Uint8Array; reliable?: boolean; fragment?: boolean; fragmentSize?: number; maxMessageSize?: number; reassemblyTimeout?: number; filter?: PacketFilter; }} SocketOptions
+ *
+ * @typedef {{ action: 'accept' | 'drop' | 'route'; channel?: string; address?: string; port?: number | [number, number]; bytes?: string | Buffer | Uint8Array | number[]; offset?: number; minLength?: number; maxLength?: number; }} PacketFilterRule
+ *
+ * @typedef {{ rules?: PacketFilterRule[]; defaultAction?: 'accept' | 'drop'; }} PacketFilter
+ *
+ * @typedef {{ size: number; capacity: number; dropped: number; }} ReceiveQueueStats
+ *
+ * @typedef {{ pending: number; maxPending: number; completed: number; }} LaneStats
+ *
+ * @typedef {{ packetsReceived: number; bytesReceived: number; receiveErrors: number; packetsSent: number; bytesSent: number; sendErrors: number; dropped: number; latencyHistogram: number[]; latencyMean: number; latencyMax: number; sendCompressionRatio: number; receiveCompressionRatio: number; decompressionErrors: number; retransmits: number; rtt: number; messagesDropped: number; filtered: number; }} SocketStats
+ *
+ * @typedef {{ data: string; address: string; port: number; ts: number; channel?: string; }} ReceivedInfo
+ *
+ * @typedef {{ data: ArrayBuffer; address: string; port: number; ts: number; channel?: string; }} ReceivedBinaryInfo
+ *
+ * @typedef {{ name?: string; type: string; port?: number; txt?: { [key: string]: string | number | boolean | null }; usn?: string; location?: string; server?: string; maxAge?: number; }} DiscoveryService
+ *
+ * @typedef {{ protocol: 'mdns' | 'ssdp'; address?: string; port?: number; hostName?: string; addresses?: string[]; services?: DiscoveryService[]; browse?: string[]; }} DiscoveryOptions
+ *
+ * @typedef {{ protocol: 'mdns' | 'ssdp'; name: string; type: string; host: string; port: number; addresses: string[]; attributes: { [key: string]: string | null }; }} DiscoveredService
  */
 export default class UdpSocket extends EventEmitter {
     /**
-     * @param {{ type: string; reusePort?: boolean; debug?: boolean; }} options
+     * @param {SocketOptions} options
      * @param {((...args: any[]) => void) | undefined} [onmessage]
      */
-    constructor(options: {
-        type: string;
-        reusePort?: boolean;
-        debug?: boolean;
-    }, onmessage?: ((...args: any[]) => void) | undefined);
+    constructor(options: SocketOptions, onmessage?: ((...args: any[]) => void) | undefined);
     type: string;
     reusePort: boolean | undefined;
     debugEnabled: boolean | undefined;
+    engine: "thread" | "nio" | undefined;
+    /** @private */
+    private _recvBufferSize;
+    /** @private */
+    private _sendBufferSize;
+    /**
+     * Only Android reports the errors of sends without a callback on its own.
+     * @private
+     */
+    private _fireAndForget;
     /** @private */
     private _destroyed;
     /** @private */
+    private _unacknowledged;
+    /** @private */
     private _id;
     /** @private */
     private _state;
@@ -25,7 +55,28 @@ export default class UdpSocket extends EventEmitter {
     /** @private */
     private _port;
     /** @private */
+    private _connectState;
+    /**
+     * @private
+     * @type {{ address: string; port: number; } | null}
+     */
+    private _remote;
+    /** @private */
     private _subscription;
+    /** @private */
+    private _binary;
+    /**
+     * @private
+     * @type {{ remove: () => void; } | null}
+     */
+    private _readableSubscription;
+    /** @private */
+    private _sendErrorsSubscription;
+    /**
+     * @private
+     * @type {{ remove: () => void; }[]}
+     */
+    private _discoverySubscriptions;
     /**
      * @private
      */
@@ -54,25 +105,62 @@ export default class UdpSocket extends EventEmitter {
      */
     close(callback?: (...args: any[]) => void): number | undefined;
     /**
-     * NOT IMPLEMENTED
+     * Associates the socket to a remote `address` and `port`. Every message sent by the socket
+     * is then sent to that destination, without resolving it again, and the socket only receives
+     * messages from that remote peer. If `address` is not provided, `'127.0.0.1'` (for `udp4`
+     * sockets) or `'::1'` (for `udp6` sockets) will be used by default. Once the connection is
+     * complete, a `'connect'` event is emitted and the optional `callback` function is called. In
+     * case of failure, the `callback` is called or, failing this, an `'error'` event is emitted.
      *
-     * @deprecated
+     * If the socket is not bound, it is bound to a random port on all interfaces first.
+     *
+     * This method throws `ERR_SOCKET_DGRAM_IS_CONNECTED` if called on an already connected socket.
+     *
+     * @param {number} port
+     * @param {string | ((error?: Error) => void)} [address]
+     * @param {(error?: Error) => void} [callback]
+     */
+    connect(port: number, address?: string | ((error?: Error | undefined) => void) | undefined, callback?: ((error?: Error | undefined) => void) | undefined): void;
+    /**
+     * @private
      * @param {number} port
      * @param {string} address
-     * @param {(...args: any[]) => void} callback
+     * @param {(error?: Error) => void} [callback]
      */
-    connect(port: number, address: string, callback: (...args: any[]) => void): void;
+    private _connect;
     /**
-     * NOT IMPLEMENTED
+     * Dissociates a connected socket from its remote address. Messages must then be sent with
+     * their destination again, and messages from any peer are received.
      *
-     * @deprecated
+     * This method throws `ERR_SOCKET_DGRAM_NOT_CONNECTED` if called on a socket that is not
+   * connected.
      */
     disconnect(): void;
     /**
      * @private
-     * @param {{ data: string; address: string; port: number; ts: number; }} info
+     * @param {ReceivedInfo | ReceivedInfo[]} info
      */
     private _onReceive;
+    /**
+     * @private
+     * @param {{ code: string; message: string; count: number; }} info
+     */
+    private _onSendErrors;
+    /**
+     * @private
+     * @param {number} count
+     */
+    private _acknowledge;
+    /**
+     * @private
+     */
+    private _onReadable;
+    /**
+     * @private
+     * @param {Buffer} buf
+     * @param {{ address: string; port: number; ts: number | string; channel?: string; }} info
+     */
+    private _emitMessage;
     /**
      * Broadcasts a datagram on the socket. For connectionless sockets, the
      * destination `port` and `address` must be specified. Connected sockets,
@@ -105,7 +193,9 @@ export default class UdpSocket extends EventEmitter {
      * using a `callback`. If an error occurs and a `callback` is given,
      * the `error` will be passed as the first argument to the `callback`.
      * If a `callback` is not given, the error is emitted as an `'error'`
-     * event on the `socket` object.
+     * event on the `socket` object. For sockets created with the `'unacknowledged'`
+     * `sendMode`, those errors are coalesced into one `'error'` event per
+     * `sendErrorInterval`, carrying their `count`.
      *
      * Offset and length are optional but both _must_ be set if either are used.
      * They are supported only when the first argument is a `Buffer`,
@@ -121,6 +211,52 @@ export default class UdpSocket extends EventEmitter {
      * @param {(error?: Error) => void} [callback] Called when the message has been sent.
      */
     send(msg: string | Buffer | Uint8Array | Array<any>, offset?: number | undefined, length?: number | undefined, port?: number | undefined, address?: string | undefined, callback?: ((error?: Error | undefined) => void) | undefined): void;
+    /**
+     * @private
+     * @param {Buffer} generatedBuffer
+     * @param {number} port
+     * @param {string | null} address Null for the remote address of a connected socket.
+     * @param {(error?: Error) => void} [callback]
+     */
+    private _send;
+    /**
+     * Sends several datagrams at once, in order. Each packet holds a `msg`, converted the same
+     * way as by `send()`, along with its destination `port` and `address` (which defaults to
+     * `'127.0.0.1'` for `udp4` sockets, `'::1'` for `udp6` sockets). Packets of connected sockets
+     * must not have a destination, as they are sent to the remote address of the socket.
+     *
+     * On Android, the whole batch crosses the bridge once, and is transmitted in a single pass.
+     * The optional `callback` is called once every datagram has been handled, with an error if
+     * any of them could not be sent. If a `callback` is not given, the error is emitted as an
+     * `'error'` event on the `socket` object.
+     *
+     * This method throws `ERR_SOCKET_BAD_PORT` if called on an unbound socket.
+     *
+     * @param {Array<{ msg: string | Buffer | Uint8Array | Array<any>; port?: number; address?: string; }>} packets
+     * @param {(error?: Error) => void} [callback] Called when the datagrams have been sent.
+     */
+    sendBatch(packets: Array<{
+        msg: string | Buffer | Uint8Array | Array<any>;
+        port?: number;
+        address?: string;
+    }>, callback?: ((error?: Error | undefined) => void) | undefined): void;
+    /**
+     * @private
+     * @param {Buffer} buf
+     * @param {number} port
+     * @param {string | null} address Null for the remote address of a connected socket.
+     * @returns {{ data?: string; handle?: number; port: number; address: string | null; }}
+     */
+    private _toNativePacket;
+    /**
+     * Wraps the callback of a send for the native module. Sockets whose sends are unacknowledged
+     * pass no callback at all when none is given, sparing a bridge call per datagram.
+     *
+     * @private
+     * @param {(error?: Error) => void} [callback]
+     * @returns {((err?: any) => void) | null}
+     */
+    private _sendCallback;
     /**
      * @private
      * @param {string | Buffer | Uint8Array | Array<any>} msg
@@ -167,16 +303,21 @@ export default class UdpSocket extends EventEmitter {
      */
     setMulticastTTL(ttl: number): void;
     /**
-     * NOT IMPLEMENTED
+     * Sets the `SO_RCVBUF` socket option. Sets the maximum socket receive buffer in bytes.
+     * Datagrams arriving faster than they are received wait in this buffer, and are dropped
+     * by the kernel once it is full. The OS may grant a different size than requested.
+     *
+     * This method throws `ERR_SOCKET_BUFFER_SIZE` if called on an unbound socket.
      *
-     * @deprecated
      * @param {number} size
      */
     setRecvBufferSize(size: number): void;
     /**
-     * NOT IMPLEMENTED
+     * Sets the `SO_SNDBUF` socket option. Sets the maximum socket send buffer in bytes.
+     * The OS may grant a different size than requested.
+     *
+     * This method throws `ERR_SOCKET_BUFFER_SIZE` if called on an unbound socket.
      *
-     * @deprecated
      * @param {number} size
      */
     setSendBufferSize(size: number): void;
@@ -237,17 +378,91 @@ export default class UdpSocket extends EventEmitter {
      */
     dropSourceSpecificMembership(sourceAddress: string, groupAddress: string, multicastInterface?: string | undefined): void;
     /**
-     * NOT IMPLEMENTED
+     * Runs mDNS or SSDP service discovery natively on this socket, which must be bound to the
+     * port of the protocol (5353 or 1900) and joined to its group with `addMembership()`. The
+     * `services` given are announced and answered for, and the types in `browse` are looked for:
+     * a `'serviceUp'` event is emitted with a `DiscoveredService` when one appears or changes, and
+     * a `'serviceDown'` event when it goes away or expires. Queries, responses and repeated
+     * announcements are handled natively, and no longer emitted as `'message'` events.
      *
-     * @deprecated
+     * mDNS services have a `name`, a `type` such as `'_http._tcp'`, a `port` and an optional
+     * `txt` record; SSDP services have a `type`, a `usn`, a `location` URL, and an optional
+     * `server` header and `maxAge` in seconds. Calling it again replaces the discovery running.
+     *
+     * Only implemented on Android.
+     *
+     * @param {DiscoveryOptions} options
+     * @param {(error?: Error) => void} [callback]
      */
-    getRecvBufferSize(): void;
+    startDiscovery(options: DiscoveryOptions, callback?: ((error?: Error | undefined) => void) | undefined): void;
     /**
-     * NOT IMPLEMENTED
+     * Stops the service discovery of this socket, announcing that its services go away. Received
+     * datagrams are emitted as `'message'` events again.
      *
-     * @deprecated
+     * @param {(error?: Error) => void} [callback]
      */
-    getSendBufferSize(): void;
+    stopDiscovery(callback?: ((error?: Error | undefined) => void) | undefined): void;
+    /**
+     * @private
+     */
+    private _removeDiscoverySubscriptions;
+    /**
+     * Returns the traffic counters of this socket: packets and bytes received and sent, receive
+     * and send errors, and datagrams `dropped` because the receive queue was full.
+     *
+     * Sockets compressing their datagrams count bytes as they are on the wire, and report how much
+     * smaller the data got as `sendCompressionRatio` and `receiveCompressionRatio`, along with the
+     * received datagrams dropped because they could not be decompressed (`decompressionErrors`).
+     *
+     * Sockets delivering reliably count acknowledgements and retransmissions as packets sent, and
+     * report the datagrams sent again (`retransmits`) and the smoothed round trip time in
+     * milliseconds to the peer that last acknowledged one (`rtt`).
+     *
+     * Sockets fragmenting their messages count datagrams rather than messages, and report the
+     * messages dropped before they were complete (`messagesDropped`).
+     *
+     * Sockets with a `filter` count the datagrams it dropped as `filtered`, along with the
+     * datagrams received.
+     *
+     * Latencies, in milliseconds, are the time from the receipt of a datagram to its hand-over to
+     * JS. `latencyHistogram[i]` counts the latencies below `2 ** i` ms, the last bucket counting
+     * all the longer ones.
+     *
+     * @returns {SocketStats | undefined}
+     */
+    getStats(): SocketStats | undefined;
+    /**
+     * Returns the state of the queue received datagrams wait in until they are emitted: its
+     * current `size`, its `capacity`, and the number of datagrams `dropped` so far because it was
+     * full. A growing `dropped` count means the app does not keep up with the incoming traffic.
+     *
+     * @returns {ReceiveQueueStats | undefined}
+     */
+    getReceiveQueueStats(): ReceiveQueueStats | undefined;
+    /**
+     * Returns the state of the lane the native calls and events of this socket go through, one
+     * at a time and in order: the number of calls and events `pending`, the most that were
+     * pending at once (`maxPending`), and the number `completed` so far.
+     *
+     * @returns {LaneStats | undefined}
+     */
+    getLaneStats(): LaneStats | undefined;
+    /**
+     * Returns the `SO_RCVBUF` socket receive buffer size in bytes, as granted by the OS.
+     *
+     * This method throws `ERR_SOCKET_BUFFER_SIZE` if called on an unbound socket.
+     *
+     * @returns {number | undefined}
+     */
+    getRecvBufferSize(): number | undefined;
+    /**
+     * Returns the `SO_SNDBUF` socket send buffer size in bytes, as granted by the OS.
+     *
+     * This method throws `ERR_SOCKET_BUFFER_SIZE` if called on an unbound socket.
+     *
+     * @returns {number | undefined}
+     */
+    getSendBufferSize(): number | undefined;
     /**
      * NOT IMPLEMENTED
      *
@@ -255,12 +470,129 @@ export default class UdpSocket extends EventEmitter {
      */
     ref(): void;
     /**
-     * NOT IMPLEMENTED
+     * Returns an object containing the `address`, `family`, and `port` of the remote endpoint.
      *
-     * @deprecated
+     * This method throws `ERR_SOCKET_DGRAM_NOT_CONNECTED` if the socket is not connected.
      */
-    remoteAddress(): void;
+    remoteAddress(): {
+        address: string;
+        port: number;
+        family: string;
+    };
 }
 export type BufferEncoding = "ascii" | "utf8" | "utf-8" | "utf16le" | "ucs2" | "ucs-2" | "base64" | "latin1" | "binary" | "hex";
+export type SocketOptions = {
+    type: string;
+    reusePort?: boolean;
+    debug?: boolean;
+    engine?: "thread" | "nio";
+    receiveBatchInterval?: number;
+    receiveBatchSize?: number;
+    maxDatagramSize?: number;
+    recvBufferSize?: number;
+    sendBufferSize?: number;
+    receiveQueueSize?: number;
+    receiveQueuePolicy?: "drop-oldest" | "drop-newest" | "block";
+    sendMode?: "acknowledged" | "unacknowledged";
+    sendErrorInterval?: number;
+    compression?: "deflate";
+    compressionLevel?: number;
+    compressionDictionary?: string | Buffer | Uint8Array;
+    reliable?: boolean;
+    fragment?: boolean;
+    fragmentSize?: number;
+    maxMessageSize?: number;
+    reassemblyTimeout?: number;
+    filter?: PacketFilter;
+};
+export type PacketFilterRule = {
+    action: "accept" | "drop" | "route";
+    channel?: string;
+    address?: string;
+    port?: number | [number, number];
+    bytes?: string | Buffer | Uint8Array | number[];
+    offset?: number;
+    minLength?: number;
+    maxLength?: number;
+};
+export type PacketFilter = {
+    rules?: PacketFilterRule[];
+    defaultAction?: "accept" | "drop";
+};
+export type ReceiveQueueStats = {
+    size: number;
+    capacity: number;
+    dropped: number;
+};
+export type LaneStats = {
+    pending: number;
+    maxPending: number;
+    completed: number;
+};
+export type SocketStats = {
+    packetsReceived: number;
+    bytesReceived: number;
+    receiveErrors: number;
+    packetsSent: number;
+    bytesSent: number;
+    sendErrors: number;
+    dropped: number;
+    latencyHistogram: number[];
+    latencyMean: number;
+    latencyMax: number;
+    sendCompressionRatio: number;
+    receiveCompressionRatio: number;
+    decompressionErrors: number;
+    retransmits: number;
+    rtt: number;
+    messagesDropped: number;
+    filtered: number;
+};
+export type ReceivedInfo = {
+    data: string;
+    address: string;
+    port: number;
+    ts: number;
+    channel?: string;
+};
+export type ReceivedBinaryInfo = {
+    data: ArrayBuffer;
+    address: string;
+    port: number;
+    ts: number;
+    channel?: string;
+};
+export type DiscoveryService = {
+    name?: string;
+    type: string;
+    port?: number;
+    txt?: {
+        [key: string]: string | number | boolean | null;
+    };
+    usn?: string;
+    location?: string;
+    server?: string;
+    maxAge?: number;
+};
+export type DiscoveryOptions = {
+    protocol: "mdns" | "ssdp";
+    address?: string;
+    port?: number;
+    hostName?: string;
+    addresses?: string[];
+    services?: DiscoveryService[];
+    browse?: string[];
+};
+export type DiscoveredService = {
+    protocol: "mdns" | "ssdp";
+    name: string;
+    type: string;
+    host: string;
+    port: number;
+    addresses: string[];
+    attributes: {
+        [key: string]: string | null;
+    };
+};
 import { EventEmitter } from "events";
 import { Buffer } from "buffer";
@@ -1,7 +1,9 @@
 export default UdpSockets;
 export type Buffer = import("buffer").Buffer;
+export type SocketOptions = import("./UdpSocket").SocketOptions;
 /**
  * @typedef {import('buffer').Buffer} Buffer
+ * @typedef {import('./UdpSocket').SocketOptions} SocketOptions
  */
 declare class UdpSockets {
     /**
@@ -13,14 +15,10 @@ declare class UdpSockets {
      * The bound address and port can be retrieved using `socket.address().address`
      * and `socket.address().port`.
      *
-     * @param {{ type: string; reusePort?: boolean; debug?: boolean; }} options
+     * @param {SocketOptions} options
      * @param {(msg: Buffer) => void} [callback]
      */
-    static createSocket(options: {
-        type: string;
-        reusePort?: boolean;
-        debug?: boolean;
-    }, callback?: ((msg: Buffer) => void) | undefined): UdpSocket;
+    static createSocket(options: SocketOptions, callback?: ((msg: Buffer) => void) | undefined): UdpSocket;
     static Socket: typeof UdpSocket;
 }
 import UdpSocket from "./UdpSocket";
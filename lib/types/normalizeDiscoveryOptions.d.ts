@@ -0,0 +1,19 @@
+/**
+ * Normalizes the options of `startDiscovery()` into the form read by the native module: the
+ * group `address` and `port` default to those of the protocol for the type of the socket, TXT
+ * values become strings, and mDNS hosts get a random name unless given one. Throws if the
+ * protocol is unknown.
+ *
+ * @param {import('./UdpSocket').DiscoveryOptions} options
+ * @param {string} type the type of the socket, `'udp4'` or `'udp6'`
+ * @returns {{ protocol: 'mdns' | 'ssdp'; address: string; port: number; hostName?: string; addresses?: string[]; services: object[]; browse: string[]; }}
+ */
+export default function normalizeDiscoveryOptions(options: import("./UdpSocket").DiscoveryOptions, type: string): {
+    protocol: "mdns" | "ssdp";
+    address: string;
+    port: number;
+    hostName?: string;
+    addresses?: string[];
+    services: object[];
+    browse: string[];
+};
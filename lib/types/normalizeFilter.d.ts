@@ -0,0 +1,22 @@
+/**
+ * Normalizes the `filter` option of a socket into the form read by the native module: the
+ * `port` of a rule becomes a `minPort`-`maxPort` range, and its `bytes` are Base64 encoded.
+ * Throws if a rule routes without a channel, or to the name of an event of the socket.
+ *
+ * @param {import('./UdpSocket').PacketFilter} filter
+ * @returns {{ rules: { action: string; channel?: string; address?: string; minPort?: number; maxPort?: number; bytes?: string; offset?: number; minLength?: number; maxLength?: number; }[]; defaultAction: 'accept' | 'drop'; }}
+ */
+export default function normalizeFilter(filter: import("./UdpSocket").PacketFilter): {
+    rules: {
+        action: string;
+        channel?: string;
+        address?: string;
+        minPort?: number;
+        maxPort?: number;
+        bytes?: string;
+        offset?: number;
+        minLength?: number;
+        maxLength?: number;
+    }[];
+    defaultAction: "accept" | "drop";
+};
@@ -1,21 +1,57 @@
 import { EventEmitter } from 'events'
 import { Buffer } from 'buffer'
-import { DeviceEventEmitter, NativeModules } from 'react-native'
+import { DeviceEventEmitter, NativeModules, Platform } from 'react-native'
 const Sockets = NativeModules.UdpSockets
 import normalizeBindOptions from './normalizeBindOptions'
+import normalizeFilter from './normalizeFilter'
+import normalizeDiscoveryOptions from './normalizeDiscoveryOptions'
 let instances = 0
+// When the native binding is available, received data is fetched as ArrayBuffers instead of
+// being Base64 encoded into the bridge events. Unknown until the first bind installs it.
+/** @type {boolean | undefined} */
+let binaryTransport
+// Android holds back receive events until earlier ones are acknowledged; acknowledging in chunks
+// keeps that traffic low, and must stay well below the native window of 128 events.
+const RECEIVE_ACK_INTERVAL = 32
 const STATE = {
   UNBOUND: 0,
   BINDING: 1,
   BOUND: 2,
 }
+const CONNECT_STATE = {
+  DISCONNECTED: 0,
+  CONNECTING: 1,
+  CONNECTED: 2,
+}
 
 /**
  * @typedef {"ascii" | "utf8" | "utf-8" | "utf16le" | "ucs2" | "ucs-2" | "base64" | "latin1" | "binary" | "hex"} BufferEncoding
+ *
+ * @typedef {{ type: string; reusePort?: boolean; debug?: boolean; engine?: 'thread' | 'nio'; receiveBatchInterval?: number; receiveBatchSize?: number; maxDatagramSize?: number; recvBufferSize?: number; sendBufferSize?: number; receiveQueueSize?: number; receiveQueuePolicy?: 'drop-oldest' | 'drop-newest' | 'block'; sendMode?: 'acknowledged' | 'unacknowledged'; sendErrorInterval?: number; compression?: 'deflate'; compressionLevel?: number; compressionDictionary?: string | Buffer | Uint8Array; reliable?: boolean; fragment?: boolean; fragmentSize?: number; maxMessageSize?: number; reassemblyTimeout?: number; filter?: PacketFilter; }} SocketOptions
+ *
+ * @typedef {{ action: 'accept' | 'drop' | 'route'; channel?: string; address?: string; port?: number | [number, number]; bytes?: string | Buffer | Uint8Array | number[]; offset?: number; minLength?: number; maxLength?: number; }} PacketFilterRule
+ *
+ * @typedef {{ rules?: PacketFilterRule[]; defaultAction?: 'accept' | 'drop'; }} PacketFilter
+ *
+ * @typedef {{ size: number; capacity: number; dropped: number; }} ReceiveQueueStats
+ *
+ * @typedef {{ pending: number; maxPending: number; completed: number; }} LaneStats
+ *
+ * @typedef {{ packetsReceived: number; bytesReceived: number; receiveErrors: number; packetsSent: number; bytesSent: number; sendErrors: number; dropped: number; latencyHistogram: number[]; latencyMean: number; latencyMax: number; sendCompressionRatio: number; receiveCompressionRatio: number; decompressionErrors: number; retransmits: number; rtt: number; messagesDropped: number; filtered: number; }} SocketStats
+ *
+ * @typedef {{ data: string; address: string; port: number; ts: number; channel?: string; }} ReceivedInfo
+ *
+ * @typedef {{ data: ArrayBuffer; address: string; port: number; ts: number; channel?: string; }} ReceivedBinaryInfo
+ *
+ * @typedef {{ name?: string; type: string; port?: number; txt?: { [key: string]: string | number | boolean | null }; usn?: string; location?: string; server?: string; maxAge?: number; }} DiscoveryService
+ *
+ * @typedef {{ protocol: 'mdns' | 'ssdp'; address?: string; port?: number; hostName?: string; addresses?: string[]; services?: DiscoveryService[]; browse?: string[]; }} DiscoveryOptions
+ *
+ * @typedef {{ protocol: 'mdns' | 'ssdp'; name: string; type: string; host: string; port: number; addresses: string[]; attributes: { [key: string]: string | null }; }} DiscoveredService
  */
 export default class UdpSocket extends EventEmitter {
   /**
-   * @param {{ type: string; reusePort?: boolean; debug?: boolean; }} options
+   * @param {SocketOptions} options
    * @param {((...args: any[]) => void) | undefined} [onmessage]
    */
   constructor(options, onmessage) {
@@ -25,12 +61,26 @@ export default class UdpSocket extends EventEmitter {
     if (options.type !== 'udp4' && options.type !== 'udp6') {
       throw new Error('invalid udp socket type')
     }
+    // validated before anything is set up
+    const filter = options.filter ? normalizeFilter(options.filter) : undefined
     this.type = options.type
     this.reusePort = options && options.reusePort
     this.debugEnabled = options && options.debug
+    this.engine = options && options.engine
+    /** @private */
+    this._recvBufferSize = options && options.recvBufferSize
+    /** @private */
+    this._sendBufferSize = options && options.sendBufferSize
+    /**
+     * Only Android reports the errors of sends without a callback on its own.
+     * @private
+     */
+    this._fireAndForget = options.sendMode === 'unacknowledged' && Platform.OS === 'android'
     /** @private */
     this._destroyed = false
     /** @private */
+    this._unacknowledged = 0
+    /** @private */
     this._id = instances++
     /** @private */
     this._state = STATE.UNBOUND
@@ -39,13 +89,56 @@ export default class UdpSocket extends EventEmitter {
     /** @private */
     this._port = -1
     /** @private */
+    this._connectState = CONNECT_STATE.DISCONNECTED
+    /**
+     * @private
+     * @type {{ address: string; port: number; } | null}
+     */
+    this._remote = null
+    /** @private */
     this._subscription = DeviceEventEmitter.addListener(
       `udp-${this._id}-data`,
       this._onReceive.bind(this)
     )
+    /** @private */
+    this._binary = false
+    /**
+     * @private
+     * @type {{ remove: () => void; } | null}
+     */
+    this._readableSubscription = null
+    /** @private */
+    this._sendErrorsSubscription = this._fireAndForget
+      ? DeviceEventEmitter.addListener(`udp-${this._id}-sendErrors`, this._onSendErrors.bind(this))
+      : null
+    /**
+     * @private
+     * @type {{ remove: () => void; }[]}
+     */
+    this._discoverySubscriptions = []
     if (onmessage) this.on('message', onmessage)
     Sockets.createSocket(this._id, {
       type: this.type,
+      engine: this.engine,
+      receiveBatchInterval: options.receiveBatchInterval,
+      receiveBatchSize: options.receiveBatchSize,
+      maxDatagramSize: options.maxDatagramSize,
+      receiveQueueSize: options.receiveQueueSize,
+      receiveQueuePolicy: options.receiveQueuePolicy,
+      sendMode: this._fireAndForget ? 'unacknowledged' : 'acknowledged',
+      sendErrorInterval: options.sendErrorInterval,
+      compression: options.compression,
+      compressionLevel: options.compressionLevel,
+      compressionDictionary:
+        options.compressionDictionary != null
+          ? Buffer.from(options.compressionDictionary).toString('base64')
+          : undefined,
+      reliable: options.reliable,
+      fragment: options.fragment,
+      fragmentSize: options.fragmentSize,
+      maxMessageSize: options.maxMessageSize,
+      reassemblyTimeout: options.reassemblyTimeout,
+      filter,
     })
   }
 
@@ -79,18 +172,32 @@ export default class UdpSocket extends EventEmitter {
   bind(...args) {
     const self = this
     if (this._state !== STATE.UNBOUND) throw new Error('Socket is already bound')
-    let { port, address, callback } = normalizeBindOptions(...args)
+    let { port, address, callback, recvBufferSize, sendBufferSize, receiveWorkers } =
+      normalizeBindOptions(...args)
     if (!address) address = '0.0.0.0'
     if (!port) port = 0
     if (!callback) callback = () => {}
     this.once('listening', callback.bind(this))
     this._state = STATE.BINDING
+    this._binary = installBinaryTransport()
+    if (this._binary && !this._readableSubscription) {
+      this._readableSubscription = DeviceEventEmitter.addListener(
+        `udp-${this._id}-readable`,
+        this._onReadable.bind(this)
+      )
+    }
     this._debug('binding, address:', address, 'port:', port)
     Sockets.bind(
       this._id,
       port,
       address,
-      { reusePort: this.reusePort },
+      {
+        reusePort: this.reusePort,
+        recvBufferSize: recvBufferSize || this._recvBufferSize,
+        sendBufferSize: sendBufferSize || this._sendBufferSize,
+        receiveWorkers,
+        binary: this._binary,
+      },
       /**
        * @param {any} err
        * @param {{ address: any; port: any; }} addr
@@ -125,6 +232,9 @@ export default class UdpSocket extends EventEmitter {
     this.once('close', callback)
     this._debug('closing')
     this._subscription.remove()
+    if (this._readableSubscription) this._readableSubscription.remove()
+    if (this._sendErrorsSubscription) this._sendErrorsSubscription.remove()
+    this._removeDiscoverySubscriptions()
     Sockets.close(
       this._id,
       /**
@@ -140,34 +250,177 @@ export default class UdpSocket extends EventEmitter {
   }
 
   /**
-   * NOT IMPLEMENTED
+   * Associates the socket to a remote `address` and `port`. Every message sent by the socket
+   * is then sent to that destination, without resolving it again, and the socket only receives
+   * messages from that remote peer. If `address` is not provided, `'127.0.0.1'` (for `udp4`
+   * sockets) or `'::1'` (for `udp6` sockets) will be used by default. Once the connection is
+   * complete, a `'connect'` event is emitted and the optional `callback` function is called. In
+   * case of failure, the `callback` is called or, failing this, an `'error'` event is emitted.
+   *
+   * If the socket is not bound, it is bound to a random port on all interfaces first.
+   *
+   * This method throws `ERR_SOCKET_DGRAM_IS_CONNECTED` if called on an already connected socket.
    *
-   * @deprecated
    * @param {number} port
-   * @param {string} address
-   * @param {(...args: any[]) => void} callback
+   * @param {string | ((error?: Error) => void)} [address]
+   * @param {(error?: Error) => void} [callback]
    */
-  // eslint-disable-next-line no-unused-vars
   connect(port, address, callback) {
-    console.warn('react-native-udp: connect() is not implemented')
+    if (typeof address === 'function') {
+      callback = address
+      address = undefined
+    }
+    if (this._connectState !== CONNECT_STATE.DISCONNECTED) {
+      throw new Error('ERR_SOCKET_DGRAM_IS_CONNECTED')
+    }
+    if (!Sockets.connect) {
+      console.warn('react-native-udp: connect() is not implemented')
+      return
+    }
+    if (!address) address = this.type === 'udp4' ? '127.0.0.1' : '::1'
+    this._connectState = CONNECT_STATE.CONNECTING
+    if (this._state === STATE.UNBOUND) this.bind(0)
+    if (this._state === STATE.BINDING) {
+      const onListening = () => {
+        this.removeListener('error', onError)
+        this._connect(port, /** @type {string} */ (address), callback)
+      }
+      const onError = () => {
+        this.removeListener('listening', onListening)
+        this._connectState = CONNECT_STATE.DISCONNECTED
+      }
+      this.once('listening', onListening)
+      this.once('error', onError)
+      return
+    }
+    this._connect(port, address, callback)
   }
 
   /**
-   * NOT IMPLEMENTED
+   * @private
+   * @param {number} port
+   * @param {string} address
+   * @param {(error?: Error) => void} [callback]
+   */
+  _connect(port, address, callback) {
+    if (callback) this.once('connect', callback)
+    this._debug('connecting, address:', address, 'port:', port)
+    Sockets.connect(
+      this._id,
+      port,
+      address,
+      /**
+       * @param {any} err
+       * @param {{ address: string; port: number; }} remote
+       */
+      (err, remote) => {
+        err = normalizeError(err)
+        if (err) {
+          this._connectState = CONNECT_STATE.DISCONNECTED
+          this._debug('failed to connect', err)
+          if (callback) {
+            this.removeListener('connect', callback)
+            return callback(err)
+          }
+          return this.emit('error', err)
+        }
+        this._debug('connected to address:', remote.address, 'port:', remote.port)
+        this._remote = remote
+        this._connectState = CONNECT_STATE.CONNECTED
+        this.emit('connect')
+      }
+    )
+  }
+
+  /**
+   * Dissociates a connected socket from its remote address. Messages must then be sent with
+   * their destination again, and messages from any peer are received.
    *
-   * @deprecated
+   * This method throws `ERR_SOCKET_DGRAM_NOT_CONNECTED` if called on a socket that is not
+   * connected.
    */
   disconnect() {
-    console.warn('react-native-udp: disconnect() is not implemented')
+    if (this._connectState !== CONNECT_STATE.CONNECTED) {
+      throw new Error('ERR_SOCKET_DGRAM_NOT_CONNECTED')
+    }
+    this._connectState = CONNECT_STATE.DISCONNECTED
+    this._remote = null
+    this._debug('disconnecting')
+    Sockets.disconnect(
+      this._id,
+      /**
+       * @param {string | Error | undefined} err
+       */ (err) => {
+        err = normalizeError(err)
+        if (err) {
+          this._debug('failed to disconnect', err)
+          this.emit('error', err)
+        }
+      }
+    )
   }
 
   /**
    * @private
-   * @param {{ data: string; address: string; port: number; ts: number; }} info
+   * @param {ReceivedInfo | ReceivedInfo[]} info
    */
   _onReceive(info) {
+    // coalesced receive events carry an array of datagrams
+    if (Array.isArray(info)) {
+      try {
+        for (const datagram of info) this._onReceive(datagram)
+      } finally {
+        this._acknowledge(info.length)
+      }
+      return
+    }
     // from base64 string
-    const buf = Buffer.from(info.data, 'base64')
+    this._emitMessage(Buffer.from(info.data, 'base64'), info)
+  }
+
+  /**
+   * @private
+   * @param {{ code: string; message: string; count: number; }} info
+   */
+  _onSendErrors(info) {
+    /** @type {any} */
+    const err = new Error(`${info.count} send(s) failed since the last report, first with: ${info.message}`)
+    err.code = info.code
+    err.count = info.count
+    this.emit('error', err)
+  }
+
+  /**
+   * @private
+   * @param {number} count
+   */
+  _acknowledge(count) {
+    if (!Sockets.ackReceive) return
+    this._unacknowledged += count
+    if (this._unacknowledged >= RECEIVE_ACK_INTERVAL) {
+      Sockets.ackReceive(this._id, this._unacknowledged)
+      this._unacknowledged = 0
+    }
+  }
+
+  /**
+   * @private
+   */
+  _onReadable() {
+    // drains the datagrams waiting on the native side, without copying their ArrayBuffers again
+    // @ts-ignore
+    const receive = global.__udpReceive
+    /** @type {ReceivedBinaryInfo[]} */
+    const datagrams = receive(this._id)
+    for (const datagram of datagrams) this._emitMessage(Buffer.from(datagram.data), datagram)
+  }
+
+  /**
+   * @private
+   * @param {Buffer} buf
+   * @param {{ address: string; port: number; ts: number | string; channel?: string; }} info
+   */
+  _emitMessage(buf, info) {
     const rinfo = {
       address: info.address,
       port: info.port,
@@ -175,7 +428,8 @@ export default class UdpSocket extends EventEmitter {
       size: buf.length,
       ts: Number(info.ts),
     }
-    this.emit('message', buf, rinfo)
+    // datagrams routed by the filter are emitted on their channel instead
+    this.emit(info.channel || 'message', buf, rinfo)
   }
 
   /**
@@ -210,7 +464,9 @@ export default class UdpSocket extends EventEmitter {
    * using a `callback`. If an error occurs and a `callback` is given,
    * the `error` will be passed as the first argument to the `callback`.
    * If a `callback` is not given, the error is emitted as an `'error'`
-   * event on the `socket` object.
+   * event on the `socket` object. For sockets created with the `'unacknowledged'`
+   * `sendMode`, those errors are coalesced into one `'error'` event per
+   * `sendErrorInterval`, carrying their `count`.
    *
    * Offset and length are optional but both _must_ be set if either are used.
    * They are supported only when the first argument is a `Buffer`,
@@ -227,6 +483,22 @@ export default class UdpSocket extends EventEmitter {
    */
   send(msg, offset, length, port, address, callback) {
     if (this._state === STATE.UNBOUND) throw new Error('ERR_SOCKET_BAD_PORT')
+    if (this._connectState !== CONNECT_STATE.DISCONNECTED) {
+      // connected sockets take send(msg[, offset, length][, callback])
+      if (typeof offset === 'function') {
+        callback = /** @type {any} */ (offset)
+        offset = length = undefined
+      } else if (typeof port === 'function') {
+        callback = /** @type {any} */ (port)
+      } else if (port !== undefined || address !== undefined) {
+        throw new Error('ERR_SOCKET_DGRAM_IS_CONNECTED')
+      }
+      if (this._connectState === CONNECT_STATE.CONNECTING) {
+        this.once('connect', () => this.send(msg, offset, length, undefined, undefined, callback))
+        return
+      }
+      return this._send(this._generateSendBuffer(msg).slice(offset, length), 0, null, callback)
+    }
     if (!address) {
       if (this.type === 'udp4') address = '127.0.0.1'
       else address = '::1'
@@ -239,9 +511,103 @@ export default class UdpSocket extends EventEmitter {
     }
     // Generate msg buffer
     const generatedBuffer = this._generateSendBuffer(msg).slice(offset, length)
-    const str = generatedBuffer.toString('base64')
+    this._send(generatedBuffer, port, address, callback)
+  }
+
+  /**
+   * @private
+   * @param {Buffer} generatedBuffer
+   * @param {number} port
+   * @param {string | null} address Null for the remote address of a connected socket.
+   * @param {(error?: Error) => void} [callback]
+   */
+  _send(generatedBuffer, port, address, callback) {
     // Call native module
-    Sockets.send(this._id, str, port, address, (/** @type {any} */ err) => {
+    if (this._binary) {
+      // the payload is staged natively as-is, only its handle crosses the bridge
+      const packet = this._toNativePacket(generatedBuffer, port, address)
+      Sockets.sendBatch(this._id, [packet], this._sendCallback(callback))
+    } else {
+      const str = generatedBuffer.toString('base64')
+      Sockets.send(this._id, str, port, address, this._sendCallback(callback))
+    }
+  }
+
+  /**
+   * Sends several datagrams at once, in order. Each packet holds a `msg`, converted the same
+   * way as by `send()`, along with its destination `port` and `address` (which defaults to
+   * `'127.0.0.1'` for `udp4` sockets, `'::1'` for `udp6` sockets). Packets of connected sockets
+   * must not have a destination, as they are sent to the remote address of the socket.
+   *
+   * On Android, the whole batch crosses the bridge once, and is transmitted in a single pass.
+   * The optional `callback` is called once every datagram has been handled, with an error if
+   * any of them could not be sent. If a `callback` is not given, the error is emitted as an
+   * `'error'` event on the `socket` object.
+   *
+   * This method throws `ERR_SOCKET_BAD_PORT` if called on an unbound socket.
+   *
+   * @param {Array<{ msg: string | Buffer | Uint8Array | Array<any>; port?: number; address?: string; }>} packets
+   * @param {(error?: Error) => void} [callback] Called when the datagrams have been sent.
+   */
+  sendBatch(packets, callback) {
+    if (this._state === STATE.UNBOUND) throw new Error('ERR_SOCKET_BAD_PORT')
+    if (this._connectState === CONNECT_STATE.CONNECTING) {
+      this.once('connect', () => this.sendBatch(packets, callback))
+      return
+    }
+    const onSent = this._sendCallback(callback)
+    const nativePackets = packets.map(({ msg, port, address }) => {
+      if (this._connectState === CONNECT_STATE.CONNECTED) {
+        if (port !== undefined || address !== undefined) {
+          throw new Error('ERR_SOCKET_DGRAM_IS_CONNECTED')
+        }
+        return this._toNativePacket(this._generateSendBuffer(msg), 0, null)
+      }
+      if (port === undefined) throw new Error('socket.sendBatch(): port must be provided')
+      if (!address) address = this.type === 'udp4' ? '127.0.0.1' : '::1'
+      return this._toNativePacket(this._generateSendBuffer(msg), port, address)
+    })
+    if (!nativePackets.length) return onSent && onSent()
+    if (Sockets.sendBatch) return Sockets.sendBatch(this._id, nativePackets, onSent)
+    // one native call per datagram, reporting once all of them have been handled
+    let pending = nativePackets.length
+    /** @type {any} */
+    let firstError
+    for (const packet of nativePackets) {
+      Sockets.send(this._id, packet.data, packet.port, packet.address, (/** @type {any} */ err) => {
+        firstError = firstError || err
+        if (--pending === 0 && onSent) onSent(firstError)
+      })
+    }
+  }
+
+  /**
+   * @private
+   * @param {Buffer} buf
+   * @param {number} port
+   * @param {string | null} address Null for the remote address of a connected socket.
+   * @returns {{ data?: string; handle?: number; port: number; address: string | null; }}
+   */
+  _toNativePacket(buf, port, address) {
+    if (this._binary) {
+      // @ts-ignore
+      const stage = global.__udpStage
+      return { handle: stage(buf.buffer, buf.byteOffset, buf.length), port, address }
+    }
+    return { data: buf.toString('base64'), port, address }
+  }
+
+  /**
+   * Wraps the callback of a send for the native module. Sockets whose sends are unacknowledged
+   * pass no callback at all when none is given, sparing a bridge call per datagram.
+   *
+   * @private
+   * @param {(error?: Error) => void} [callback]
+   * @returns {((err?: any) => void) | null}
+   */
+  _sendCallback(callback) {
+    if (!callback && this._fireAndForget) return null
+    return (/** @type {any} */ err) => {
       err = normalizeError(err)
       if (err) {
         if (callback) callback(err)
@@ -249,7 +615,7 @@ export default class UdpSocket extends EventEmitter {
       } else {
         if (callback) callback()
       }
-    })
+    }
   }
 
   /**
@@ -342,25 +708,68 @@ export default class UdpSocket extends EventEmitter {
   }
 
   /**
-   * NOT IMPLEMENTED
+   * Sets the `SO_RCVBUF` socket option. Sets the maximum socket receive buffer in bytes.
+   * Datagrams arriving faster than they are received wait in this buffer, and are dropped
+   * by the kernel once it is full. The OS may grant a different size than requested.
+   *
+   * This method throws `ERR_SOCKET_BUFFER_SIZE` if called on an unbound socket.
    *
-   * @deprecated
    * @param {number} size
    */
-  // eslint-disable-next-line no-unused-vars
   setRecvBufferSize(size) {
-    console.warn('react-native-udp: setRecvBufferSize() is not implemented')
+    const self = this
+    if (this._state !== STATE.BOUND) throw new Error('ERR_SOCKET_BUFFER_SIZE')
+    if (!Sockets.setRecvBufferSize) {
+      console.warn('react-native-udp: setRecvBufferSize() is not implemented')
+      return
+    }
+    Sockets.setRecvBufferSize(
+      this._id,
+      size,
+      /**
+       * @param {string | Error | undefined} err
+       * @param {number} [granted]
+       */ (err, granted) => {
+        err = normalizeError(err)
+        if (err) {
+          self._debug('failed to set receive buffer size', err)
+          return self.emit('error', err)
+        }
+        self._debug('receive buffer size:', granted)
+      }
+    )
   }
 
   /**
-   * NOT IMPLEMENTED
+   * Sets the `SO_SNDBUF` socket option. Sets the maximum socket send buffer in bytes.
+   * The OS may grant a different size than requested.
+   *
+   * This method throws `ERR_SOCKET_BUFFER_SIZE` if called on an unbound socket.
    *
-   * @deprecated
    * @param {number} size
    */
-  // eslint-disable-next-line no-unused-vars
   setSendBufferSize(size) {
-    console.warn('react-native-udp: setSendBufferSize() is not implemented')
+    const self = this
+    if (this._state !== STATE.BOUND) throw new Error('ERR_SOCKET_BUFFER_SIZE')
+    if (!Sockets.setSendBufferSize) {
+      console.warn('react-native-udp: setSendBufferSize() is not implemented')
+      return
+    }
+    Sockets.setSendBufferSize(
+      this._id,
+      size,
+      /**
+       * @param {string | Error | undefined} err
+       * @param {number} [granted]
+       */ (err, granted) => {
+        err = normalizeError(err)
+        if (err) {
+          self._debug('failed to set send buffer size', err)
+          return self.emit('error', err)
+        }
+        self._debug('send buffer size:', granted)
+      }
+    )
   }
 
   /**
@@ -449,21 +858,190 @@ export default class UdpSocket extends EventEmitter {
   }
 
   /**
-   * NOT IMPLEMENTED
+   * Runs mDNS or SSDP service discovery natively on this socket, which must be bound to the
+   * port of the protocol (5353 or 1900) and joined to its group with `addMembership()`. The
+   * `services` given are announced and answered for, and the types in `browse` are looked for:
+   * a `'serviceUp'` event is emitted with a `DiscoveredService` when one appears or changes, and
+   * a `'serviceDown'` event when it goes away or expires. Queries, responses and repeated
+   * announcements are handled natively, and no longer emitted as `'message'` events.
    *
-   * @deprecated
+   * mDNS services have a `name`, a `type` such as `'_http._tcp'`, a `port` and an optional
+   * `txt` record; SSDP services have a `type`, a `usn`, a `location` URL, and an optional
+   * `server` header and `maxAge` in seconds. Calling it again replaces the discovery running.
+   *
+   * Only implemented on Android.
+   *
+   * @param {DiscoveryOptions} options
+   * @param {(error?: Error) => void} [callback]
+   */
+  startDiscovery(options, callback) {
+    const self = this
+    if (this._state !== STATE.BOUND) throw new Error('you must bind before startDiscovery()')
+    if (!Sockets.startDiscovery) {
+      console.warn('react-native-udp: startDiscovery() is not implemented')
+      return
+    }
+    const normalized = normalizeDiscoveryOptions(options, this.type)
+    if (!this._discoverySubscriptions.length) {
+      this._discoverySubscriptions = [
+        DeviceEventEmitter.addListener(`udp-${this._id}-serviceUp`, (service) =>
+          this.emit('serviceUp', service)
+        ),
+        DeviceEventEmitter.addListener(`udp-${this._id}-serviceDown`, (service) =>
+          this.emit('serviceDown', service)
+        ),
+      ]
+    }
+    Sockets.startDiscovery(
+      this._id,
+      normalized,
+      /**
+       * @param {string | Error | undefined} err
+       */ (err) => {
+        err = normalizeError(err)
+        if (err) {
+          self._debug('failed to start discovery', err)
+          if (callback) return callback(err)
+          return self.emit('error', err)
+        }
+        if (callback) callback()
+      }
+    )
+  }
+
+  /**
+   * Stops the service discovery of this socket, announcing that its services go away. Received
+   * datagrams are emitted as `'message'` events again.
+   *
+   * @param {(error?: Error) => void} [callback]
+   */
+  stopDiscovery(callback) {
+    const self = this
+    if (!Sockets.stopDiscovery) {
+      console.warn('react-native-udp: stopDiscovery() is not implemented')
+      return
+    }
+    Sockets.stopDiscovery(
+      this._id,
+      /**
+       * @param {string | Error | undefined} err
+       */ (err) => {
+        err = normalizeError(err)
+        if (err) {
+          self._debug('failed to stop discovery', err)
+          if (callback) return callback(err)
+          return self.emit('error', err)
+        }
+        self._removeDiscoverySubscriptions()
+        if (callback) callback()
+      }
+    )
+  }
+
+  /**
+   * @private
+   */
+  _removeDiscoverySubscriptions() {
+    this._discoverySubscriptions.forEach((subscription) => subscription.remove())
+    this._discoverySubscriptions = []
+  }
+
+  /**
+   * Returns the traffic counters of this socket: packets and bytes received and sent, receive
+   * and send errors, and datagrams `dropped` because the receive queue was full.
+   *
+   * Sockets compressing their datagrams count bytes as they are on the wire, and report how much
+   * smaller the data got as `sendCompressionRatio` and `receiveCompressionRatio`, along with the
+   * received datagrams dropped because they could not be decompressed (`decompressionErrors`).
+   *
+   * Sockets delivering reliably count acknowledgements and retransmissions as packets sent, and
+   * report the datagrams sent again (`retransmits`) and the smoothed round trip time in
+   * milliseconds to the peer that last acknowledged one (`rtt`).
+   *
+   * Sockets fragmenting their messages count datagrams rather than messages, and report the
+   * messages dropped before they were complete (`messagesDropped`).
+   *
+   * Sockets with a `filter` count the datagrams it dropped as `filtered`, along with the
+   * datagrams received.
+   *
+   * Latencies, in milliseconds, are the time from the receipt of a datagram to its hand-over to
+   * JS. `latencyHistogram[i]` counts the latencies below `2 ** i` ms, the last bucket counting
+   * all the longer ones.
+   *
+   * @returns {SocketStats | undefined}
+   */
+  getStats() {
+    if (!Sockets.getStats) {
+      console.warn('react-native-udp: getStats() is not implemented')
+      return
+    }
+    return Sockets.getStats(this._id) || undefined
+  }
+
+  /**
+   * Returns the state of the queue received datagrams wait in until they are emitted: its
+   * current `size`, its `capacity`, and the number of datagrams `dropped` so far because it was
+   * full. A growing `dropped` count means the app does not keep up with the incoming traffic.
+   *
+   * @returns {ReceiveQueueStats | undefined}
+   */
+  getReceiveQueueStats() {
+    if (!Sockets.getReceiveQueueStats) {
+      console.warn('react-native-udp: getReceiveQueueStats() is not implemented')
+      return
+    }
+    return Sockets.getReceiveQueueStats(this._id) || undefined
+  }
+
+  /**
+   * Returns the state of the lane the native calls and events of this socket go through, one
+   * at a time and in order: the number of calls and events `pending`, the most that were
+   * pending at once (`maxPending`), and the number `completed` so far.
+   *
+   * @returns {LaneStats | undefined}
+   */
+  getLaneStats() {
+    if (!Sockets.getLaneStats) {
+      console.warn('react-native-udp: getLaneStats() is not implemented')
+      return
+    }
+    return Sockets.getLaneStats(this._id) || undefined
+  }
+
+  /**
+   * Returns the `SO_RCVBUF` socket receive buffer size in bytes, as granted by the OS.
+   *
+   * This method throws `ERR_SOCKET_BUFFER_SIZE` if called on an unbound socket.
+   *
+   * @returns {number | undefined}
    */
   getRecvBufferSize() {
-    console.warn('react-native-udp: getRecvBufferSize() is not implemented')
+    if (this._state !== STATE.BOUND) throw new Error('ERR_SOCKET_BUFFER_SIZE')
+    if (!Sockets.getRecvBufferSize) {
+      console.warn('react-native-udp: getRecvBufferSize() is not implemented')
+      return
+    }
+    const size = Sockets.getRecvBufferSize(this._id)
+    if (size == null) throw new Error('ERR_SOCKET_BUFFER_SIZE')
+    return size
   }
 
   /**
-   * NOT IMPLEMENTED
+   * Returns the `SO_SNDBUF` socket send buffer size in bytes, as granted by the OS.
    *
-   * @deprecated
+   * This method throws `ERR_SOCKET_BUFFER_SIZE` if called on an unbound socket.
+   *
+   * @returns {number | undefined}
    */
   getSendBufferSize() {
-    console.warn('react-native-udp: getSendBufferSize() is not implemented')
+    if (this._state !== STATE.BOUND) throw new Error('ERR_SOCKET_BUFFER_SIZE')
+    if (!Sockets.getSendBufferSize) {
+      console.warn('react-native-udp: getSendBufferSize() is not implemented')
+      return
+    }
+    const size = Sockets.getSendBufferSize(this._id)
+    if (size == null) throw new Error('ERR_SOCKET_BUFFER_SIZE')
+    return size
   }
 
   /**
@@ -476,13 +1054,42 @@ export default class UdpSocket extends EventEmitter {
   }
 
   /**
-   * NOT IMPLEMENTED
+   * Returns an object containing the `address`, `family`, and `port` of the remote endpoint.
    *
-   * @deprecated
+   * This method throws `ERR_SOCKET_DGRAM_NOT_CONNECTED` if the socket is not connected.
    */
   remoteAddress() {
-    console.warn('react-native-udp: remoteAddress() is not implemented')
+    if (this._connectState !== CONNECT_STATE.CONNECTED || !this._remote) {
+      throw new Error('ERR_SOCKET_DGRAM_NOT_CONNECTED')
+    }
+    return {
+      address: this._remote.address,
+      port: this._remote.port,
+      family: this.type === 'udp4' ? 'IPv4' : 'IPv6',
+    }
+  }
+}
+
+/**
+ * Installs the native binding through which received data is fetched as ArrayBuffers, once.
+ * Installing it is a synchronous native call, which is only possible when the JS runs on the
+ * device: under remote debugging, sockets fall back to Base64 encoded events.
+ *
+ * @returns {boolean} whether the binding is installed
+ */
+function installBinaryTransport() {
+  if (binaryTransport === undefined) {
+    binaryTransport = false
+    // @ts-ignore
+    if (Sockets.installBinaryTransport && global.nativeCallSyncHook) {
+      try {
+        binaryTransport = !!Sockets.installBinaryTransport()
+      } catch (err) {
+        console.warn('react-native-udp: could not install the binary transport', err)
+      }
+    }
   }
+  return binaryTransport
 }
 
 /**
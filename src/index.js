@@ -2,6 +2,7 @@ import UdpSocket from './UdpSocket'
 
 /**
  * @typedef {import('buffer').Buffer} Buffer
+ * @typedef {import('./UdpSocket').SocketOptions} SocketOptions
  */
 class UdpSockets {
   /**
@@ -13,7 +14,7 @@ class UdpSockets {
    * The bound address and port can be retrieved using `socket.address().address`
    * and `socket.address().port`.
    *
-   * @param {{ type: string; reusePort?: boolean; debug?: boolean; }} options
+   * @param {SocketOptions} options
    * @param {(msg: Buffer) => void} [callback]
    */
   static createSocket(options, callback) {
@@ -1,5 +1,11 @@
 /**
+ * Normalizes the arguments of `bind([port], [address], [callback])` and
+ * `bind([options], [callback])`. Options may also carry the initial `recvBufferSize`
+ * and `sendBufferSize` of the socket, in bytes, and the number of `receiveWorkers`
+ * threads receiving on its port (Android only).
+ *
  * @param {any[]} args
+ * @returns {{ port?: number; address?: string; callback?: (...args: any[]) => void; recvBufferSize?: number; sendBufferSize?: number; receiveWorkers?: number; }}
  */
 export default function normalizeBindOptions(...args) {
   const [arg1, arg2] = args
@@ -0,0 +1,53 @@
+// the groups of each protocol, by socket type
+const GROUPS = {
+  mdns: { udp4: '224.0.0.251', udp6: 'ff02::fb', port: 5353 },
+  ssdp: { udp4: '239.255.255.250', udp6: 'ff02::c', port: 1900 },
+}
+
+/**
+ * Normalizes the options of `startDiscovery()` into the form read by the native module: the
+ * group `address` and `port` default to those of the protocol for the type of the socket, TXT
+ * values become strings, and mDNS hosts get a random name unless given one. Throws if the
+ * protocol is unknown.
+ *
+ * @param {import('./UdpSocket').DiscoveryOptions} options
+ * @param {string} type the type of the socket, `'udp4'` or `'udp6'`
+ * @returns {{ protocol: 'mdns' | 'ssdp'; address: string; port: number; hostName?: string; addresses?: string[]; services: object[]; browse: string[]; }}
+ */
+export default function normalizeDiscoveryOptions(options, type) {
+  const group = GROUPS[options.protocol]
+  if (!group) throw new Error(`invalid discovery protocol: ${options.protocol}`)
+  /** @type {{ protocol: 'mdns' | 'ssdp'; address: string; port: number; hostName?: string; addresses?: string[]; services: object[]; browse: string[]; }} */
+  const normalized = {
+    protocol: options.protocol,
+    address: options.address || (type === 'udp6' ? group.udp6 : group.udp4),
+    port: options.port || group.port,
+    services: [],
+    browse: options.browse || [],
+  }
+  if (options.protocol === 'mdns') {
+    normalized.hostName =
+      options.hostName || `android-${Math.floor(Math.random() * 0x100000000).toString(16)}`
+    if (options.addresses) normalized.addresses = options.addresses
+    normalized.services = (options.services || []).map((service) => {
+      /** @type {{ [key: string]: string | null }} */
+      const txt = {}
+      Object.keys(service.txt || {}).forEach((key) => {
+        const value = /** @type {{ [key: string]: string | number | boolean | null }} */ (service.txt)[key]
+        // boolean attributes are present without a value, or absent
+        if (value === true || value == null) txt[key] = null
+        else if (value !== false) txt[key] = String(value)
+      })
+      return { name: service.name, type: service.type, port: service.port, txt }
+    })
+  } else {
+    normalized.services = (options.services || []).map((service) => ({
+      type: service.type,
+      usn: service.usn,
+      location: service.location,
+      server: service.server,
+      maxAge: service.maxAge,
+    }))
+  }
+  return normalized
+}
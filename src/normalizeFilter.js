@@ -0,0 +1,47 @@
+import { Buffer } from 'buffer'
+
+// events of the socket itself, and of the EventEmitter managing its listeners, which routed
+// datagrams must not be emitted as
+const SOCKET_EVENTS = [
+  'message',
+  'error',
+  'close',
+  'listening',
+  'connect',
+  'serviceUp',
+  'serviceDown',
+  'newListener',
+  'removeListener',
+]
+
+/**
+ * Normalizes the `filter` option of a socket into the form read by the native module: the
+ * `port` of a rule becomes a `minPort`-`maxPort` range, and its `bytes` are Base64 encoded.
+ * Throws if a rule routes without a channel, or to the name of an event of the socket.
+ *
+ * @param {import('./UdpSocket').PacketFilter} filter
+ * @returns {{ rules: { action: string; channel?: string; address?: string; minPort?: number; maxPort?: number; bytes?: string; offset?: number; minLength?: number; maxLength?: number; }[]; defaultAction: 'accept' | 'drop'; }}
+ */
+export default function normalizeFilter(filter) {
+  const rules = (filter.rules || []).map((rule) => {
+    if (rule.action === 'route' && (!rule.channel || SOCKET_EVENTS.includes(rule.channel))) {
+      throw new Error(`invalid filter channel: ${rule.channel}`)
+    }
+    /** @type {{ action: string; channel?: string; address?: string; minPort?: number; maxPort?: number; bytes?: string; offset?: number; minLength?: number; maxLength?: number; }} */
+    const normalized = { action: rule.action }
+    if (rule.action === 'route') normalized.channel = rule.channel
+    if (rule.address != null) normalized.address = rule.address
+    if (rule.port != null) {
+      normalized.minPort = Array.isArray(rule.port) ? rule.port[0] : rule.port
+      normalized.maxPort = Array.isArray(rule.port) ? rule.port[1] : rule.port
+    }
+    if (rule.bytes != null) {
+      normalized.bytes = Buffer.from(rule.bytes).toString('base64')
+      normalized.offset = rule.offset || 0
+    }
+    if (rule.minLength != null) normalized.minLength = rule.minLength
+    if (rule.maxLength != null) normalized.maxLength = rule.maxLength
+    return normalized
+  })
+  return { rules, defaultAction: filter.defaultAction || 'accept' }
+}